@@ -1,28 +1,128 @@
 package com.creativespacefinder.manhattan.config;
 
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.creativespacefinder.manhattan.service.RecommendationRefresher;
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.concurrent.TimeUnit;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// References:
+// https://github.com/ben-manes/caffeine/wiki/Population#asynchronous-manually
+// https://docs.spring.io/spring-framework/docs/current/javadoc-api/org/springframework/cache/caffeine/CaffeineCacheManager.html#registerCustomCache(java.lang.String,com.github.benmanes.caffeine.cache.AsyncCache)
+// https://github.com/ben-manes/caffeine/wiki/Eviction#time-based
+// https://github.com/ben-manes/caffeine/wiki/Refresh
 
 @Configuration
 public class CacheConfig {
 
+    // Degraded answers (ranked from historical scores while the ML service is down) are only kept this long
+    @Value("${ml.circuit-breaker.degraded-ttl-seconds:60}")
+    private long degradedTtlSeconds = 60;
+
+    // Hard expiry, also the most a stale entry is served for while its refreshes keep failing
+    @Value("${cache.recommendations.ttl-hours:24}")
+    private long ttlHours = 24;
+
+    // Older entries are still served but reloaded in the background by RecommendationRefresher
+    @Value("${cache.recommendations.refresh-after-hours:12}")
+    private long refreshAfterHours = 12;
+
+    // All combinations so size is big, past slots have already left
+    private static final long MAX_SIZE = 1000;
+
     @Bean
     public Caffeine<Object, Object> caffeineConfig() {
         return Caffeine.newBuilder()
-                .expireAfterWrite(24, TimeUnit.HOURS)  // 24-hour cache
-                .maximumSize(1000)                     // All combinations so size is big
+                .expireAfter(new RecommendationExpiry(Duration.ofHours(ttlHours), Duration.ofSeconds(degradedTtlSeconds)))  // 24-hour cache, never past the slot
+                .refreshAfterWrite(Duration.ofHours(refreshAfterHours))  // Stale-while-revalidate, needs the loader below
+                .maximumSize(MAX_SIZE)
                 .recordStats();                        // Enable cache statistics for monitoring
     }
 
+    /**
+     * The expiry and refresh settings the recommendations cache was built with, for the health endpoint
+     */
+    public Map<String, Object> getSettings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("maxSize", MAX_SIZE);
+        settings.put("ttlHours", ttlHours);
+        settings.put("degradedTtlSeconds", degradedTtlSeconds);
+        settings.put("refreshAfterHours", refreshAfterHours);
+        settings.put("expiresAtSlotEnd", true);
+        return settings;
+    }
+
+    /**
+     * Time to live from when the entry was written, shorter for degraded recommendations
+     * so the cache goes back to real ML scores soon after the ML service recovers
+     * Either way an entry ends when its hour is over, nobody asks for a slot that has left the forecast window
+     */
+    static final class RecommendationExpiry implements Expiry<Object, Object> {
+        private final long ttlNanos;
+        private final long degradedTtlNanos;
+        private final Clock clock;
+
+        RecommendationExpiry(Duration ttl, Duration degradedTtl) {
+            this(ttl, degradedTtl, Clock.systemDefaultZone());
+        }
+
+        RecommendationExpiry(Duration ttl, Duration degradedTtl, Clock clock) {
+            this.ttlNanos = ttl.toNanos();
+            this.degradedTtlNanos = degradedTtl.toNanos();
+            this.clock = clock;
+        }
+
+        @Override
+        public long expireAfterCreate(Object key, Object value, long currentTime) {
+            long lifetime = value instanceof RecommendationResponse response && response.isDegraded() ? degradedTtlNanos : ttlNanos;
+            if (key instanceof RecommendationKey recommendationKey) {
+                // Request times are local like the rest of the app, so compare against the local clock
+                long untilSlotEnds = Duration.between(LocalDateTime.now(clock), recommendationKey.hour().plusHours(1)).toNanos();
+                lifetime = Math.max(0, Math.min(lifetime, untilSlotEnds));
+            }
+            return lifetime;
+        }
+
+        @Override
+        public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    /**
+     * Recommendations are held as futures so concurrent misses on one key share a single computation
+     * See RecommendationCache for how it is read and filled, the loader is only used for background refreshes
+     */
+    @Bean
+    public AsyncCache<Object, Object> recommendationsAsyncCache(Caffeine<Object, Object> caffeine, RecommendationRefresher refresher) {
+        return caffeine.buildAsync(refresher);
+    }
+
     @Bean
-    public CacheManager cacheManager(Caffeine<Object, Object> caffeine) {
-        CaffeineCacheManager manager = new CaffeineCacheManager("recommendations");
+    public CacheManager cacheManager(Caffeine<Object, Object> caffeine, AsyncCache<Object, Object> recommendationsAsyncCache) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
         manager.setCaffeine(caffeine);
+        manager.setCacheNames(List.of());  // No caches created on the fly, only the ones registered here (refreshAfterWrite needs a loader)
+        // Registered so the admin and health endpoints still see it as the "recommendations" cache
+        manager.registerCustomCache("recommendations", recommendationsAsyncCache);
         return manager;
     }
-}
\ No newline at end of file
+}
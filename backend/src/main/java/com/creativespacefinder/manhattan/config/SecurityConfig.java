@@ -29,6 +29,9 @@ public class SecurityConfig {
                         .requestMatchers("/api/admin/logout").permitAll()
                         .requestMatchers("/api/admin/cache-status").permitAll()
                         .requestMatchers("/api/admin/warm-cache").permitAll()
+                        .requestMatchers("/api/admin/warming-plan").permitAll()
+                        .requestMatchers("/api/admin/warming-progress").permitAll()
+                        .requestMatchers("/api/admin/warming/**").permitAll()
                         .requestMatchers("/api/admin/**").authenticated()
                         .anyRequest().permitAll()
                 )
@@ -17,6 +17,7 @@ public class WebConfig {
                         .allowedOriginPatterns("*")
                         .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                         .allowedHeaders("*")
+                        .exposedHeaders("ETag")  // So the frontend can send it back as If-None-Match
                         .allowCredentials(true);
             }
         };
@@ -1,6 +1,11 @@
 package com.creativespacefinder.manhattan.controller;
 
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.service.CacheWarmingEngine;
 import com.creativespacefinder.manhattan.service.DailyPrecomputationService;
+import com.creativespacefinder.manhattan.service.RecommendationDiskStore;
+import com.creativespacefinder.manhattan.service.SharedRecommendationStore;
+import com.creativespacefinder.manhattan.service.WarmingPlanner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
@@ -26,6 +31,18 @@ public class AdminController {
     @Autowired
     private CacheManager cacheManager;
 
+    @Autowired
+    private RecommendationDiskStore recommendationDiskStore;
+
+    @Autowired
+    private SharedRecommendationStore sharedRecommendationStore;
+
+    @Autowired
+    private WarmingPlanner warmingPlanner;
+
+    @Autowired
+    private CacheWarmingEngine cacheWarmingEngine;
+
     private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
 
     // Admin credentials from .env or GKE secrets
@@ -141,6 +158,11 @@ public class AdminController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Authentication required");
         }
 
+        if (cacheWarmingEngine.isRunning()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("A cache warming run is already in progress, see /api/admin/warming-progress");
+        }
+
         try {
             System.out.println("Starting ASYNC cache warming process...");
 
@@ -148,9 +170,9 @@ public class AdminController {
             dailyPrecomputationService.triggerAsyncDailyPrecomputation();
 
             String responseMessage = "Cache warming started successfully in background!\n\n" +
-                    "Process Duration: ~10-15 minutes\n" +
+                    "Carries on from the last checkpoint if a run was interrupted\n" +
                     "Runs in background - you can continue using the app\n" +
-                    "Cache will be populated automatically when complete";
+                    "Follow it at /api/admin/warming-progress, pause, resume or cancel it under /api/admin/warming/";
 
             System.out.println("Async cache warming initiated - returning immediate response");
             return ResponseEntity.ok(responseMessage);
@@ -177,7 +199,76 @@ public class AdminController {
         }
 
         System.out.println("Cache status request authenticated");
-        return ResponseEntity.ok("Daily cache warming runs at 3 AM every day. Check logs for details.");
+        CacheWarmingEngine.Progress progress = cacheWarmingEngine.getProgress();
+        if (progress == null || progress.state() == CacheWarmingEngine.State.IDLE) {
+            return ResponseEntity.ok("Daily cache warming runs at 3 AM every day. No run since startup.");
+        }
+        return ResponseEntity.ok("Daily cache warming runs at 3 AM every day. Last run " + progress.state() + ": "
+                + progress.done() + " of " + progress.planned() + " slots done, " + progress.failed() + " failed, "
+                + progress.remaining() + " remaining"
+                + (progress.etaSeconds() != null ? ", about " + progress.etaSeconds() + " s to go" : "") + ".");
+    }
+
+    /**
+     * Counters, throughput and ETA of the current warming run, or the last one
+     * Requires authentication
+     */
+    @GetMapping("/warming-progress")
+    public ResponseEntity<?> getWarmingProgress(HttpSession session) {
+        if (!isAuthenticated(session)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        return ResponseEntity.ok(cacheWarmingEngine.getProgress());
+    }
+
+    /**
+     * Pause, resume or cancel the warming run in progress, 409 when there is none or it is already in that state
+     * A cancelled run keeps what it warmed and drops its checkpoint, so the next trigger plans afresh
+     * Requires authentication
+     */
+    @PostMapping("/warming/{action}")
+    public ResponseEntity<?> controlWarming(@PathVariable String action, HttpSession session) {
+        if (!isAuthenticated(session)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+
+        boolean applied;
+        switch (action) {
+            case "pause" -> applied = cacheWarmingEngine.pause();
+            case "resume" -> applied = cacheWarmingEngine.resume();
+            case "cancel" -> applied = cacheWarmingEngine.cancel();
+            default -> {
+                return ResponseEntity.badRequest().body(Map.of("error", "Unknown action: " + action));
+            }
+        }
+        System.out.println("Cache warming " + action + " requested, applied: " + applied);
+        if (!applied) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "No warming run to " + action, "progress", cacheWarmingEngine.getProgress()));
+        }
+        return ResponseEntity.ok(cacheWarmingEngine.getProgress());
+    }
+
+    /**
+     * The plan the next warming run would follow, built now from request analytics
+     * Requires authentication
+     */
+    @GetMapping("/warming-plan")
+    public ResponseEntity<?> getWarmingPlan(HttpSession session) {
+        System.out.println("Warming plan request received");
+
+        // Check authentication
+        if (!isAuthenticated(session)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+
+        try {
+            WarmingPlan plan = warmingPlanner.plan();
+            return ResponseEntity.ok(plan);
+        } catch (Exception e) {
+            System.err.println("Error building warming plan: " + e.getMessage());
+            return ResponseEntity.status(500).body(Map.of("error", "Error building warming plan: " + e.getMessage()));
+        }
     }
 
     /**
@@ -257,6 +348,9 @@ public class AdminController {
             var cache = cacheManager.getCache("recommendations");
             if (cache != null) {
                 cache.clear();
+                // Otherwise the next miss would be served straight back from disk or the shared table
+                recommendationDiskStore.clear();
+                sharedRecommendationStore.clear();
                 System.out.println("✅ Cache cleared successfully");
                 return ResponseEntity.ok("Cache cleared successfully. Next requests will be cache misses.");
             } else {
@@ -1,59 +1,57 @@
 package com.creativespacefinder.manhattan.controller;
 
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
 import com.creativespacefinder.manhattan.dto.RecommendationRequest;
 import com.creativespacefinder.manhattan.dto.RecommendationResponse;
-import com.creativespacefinder.manhattan.entity.Activity;
-import com.creativespacefinder.manhattan.service.LocationRecommendationService;
 import com.creativespacefinder.manhattan.service.AnalyticsService;
+import com.creativespacefinder.manhattan.service.RecommendationCache;
+import com.creativespacefinder.manhattan.service.RecommendationEncoder;
+import com.creativespacefinder.manhattan.service.ReferenceDataService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
 
 @RestController
 @RequestMapping("/api/recommendations")
 public class RecommendationController {
 
     @Autowired
-    private LocationRecommendationService locationRecommendationService;
+    private AnalyticsService analyticsService;
 
     @Autowired
-    private AnalyticsService analyticsService;
+    private RecommendationCache recommendationCache;
+
+    @Autowired
+    private RecommendationEncoder recommendationEncoder;
 
     @Autowired
-    private CacheManager cacheManager;
+    private ReferenceDataService referenceDataService;
 
+    /**
+     * Writes the cached entry's pre-encoded bytes as they are, gzip when the client takes it
+     * A client that sends back the ETag it last got for the same recommendations gets a 304 with no body
+     */
     @PostMapping
-    public ResponseEntity<RecommendationResponse> getRecommendations(
-            @Valid @RequestBody RecommendationRequest request) {
+    public ResponseEntity<byte[]> getRecommendations(
+            @Valid @RequestBody RecommendationRequest request,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
         long startTime = System.currentTimeMillis();
 
-        // Generate the same cache key that the @Cacheable annotation uses
-        String cacheKey = request.getActivity() + "_" + request.getDateTime().toString() + "_" +
-                (request.getSelectedZone() != null ? request.getSelectedZone() : "all");
-
-        // Check if cache contains this key before calling the service
-        boolean cacheHit = false;
-        var cache = cacheManager.getCache("recommendations");
-        if (cache != null) {
-            var cachedValue = cache.get(cacheKey);
-            cacheHit = (cachedValue != null);
-        }
+        // The cache tells us whether this caller was served from the cache, waited on someone else's
+        // in-flight computation, or ran the pipeline itself
+        RecommendationCache.Lookup lookup = recommendationCache.get(request);
+        RecommendationResponse response = lookup.response();
+        boolean cacheHit = lookup.servedFromCache();
 
         // Log cache hit/miss for debugging
-        if (cacheHit) {
-            System.out.println("CACHE HIT for: " + request.getActivity() + " at " + request.getDateTime());
-        } else {
-            System.out.println("CACHE MISS for: " + request.getActivity() + " at " + request.getDateTime());
-        }
-
-        // Call the service (will use cache if available)
-        RecommendationResponse response = locationRecommendationService
-                .getLocationRecommendations(request);
+        System.out.println("CACHE " + lookup.outcome() + " for: " + request.getActivity() + " at " + request.getDateTime() + " (key " + RecommendationKey.of(request) + ")");
 
         // Calculate response time
         long responseTime = System.currentTimeMillis() - startTime;
@@ -71,18 +69,37 @@ public class RecommendationController {
             // Don't fail the request if analytics fail
         }
 
-        return ResponseEntity.ok(response);
+        RecommendationEncoder.Encoded encoded = recommendationEncoder.encode(response);
+        boolean gzip = encoded.gzip() != null && RecommendationEncoder.acceptsGzip(acceptEncoding);
+        String etag = gzip ? encoded.gzipEtag() : encoded.etag();
+
+        if (encoded.matches(ifNoneMatch)) {
+            recommendationEncoder.countNotModified();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            // Tomcat and nginx leave a body alone once it has a Content-Encoding
+            return ok.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(encoded.gzip());
+        }
+        return ok.body(encoded.json());
     }
 
-    @GetMapping("/activities")
-    public ResponseEntity<List<Activity>> getAllActivities() {
-        List<Activity> activities = locationRecommendationService.getAllActivities();
-        return ResponseEntity.ok(activities);
+    // Activities and zones come from the reference data snapshot, repeat requests get a 304
+    @GetMapping(value = "/activities", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getAllActivities() {
+        return ReferenceDataResponses.of(referenceDataService, ReferenceDataService.Resource.ACTIVITIES);
     }
 
-    @GetMapping("/zones")
-    public ResponseEntity<List<String>> getAvailableZones() {
-        List<String> zones = locationRecommendationService.getAvailableZones();
-        return ResponseEntity.ok(zones);
+    @GetMapping(value = "/zones", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getAvailableZones() {
+        return ReferenceDataResponses.of(referenceDataService, ReferenceDataService.Resource.ZONES);
     }
 }
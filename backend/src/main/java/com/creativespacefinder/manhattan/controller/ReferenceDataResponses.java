@@ -0,0 +1,28 @@
+package com.creativespacefinder.manhattan.controller;
+
+import com.creativespacefinder.manhattan.service.ReferenceDataService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 200 responses for reference data snapshots, with the headers conditional GETs are checked against
+ * Spring answers a matching If-None-Match or If-Modified-Since with a 304 before the body is written
+ */
+final class ReferenceDataResponses {
+
+    private ReferenceDataResponses() {
+    }
+
+    static ResponseEntity<byte[]> of(ReferenceDataService referenceDataService, ReferenceDataService.Resource resource) {
+        ReferenceDataService.Snapshot snapshot = referenceDataService.get(resource);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(snapshot.etag())
+                .lastModified(snapshot.lastModifiedMillis())
+                .cacheControl(CacheControl.maxAge(referenceDataService.getMaxAgeSeconds(), TimeUnit.SECONDS).cachePublic())
+                .body(snapshot.json());
+    }
+}
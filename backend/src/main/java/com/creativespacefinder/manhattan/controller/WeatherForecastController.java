@@ -1,43 +1,45 @@
 package com.creativespacefinder.manhattan.controller;
 
-import com.creativespacefinder.manhattan.dto.ForecastResponse;
 import com.creativespacefinder.manhattan.dto.WeatherData;
+import com.creativespacefinder.manhattan.service.ReferenceDataService;
 import com.creativespacefinder.manhattan.service.WeatherForecastService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 @RestController
 @RequestMapping("/api/forecast")
 public class WeatherForecastController {
 
     private final WeatherForecastService weatherForecastService;
+    private final ReferenceDataService referenceDataService;
 
     @Autowired
-    public WeatherForecastController(WeatherForecastService weatherForecastService) {
+    public WeatherForecastController(WeatherForecastService weatherForecastService,
+                                     ReferenceDataService referenceDataService) {
         this.weatherForecastService = weatherForecastService;
+        this.referenceDataService = referenceDataService;
     }
 
     /**
-     * Returns the full 96-hour forecast (raw weather data)
+     * Returns the full 96-hour forecast (raw weather data), from the reference data snapshot
      * GET /api/forecast
      */
-    @GetMapping
-    public ForecastResponse getForecast() {
-        return weatherForecastService.get96HourForecast();
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getForecast() {
+        return ReferenceDataResponses.of(referenceDataService, ReferenceDataService.Resource.FORECAST);
     }
 
     /**
-     * Returns the list of available forecast datetimes
+     * Returns the list of available forecast datetimes, from the reference data snapshot
      * GET /api/forecast/available-datetimes
      */
-    @GetMapping("/available-datetimes")
-    public ResponseEntity<List<LocalDateTime>> getAvailableForecastDateTimes() {
-        List<LocalDateTime> forecastTimes = weatherForecastService.getAvailableForecastDateTimes();
-        return ResponseEntity.ok(forecastTimes);
+    @GetMapping(value = "/available-datetimes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getAvailableForecastDateTimes() {
+        return ReferenceDataResponses.of(referenceDataService, ReferenceDataService.Resource.FORECAST_DATETIMES);
     }
 
     /**
@@ -0,0 +1,44 @@
+package com.creativespacefinder.manhattan.dto;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/lang/Record.html
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/time/LocalDateTime.html#truncatedTo(java.time.temporal.TemporalUnit)
+
+/**
+ * Cache key for a recommendation request, cut down to what can change the result
+ * The model only takes hour, month and day, so every request within the same hour gets the same recommendations
+ * Activity names are matched ignoring case and zones ignoring case, spacing and separators, so those variants share a key too
+ */
+public record RecommendationKey(String activity, LocalDateTime hour, String zone) {
+
+    public static final String ALL_MANHATTAN = "all";
+
+    public static RecommendationKey of(RecommendationRequest request) {
+        String zone = canonicalZone(request.getSelectedZone());
+        return new RecommendationKey(
+                request.getActivity().trim().toLowerCase(Locale.ROOT),
+                request.getDateTime().truncatedTo(ChronoUnit.HOURS),
+                zone != null ? zone : ALL_MANHATTAN
+        );
+    }
+
+    /**
+     * Zone as the MANHATTAN_ZONES keys spell it, lower case with single spaces, or null for all of Manhattan
+     * "Upper-West-Side", "upper_west_side" and " Upper West  Side " all give "upper west side"
+     */
+    public static String canonicalZone(String selectedZone) {
+        if (selectedZone == null) return null;
+        String zone = selectedZone.replaceAll("[\\s_-]+", " ").trim().toLowerCase(Locale.ROOT);
+        return zone.isEmpty() ? null : zone;
+    }
+
+    // Readable in the admin cache debug endpoint, same shape as the old SpEL key
+    @Override
+    public String toString() {
+        return activity + "_" + hour + "_" + zone;
+    }
+}
@@ -21,6 +21,10 @@ public class RecommendationResponse {
     @JsonProperty("totalResults")
     private int totalResults;
 
+    // True when the ML service was skipped and locations were ranked from historical scores only
+    @JsonProperty("degraded")
+    private boolean degraded;
+
     // Constructors
     public RecommendationResponse() {}
 
@@ -48,4 +52,7 @@ public class RecommendationResponse {
 
     public int getTotalResults() { return totalResults; }
     public void setTotalResults(int totalResults) { this.totalResults = totalResults; }
+
+    public boolean isDegraded() { return degraded; }
+    public void setDegraded(boolean degraded) { this.degraded = degraded; }
 }
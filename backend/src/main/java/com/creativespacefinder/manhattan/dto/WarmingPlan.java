@@ -0,0 +1,28 @@
+package com.creativespacefinder.manhattan.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * What the daily job warms and why, as built by WarmingPlanner and shown by the admin warming-plan endpoint
+ * predictedCoverage is the share of recency-weighted observed demand in the horizon that the planned entries cover
+ */
+public record WarmingPlan(LocalDateTime generatedAt,
+                          int budget,
+                          int candidates,
+                          double observedDemand,
+                          double predictedCoverage,
+                          List<Entry> entries) {
+
+    /**
+     * One slot to warm, demand is the decayed request count seen for its activity, hour and day of week
+     * and score adds the default afternoon weight on top, which is all a slot nobody has asked for yet gets
+     */
+    public record Entry(String activity, LocalDateTime dateTime, String zone, double demand, double score) {
+
+        public RecommendationRequest toRequest() {
+            return new RecommendationRequest(activity, dateTime,
+                    RecommendationKey.ALL_MANHATTAN.equals(zone) ? null : zone);
+        }
+    }
+}
@@ -14,7 +14,7 @@ import java.util.List;
 import java.util.UUID;
 
 @Repository
-public interface LocationActivityScoreRepository extends JpaRepository<LocationActivityScore, UUID> {
+public interface LocationActivityScoreRepository extends JpaRepository<LocationActivityScore, UUID>, LocationActivityScoreRepositoryCustom {
     // ——————————————————————————————————————————
     // Improved performance, two-step query to avoid DISTINCT + FETCH issues
     // ——————————————————————————————————————————
@@ -54,6 +54,37 @@ public interface LocationActivityScoreRepository extends JpaRepository<LocationA
     List<LocationActivityScore> findDistinctLocationsByActivityName(@Param("activityName") String activityName, Pageable pageable);
 
 
+    // ——————————————————————————————————————————
+    // Candidate index load: every activity's best row per location in one round trip
+    // Window functions instead of DISTINCT ON so it also runs on H2
+    // Columns: id, activity name, location id, location name, lat, lon, zone name, historical activity score, historical crowd score
+    // ——————————————————————————————————————————
+    @Query(value = """
+        SELECT ranked.id, ranked.activity_name, ranked.location_id, ranked.location_name,
+               ranked.latitude, ranked.longitude, ranked.zone_name,
+               ranked.historical_activity_score, ranked.historical_taxi_zone_crowd_score
+        FROM (
+            SELECT per_location.*,
+                   ROW_NUMBER() OVER (PARTITION BY per_location.activity_id
+                                      ORDER BY per_location.historical_activity_score DESC NULLS LAST, per_location.id) AS activity_rank
+            FROM (
+                SELECT las.id, las.activity_id, a.name AS activity_name, l.id AS location_id, l.location_name,
+                       l.latitude, l.longitude, tz.zone_name,
+                       las.historical_activity_score, las.historical_taxi_zone_crowd_score,
+                       ROW_NUMBER() OVER (PARTITION BY las.activity_id, las.location_id
+                                          ORDER BY las.historical_activity_score DESC NULLS LAST, las.id) AS location_rank
+                FROM location_activity_scores las
+                JOIN activities a ON las.activity_id = a.id
+                JOIN event_locations l ON las.location_id = l.id
+                JOIN taxi_zones tz ON las.taxi_zone_id = tz.id
+            ) per_location
+            WHERE per_location.location_rank = 1
+        ) ranked
+        WHERE ranked.activity_rank <= :limit
+        ORDER BY ranked.activity_name, ranked.activity_rank
+        """, nativeQuery = true)
+    List<Object[]> findCandidateRowsForAllActivities(@Param("limit") int limit);
+
     @Query("""
         SELECT DISTINCT l.eventDate
           FROM LocationActivityScore l
@@ -0,0 +1,20 @@
+package com.creativespacefinder.manhattan.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hand written persistence for LocationActivityScore that Spring Data cannot derive
+ */
+public interface LocationActivityScoreRepositoryCustom {
+
+    /**
+     * Write fresh ML scores back onto existing rows by id, without loading the entities first
+     * Returns the number of rows updated
+     */
+    int updateMlScores(List<MlScoreUpdate> updates);
+
+    record MlScoreUpdate(UUID id, BigDecimal culturalActivityScore, BigDecimal crowdScore,
+                         BigDecimal museScore, Integer estimatedCrowdNumber) {}
+}
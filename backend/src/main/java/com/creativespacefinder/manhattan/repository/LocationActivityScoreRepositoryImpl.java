@@ -0,0 +1,65 @@
+package com.creativespacefinder.manhattan.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// References:
+// https://docs.spring.io/spring-data/jpa/reference/repositories/custom-implementations.html
+// https://docs.spring.io/spring-framework/reference/data-access/jdbc/advanced.html#jdbc-batch-multi
+
+/**
+ * JDBC batch update for ML scores, picked up by Spring Data through the Impl suffix
+ */
+public class LocationActivityScoreRepositoryImpl implements LocationActivityScoreRepositoryCustom {
+
+    // Matches hibernate.jdbc.batch_size in application.yaml
+    private static final int BATCH_SIZE = 25;
+
+    private static final String UPDATE_ML_SCORES_SQL = """
+        UPDATE location_activity_scores
+           SET cultural_activity_score = ?, crowd_score = ?, muse_score = ?, estimated_crowd_number = ?,
+               ml_prediction_date = ?, updated_at = ?
+         WHERE id = ?
+        """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public int updateMlScores(List<MlScoreUpdate> updates) {
+        if (updates == null || updates.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(UPDATE_ML_SCORES_SQL, updates, BATCH_SIZE, (ps, u) -> {
+            ps.setBigDecimal(1, u.culturalActivityScore());
+            ps.setBigDecimal(2, u.crowdScore());
+            ps.setBigDecimal(3, u.museScore());
+            if (u.estimatedCrowdNumber() != null) {
+                ps.setInt(4, u.estimatedCrowdNumber());
+            } else {
+                ps.setNull(4, Types.INTEGER);
+            }
+            ps.setTimestamp(5, now);
+            ps.setTimestamp(6, now);
+            ps.setObject(7, u.id());
+        });
+
+        int updated = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // Some drivers report SUCCESS_NO_INFO (-2) instead of a row count
+                updated += count >= 0 ? count : 1;
+            }
+        }
+        return updated;
+    }
+}
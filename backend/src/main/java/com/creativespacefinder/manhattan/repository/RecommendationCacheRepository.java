@@ -0,0 +1,99 @@
+package com.creativespacefinder.manhattan.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// References:
+// https://www.postgresql.org/docs/current/sql-createtable.html#SQL-CREATETABLE-UNLOGGED
+// https://www.postgresql.org/docs/current/sql-insert.html#SQL-ON-CONFLICT
+// https://www.h2database.com/html/commands.html#merge_into
+
+/**
+ * JDBC access to the recommendation_cache table shared by every backend replica
+ * Not a JPA entity, the table is created here on first use so ddl-auto: validate never sees it
+ * On Postgres it is UNLOGGED: no WAL writes, and a crash empties it, which for a cache only means a cold start
+ * H2 gets a plain table and MERGE instead of ON CONFLICT, so the same code runs in tests
+ */
+@Repository
+public class RecommendationCacheRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile boolean postgres;
+
+    public record CachedRecommendation(String cacheKey, String responseJson, long expiresAtMillis) {}
+
+    /**
+     * Create the table and its expiry index if they are missing, returns the database product name
+     */
+    public String createTableIfMissing() {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        postgres = "PostgreSQL".equalsIgnoreCase(product);
+        jdbcTemplate.execute((postgres ? "CREATE UNLOGGED TABLE" : "CREATE TABLE") + " IF NOT EXISTS recommendation_cache ("
+                + "cache_key VARCHAR(255) PRIMARY KEY, response TEXT NOT NULL, expires_at BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS recommendation_cache_expires_at_idx ON recommendation_cache (expires_at)");
+        return product;
+    }
+
+    public boolean isUnlogged() {
+        return postgres;
+    }
+
+    /**
+     * Unexpired rows for the keys, in one query, keyed by cache_key
+     */
+    public Map<String, CachedRecommendation> findLive(Collection<String> keys, long nowMillis) {
+        if (keys.isEmpty()) return Collections.emptyMap();
+        String placeholders = String.join(", ", Collections.nCopies(keys.size(), "?"));
+        Object[] args = new Object[keys.size() + 1];
+        int i = 0;
+        for (String key : keys) args[i++] = key;
+        args[i] = nowMillis;
+
+        Map<String, CachedRecommendation> found = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT cache_key, response, expires_at FROM recommendation_cache WHERE cache_key IN (" + placeholders + ") AND expires_at > ?",
+                rs -> {
+                    CachedRecommendation row = new CachedRecommendation(rs.getString(1), rs.getString(2), rs.getLong(3));
+                    found.put(row.cacheKey(), row);
+                },
+                args);
+        return found;
+    }
+
+    /**
+     * Insert or overwrite the rows as one JDBC batch
+     * SharedRecommendationStore already hands them over in lists of cache.recommendations.shared.write-batch-size
+     */
+    public void upsertAll(List<CachedRecommendation> rows) {
+        if (rows.isEmpty()) return;
+        String sql = postgres
+                ? """
+                  INSERT INTO recommendation_cache (cache_key, response, expires_at) VALUES (?, ?, ?)
+                  ON CONFLICT (cache_key) DO UPDATE SET response = EXCLUDED.response, expires_at = EXCLUDED.expires_at
+                  """
+                : "MERGE INTO recommendation_cache (cache_key, response, expires_at) KEY (cache_key) VALUES (?, ?, ?)";
+        jdbcTemplate.batchUpdate(sql, rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.cacheKey());
+            ps.setString(2, row.responseJson());
+            ps.setLong(3, row.expiresAtMillis());
+        });
+    }
+
+    public int deleteExpired(long nowMillis) {
+        return jdbcTemplate.update("DELETE FROM recommendation_cache WHERE expires_at <= ?", nowMillis);
+    }
+
+    public int deleteAll() {
+        return jdbcTemplate.update("DELETE FROM recommendation_cache");
+    }
+}
@@ -0,0 +1,58 @@
+package com.creativespacefinder.manhattan.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+// References:
+// https://www.postgresql.org/docs/current/sql-insert.html#SQL-ON-CONFLICT
+// https://www.h2database.com/html/commands.html#merge_into
+
+/**
+ * JDBC access to the warming_checkpoint table, where a cache warming run records what it still has to do
+ * Created on first use like recommendation_cache, so ddl-auto: validate never sees it
+ * A logged table on purpose, the point of a checkpoint is to outlive a crash or restart
+ */
+@Repository
+public class WarmingCheckpointRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile boolean postgres;
+
+    public record CheckpointRow(String id, String state, String payload, long updatedAtMillis) {}
+
+    public void createTableIfMissing() {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        postgres = "PostgreSQL".equalsIgnoreCase(product);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS warming_checkpoint ("
+                + "id VARCHAR(64) PRIMARY KEY, state VARCHAR(32) NOT NULL, payload TEXT NOT NULL, updated_at BIGINT NOT NULL)");
+    }
+
+    public void save(CheckpointRow row) {
+        String sql = postgres
+                ? """
+                  INSERT INTO warming_checkpoint (id, state, payload, updated_at) VALUES (?, ?, ?, ?)
+                  ON CONFLICT (id) DO UPDATE SET state = EXCLUDED.state, payload = EXCLUDED.payload, updated_at = EXCLUDED.updated_at
+                  """
+                : "MERGE INTO warming_checkpoint (id, state, payload, updated_at) KEY (id) VALUES (?, ?, ?, ?)";
+        jdbcTemplate.update(sql, row.id(), row.state(), row.payload(), row.updatedAtMillis());
+    }
+
+    public Optional<CheckpointRow> find(String id) {
+        List<CheckpointRow> rows = jdbcTemplate.query(
+                "SELECT id, state, payload, updated_at FROM warming_checkpoint WHERE id = ?",
+                (rs, i) -> new CheckpointRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4)),
+                id);
+        return rows.stream().findFirst();
+    }
+
+    public int delete(String id) {
+        return jdbcTemplate.update("DELETE FROM warming_checkpoint WHERE id = ?", id);
+    }
+}
@@ -0,0 +1,349 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.entity.Activity;
+import com.creativespacefinder.manhattan.repository.ActivityRepository;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
+import com.creativespacefinder.manhattan.utils.TaxiZoneCatalogue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/atomic/AtomicReference.html
+// https://docs.spring.io/spring-framework/reference/integration/scheduling.html#scheduling-annotation-support-scheduled
+// https://www.postgresql.org/docs/current/tutorial-window.html
+
+/**
+ * In-memory index of every activity's candidate locations
+ * The recommendation path reads from here instead of running the two candidate queries on every cache miss
+ * Each refresh builds a brand new immutable snapshot and swaps it in, so readers never see a half built index
+ */
+@Service
+public class ActivityCandidateIndex {
+
+    @Autowired
+    private LocationActivityScoreRepository locationActivityScoreRepository;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    // Candidates handed to one request, the borough wide pool or a single zone's pool
+    // Same cap the old findDistinctLocationIdsByActivityName call used
+    @Value("${candidate-index.per-activity-limit:500}")
+    private int perActivityLimit = 500;
+
+    // How many locations per activity get loaded, deeper than the pool size so small zones still fill their pool
+    @Value("${candidate-index.load-depth:5000}")
+    private int loadDepth = 5000;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final Object refreshLock = new Object();
+
+    /**
+     * Load the index as soon as the app is up so the first user does not pay for it
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        refreshQuietly();
+    }
+
+    /**
+     * Periodic refresh, picks up new locations or re-scored historical data
+     */
+    @Scheduled(fixedDelayString = "${candidate-index.refresh-interval-ms:900000}",
+            initialDelayString = "${candidate-index.refresh-interval-ms:900000}")
+    public void scheduledRefresh() {
+        refreshQuietly();
+    }
+
+    /**
+     * Get the candidates for an activity, the snapshot is loaded on demand if the startup load failed
+     */
+    public Candidates candidatesFor(String activityName) {
+        Candidates candidates = snapshot().candidatesFor(activityName);
+        if (candidates == null) {
+            throw new RuntimeException("Activity not found: " + activityName);
+        }
+        return candidates;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = current.get();
+        if (snapshot == null) {
+            synchronized (refreshLock) {
+                snapshot = current.get();
+                if (snapshot == null) {
+                    snapshot = refresh();
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rebuild the whole index with one query and swap it in atomically
+     */
+    public Snapshot refresh() {
+        synchronized (refreshLock) {
+            long startTime = System.currentTimeMillis();
+
+            List<String> activityNames = activityRepository.findAll().stream()
+                    .map(Activity::getName)
+                    .toList();
+            List<Object[]> rows = locationActivityScoreRepository.findCandidateRowsForAllActivities(Math.max(loadDepth, perActivityLimit));
+
+            Snapshot snapshot = Snapshot.fromRows(activityNames, rows, perActivityLimit);
+            current.set(snapshot);
+
+            System.out.println("Candidate index refreshed in " + (System.currentTimeMillis() - startTime) + "ms: "
+                    + snapshot.activityCount() + " activities, " + snapshot.totalCandidates() + " candidates");
+            return snapshot;
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // Keep serving the previous snapshot, the next refresh or request will try again
+            System.err.println("Candidate index refresh failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Immutable view of all activities' candidates at one point in time
+     */
+    public static final class Snapshot {
+        private final Map<String, Candidates> byActivity;
+        private final Map<String, Candidates> byActivityLowerCase;
+        private final LocalDateTime loadedAt;
+        private final int totalCandidates;
+
+        Snapshot(Map<String, Candidates> byActivity, LocalDateTime loadedAt) {
+            this.byActivity = Map.copyOf(byActivity);
+            Map<String, Candidates> lowerCase = new HashMap<>();
+            byActivity.forEach((name, candidates) -> lowerCase.putIfAbsent(name.toLowerCase(Locale.ROOT), candidates));
+            this.byActivityLowerCase = Map.copyOf(lowerCase);
+            this.loadedAt = loadedAt;
+            this.totalCandidates = byActivity.values().stream().mapToInt(Candidates::size).sum();
+        }
+
+        /**
+         * Rows are expected in the order of findCandidateRowsForAllActivities, grouped by activity and best first
+         */
+        static Snapshot fromRows(List<String> activityNames, List<Object[]> rows, int poolLimit) {
+            Map<String, Candidates.Builder> builders = new LinkedHashMap<>();
+            for (String name : activityNames) {
+                builders.put(name, Candidates.builder(name));
+            }
+
+            for (Object[] row : rows) {
+                String activityName = (String) row[1];
+                builders.computeIfAbsent(activityName, Candidates::builder).add(
+                        toUuid(row[0]),
+                        toUuid(row[2]),
+                        (String) row[3],
+                        toDouble(row[4]),
+                        toDouble(row[5]),
+                        (String) row[6],
+                        toDouble(row[7]),
+                        toDouble(row[8])
+                );
+            }
+
+            Map<String, Candidates> byActivity = new HashMap<>();
+            builders.forEach((name, builder) -> byActivity.put(name, builder.build(poolLimit)));
+            return new Snapshot(byActivity, LocalDateTime.now());
+        }
+
+        // Exact name first, then ignoring case like RecommendationKey does
+        public Candidates candidatesFor(String activityName) {
+            if (activityName == null) return null;
+            Candidates candidates = byActivity.get(activityName);
+            return candidates != null ? candidates : byActivityLowerCase.get(activityName.trim().toLowerCase(Locale.ROOT));
+        }
+
+        public Set<String> activityNames() { return byActivity.keySet(); }
+        public int activityCount() { return byActivity.size(); }
+        public int totalCandidates() { return totalCandidates; }
+        public LocalDateTime getLoadedAt() { return loadedAt; }
+    }
+
+    /**
+     * One activity's candidate locations stored column by column in primitive arrays
+     * Position i in every array is the same location, best historical score first
+     */
+    public static final class Candidates {
+        private final String activityName;
+        private final UUID[] scoreIds;
+        private final UUID[] locationIds;
+        private final String[] locationNames;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final int[] zoneOrdinals;
+        private final double[] historicalActivityScores;
+        private final double[] historicalCrowdScores;
+        private final int[] boroughPool;
+        private final Map<String, int[]> areaPools;
+
+        private Candidates(Builder b, int poolLimit) {
+            int n = b.scoreIds.size();
+            this.activityName = b.activityName;
+            this.scoreIds = b.scoreIds.toArray(new UUID[0]);
+            this.locationIds = b.locationIds.toArray(new UUID[0]);
+            this.locationNames = b.locationNames.toArray(new String[0]);
+            this.latitudes = Arrays.copyOf(b.latitudes, n);
+            this.longitudes = Arrays.copyOf(b.longitudes, n);
+            this.zoneOrdinals = Arrays.copyOf(b.zoneOrdinals, n);
+            this.historicalActivityScores = Arrays.copyOf(b.historicalActivityScores, n);
+            this.historicalCrowdScores = Arrays.copyOf(b.historicalCrowdScores, n);
+
+            // Positions are already best first, so each pool is just the first poolLimit matching positions
+            this.boroughPool = new int[Math.min(n, poolLimit)];
+            for (int i = 0; i < boroughPool.length; i++) {
+                boroughPool[i] = i;
+            }
+
+            TaxiZoneCatalogue catalogue = LocationRecommendationService.ZONE_CATALOGUE;
+            Map<String, int[]> pools = new HashMap<>();
+            for (String area : catalogue.areaNames()) {
+                BitSet members = catalogue.membersOf(area);
+                int[] pool = new int[Math.min(n, poolLimit)];
+                int count = 0;
+                for (int i = 0; i < n && count < pool.length; i++) {
+                    if (catalogue.isMember(members, zoneOrdinals[i])) {
+                        pool[count++] = i;
+                    }
+                }
+                pools.put(area, Arrays.copyOf(pool, count));
+            }
+            this.areaPools = pools;
+        }
+
+        public static Builder builder(String activityName) {
+            return new Builder(activityName);
+        }
+
+        public String getActivityName() { return activityName; }
+        public int size() { return scoreIds.length; }
+
+        /**
+         * Candidate positions for a request, best historical score first
+         * No zone gives the borough wide pool, a zone gives up to the same number of locations from inside that zone
+         * Zone spelling is matched like RecommendationKey does, an unknown zone gives an empty pool
+         */
+        public int[] pool(String selectedZone) {
+            String zone = RecommendationKey.canonicalZone(selectedZone);
+            if (zone == null) {
+                return boroughPool.clone();
+            }
+            int[] pool = areaPools.get(zone);
+            return pool == null ? new int[0] : pool.clone();
+        }
+
+        /**
+         * Every position some request can be handed, the borough pool plus every area pool, in position order
+         */
+        public int[] servablePositions() {
+            BitSet servable = new BitSet(size());
+            for (int idx : boroughPool) servable.set(idx);
+            for (int[] pool : areaPools.values()) {
+                for (int idx : pool) servable.set(idx);
+            }
+            return servable.stream().toArray();
+        }
+
+        // Id of the location_activity_scores row the ML scores get written back to
+        public UUID scoreId(int i) { return scoreIds[i]; }
+        public UUID locationId(int i) { return locationIds[i]; }
+        public String locationName(int i) { return locationNames[i]; }
+        public double latitude(int i) { return latitudes[i]; }
+        public double longitude(int i) { return longitudes[i]; }
+        // Ordinal in LocationRecommendationService.ZONE_CATALOGUE, TaxiZoneCatalogue.UNKNOWN_ZONE when outside every area
+        public int zoneOrdinal(int i) { return zoneOrdinals[i]; }
+        public String zoneName(int i) { return LocationRecommendationService.ZONE_CATALOGUE.zoneName(zoneOrdinals[i]); }
+
+        // NaN when the historical score is missing
+        public double historicalActivityScore(int i) { return historicalActivityScores[i]; }
+        public double historicalCrowdScore(int i) { return historicalCrowdScores[i]; }
+
+        public static final class Builder {
+            private final String activityName;
+            private final List<UUID> scoreIds = new ArrayList<>();
+            private final List<UUID> locationIds = new ArrayList<>();
+            private final List<String> locationNames = new ArrayList<>();
+            private double[] latitudes = new double[16];
+            private double[] longitudes = new double[16];
+            private int[] zoneOrdinals = new int[16];
+            private double[] historicalActivityScores = new double[16];
+            private double[] historicalCrowdScores = new double[16];
+
+            private Builder(String activityName) {
+                this.activityName = activityName;
+            }
+
+            public Builder add(UUID scoreId, UUID locationId, String locationName, double latitude, double longitude,
+                               String zoneName, double historicalActivityScore, double historicalCrowdScore) {
+                int i = scoreIds.size();
+                if (i == latitudes.length) {
+                    grow();
+                }
+                scoreIds.add(scoreId);
+                locationIds.add(locationId);
+                locationNames.add(locationName);
+                latitudes[i] = latitude;
+                longitudes[i] = longitude;
+                zoneOrdinals[i] = LocationRecommendationService.ZONE_CATALOGUE.ordinalOf(zoneName);
+                historicalActivityScores[i] = historicalActivityScore;
+                historicalCrowdScores[i] = historicalCrowdScore;
+                return this;
+            }
+
+            public Candidates build() {
+                return build(Integer.MAX_VALUE);
+            }
+
+            public Candidates build(int poolLimit) {
+                return new Candidates(this, poolLimit);
+            }
+
+            private void grow() {
+                int capacity = latitudes.length * 2;
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                zoneOrdinals = Arrays.copyOf(zoneOrdinals, capacity);
+                historicalActivityScores = Arrays.copyOf(historicalActivityScores, capacity);
+                historicalCrowdScores = Arrays.copyOf(historicalCrowdScores, capacity);
+            }
+        }
+    }
+
+    // Native queries hand back uuid columns as UUID on Postgres, as raw bytes on H2 and as text through some drivers
+    private static UUID toUuid(Object value) {
+        if (value instanceof UUID uuid) {
+            return uuid;
+        }
+        if (value instanceof byte[] bytes && bytes.length == 16) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+        return UUID.fromString(value.toString());
+    }
+
+    private static double toDouble(Object value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        return value instanceof BigDecimal bd ? bd.doubleValue() : ((Number) value).doubleValue();
+    }
+}
@@ -0,0 +1,501 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// References:
+// https://en.wikipedia.org/wiki/Token_bucket
+// https://en.wikipedia.org/wiki/Additive_increase/multiplicative_decrease
+// https://github.com/brettwooldridge/HikariCP/wiki/MBean-(JMX)-Monitoring-and-Management
+
+/**
+ * Runs a warming plan through the recommendations cache with a few workers at once instead of one at a time with fixed sleeps
+ * Pipeline runs take a token from a bucket refilled at the current rate, which bounds the load on the ML service and the database
+ * The rate halves whenever a run is slow (the ML call is most of it), fails or comes back degraded,
+ * or the Hikari pool is close to full or has threads waiting, and creeps back up by a tenth of the maximum after each clean run
+ * Slots already in the cache cost no token, and nothing new is started once max-duration-minutes of unpaused time has passed
+ * One run at a time, it can be paused, resumed and cancelled, and it checkpoints what is left so a restart can carry on
+ */
+@Service
+public class CacheWarmingEngine {
+
+    @Autowired
+    private RecommendationCache recommendationCache;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private WarmingCheckpointStore warmingCheckpointStore;
+
+    // Pipeline runs at once, each holds a database connection for part of its run
+    @Value("${cache.warming.concurrency:3}")
+    private int concurrency = 3;
+
+    @Value("${cache.warming.rate-per-second:2.0}")
+    private double maxRatePerSecond = 2.0;
+
+    @Value("${cache.warming.min-rate-per-second:0.2}")
+    private double minRatePerSecond = 0.2;
+
+    // Tokens that can build up while workers are busy
+    @Value("${cache.warming.burst:3}")
+    private int burst = 3;
+
+    @Value("${cache.warming.max-duration-minutes:25}")
+    private long maxDurationMinutes = 25;
+
+    // Share of the Hikari pool in use above which warming slows down, user requests come first
+    @Value("${cache.warming.pool-pressure:0.75}")
+    private double poolPressure = 0.75;
+
+    // A pipeline run slower than this means the ML service is struggling
+    @Value("${cache.warming.slow-run-ms:5000}")
+    private long slowRunMs = 5000;
+
+    @Value("${cache.warming.checkpoint.interval-ms:5000}")
+    private long checkpointIntervalMs = 5000;
+
+    public enum State {
+        IDLE,       // No run since startup
+        RUNNING,
+        PAUSED,     // Workers wait, paused time does not count towards the deadline
+        COMPLETED,  // Every entry was done
+        DEADLINE,   // Stopped at max-duration-minutes, the checkpoint keeps the rest for the next trigger
+        CANCELLED   // Stopped by an admin, nothing is kept to resume
+    }
+
+    /**
+     * How a run went, leftOver are the entries not started before it stopped
+     * Counters include what a resumed run had already done before the restart
+     */
+    public record Result(int planned, int warmed, int alreadyCached, int expired, int failed, int leftOver,
+                         long durationMs, long backoffs, double finalRatePerSecond, State state) {}
+
+    /**
+     * Where the current or last run is, throughput is finished entries per minute of unpaused time since it (re)started
+     * and etaSeconds is null until there is a throughput to go by
+     */
+    public record Progress(State state, String runId, LocalDateTime startedAt, boolean resumed, int planned, int done,
+                           int warmed, int alreadyCached, int expired, int failed, int remaining,
+                           double throughputPerMinute, Long etaSeconds, double ratePerSecond) {}
+
+    // Metrics
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong warmedTotal = new AtomicLong();
+    private final AtomicLong failedTotal = new AtomicLong();
+    private final AtomicLong backoffsTotal = new AtomicLong();
+    private final AtomicLong deadlinesHit = new AtomicLong();
+    private volatile Result lastResult;
+
+    // The run in progress, or the last one once it has finished
+    private volatile Run current;
+    private final Object startLock = new Object();
+
+    public boolean isRunning() {
+        Run run = current;
+        return run != null && !run.finished;
+    }
+
+    /**
+     * Warm the entries as a new run, throws IllegalStateException while another run is in progress
+     */
+    public Result run(List<WarmingPlan.Entry> entries) {
+        return execute(new Run(UUID.randomUUID().toString(), LocalDateTime.now(), entries.size(), entries, false));
+    }
+
+    /**
+     * Carry on from a checkpoint, a run that was paused when it was written starts paused again
+     */
+    public Result runFromCheckpoint(WarmingCheckpointStore.Checkpoint checkpoint) {
+        Run run = new Run(checkpoint.runId(), checkpoint.startedAt(), checkpoint.planned(), checkpoint.remaining(), true);
+        run.warmed.set(checkpoint.warmed());
+        run.cached.set(checkpoint.alreadyCached());
+        run.expired.set(checkpoint.expired());
+        run.failed.set(checkpoint.failed());
+        run.doneAtStart = run.done();
+        if (State.PAUSED.name().equals(checkpoint.state())) {
+            run.pause();
+        }
+        return execute(run);
+    }
+
+    public boolean pause() {
+        Run run = current;
+        return run != null && !run.finished && run.pause();
+    }
+
+    public boolean resume() {
+        Run run = current;
+        return run != null && !run.finished && run.resume();
+    }
+
+    public boolean cancel() {
+        Run run = current;
+        if (run == null || run.finished) return false;
+        run.cancel();
+        return true;
+    }
+
+    private Result execute(Run run) {
+        synchronized (startLock) {
+            if (isRunning()) {
+                throw new IllegalStateException("A cache warming run is already in progress (" + current.runId + ")");
+            }
+            current = run;
+        }
+
+        int workers = Math.max(1, Math.min(concurrency, run.queue.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("cache-warming-", 0).daemon(true).factory());
+        ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("cache-warming-checkpoint").daemon(true).factory());
+        try {
+            saveCheckpoint(run);
+            checkpointer.scheduleWithFixedDelay(() -> {
+                synchronized (run.checkpointLock) {
+                    if (!run.finished) saveCheckpoint(run);
+                }
+            }, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < workers; i++) {
+                pool.execute(() -> work(run));
+            }
+            pool.shutdown();
+            // Workers stop taking entries at the deadline, after that this only waits for the runs in flight
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                if (run.pastDeadline() && System.nanoTime() - run.deadlineNanos() > TimeUnit.MINUTES.toNanos(5)) {
+                    pool.shutdownNow();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            // No interrupt, a save already under way finishes before the final save or clear below
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int leftOver = run.remaining();
+        State state = run.cancelled ? State.CANCELLED : leftOver == 0 ? State.COMPLETED : State.DEADLINE;
+        // The lock and the finished flag keep a late periodic save from writing RUNNING back over this
+        synchronized (run.checkpointLock) {
+            run.finish(state);
+            if (state == State.DEADLINE) {
+                deadlinesHit.incrementAndGet();
+                saveCheckpoint(run);
+            } else {
+                warmingCheckpointStore.clear();
+            }
+        }
+
+        Result result = new Result(run.planned, run.warmed.get(), run.cached.get(), run.expired.get(), run.failed.get(),
+                leftOver, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - run.startedNanos), run.backoffs.get(),
+                run.bucket.rate(), state);
+        runs.incrementAndGet();
+        lastResult = result;
+        return result;
+    }
+
+    private void work(Run run) {
+        while (run.awaitUnpaused() && !run.pastDeadline() && !run.outOfTime) {
+            WarmingPlan.Entry entry = run.queue.poll();
+            if (entry == null) return;
+            run.inFlight.add(entry);
+            try {
+                process(run, entry);
+            } finally {
+                run.inFlight.remove(entry);
+            }
+        }
+    }
+
+    private void process(Run run, WarmingPlan.Entry entry) {
+        // A long run can reach slots that have passed since it was planned
+        if (!entry.dateTime().isAfter(LocalDateTime.now())) {
+            run.expired.incrementAndGet();
+            return;
+        }
+        RecommendationRequest request = entry.toRequest();
+        if (recommendationCache.getIfPresent(request) != null) {
+            run.cached.incrementAndGet();
+            return;
+        }
+        if (!run.bucket.acquire(run::deadlineNanos)) {
+            // Out of time, counted as left over, and no worker takes another entry only to wait for a token it can't get
+            run.queue.add(entry);
+            run.outOfTime = true;
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            RecommendationCache.Lookup lookup = recommendationCache.get(request);
+            if (lookup.servedFromCache()) {
+                run.cached.incrementAndGet();
+            } else {
+                run.warmed.incrementAndGet();
+                warmedTotal.incrementAndGet();
+            }
+            ok = !lookup.response().isDegraded();
+        } catch (RuntimeException e) {
+            run.failed.incrementAndGet();
+            failedTotal.incrementAndGet();
+            System.err.println("Error pre-computing for " + entry.activity() + " at " + entry.dateTime() + ": " + e.getMessage());
+            ok = false;
+        }
+        adapt(run, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ok);
+    }
+
+    private void adapt(Run run, long runMs, boolean ok) {
+        if (!ok || runMs > slowRunMs || poolUnderPressure()) {
+            run.bucket.setRate(Math.max(minRatePerSecond, run.bucket.rate() / 2));
+            run.backoffs.incrementAndGet();
+            backoffsTotal.incrementAndGet();
+        } else {
+            run.bucket.setRate(Math.min(maxRatePerSecond, run.bucket.rate() + maxRatePerSecond / 10));
+        }
+    }
+
+    boolean poolUnderPressure() {
+        try {
+            if (dataSource instanceof HikariDataSource hikariDS) {
+                HikariPoolMXBean poolBean = hikariDS.getHikariPoolMXBean();
+                if (poolBean == null) return false;
+                return poolBean.getThreadsAwaitingConnection() > 0
+                        || poolBean.getActiveConnections() >= poolPressure * hikariDS.getMaximumPoolSize();
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading connection pool for warming: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void saveCheckpoint(Run run) {
+        // Entries being computed go back in the list, a restart would lose them otherwise
+        List<WarmingPlan.Entry> remaining = new ArrayList<>(run.inFlight);
+        remaining.addAll(run.queue);
+        warmingCheckpointStore.save(new WarmingCheckpointStore.Checkpoint(run.runId, run.state.name(), run.startedAt,
+                run.planned, run.warmed.get(), run.cached.get(), run.expired.get(), run.failed.get(), remaining));
+    }
+
+    public Progress getProgress() {
+        Run run = current;
+        if (run == null) {
+            return new Progress(State.IDLE, null, null, false, 0, 0, 0, 0, 0, 0, 0, 0.0, null, 0.0);
+        }
+        int done = run.done();
+        int remaining = run.remaining();
+        double minutes = run.activeNanos() / 60_000_000_000.0;
+        double throughput = minutes > 0 ? (done - run.doneAtStart) / minutes : 0.0;
+        Long eta = throughput > 0 && !run.finished ? Math.round(remaining / throughput * 60) : null;
+        return new Progress(run.state, run.runId, run.startedAt, run.resumed, run.planned, done,
+                run.warmed.get(), run.cached.get(), run.expired.get(), run.failed.get(), remaining,
+                throughput, eta, run.finished ? 0.0 : run.bucket.rate());
+    }
+
+    public Map<String, Object> getStats() {
+        Run run = current;
+        boolean running = run != null && !run.finished;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", run != null ? run.state.name() : State.IDLE.name());
+        stats.put("running", running);
+        stats.put("currentRatePerSecond", running ? run.bucket.rate() : 0.0);
+        stats.put("concurrency", concurrency);
+        stats.put("maxRatePerSecond", maxRatePerSecond);
+        stats.put("runs", runs.get());
+        stats.put("warmed", warmedTotal.get());
+        stats.put("failed", failedTotal.get());
+        stats.put("backoffs", backoffsTotal.get());
+        stats.put("deadlinesHit", deadlinesHit.get());
+        stats.put("lastRun", lastResult);
+        stats.put("checkpoint", warmingCheckpointStore.getStats());
+        return stats;
+    }
+
+    private final class Run {
+        final String runId;
+        final LocalDateTime startedAt;
+        final int planned;
+        final boolean resumed;
+        final Queue<WarmingPlan.Entry> queue;
+        final Set<WarmingPlan.Entry> inFlight = ConcurrentHashMap.newKeySet();
+        final TokenBucket bucket = new TokenBucket(maxRatePerSecond, Math.max(1, burst));
+        final long startedNanos = System.nanoTime();
+        final AtomicInteger warmed = new AtomicInteger();
+        final AtomicInteger cached = new AtomicInteger();
+        final AtomicInteger expired = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong backoffs = new AtomicLong();
+        final Object checkpointLock = new Object();
+        int doneAtStart;
+
+        volatile State state = State.RUNNING;
+        volatile boolean cancelled;
+        volatile boolean finished;
+        // The next token would only come after the deadline
+        volatile boolean outOfTime;
+        private boolean paused;
+        private long pausedSince;
+        private long pausedNanos;
+        private long finishedNanos;
+
+        Run(String runId, LocalDateTime startedAt, int planned, List<WarmingPlan.Entry> entries, boolean resumed) {
+            this.runId = runId;
+            this.startedAt = startedAt;
+            this.planned = planned;
+            this.queue = new ConcurrentLinkedQueue<>(entries);
+            this.resumed = resumed;
+        }
+
+        int done() {
+            return warmed.get() + cached.get() + expired.get() + failed.get();
+        }
+
+        int remaining() {
+            return queue.size() + inFlight.size();
+        }
+
+        synchronized boolean pause() {
+            if (paused || cancelled) return false;
+            paused = true;
+            pausedSince = System.nanoTime();
+            state = State.PAUSED;
+            return true;
+        }
+
+        synchronized boolean resume() {
+            if (!paused) return false;
+            paused = false;
+            pausedNanos += System.nanoTime() - pausedSince;
+            state = State.RUNNING;
+            notifyAll();
+            return true;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Blocks while paused, false once the run is cancelled
+         */
+        synchronized boolean awaitUnpaused() {
+            while (paused && !cancelled) {
+                try {
+                    wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !cancelled && !Thread.currentThread().isInterrupted();
+        }
+
+        synchronized void finish(State finalState) {
+            state = finalState;
+            finishedNanos = System.nanoTime();
+            finished = true;
+        }
+
+        synchronized long activeNanos() {
+            long end = finished ? finishedNanos : System.nanoTime();
+            return end - startedNanos - pausedNanos - (paused ? end - pausedSince : 0);
+        }
+
+        // Paused time moves the deadline back
+        synchronized long deadlineNanos() {
+            long pausedFor = pausedNanos + (paused ? System.nanoTime() - pausedSince : 0);
+            return startedNanos + TimeUnit.MINUTES.toNanos(maxDurationMinutes) + pausedFor;
+        }
+
+        boolean pastDeadline() {
+            return System.nanoTime() >= deadlineNanos();
+        }
+    }
+
+    /**
+     * Tokens refill continuously at the current rate up to the burst size, a worker takes one per pipeline run
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private double ratePerSecond;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = capacity;
+            this.tokens = 1;  // First run starts straight away, the rest of the burst builds up
+        }
+
+        synchronized double rate() {
+            return ratePerSecond;
+        }
+
+        synchronized void setRate(double ratePerSecond) {
+            refill();
+            this.ratePerSecond = ratePerSecond;
+        }
+
+        /**
+         * Wait for a token, false if the deadline comes first
+         */
+        boolean acquire(LongSupplier deadlineNanos) {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    refill();
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return true;
+                    }
+                    waitNanos = (long) ((1 - tokens) / ratePerSecond * 1_000_000_000L);
+                }
+                if (System.nanoTime() + waitNanos > deadlineNanos.getAsLong()) return false;
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) / 1_000_000_000.0 * ratePerSecond);
+            refilledAt = now;
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package com.creativespacefinder.manhattan.service;
 
-import com.creativespacefinder.manhattan.dto.RecommendationRequest;
-import com.creativespacefinder.manhattan.entity.Activity;
-import com.creativespacefinder.manhattan.repository.ActivityRepository;
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
 import com.zaxxer.hikari.HikariDataSource;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.scheduling.annotation.Async;
@@ -12,107 +13,113 @@ import java.util.concurrent.CompletableFuture;
 
 import javax.sql.DataSource;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.List;
+import java.util.function.Supplier;
 
 @Service
 public class DailyPrecomputationService {
 
     @Autowired
-    private ActivityRepository activityRepository;
+    private WarmingPlanner warmingPlanner;
 
     @Autowired
-    private LocationRecommendationService locationRecommendationService;
+    private CacheWarmingEngine cacheWarmingEngine;
+
+    @Autowired
+    private WarmingCheckpointStore warmingCheckpointStore;
 
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private MlPredictionClient mlPredictionClient;
+
+    @Autowired
+    private PredictionCubeService predictionCubeService;
+
+    // Carry on with a run the last pod was in the middle of when it stopped
+    @Value("${cache.warming.checkpoint.resume-on-startup:true}")
+    private boolean resumeOnStartup = true;
+
     /**
-     * Pre-compute all the user potential combinations daily for 3am
-     * Also, the connection management for the Database
+     * Pre-compute the planned combinations daily for 3am
+     * CacheWarmingEngine paces the runs against the connection pool and the ML service
      */
     @Scheduled(cron = "0 0 3 * * *")
     public void dailyPrecomputation() {
+        // The prediction cube scores every hour of the 96hr horizon in one pass, so the hour by hour warming below is not needed
+        if (predictionCubeService.isEnabled()) {
+            System.out.println("Starting daily prediction cube build at 3 AM...");
+            predictionCubeService.rebuildQuietly();
+            System.out.println("Prediction cube after build: " + predictionCubeService.getStats());
+            System.out.println("ML client after pre-computation: " + mlPredictionClient.getStats());
+            return;
+        }
+
+        if (cacheWarmingEngine.isRunning()) {
+            System.out.println("Skipping daily pre-computation, a warming run is still in progress: " + cacheWarmingEngine.getProgress());
+            return;
+        }
+
         System.out.println("Starting daily pre-computation at 3 AM with connection monitoring...");
 
-        // Monitor connections before starting
-        logConnectionStats("BEFORE pre-computation");
+        // Slots ranked by what users asked for, cut to the budget
+        WarmingPlan plan = warmingPlanner.plan();
+        System.out.println("Warming plan: " + plan.entries().size() + " of " + plan.candidates() + " slots, predicted coverage "
+                + String.format("%.1f%%", plan.predictedCoverage() * 100) + " of observed demand");
 
-        List<Activity> activities = activityRepository.findAll();
-        List<LocalTime> reasonableTimes = List.of(
-                LocalTime.of(17, 0),   // 5 PM
-                LocalTime.of(13, 0),  // 1 PM
-                LocalTime.of(12, 0),  // 12 PM
-                LocalTime.of(14, 0),  // 2 PM
-                LocalTime.of(16, 0),  // 4 PM
-                LocalTime.of(18, 0),  // 6 PM
-                LocalTime.of(15, 0)   // 3 PM
-        );
+        warm(() -> cacheWarmingEngine.run(plan.entries()));
+    }
 
-        int totalProcessed = 0;
-        int batchCount = 0;
+    /**
+     * Carry on from the checkpoint the last run left behind, or start a new run when there is none
+     */
+    public void resumeOrStartPrecomputation() {
+        WarmingCheckpointStore.Checkpoint checkpoint = predictionCubeService.isEnabled() ? null : warmingCheckpointStore.load();
+        if (checkpoint == null || checkpoint.remaining().isEmpty()) {
+            dailyPrecomputation();
+            return;
+        }
+        System.out.println("Resuming cache warming run " + checkpoint.runId() + " from its checkpoint: "
+                + checkpoint.remaining().size() + " of " + checkpoint.planned() + " slots left");
+        warm(() -> cacheWarmingEngine.runFromCheckpoint(checkpoint));
+    }
 
-        try {
-            // Process the 96hrs
-            for (int dayOffset = 0; dayOffset < 4; dayOffset++) {
-                LocalDateTime baseDate = LocalDateTime.now().plusDays(dayOffset);
-
-                for (Activity activity : activities) {
-                    for (LocalTime time : reasonableTimes) {
-                        try {
-                            LocalDateTime targetDateTime = baseDate.toLocalDate().atTime(time);
-
-                            // Precompute future times
-                            if (targetDateTime.isAfter(LocalDateTime.now())) {
-                                RecommendationRequest request = new RecommendationRequest(
-                                        activity.getName(),
-                                        targetDateTime
-                                );
-
-                                // Cache the result
-                                locationRecommendationService.getLocationRecommendations(request);
-                                totalProcessed++;
-
-                                // Connection management due to my supabase crashing due to free tier
-                                forceConnectionCleanup();
-                                Thread.sleep(2000); // 2 seconds after each request
-
-                                // Every 3 requests - take a longer break and force a connection cleanup
-                                if (totalProcessed % 3 == 0) {
-                                    batchCount++;
-                                    System.out.println("Completed batch " + batchCount + " (processed " + totalProcessed + " combinations)");
-
-                                    // Force the cleanup and a longer break
-                                    forceConnectionCleanup();
-                                    Thread.sleep(5000); // 5 second break every 3 requests
-
-                                    // Monitor connection status
-                                    logConnectionStats("After batch " + batchCount);
-                                }
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error pre-computing for " + activity.getName() +
-                                    " at " + time + ": " + e.getMessage());
-
-                            // Force a cleanup on the pre comp error
-                            forceConnectionCleanup();
-                            try {
-                                Thread.sleep(3000); // Another break on error
-                            } catch (InterruptedException ex) {
-                                throw new RuntimeException(ex);
-                            }
-                        }
-                    }
-                }
+    /**
+     * A run that was going, or paused, when the last pod stopped is picked up in the background
+     * Runs that stopped at their deadline wait for the next trigger like before
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        if (!resumeOnStartup || predictionCubeService.isEnabled()) return;
+        WarmingCheckpointStore.Checkpoint checkpoint = warmingCheckpointStore.load();
+        if (checkpoint == null || checkpoint.remaining().isEmpty()) return;
+        if (!CacheWarmingEngine.State.RUNNING.name().equals(checkpoint.state())
+                && !CacheWarmingEngine.State.PAUSED.name().equals(checkpoint.state())) return;
+        Thread.ofPlatform().name("cache-warming-resume").daemon(true).start(() -> {
+            try {
+                resumeOrStartPrecomputation();
+            } catch (Exception e) {
+                System.err.println("Could not resume cache warming: " + e.getMessage());
             }
+        });
+    }
+
+    private void warm(Supplier<CacheWarmingEngine.Result> run) {
+        // Monitor connections before starting
+        logConnectionStats("BEFORE pre-computation");
+
+        CacheWarmingEngine.Result result;
+        try {
+            result = run.get();
         } finally {
-            // After completion, force a cleanup of connection
-            forceConnectionCleanup();
             logConnectionStats("AFTER pre-computation");
+            System.out.println("ML client after pre-computation: " + mlPredictionClient.getStats());
         }
 
-        System.out.println("Daily pre-computation completed at " + LocalDateTime.now());
-        System.out.println("Total processed: " + totalProcessed + " combinations");
+        System.out.println("Daily pre-computation " + result.state() + " at " + LocalDateTime.now());
+        System.out.println("Warmed " + result.warmed() + ", already cached " + result.alreadyCached() + ", failed " + result.failed()
+                + ", passed " + result.expired() + ", left over " + result.leftOver() + " in " + result.durationMs() + " ms ("
+                + result.backoffs() + " slow-downs, ending at " + String.format("%.2f", result.finalRatePerSecond()) + " runs/s)");
         System.out.println("Next pre-computation scheduled for 3 AM tomorrow");
     }
 
@@ -126,8 +133,8 @@ public class DailyPrecomputationService {
             System.out.println("ASYNC Cache Warming Started in Background Thread: " + Thread.currentThread().getName());
             long startTime = System.currentTimeMillis();
 
-            // Call the existing synchronous cache warming method
-            dailyPrecomputation();
+            // Picks up where an interrupted or timed out run stopped, otherwise plans a new one
+            resumeOrStartPrecomputation();
 
             long durationMs = System.currentTimeMillis() - startTime;
             long durationMinutes = durationMs / (1000 * 60);
@@ -147,20 +154,6 @@ public class DailyPrecomputationService {
         }
     }
 
-    /**
-     * Force a connection cleanup
-     */
-    private void forceConnectionCleanup() {
-        try {
-            if (dataSource instanceof HikariDataSource) {
-                HikariDataSource hikariDS = (HikariDataSource) dataSource;
-                hikariDS.getHikariPoolMXBean().softEvictConnections();
-            }
-        } catch (Exception e) {
-            System.err.println("Error during connection cleanup: " + e.getMessage());
-        }
-    }
-
     /**
      * Log any connection statistics
      */
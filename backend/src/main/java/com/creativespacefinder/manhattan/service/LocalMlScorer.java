@@ -0,0 +1,221 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.utils.TreeEnsemble;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://xgboost.readthedocs.io/en/stable/python/python_api.html#xgboost.Booster.get_dump
+// https://scikit-learn.org/stable/modules/generated/sklearn.preprocessing.OneHotEncoder.html
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/lang/ThreadLocal.html
+
+/**
+ * Scores ML payload rows inside the JVM with the same XGBoost model the FastAPI service loads
+ * The model comes from the tree dump written by data-analytics/data modeling/export_model.py
+ * Rows are encoded exactly like the sklearn pipeline does it: one-hot activity columns first, then
+ * latitude, longitude, hour, month and day, an unknown activity gets all zero activity columns
+ * Outputs go through the same rounding and clamping as main.py so either path gives the same PredictionResponse
+ */
+@Service
+public class LocalMlScorer {
+
+    static final String FORMAT = "tree-ensemble-v1";
+
+    // remote: POST to the ML service, local: score here when a model is loaded
+    @Value("${ml.inference.mode:remote}")
+    private String inferenceMode = "remote";
+
+    // xgboost_model_trees.json from export_model.py
+    @Value("${ml.inference.local.model-path:}")
+    private String modelPath = "";
+
+    private volatile Model model;
+
+    // Feature and output buffers reused by each request thread, grown when a bigger batch comes in
+    private final ThreadLocal<float[][]> buffers = ThreadLocal.withInitial(() -> new float[][]{new float[0], new float[0]});
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rowsScored = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * The exported model with the column layout it was trained on
+     */
+    public record Model(TreeEnsemble ensemble, String modelVersion, Map<String, Integer> categoryColumns,
+                        List<String> numericFeatures, int categoryCount) {
+        public int featureCount() {
+            return categoryCount + numericFeatures.size();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!"local".equalsIgnoreCase(inferenceMode)) {
+            return;
+        }
+        if (modelPath == null || modelPath.isBlank()) {
+            System.err.println("ml.inference.mode is local but ml.inference.local.model-path is not set, using the ML service");
+            return;
+        }
+        try (InputStream in = Files.newInputStream(Path.of(modelPath))) {
+            long startTime = System.currentTimeMillis();
+            model = load(in);
+            System.out.println("Local ML model " + model.modelVersion() + " loaded in " + (System.currentTimeMillis() - startTime) + "ms: "
+                    + model.ensemble().treeCount() + " trees, " + model.ensemble().nodeCount() + " nodes");
+        } catch (Exception e) {
+            System.err.println("Could not load local ML model from " + modelPath + ", using the ML service: " + e.getMessage());
+        }
+    }
+
+    /**
+     * True when recommendations should be scored here instead of by the ML service
+     */
+    public boolean isActive() {
+        return model != null && "local".equalsIgnoreCase(inferenceMode);
+    }
+
+    /**
+     * Same contract as MlPredictionClient.predictBatch, one PredictionResponse per row in the same order
+     */
+    public PredictionResponse[] predictBatch(List<Map<String, Object>> rows) {
+        Model current = model;
+        if (current == null) {
+            throw new IllegalStateException("No local ML model loaded");
+        }
+        long startTime = System.nanoTime();
+
+        int n = rows.size();
+        int featureCount = current.featureCount();
+        int targetCount = current.ensemble().targetCount();
+        float[][] scratch = buffers.get();
+        if (scratch[0].length < n * featureCount) scratch[0] = new float[n * featureCount];
+        if (scratch[1].length < n * targetCount) scratch[1] = new float[n * targetCount];
+        float[] features = scratch[0];
+        float[] out = scratch[1];
+
+        for (int r = 0; r < n; r++) {
+            encode(current, rows.get(r), features, r * featureCount);
+        }
+        current.ensemble().predict(features, n, out);
+
+        PredictionResponse[] responses = new PredictionResponse[n];
+        for (int r = 0; r < n; r++) {
+            responses[r] = toResponse(out, r * targetCount, targetCount);
+        }
+
+        batches.incrementAndGet();
+        rowsScored.addAndGet(n);
+        totalNanos.addAndGet(System.nanoTime() - startTime);
+        return responses;
+    }
+
+    public Map<String, Object> getStats() {
+        Model current = model;
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", inferenceMode);
+        stats.put("active", isActive());
+        stats.put("modelVersion", current != null ? current.modelVersion() : null);
+        stats.put("trees", current != null ? current.ensemble().treeCount() : 0);
+        stats.put("batches", batchCount);
+        stats.put("rowsScored", rowsScored.get());
+        stats.put("avgBatchMicros", batchCount > 0 ? totalNanos.get() / batchCount / 1000 : 0);
+        return stats;
+    }
+
+    static void encode(Model model, Map<String, Object> row, float[] features, int offset) {
+        Arrays.fill(features, offset, offset + model.categoryCount(), 0f);
+        Integer column = model.categoryColumns().get(String.valueOf(row.get("cultural_activity_prefered")));
+        if (column != null) {
+            features[offset + column] = 1f;
+        }
+        List<String> numeric = model.numericFeatures();
+        for (int i = 0; i < numeric.size(); i++) {
+            Object value = row.get(numeric.get(i).toLowerCase());
+            features[offset + model.categoryCount() + i] = value instanceof Number num ? num.floatValue() : Float.NaN;
+        }
+    }
+
+    // Mirrors the three output branch in main.py predict_batch
+    private static PredictionResponse toResponse(float[] out, int offset, int targetCount) {
+        float crowdNumber = out[offset];
+        float crowdScore = targetCount > 1 ? out[offset + 1] : 5.0f;
+        float creativeScore = targetCount > 2 ? out[offset + 2] : 7.0f;
+
+        // Python's round() rounds halves to even, Math.rint does the same
+        int estimatedCrowd = Float.isNaN(crowdNumber) ? 0 : (int) Math.rint(crowdNumber);
+        estimatedCrowd = Math.max(0, estimatedCrowd);
+        crowdScore = Float.isNaN(crowdScore) ? 0f : Math.max(-10f, Math.min(10f, crowdScore));
+        creativeScore = Float.isNaN(creativeScore) ? 0f : Math.max(-10f, Math.min(10f, creativeScore));
+
+        return new PredictionResponse(null, estimatedCrowd, crowdScore, creativeScore);
+    }
+
+    /**
+     * Read a tree-ensemble-v1 dump as written by export_model.py
+     */
+    public static Model load(InputStream in) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(in);
+        if (!FORMAT.equals(root.path("format").asText())) {
+            throw new IOException("Unsupported model format: " + root.path("format").asText());
+        }
+
+        Map<String, Integer> categoryColumns = new HashMap<>();
+        JsonNode categories = root.path("categories");
+        for (int i = 0; i < categories.size(); i++) {
+            categoryColumns.put(categories.get(i).asText(), i);
+        }
+        List<String> numericFeatures = new ArrayList<>();
+        root.path("numeric_features").forEach(f -> numericFeatures.add(f.asText()));
+
+        int featureCount = categories.size() + numericFeatures.size();
+        TreeEnsemble.Builder builder = TreeEnsemble.builder(featureCount)
+                .zerosAreMissing(root.path("zeros_are_missing").asBoolean(false));
+
+        for (JsonNode target : root.path("targets")) {
+            builder.startTarget((float) target.path("base_score").asDouble());
+            for (JsonNode tree : target.path("trees")) {
+                builder.addTree(
+                        intArray(tree.path("split_feature")),
+                        floatArray(tree.path("threshold")),
+                        intArray(tree.path("left")),
+                        intArray(tree.path("right")),
+                        booleanArray(tree.path("default_left")),
+                        floatArray(tree.path("value"))
+                );
+            }
+        }
+
+        return new Model(builder.build(), root.path("model_version").asText("unknown"),
+                Map.copyOf(categoryColumns), List.copyOf(numericFeatures), categories.size());
+    }
+
+    private static int[] intArray(JsonNode node) {
+        int[] out = new int[node.size()];
+        for (int i = 0; i < out.length; i++) out[i] = node.get(i).asInt();
+        return out;
+    }
+
+    private static float[] floatArray(JsonNode node) {
+        float[] out = new float[node.size()];
+        for (int i = 0; i < out.length; i++) out[i] = (float) node.get(i).asDouble();
+        return out;
+    }
+
+    private static boolean[] booleanArray(JsonNode node) {
+        boolean[] out = new boolean[node.size()];
+        for (int i = 0; i < out.length; i++) out[i] = node.get(i).asBoolean();
+        return out;
+    }
+}
@@ -2,20 +2,19 @@ package com.creativespacefinder.manhattan.service;
 
 import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
 import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
 import com.creativespacefinder.manhattan.dto.RecommendationRequest;
 import com.creativespacefinder.manhattan.dto.RecommendationResponse;
 import com.creativespacefinder.manhattan.entity.Activity;
-import com.creativespacefinder.manhattan.entity.LocationActivityScore;
 import com.creativespacefinder.manhattan.entity.MLPredictionLog;
 import com.creativespacefinder.manhattan.repository.ActivityRepository;
 import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
-import com.creativespacefinder.manhattan.repository.MLPredictionLogRepository;
+import com.creativespacefinder.manhattan.utils.SpatialGrid;
+import com.creativespacefinder.manhattan.utils.TaxiZoneCatalogue;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -23,6 +22,7 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 // References:
@@ -46,14 +46,61 @@ public class LocationRecommendationService {
     private ActivityRepository activityRepository;
 
     @Autowired
-    private MLPredictionLogRepository mlPredictionLogRepository;
+    private AnalyticsService analyticsService;
 
     @Autowired
-    private AnalyticsService analyticsService;
+    private ActivityCandidateIndex activityCandidateIndex;
+
+    @Autowired
+    private MlScoreWriteBehindQueue mlScoreWriteBehindQueue;
+
+    // Merges rows from concurrent requests into shared ML calls when ml.predict.micro-batch.enabled is on
+    @Autowired
+    private MlPredictionBatcher mlPredictionBatcher;
+
+    @Autowired
+    private MlCircuitBreaker mlCircuitBreaker;
+
+    // Precomputed ML scores for the forecast horizon, when it covers a request there is no ML call at all
+    @Autowired
+    private PredictionCubeService predictionCubeService;
+
+    // ML scores already computed for the same activity and hour, zone requests are ranked from these without an ML call
+    @Autowired
+    private ScoredCandidateStore scoredCandidateStore;
+
+    // In-JVM scorer for the same model, used instead of the ML service when ml.inference.mode is local
+    @Autowired
+    private LocalMlScorer localMlScorer;
+
+    // Rows per ML request when a batch is fanned out
+    @Value("${ml.predict.fanout.chunk-size:100}")
+    private int mlChunkSize = 100;
+
+    // Chunks in flight at once for one batch
+    @Value("${ml.predict.fanout.max-concurrent-chunks:5}")
+    private int mlMaxConcurrentChunks = 5;
+
+    // fail: any failed chunk fails the request, skip: rank what came back as long as one chunk succeeded
+    @Value("${ml.predict.fanout.partial-failure:skip}")
+    private String mlPartialFailurePolicy = "skip";
+
+    private final ExecutorService mlFanoutExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Score the pool a chunk at a time and stop once the top 10 is settled, instead of sending every candidate
+    @Value("${ml.progressive.enabled:false}")
+    private boolean mlProgressiveEnabled = false;
+
+    // Candidates per ML call in progressive mode
+    @Value("${ml.progressive.chunk-size:50}")
+    private int mlProgressiveChunkSize = 50;
 
-    // URL for ML prediction model/microservice
-    @Value("${ML_PREDICT_URL}")
-    private String mlPredictUrl;
+    // How far above (or for crowd, either side of) the historical scores the ML scores are assumed to land
+    @Value("${ml.progressive.score-slack:1.0}")
+    private double mlProgressiveScoreSlack = 1.0;
+
+    // Recommendations returned per request
+    private static final int TOP_RESULTS = 10;
 
     // Predefined Manhattan zones in relation to their sub-zones for zone-specific filtering
     private static final Map<String, List<String>> MANHATTAN_ZONES = new HashMap<>();
@@ -80,12 +127,15 @@ public class LocationRecommendationService {
         MANHATTAN_ZONES.put("special areas", Arrays.asList("Roosevelt Island", "Randalls Island", "Marble Hill", "Highbridge Park", "Governor's Island/Ellis Island/Liberty Island"));
     }
 
+    // The same zones encoded as ordinals with a member bitset per area, the candidate index builds its zone pools from these
+    static final TaxiZoneCatalogue ZONE_CATALOGUE = new TaxiZoneCatalogue(MANHATTAN_ZONES);
+
     /**
      * This is the main service method to get locational recommendations for a specific activity, datetime, and zone
      * The results are then cached for identical inputs at a later date
      */
-    @Cacheable(cacheNames = "recommendations", key = "#request.activity + '_' + #request.dateTime.toString() + '_' + (#request.selectedZone != null ? #request.selectedZone : 'all')")
-    @Transactional
+    // Not @Transactional: that would hold a pooled connection for the whole ML call, scores are written by MlScoreWriteBehindQueue
+    // Not @Cacheable either: callers go through RecommendationCache, which also collapses concurrent misses into one run
     public RecommendationResponse getLocationRecommendations(RecommendationRequest request) {
         long startTime = System.currentTimeMillis();
 
@@ -100,181 +150,106 @@ public class LocationRecommendationService {
         String selectedZone = request.getSelectedZone();
 
         try {
-            // Lookup the related activity object from the database
-            long dbStartTime = System.currentTimeMillis();
-            Activity activity = activityRepository.findByName(activityName)
-                    .orElseThrow(() -> new RuntimeException("Activity not found: " + activityName));
-            System.out.println("Activity lookup took: " + (System.currentTimeMillis() - dbStartTime) + "ms");
-
-            dbStartTime = System.currentTimeMillis();
-
-            // Get a list of candidate location identifications relevant to the activity
-            List<String> locationIds = locationActivityScoreRepository
-                    .findDistinctLocationIdsByActivityName(activityName, 500);
-            System.out.println("Location ID query took: " + (System.currentTimeMillis() - dbStartTime) + "ms, found: " + locationIds.size() + " location IDs");
-
-            if (locationIds.isEmpty()) {
-                return new RecommendationResponse(Collections.emptyList(), activityName, requestDateTime.toString());
+            // Candidates come from the in-memory index, so there is no database round trip here
+            // An unknown activity still fails with "Activity not found"
+            long indexStartTime = System.currentTimeMillis();
+            ActivityCandidateIndex.Candidates candidates = activityCandidateIndex.candidatesFor(activityName);
+            // The index matches the name ignoring case, the ML model wants it spelled as in the database
+            activityName = candidates.getActivityName();
+            System.out.println("Candidate index lookup took: " + (System.currentTimeMillis() - indexStartTime) + "ms, found: " + candidates.size() + " locations");
+
+            // Work with positions into the index arrays rather than entities
+            // A selected zone gets its own pool from inside the zone rather than whatever part of the borough wide top 500 lands in it
+            long poolStartTime = System.currentTimeMillis();
+            int[] pool = candidates.pool(selectedZone);
+            List<Integer> universe = new ArrayList<>(pool.length);
+            for (int idx : pool) {
+                universe.add(idx);
             }
+            System.out.println("Candidate pool took: " + (System.currentTimeMillis() - poolStartTime) + "ms, pool size: " + universe.size() + " locations");
 
-            dbStartTime = System.currentTimeMillis();
-
-            // Covert these string ids to UUIDs
-            // Fetch the full location activity score with eager loading
-            // Eager loading is the opp of lazy loading, meaning i do not initialise the object until i need it
-            // This stops the slowing down of the ML microservice call
-            List<UUID> uuids = locationIds.stream().map(UUID::fromString).collect(Collectors.toList());
-            List<LocationActivityScore> universe = locationActivityScoreRepository.findByIdsWithEagerLoading(uuids);
-            System.out.println("Eager loading query took: " + (System.currentTimeMillis() - dbStartTime) + "ms, loaded: " + universe.size() + " locations");
-
+            // If no locations in the selected zone, return empty
             if (universe.isEmpty()) {
+                System.out.println("No locations found for activity " + activityName + " in zone: " + zoneInfo);
                 return new RecommendationResponse(Collections.emptyList(), activityName, requestDateTime.toString());
             }
 
-            // If there is a zone selected then filter locations to that zone!
-            if (selectedZone != null && !selectedZone.trim().isEmpty()) {
-                long filterStartTime = System.currentTimeMillis();
-                universe = filterByZone(universe, selectedZone);
-                System.out.println("Zone filtering took: " + (System.currentTimeMillis() - filterStartTime) + "ms, filtered to: " + universe.size() + " locations");
+            // The prediction cube already holds ML scores for this hour, rank straight from it
+            float[] precomputed = predictionCubeService.lookup(candidates, pool, requestDateTime);
+            if (precomputed != null) {
+                return precomputedRecommendations(candidates, pool, precomputed, activityName, requestDateTime, selectedZone);
             }
 
-            // If no locations in the selected zone, return empty
-            if (universe.isEmpty()) {
-                System.out.println("No locations found in selected zone: " + selectedZone);
-                return new RecommendationResponse(Collections.emptyList(), activityName, requestDateTime.toString());
+            // An earlier request for this activity and hour, usually the all-Manhattan one, already scored the whole pool
+            ScoredCandidateStore.Scores known = scoredCandidateStore.get(candidates, requestDateTime);
+            float[] stored = known != null ? known.lookup(pool) : null;
+            if (stored != null) {
+                System.out.println("Whole pool already scored for this hour, ranking from stored ML scores");
+                return precomputedRecommendations(candidates, pool, stored, activityName, requestDateTime, selectedZone);
             }
 
-            Collections.shuffle(universe);
-            List<LocationActivityScore> sample = new ArrayList<>(universe);
-
-            // Now we will prepare the data/input for that ML model
-            long mlStartTime = System.currentTimeMillis();
-            List<Map<String,Object>> mlPayload = new ArrayList<>(sample.size());
-
-            for (LocationActivityScore s : sample) {
-                Map<String,Object> m = new HashMap<>();
-                m.put("latitude", s.getLocation().getLatitude().doubleValue());
-                m.put("longitude", s.getLocation().getLongitude().doubleValue());
-                m.put("hour", requestDateTime.getHour());
-                m.put("month", requestDateTime.getMonthValue());
-                m.put("day", requestDateTime.getDayOfMonth());
-                m.put("cultural_activity_prefered", activityName);
-                mlPayload.add(m);
+            // ML service is known to be down or struggling, rank from the historical scores rather than wait on a timeout
+            if (!mlCircuitBreaker.tryAcquire()) {
+                System.out.println("ML circuit breaker is " + mlCircuitBreaker.getState() + ", ranking from historical scores");
+                return historicalRecommendations(candidates, universe, activityName, requestDateTime, selectedZone);
             }
-            System.out.println("ML payload creation took: " + (System.currentTimeMillis() - mlStartTime) + "ms");
-
-            // Call is made to the ML model via api and predictions are got
-            mlStartTime = System.currentTimeMillis();
-            PredictionResponse[] predictions = callMLModelBatch(mlPayload);
-            System.out.println("ML API call took: " + (System.currentTimeMillis() - mlStartTime) + "ms");
 
-            // We will apply ML predictions to the sample locations called
-            long scoreStartTime = System.currentTimeMillis();
-            int limit = Math.min(predictions.length, sample.size());
-            Map<UUID, BigDecimal> mlScores = new HashMap<>();
-
-            // Get the activity name in lowercase for condition checking
             String activityLowerCase = activityName.toLowerCase();
+            List<LocationActivityScoreRepository.MlScoreUpdate> updates = new ArrayList<>(universe.size());
 
-            for (int i = 0; i < limit; i++) {
-                LocationActivityScore las = sample.get(i);
-                PredictionResponse p = predictions[i];
-
-                double cultScore = p.getCreativeActivityScore();
-                double crowdScore = p.getCrowdScore();
-                int crowdNumber = p.getEstimatedCrowdNumber();
+            // Only candidates without a stored score go to the ML model, and what comes back is added to the stored scores
+            ScoredCandidateStore.Scores.Builder scored = known != null ? known.toBuilder() : ScoredCandidateStore.Scores.builder(candidates);
+            List<Integer> unscored = new ArrayList<>(universe.size());
+            for (int idx : universe) {
+                if (!scored.isScored(idx)) unscored.add(idx);
+            }
 
-                // Crowd score inversion for activities other than busking and art sale (explaned in the report)
-                double adjustedCrowdScore = crowdScore;
-                if (!activityLowerCase.equals("busking") && !activityLowerCase.equals("art sale")) {
-                    adjustedCrowdScore = 10.0 - crowdScore;
-                }
-                
-                // Muse Score calculation with weightings dependent on activity (justified and referenced in the final report)
-                double museValue;
-                if (activityLowerCase.equals("busking")) {
-                    museValue = (adjustedCrowdScore * 0.65) + (cultScore * 0.35);
-                } else if (activityLowerCase.equals("art sale")) {
-                    museValue = (adjustedCrowdScore * 0.60) + (cultScore * 0.40);
-                } else if (activityLowerCase.equals("filmmaking")) {
-                    museValue = (adjustedCrowdScore * 0.55) + (cultScore * 0.45);
-                } else if (activityLowerCase.equals("street photography")) {
-                    museValue = (adjustedCrowdScore * 0.40) + (cultScore * 0.60);
-                } else if (activityLowerCase.equals("portrait photography")) {
-                    museValue = (adjustedCrowdScore * 0.30) + (cultScore * 0.70);
-                } else if (activityLowerCase.equals("portrait painting")) {
-                    museValue = (adjustedCrowdScore * 0.35) + (cultScore * 0.65);
-                } else if (activityLowerCase.equals("landscape painting")) {
-                    museValue = (adjustedCrowdScore * 0.35) + (cultScore * 0.65);
+            // Call is made to the ML model via api and predictions are got, either for the whole pool or a chunk at a time
+            long mlStartTime = System.currentTimeMillis();
+            int rowsScored;
+            try {
+                if (mlProgressiveEnabled) {
+                    List<LocationRecommendationResponse> mapped = scoredResponses(candidates, pool, known, activityLowerCase);
+                    rowsScored = scoreProgressively(candidates, unscored, activityName, activityLowerCase, requestDateTime,
+                            minDistanceFor(selectedZone), mapped, updates, scored);
                 } else {
-                    // Default case for any other activities
-                    museValue = (adjustedCrowdScore * 0.6) + (cultScore * 0.4);
+                    Collections.shuffle(unscored);
+                    rowsScored = scoreWithMl(candidates, unscored, activityName, activityLowerCase, requestDateTime, null, updates, scored);
                 }
-                
-                // Don't need to but just incase: make sure the muse score is between 1.0 and 10.0
-                museValue = Math.max(1.0, Math.min(10.0, museValue));
-
-                // Convert it to a BigDecimal
-                BigDecimal cult = BigDecimal.valueOf(cultScore);
-                BigDecimal crowd = BigDecimal.valueOf(crowdScore);
-                BigDecimal muse = new BigDecimal(String.format("%.1f", museValue));
-
-                las.setCulturalActivityScore(cult);
-                las.setCrowdScore(crowd);
-                las.setEstimatedCrowdNumber(crowdNumber);
-                las.setMuseScore(muse);
-                mlScores.put(las.getLocation().getId(), cult);
+                mlCircuitBreaker.onSuccess(System.currentTimeMillis() - mlStartTime);
+            } catch (MlCallFailedException e) {
+                mlCircuitBreaker.onFailure();
+                System.err.println("ML API call failed after " + (System.currentTimeMillis() - mlStartTime) + "ms, ranking from historical scores: " + e.getMessage());
+                return historicalRecommendations(candidates, universe, activityName, requestDateTime, selectedZone);
+            } catch (RuntimeException e) {
+                // A bug on our side says nothing about the ML service, give the permit back and let the caller see the error
+                mlCircuitBreaker.release();
+                throw e;
             }
-            System.out.println("Score calculation took: " + (System.currentTimeMillis() - scoreStartTime) + "ms");
+            ScoredCandidateStore.Scores artefact = scored.build();
+            scoredCandidateStore.merge(requestDateTime, artefact);
 
-            // Save the processed scores into the database, this is done in a batch for performance
-            // As this is a batch save and one of the most slow operations            
+            // Hand the scores and the prediction log to the write-behind queue, the response does not wait for the database
+            // The queue coalesces repeated rows and writes them in JDBC batches off the request thread
             long saveStartTime = System.currentTimeMillis();
-            List<LocationActivityScore> processed = sample.subList(0, limit);
-            locationActivityScoreRepository.saveAll(processed);
-            System.out.println("Database save took: " + (System.currentTimeMillis() - saveStartTime) + "ms");
-
-            // Log the ML prediction for an activity for debugging and model comparison
             MLPredictionLog log = new MLPredictionLog();
             log.setId(UUID.randomUUID());
             log.setModelVersion("3.0");
             log.setPredictionType("location_recommendation");
-            log.setRecordsProcessed(processed.size());
-            log.setRecordsUpdated(processed.size());
+            log.setRecordsProcessed(rowsScored);
+            log.setRecordsUpdated(updates.size());
             log.setPredictionDate(OffsetDateTime.now());
-            mlPredictionLogRepository.save(log);
-
-            // For each of the data given we will put them all into a response object for Frontend
-            long mapStartTime = System.currentTimeMillis();
-            List<LocationRecommendationResponse> mapped = processed.stream()
-                    .sorted(Comparator.comparing(LocationActivityScore::getMuseScore).reversed())
-                    .map(las -> new LocationRecommendationResponse(
-                            las.getLocation().getId(),
-                            las.getLocation().getLocationName(),
-                            las.getLocation().getLatitude(),
-                            las.getLocation().getLongitude(),
-                            mlScores.get(las.getLocation().getId()),
-                            las.getMuseScore(),
-                            las.getCrowdScore(),
-                            las.getEstimatedCrowdNumber()
-                    ))
-                    .collect(Collectors.toList());
-            System.out.println("Response mapping took: " + (System.currentTimeMillis() - mapStartTime) + "ms");
-
-            // If there is no locations then return empty
-            long filterStartTime = System.currentTimeMillis();
-            double minDistance = (selectedZone != null && !selectedZone.trim().isEmpty()) ? 25.0 : 50.0;
-            List<LocationRecommendationResponse> top10 = filterByDistance(mapped, minDistance, 10);
-            System.out.println("Distance filtering took: " + (System.currentTimeMillis() - filterStartTime) + "ms (min distance: " + minDistance + "m)");
-
-            // We assign the crowd levels too based on Quiet, Medium or Busy
-            long crowdStartTime = System.currentTimeMillis();
-            assignCrowdLevels(top10);
-            System.out.println("Crowd level assignment took: " + (System.currentTimeMillis() - crowdStartTime) + "ms");
-
-            RecommendationResponse response = new RecommendationResponse(top10, activityName, requestDateTime.toString());
-
-            return response;
+            mlScoreWriteBehindQueue.enqueue(updates, log);
+            System.out.println("Score write-behind enqueue took: " + (System.currentTimeMillis() - saveStartTime) + "ms");
+
+            // Every area's pool is scored after this response is on its way, so the zone requests that follow need no ML call
+            if (isAllManhattan(selectedZone) && scoredCandidateStore.isScoreZonePools()) {
+                String scoredActivityName = activityName;
+                scoredCandidateStore.scheduleZonePools(() -> scoreZonePools(candidates, scoredActivityName, requestDateTime));
+            }
+
+            List<LocationRecommendationResponse> mapped = scoredResponses(candidates, pool, artefact, activityLowerCase);
+            return new RecommendationResponse(rankTopLocations(mapped, selectedZone), activityName, requestDateTime.toString());
 
         } catch (Exception e) {
             // Throw an error handler to deal with mess up!
@@ -282,6 +257,347 @@ public class LocationRecommendationService {
         }
     }
 
+    /**
+     * One ML call for the given candidate positions, each prediction is added to updates, the stored scores and mapped when given
+     * Returns how many rows were sent
+     */
+    private int scoreWithMl(ActivityCandidateIndex.Candidates candidates, List<Integer> sample, String activityName, String activityLowerCase,
+                            LocalDateTime requestDateTime, List<LocationRecommendationResponse> mapped,
+                            List<LocationActivityScoreRepository.MlScoreUpdate> updates, ScoredCandidateStore.Scores.Builder scored) {
+        // Now we will prepare the data/input for that ML model
+        long mlStartTime = System.currentTimeMillis();
+        List<Map<String,Object>> mlPayload = new ArrayList<>(sample.size());
+
+        for (int idx : sample) {
+            Map<String,Object> m = new HashMap<>();
+            m.put("latitude", candidates.latitude(idx));
+            m.put("longitude", candidates.longitude(idx));
+            m.put("hour", requestDateTime.getHour());
+            m.put("month", requestDateTime.getMonthValue());
+            m.put("day", requestDateTime.getDayOfMonth());
+            m.put("cultural_activity_prefered", activityName);
+            mlPayload.add(m);
+        }
+        System.out.println("ML payload creation took: " + (System.currentTimeMillis() - mlStartTime) + "ms");
+
+        mlStartTime = System.currentTimeMillis();
+        PredictionResponse[] predictions;
+        try {
+            predictions = callMLModelBatch(mlPayload);
+        } catch (RuntimeException e) {
+            throw new MlCallFailedException(e);
+        }
+        System.out.println("ML API call took: " + (System.currentTimeMillis() - mlStartTime) + "ms");
+
+        // We will apply ML predictions to the sample locations called
+        long scoreStartTime = System.currentTimeMillis();
+        int limit = Math.min(predictions.length, sample.size());
+
+        for (int i = 0; i < limit; i++) {
+            int idx = sample.get(i);
+            PredictionResponse p = predictions[i];
+
+            // No prediction when its chunk failed and ml.predict.fanout.partial-failure is skip
+            if (p == null) continue;
+
+            double cultScore = p.getCreativeActivityScore();
+            double crowdScore = p.getCrowdScore();
+            int crowdNumber = p.getEstimatedCrowdNumber();
+            double museValue = calculateMuseScore(activityLowerCase, cultScore, crowdScore);
+
+            // Convert it to a BigDecimal
+            BigDecimal cult = BigDecimal.valueOf(cultScore);
+            BigDecimal crowd = BigDecimal.valueOf(crowdScore);
+            BigDecimal muse = new BigDecimal(String.format("%.1f", museValue));
+
+            updates.add(new LocationActivityScoreRepository.MlScoreUpdate(candidates.scoreId(idx), cult, crowd, muse, crowdNumber));
+            scored.put(idx, (float) cultScore, (float) crowdScore, crowdNumber);
+            if (mapped != null) {
+                mapped.add(new LocationRecommendationResponse(
+                        candidates.locationId(idx),
+                        candidates.locationName(idx),
+                        BigDecimal.valueOf(candidates.latitude(idx)),
+                        BigDecimal.valueOf(candidates.longitude(idx)),
+                        cult,
+                        muse,
+                        crowd,
+                        crowdNumber
+                ));
+            }
+        }
+        System.out.println("Score calculation took: " + (System.currentTimeMillis() - scoreStartTime) + "ms");
+        return limit;
+    }
+
+    /**
+     * Threshold-style evaluation: candidates are sent to the ML model in chunks, highest optimistic muse score first,
+     * and scoring stops once the current top 10 after the distance filter can't be beaten by anything left
+     * Any unscored candidate scoring at or below the 10th pick would sort after it, so the picks can no longer change
+     * The estimate is only a true upper bound while the ML scores stay within ml.progressive.score-slack of the historical ones
+     * Returns how many rows were sent
+     */
+    private int scoreProgressively(ActivityCandidateIndex.Candidates candidates, List<Integer> pool, String activityName, String activityLowerCase,
+                                   LocalDateTime requestDateTime, double minDistance, List<LocationRecommendationResponse> mapped,
+                                   List<LocationActivityScoreRepository.MlScoreUpdate> updates, ScoredCandidateStore.Scores.Builder scored) {
+        Map<Integer, Double> bounds = new HashMap<>(pool.size() * 2);
+        for (int idx : pool) {
+            bounds.put(idx, optimisticMuseScore(candidates, idx, activityLowerCase));
+        }
+        List<Integer> ordered = new ArrayList<>(pool);
+        ordered.sort(Comparator.comparing((Integer idx) -> bounds.get(idx)).reversed());
+
+        int chunkSize = Math.max(1, mlProgressiveChunkSize);
+        int sent = 0;
+        int rounds = 0;
+        while (sent < ordered.size()) {
+            List<Integer> chunk = ordered.subList(sent, Math.min(ordered.size(), sent + chunkSize));
+            scoreWithMl(candidates, chunk, activityName, activityLowerCase, requestDateTime, mapped, updates, scored);
+            sent += chunk.size();
+            rounds++;
+
+            if (sent < ordered.size()) {
+                List<LocationRecommendationResponse> ranked = new ArrayList<>(mapped);
+                ranked.sort(Comparator.comparing(LocationRecommendationResponse::getMuseScore).reversed());
+                List<LocationRecommendationResponse> top = filterByDistance(ranked, minDistance, TOP_RESULTS);
+                if (top.size() >= TOP_RESULTS && bounds.get(ordered.get(sent)) <= top.get(TOP_RESULTS - 1).getMuseScore().doubleValue()) {
+                    break;
+                }
+            }
+        }
+        System.out.println("Progressive ML evaluation: scored " + sent + " of " + ordered.size() + " candidates in " + rounds + " rounds");
+        return sent;
+    }
+
+    /**
+     * Best muse score a candidate could plausibly get from the ML model, from its historical scores give or take the slack
+     * No historical activity score gives the maximum so the candidate is scored early rather than ruled out
+     */
+    private double optimisticMuseScore(ActivityCandidateIndex.Candidates candidates, int idx, String activityLowerCase) {
+        double cultScore = candidates.historicalActivityScore(idx);
+        if (Double.isNaN(cultScore)) {
+            return 10.0;
+        }
+        double bestCult = Math.min(10.0, cultScore + mlProgressiveScoreSlack);
+        double crowdScore = candidates.historicalCrowdScore(idx);
+        // Busking and art sale want crowds and the rest want quiet, so try both ends of the crowd range
+        double lowCrowd = Double.isNaN(crowdScore) ? 0.0 : Math.max(0.0, crowdScore - mlProgressiveScoreSlack);
+        double highCrowd = Double.isNaN(crowdScore) ? 10.0 : Math.min(10.0, crowdScore + mlProgressiveScoreSlack);
+        return Math.max(calculateMuseScore(activityLowerCase, bestCult, lowCrowd),
+                calculateMuseScore(activityLowerCase, bestCult, highCrowd));
+    }
+
+    // Minimum distance between picks, tighter inside a zone
+    private static double minDistanceFor(String selectedZone) {
+        return isAllManhattan(selectedZone) ? 50.0 : 25.0;
+    }
+
+    private static boolean isAllManhattan(String selectedZone) {
+        return RecommendationKey.canonicalZone(selectedZone) == null;
+    }
+
+    /**
+     * Background follow-up to an all-Manhattan miss: score every area pool position still missing for the hour and add it to the stored scores
+     * Skipped while the breaker turns calls away, zone requests then score their own rows as before
+     */
+    void scoreZonePools(ActivityCandidateIndex.Candidates candidates, String activityName, LocalDateTime requestDateTime) {
+        ScoredCandidateStore.Scores known = scoredCandidateStore.get(candidates, requestDateTime);
+        ScoredCandidateStore.Scores.Builder scored = known != null ? known.toBuilder() : ScoredCandidateStore.Scores.builder(candidates);
+        List<Integer> missing = unscoredServable(candidates, scored);
+        if (missing.isEmpty() || !mlCircuitBreaker.tryAcquire()) {
+            return;
+        }
+        List<LocationActivityScoreRepository.MlScoreUpdate> updates = new ArrayList<>(missing.size());
+        long mlStartTime = System.currentTimeMillis();
+        int rowsScored;
+        try {
+            rowsScored = scoreWithMl(candidates, missing, activityName, activityName.toLowerCase(), requestDateTime, null, updates, scored);
+            mlCircuitBreaker.onSuccess(System.currentTimeMillis() - mlStartTime);
+        } catch (MlCallFailedException e) {
+            mlCircuitBreaker.onFailure();
+            System.err.println("Background zone-pool scoring failed after " + (System.currentTimeMillis() - mlStartTime) + "ms: " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            mlCircuitBreaker.release();
+            throw e;
+        }
+        scoredCandidateStore.merge(requestDateTime, scored.build());
+
+        MLPredictionLog log = new MLPredictionLog();
+        log.setId(UUID.randomUUID());
+        log.setModelVersion("3.0");
+        log.setPredictionType("zone_pool_scoring");
+        log.setRecordsProcessed(rowsScored);
+        log.setRecordsUpdated(updates.size());
+        log.setPredictionDate(OffsetDateTime.now());
+        mlScoreWriteBehindQueue.enqueue(updates, log);
+        System.out.println("Background zone-pool scoring sent " + rowsScored + " rows for " + activityName + " at " + requestDateTime);
+    }
+
+    /**
+     * Every position any request can be handed, borough or area pool, that has no stored score yet
+     */
+    private static List<Integer> unscoredServable(ActivityCandidateIndex.Candidates candidates, ScoredCandidateStore.Scores.Builder scored) {
+        int[] servable = candidates.servablePositions();
+        List<Integer> unscored = new ArrayList<>(servable.length);
+        for (int idx : servable) {
+            if (!scored.isScored(idx)) unscored.add(idx);
+        }
+        return unscored;
+    }
+
+    /**
+     * Responses for the pool positions that have a stored score, in pool order
+     */
+    private static List<LocationRecommendationResponse> scoredResponses(ActivityCandidateIndex.Candidates candidates, int[] pool,
+                                                                        ScoredCandidateStore.Scores scores, String activityLowerCase) {
+        List<LocationRecommendationResponse> mapped = new ArrayList<>(pool.length);
+        if (scores == null) return mapped;
+        for (int idx : pool) {
+            if (!scores.isScored(idx)) continue;
+            double cultScore = scores.culturalScore(idx);
+            double crowdScore = scores.crowdScore(idx);
+            double museValue = calculateMuseScore(activityLowerCase, cultScore, crowdScore);
+            mapped.add(new LocationRecommendationResponse(
+                    candidates.locationId(idx),
+                    candidates.locationName(idx),
+                    BigDecimal.valueOf(candidates.latitude(idx)),
+                    BigDecimal.valueOf(candidates.longitude(idx)),
+                    BigDecimal.valueOf(cultScore),
+                    new BigDecimal(String.format("%.1f", museValue)),
+                    BigDecimal.valueOf(crowdScore),
+                    (int) scores.crowdNumber(idx)
+            ));
+        }
+        return mapped;
+    }
+
+    /**
+     * Sort by muse score, spread the picks out by distance and label their crowd levels
+     */
+    private List<LocationRecommendationResponse> rankTopLocations(List<LocationRecommendationResponse> mapped, String selectedZone) {
+        // For each of the data given we will put them all into a response object for Frontend
+        long mapStartTime = System.currentTimeMillis();
+        mapped.sort(Comparator.comparing(LocationRecommendationResponse::getMuseScore).reversed());
+        System.out.println("Response mapping took: " + (System.currentTimeMillis() - mapStartTime) + "ms");
+
+        // If there is no locations then return empty
+        long filterStartTime = System.currentTimeMillis();
+        double minDistance = minDistanceFor(selectedZone);
+        List<LocationRecommendationResponse> top10 = filterByDistance(mapped, minDistance, TOP_RESULTS);
+        System.out.println("Distance filtering took: " + (System.currentTimeMillis() - filterStartTime) + "ms (min distance: " + minDistance + "m)");
+
+        // We assign the crowd levels too based on Quiet, Medium or Busy
+        long crowdStartTime = System.currentTimeMillis();
+        assignCrowdLevels(top10);
+        System.out.println("Crowd level assignment took: " + (System.currentTimeMillis() - crowdStartTime) + "ms");
+        return top10;
+    }
+
+    /**
+     * Ranking from scores the ML model already gave for this hour, from the prediction cube or the scored candidate store
+     * scores[i * 3 ..] are the cultural score, crowd score and crowd number for pool[i], nothing is written back
+     */
+    private RecommendationResponse precomputedRecommendations(ActivityCandidateIndex.Candidates candidates, int[] pool, float[] scores,
+                                                              String activityName, LocalDateTime requestDateTime, String selectedZone) {
+        long startTime = System.currentTimeMillis();
+        String activityLowerCase = activityName.toLowerCase();
+        List<LocationRecommendationResponse> mapped = new ArrayList<>(pool.length);
+
+        for (int i = 0; i < pool.length; i++) {
+            int idx = pool[i];
+            double cultScore = scores[i * 3];
+            double crowdScore = scores[i * 3 + 1];
+            double museValue = calculateMuseScore(activityLowerCase, cultScore, crowdScore);
+
+            mapped.add(new LocationRecommendationResponse(
+                    candidates.locationId(idx),
+                    candidates.locationName(idx),
+                    BigDecimal.valueOf(candidates.latitude(idx)),
+                    BigDecimal.valueOf(candidates.longitude(idx)),
+                    BigDecimal.valueOf(cultScore),
+                    new BigDecimal(String.format("%.1f", museValue)),
+                    BigDecimal.valueOf(crowdScore),
+                    (int) scores[i * 3 + 2]
+            ));
+        }
+        System.out.println("Precomputed scoring took: " + (System.currentTimeMillis() - startTime) + "ms for " + mapped.size() + " locations");
+
+        return new RecommendationResponse(rankTopLocations(mapped, selectedZone), activityName, requestDateTime.toString());
+    }
+
+    /**
+     * Fallback ranking for when the ML service is skipped or fails, uses the historical scores already in the index
+     * The same muse formula is applied with historical_activity_score as the cultural score and
+     * historical_taxi_zone_crowd_score as the crowd score, nothing is written back and there is no crowd estimate
+     * The response is flagged as degraded so RecommendationCache only keeps it briefly
+     */
+    private RecommendationResponse historicalRecommendations(ActivityCandidateIndex.Candidates candidates, List<Integer> pool,
+                                                             String activityName, LocalDateTime requestDateTime, String selectedZone) {
+        long startTime = System.currentTimeMillis();
+        String activityLowerCase = activityName.toLowerCase();
+        List<LocationRecommendationResponse> mapped = new ArrayList<>(pool.size());
+
+        for (int idx : pool) {
+            double cultScore = candidates.historicalActivityScore(idx);
+            if (Double.isNaN(cultScore)) continue;
+            // Missing crowd history counts as middling
+            double crowdScore = Double.isNaN(candidates.historicalCrowdScore(idx)) ? 5.0
+                    : Math.max(0.0, Math.min(10.0, candidates.historicalCrowdScore(idx)));
+            double museValue = calculateMuseScore(activityLowerCase, cultScore, crowdScore);
+
+            mapped.add(new LocationRecommendationResponse(
+                    candidates.locationId(idx),
+                    candidates.locationName(idx),
+                    BigDecimal.valueOf(candidates.latitude(idx)),
+                    BigDecimal.valueOf(candidates.longitude(idx)),
+                    BigDecimal.valueOf(cultScore),
+                    new BigDecimal(String.format("%.1f", museValue)),
+                    BigDecimal.valueOf(crowdScore),
+                    null
+            ));
+        }
+        System.out.println("Historical fallback scoring took: " + (System.currentTimeMillis() - startTime) + "ms for " + mapped.size() + " locations");
+
+        RecommendationResponse response = new RecommendationResponse(rankTopLocations(mapped, selectedZone), activityName, requestDateTime.toString());
+        response.setDegraded(true);
+        return response;
+    }
+
+    /**
+     * Muse score for one location, activityLowerCase must already be lower case
+     */
+    private static double calculateMuseScore(String activityLowerCase, double cultScore, double crowdScore) {
+        // Crowd score inversion for activities other than busking and art sale (explaned in the report)
+        double adjustedCrowdScore = crowdScore;
+        if (!activityLowerCase.equals("busking") && !activityLowerCase.equals("art sale")) {
+            adjustedCrowdScore = 10.0 - crowdScore;
+        }
+
+        // Muse Score calculation with weightings dependent on activity (justified and referenced in the final report)
+        double museValue;
+        if (activityLowerCase.equals("busking")) {
+            museValue = (adjustedCrowdScore * 0.65) + (cultScore * 0.35);
+        } else if (activityLowerCase.equals("art sale")) {
+            museValue = (adjustedCrowdScore * 0.60) + (cultScore * 0.40);
+        } else if (activityLowerCase.equals("filmmaking")) {
+            museValue = (adjustedCrowdScore * 0.55) + (cultScore * 0.45);
+        } else if (activityLowerCase.equals("street photography")) {
+            museValue = (adjustedCrowdScore * 0.40) + (cultScore * 0.60);
+        } else if (activityLowerCase.equals("portrait photography")) {
+            museValue = (adjustedCrowdScore * 0.30) + (cultScore * 0.70);
+        } else if (activityLowerCase.equals("portrait painting")) {
+            museValue = (adjustedCrowdScore * 0.35) + (cultScore * 0.65);
+        } else if (activityLowerCase.equals("landscape painting")) {
+            museValue = (adjustedCrowdScore * 0.35) + (cultScore * 0.65);
+        } else {
+            // Default case for any other activities
+            museValue = (adjustedCrowdScore * 0.6) + (cultScore * 0.4);
+        }
+
+        // Don't need to but just incase: make sure the muse score is between 1.0 and 10.0
+        return Math.max(1.0, Math.min(10.0, museValue));
+    }
+
     /**
      * This is for the crowd level assignment via the estimated crowd number
      * Instead, we give human readable english for a number
@@ -354,15 +670,6 @@ public class LocationRecommendationService {
         }
     }
 
-    private List<LocationActivityScore> filterByZone(List<LocationActivityScore> locations, String selectedZone) {
-        List<String> zoneNames = MANHATTAN_ZONES.get(selectedZone.toLowerCase());
-        if (zoneNames == null) return Collections.emptyList();
-
-        return locations.stream()
-                .filter(location -> zoneNames.contains(location.getTaxiZone().getZoneName()))
-                .collect(Collectors.toList());
-    }
-
     /**
      * Filters all the locations by a minimum distance in meters, preventing the clustering of location suggestions to one peak cultural activity
      * This ensures a spread of locations to the user as always in their preferenced locations
@@ -375,22 +682,19 @@ public class LocationRecommendationService {
      */
     private List<LocationRecommendationResponse> filterByDistance(List<LocationRecommendationResponse> locations, double minDistanceMeters, int targetResults) {
         List<LocationRecommendationResponse> filtered = new ArrayList<>();
+        if (locations.isEmpty()) {
+            return filtered;
+        }
+
+        // Grid cells are the size of the minimum distance, so each check only looks at the neighbouring cells
+        // instead of every location picked so far
+        SpatialGrid selected = new SpatialGrid(minDistanceMeters, locations.get(0).getLatitude().doubleValue());
 
         for (LocationRecommendationResponse candidate : locations) {
-            boolean tooClose = false;
-            for (LocationRecommendationResponse selected : filtered) {
-                double distance = calculateDistance(
-                        candidate.getLatitude().doubleValue(),
-                        candidate.getLongitude().doubleValue(),
-                        selected.getLatitude().doubleValue(),
-                        selected.getLongitude().doubleValue()
-                );
-                if (distance < minDistanceMeters) {
-                    tooClose = true;
-                    break;
-                }
-            }
-            if (!tooClose) {
+            double lat = candidate.getLatitude().doubleValue();
+            double lon = candidate.getLongitude().doubleValue();
+            if (!selected.hasPointWithin(lat, lon, minDistanceMeters)) {
+                selected.add(lat, lon);
                 filtered.add(candidate);
                 if (filtered.size() >= targetResults) break;
             }
@@ -399,30 +703,88 @@ public class LocationRecommendationService {
     }
 
     /**
-     * This calculates the distance between two locational points via "Haversine" formula
-     * This is ensures that we do not recommend locations that are too close to one another
+     * A batch call to the ML model is used to get predictions for multiple locations
+     * The batch is split into chunks that are posted concurrently, so the ML replicas behind the service score them in parallel
+     * Results come back in the same order as the bodies, a failed chunk either fails the whole call or leaves nulls
+     * in its slots depending on ml.predict.fanout.partial-failure
      */
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int EARTH_RADIUS = 6371000;
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return EARTH_RADIUS * c;
+    protected PredictionResponse[] callMLModelBatch(List<Map<String,Object>> bodies) {
+        // Local scoring has no network hop to spread out, so the whole batch goes in one go
+        if (localMlScorer.isActive()) {
+            return localMlScorer.predictBatch(bodies);
+        }
+
+        int chunkSize = Math.max(1, mlChunkSize);
+        int chunkCount = (bodies.size() + chunkSize - 1) / chunkSize;
+        if (chunkCount <= 1) {
+            return callMLModelChunk(bodies);
+        }
+
+        // Virtual threads are cheap enough for one per chunk, the semaphore keeps the ML service from being flooded
+        Semaphore permits = new Semaphore(Math.max(1, mlMaxConcurrentChunks));
+        List<Future<PredictionResponse[]>> futures = new ArrayList<>(chunkCount);
+        for (int c = 0; c < chunkCount; c++) {
+            List<Map<String,Object>> chunk = bodies.subList(c * chunkSize, Math.min(bodies.size(), (c + 1) * chunkSize));
+            futures.add(mlFanoutExecutor.submit(() -> {
+                permits.acquire();
+                try {
+                    return callMLModelChunk(chunk);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        PredictionResponse[] merged = new PredictionResponse[bodies.size()];
+        int failedChunks = 0;
+        RuntimeException firstFailure = null;
+        for (int c = 0; c < chunkCount; c++) {
+            int offset = c * chunkSize;
+            int expected = Math.min(chunkSize, bodies.size() - offset);
+            RuntimeException failure = null;
+            try {
+                PredictionResponse[] part = futures.get(c).get();
+                if (part == null || part.length != expected) {
+                    failure = new IllegalStateException("ML chunk " + c + " returned " + (part == null ? 0 : part.length) + " predictions for " + expected + " rows");
+                } else {
+                    System.arraycopy(part, 0, merged, offset, expected);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new RuntimeException("Interrupted while waiting for ML predictions", e);
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+            }
+
+            if (failure != null) {
+                failedChunks++;
+                if (firstFailure == null) firstFailure = failure;
+                System.err.println("ML chunk " + c + " (" + expected + " rows) failed: " + failure.getMessage());
+            }
+        }
+
+        if (failedChunks > 0) {
+            // Fail policy, or every chunk failed so there is nothing to rank
+            if (!"skip".equalsIgnoreCase(mlPartialFailurePolicy) || failedChunks == chunkCount) {
+                futures.forEach(f -> f.cancel(true));
+                throw firstFailure;
+            }
+            System.out.println("ML fan-out: " + failedChunks + " of " + chunkCount + " chunks failed, ranking the rest");
+        }
+        return merged;
     }
 
     /**
-     * A batch call to the ML model is used to get predictions for multiple locations
+     * One chunk's predictions, posted on its own or together with other requests' rows by the micro-batcher
      */
-    protected PredictionResponse[] callMLModelBatch(List<Map<String,Object>> bodies) {
-        RestTemplate r = new RestTemplate();
-        return r.postForObject(
-                mlPredictUrl,
-                bodies,
-                PredictionResponse[].class
-        );
+    protected PredictionResponse[] callMLModelChunk(List<Map<String,Object>> bodies) {
+        return mlPredictionBatcher.predict(bodies);
+    }
+
+    @PreDestroy
+    public void shutdownMlFanout() {
+        mlFanoutExecutor.shutdownNow();
     }
 
     // These methods are for the frontend to get all of the activities, xones, dates and times 
@@ -441,4 +803,13 @@ public class LocationRecommendationService {
     public List<String> getAvailableZones() {
         return new ArrayList<>(MANHATTAN_ZONES.keySet());
     }
+
+    /**
+     * A failure of the ML call itself, the only kind that counts against the breaker and falls back to historical scores
+     */
+    private static final class MlCallFailedException extends RuntimeException {
+        MlCallFailedException(RuntimeException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
 }
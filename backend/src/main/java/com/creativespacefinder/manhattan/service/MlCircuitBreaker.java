@@ -0,0 +1,165 @@
+package com.creativespacefinder.manhattan.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// References:
+// https://martinfowler.com/bliki/CircuitBreaker.html
+// https://learn.microsoft.com/en-us/azure/architecture/patterns/circuit-breaker
+
+/**
+ * Circuit breaker around calls to the ML prediction service
+ * After failure-threshold failed or slow calls in a row it opens, and callers are told to skip the ML service
+ * Once open-duration-ms has passed a limited number of probe calls are let through (half open)
+ * A successful probe closes it again, a failed probe opens it for another full open-duration-ms
+ */
+@Service
+public class MlCircuitBreaker {
+
+    public enum State {
+        CLOSED,     // Calls go through
+        OPEN,       // Calls are skipped until the open duration has passed
+        HALF_OPEN   // Only probe calls go through
+    }
+
+    // Failed or slow calls in a row before the breaker opens
+    @Value("${ml.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold = 5;
+
+    @Value("${ml.circuit-breaker.open-duration-ms:30000}")
+    private long openDurationMs = 30000;
+
+    // Probe calls allowed at once while half open
+    @Value("${ml.circuit-breaker.half-open-probes:1}")
+    private int halfOpenProbes = 1;
+
+    // A call that succeeds but takes longer than this still counts against the breaker
+    @Value("${ml.circuit-breaker.slow-call-ms:20000}")
+    private long slowCallMs = 20000;
+
+    // Swapped out in tests
+    LongSupplier clock = System::currentTimeMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int probesInFlight;
+    private long openedAt;
+
+    // Metrics
+    private final AtomicLong permittedCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * Ask before calling the ML service, false means skip it and use the fallback
+     * Every true must be followed by exactly one onSuccess, onFailure or release
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationMs) {
+            transitionTo(State.HALF_OPEN);
+        }
+
+        boolean permitted = switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (probesInFlight < Math.max(1, halfOpenProbes)) {
+                    probesInFlight++;
+                    yield true;
+                }
+                yield false;
+            }
+        };
+
+        if (permitted) {
+            permittedCalls.incrementAndGet();
+        } else {
+            rejectedCalls.incrementAndGet();
+        }
+        return permitted;
+    }
+
+    public synchronized void onSuccess(long latencyMs) {
+        if (latencyMs > slowCallMs) {
+            slowCalls.incrementAndGet();
+            recordFailure();
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            transitionTo(State.CLOSED);
+        }
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        failedCalls.incrementAndGet();
+        recordFailure();
+    }
+
+    /**
+     * Give back a permit whose call failed for a reason that says nothing about the ML service
+     * Frees the probe slot while half open, the breaker state and failure count are left as they were
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    public synchronized State getState() {
+        // Report an expired open breaker as half open, that is what the next caller will see
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", getState().name());
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("failureThreshold", failureThreshold);
+        stats.put("openedAt", openedAt > 0 ? Instant.ofEpochMilli(openedAt).toString() : null);
+        stats.put("timesOpened", timesOpened.get());
+        stats.put("permittedCalls", permittedCalls.get());
+        stats.put("rejectedCalls", rejectedCalls.get());
+        stats.put("failedCalls", failedCalls.get());
+        stats.put("slowCalls", slowCalls.get());
+        return stats;
+    }
+
+    private void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            transitionTo(State.OPEN);
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State next) {
+        if (state == next) return;
+        System.out.println("ML circuit breaker " + state + " -> " + next + " after " + consecutiveFailures + " failures in a row");
+        state = next;
+        if (next == State.OPEN) {
+            openedAt = clock.getAsLong();
+            timesOpened.incrementAndGet();
+            probesInFlight = 0;
+        } else if (next == State.CLOSED) {
+            consecutiveFailures = 0;
+            probesInFlight = 0;
+        }
+    }
+}
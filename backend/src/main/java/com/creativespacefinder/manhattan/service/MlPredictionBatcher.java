@@ -0,0 +1,198 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/CompletableFuture.html
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/ScheduledExecutorService.html
+// https://docs.nvidia.com/deeplearning/triton-inference-server/user-guide/docs/user_guide/batcher.html
+
+/**
+ * Combines prediction rows from concurrent callers into shared /predict_batch requests
+ * The first caller opens a batch, everyone arriving within linger-ms joins it, and the batch is sent when the linger
+ * time is up or it holds max-rows rows, whichever comes first. Each caller gets back exactly its own rows' predictions
+ * A caller's rows are never split between batches, a submission of max-rows or more is sent on its own straight away
+ * If the combined request fails, every caller in it gets the failure
+ */
+@Service
+public class MlPredictionBatcher {
+
+    @Autowired
+    private MlPredictionClient mlPredictionClient;
+
+    // Off unless turned on, each call then goes straight to the client
+    @Value("${ml.predict.micro-batch.enabled:false}")
+    private boolean enabled = false;
+
+    // How long the first caller of a batch waits for others to join
+    @Value("${ml.predict.micro-batch.linger-ms:5}")
+    private long lingerMs = 5;
+
+    // Rows per combined request, kept at the fan-out chunk size so full chunks are not held back
+    @Value("${ml.predict.micro-batch.max-rows:100}")
+    private int maxRows = 100;
+
+    private final Object lock = new Object();
+    private Batch open;  // Guarded by lock
+
+    private final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ml-micro-batch-linger");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Metrics
+    private final AtomicLong submissions = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong rowsSent = new AtomicLong();
+    private final AtomicLong flushedOnLinger = new AtomicLong();
+    private final AtomicLong flushedOnSize = new AtomicLong();
+    private final AtomicLong sentAlone = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong maxCallersInBatch = new AtomicLong();
+
+    private record Submission(List<Map<String, Object>> rows, CompletableFuture<PredictionResponse[]> result) {}
+
+    private static final class Batch {
+        final List<Submission> submissions = new ArrayList<>();
+        int rows;
+    }
+
+    /**
+     * Same contract as MlPredictionClient.predictBatch, blocks until this caller's predictions are back
+     */
+    public PredictionResponse[] predict(List<Map<String, Object>> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return mlPredictionClient.predictBatch(rows);
+        }
+        try {
+            return submit(rows).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    CompletableFuture<PredictionResponse[]> submit(List<Map<String, Object>> rows) {
+        submissions.incrementAndGet();
+        Submission submission = new Submission(rows, new CompletableFuture<>());
+        int limit = Math.max(1, maxRows);
+
+        if (rows.size() >= limit) {
+            sentAlone.incrementAndGet();
+            dispatch(List.of(submission), rows.size());
+            return submission.result();
+        }
+
+        Batch full = null;
+        synchronized (lock) {
+            // Rows from one caller stay together, so close the open batch first if they would not fit
+            if (open != null && open.rows + rows.size() > limit) {
+                full = open;
+                open = null;
+            }
+            if (open == null) {
+                Batch batch = new Batch();
+                open = batch;
+                lingerTimer.schedule(() -> flushOnLinger(batch), Math.max(0, lingerMs), TimeUnit.MILLISECONDS);
+            }
+            open.submissions.add(submission);
+            open.rows += rows.size();
+            if (open.rows >= limit) {
+                flushedOnSize.incrementAndGet();
+                send(open);
+                open = null;
+            }
+        }
+        if (full != null) {
+            flushedOnSize.incrementAndGet();
+            send(full);
+        }
+        return submission.result();
+    }
+
+    private void flushOnLinger(Batch batch) {
+        synchronized (lock) {
+            // Already sent because it filled up
+            if (open != batch) return;
+            open = null;
+        }
+        flushedOnLinger.incrementAndGet();
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        dispatch(batch.submissions, batch.rows);
+    }
+
+    private void dispatch(List<Submission> batch, int rowCount) {
+        batchesSent.incrementAndGet();
+        rowsSent.addAndGet(rowCount);
+        maxCallersInBatch.accumulateAndGet(batch.size(), Math::max);
+
+        dispatcher.execute(() -> {
+            try {
+                List<Map<String, Object>> combined = new ArrayList<>(rowCount);
+                for (Submission s : batch) combined.addAll(s.rows());
+
+                PredictionResponse[] predictions = mlPredictionClient.predictBatch(combined);
+                if (predictions == null || predictions.length != rowCount) {
+                    throw new IllegalStateException("ML service returned " + (predictions == null ? 0 : predictions.length)
+                            + " predictions for a combined batch of " + rowCount + " rows");
+                }
+
+                // Hand each caller the slice that lines up with its own rows
+                int offset = 0;
+                for (Submission s : batch) {
+                    int n = s.rows().size();
+                    s.result().complete(Arrays.copyOfRange(predictions, offset, offset + n));
+                    offset += n;
+                }
+            } catch (Throwable t) {
+                failedBatches.incrementAndGet();
+                for (Submission s : batch) s.result().completeExceptionally(t);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        long batches = batchesSent.get();
+        long rows = rowsSent.get();
+        long callers = submissions.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("lingerMs", lingerMs);
+        stats.put("maxRows", maxRows);
+        stats.put("submissions", callers);
+        stats.put("batchesSent", batches);
+        stats.put("rowsSent", rows);
+        stats.put("avgRowsPerBatch", batches > 0 ? (double) rows / batches : 0.0);
+        stats.put("avgCallersPerBatch", batches > 0 ? (double) callers / batches : 0.0);
+        // How full the average combined request was against max-rows
+        stats.put("avgFillPercent", batches > 0 ? 100.0 * rows / batches / Math.max(1, maxRows) : 0.0);
+        stats.put("maxCallersInBatch", maxCallersInBatch.get());
+        stats.put("flushedOnLinger", flushedOnLinger.get());
+        stats.put("flushedOnSize", flushedOnSize.get());
+        stats.put("sentAlone", sentAlone.get());
+        stats.put("failedBatches", failedBatches.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lingerTimer.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+}
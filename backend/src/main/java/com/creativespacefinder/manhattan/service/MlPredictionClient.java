@@ -0,0 +1,358 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.exception.ApiException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.net.http/java/net/http/HttpClient.html
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/zip/GZIPOutputStream.html
+// https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Content-Encoding
+// https://research.google/pubs/the-tail-at-scale/
+
+/**
+ * The one HTTP client for the ML prediction service, shared by recommendations, the precomputation job and the health probe
+ * Connections are kept alive and reused between calls, at most max-connections requests are on the wire at once
+ * Request bodies can be gzipped and gzipped responses are always accepted, latency and bytes are counted per call
+ * With ml.predict.hedge.enabled a call that is slower than the recent latency percentile gets a duplicate request
+ * and whichever answers first wins, /predict_batch has no side effects so sending it twice is safe
+ */
+@Service
+public class MlPredictionClient {
+
+    @Value("${ml.predict.url}")
+    private String mlPredictUrl;
+
+    @Value("${ml.predict.timeout.connect:35000}")
+    private long connectTimeoutMs = 35000;
+
+    // Time allowed for the ML service to answer one POST
+    @Value("${ml.predict.timeout.read:150000}")
+    private long readTimeoutMs = 150000;
+
+    // Upper bound on requests in flight, so also on open connections to the ML service
+    @Value("${ml.predict.pool.max-connections:16}")
+    private int maxConnections = 16;
+
+    // Needs the request gzip middleware in the ML service, turn off when talking to an older deployment
+    @Value("${ml.predict.gzip-requests:true}")
+    private boolean gzipRequests = true;
+
+    // Bodies smaller than this are sent as they are, gzip is not worth it for a handful of rows
+    @Value("${ml.predict.gzip-min-bytes:1024}")
+    private int gzipMinBytes = 1024;
+
+    // Hedging is off unless turned on
+    @Value("${ml.predict.hedge.enabled:false}")
+    private boolean hedgeEnabled = false;
+
+    // Recent latency percentile a call has to exceed before it is hedged
+    @Value("${ml.predict.hedge.percentile:95}")
+    private double hedgePercentile = 95;
+
+    @Value("${ml.predict.hedge.min-delay-ms:50}")
+    private long hedgeMinDelayMs = 50;
+
+    // Most hedges as a percentage of calls, so a slow ML service is not hit with double the traffic
+    @Value("${ml.predict.hedge.budget-percent:10}")
+    private double hedgeBudgetPercent = 10;
+
+    // Latencies needed before the percentile is trusted, no hedging until then
+    @Value("${ml.predict.hedge.min-samples:20}")
+    private int hedgeMinSamples = 20;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutorService httpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpClient httpClient;
+    private Semaphore connectionPermits;
+
+    // Metrics
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rowsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong uncompressedBytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+    private final AtomicLong lastLatencyMs = new AtomicLong();
+    private final AtomicLong hedgesFired = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong hedgesSkippedForBudget = new AtomicLong();
+
+    // Ring buffer of recent successful call latencies for the hedge delay
+    private final long[] latencyWindow = new long[256];
+    private int latencyCount;
+    private int latencyNext;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(httpExecutor)
+                .build();
+        connectionPermits = new Semaphore(Math.max(1, maxConnections));
+    }
+
+    /**
+     * POST one batch of rows to /predict_batch and return the predictions in the same order
+     * Any failure, timeout or non 2xx answer comes back as an ApiException
+     */
+    public PredictionResponse[] predictBatch(List<Map<String, Object>> rows) {
+        long startTime = System.currentTimeMillis();
+        calls.incrementAndGet();
+        rowsSent.addAndGet(rows.size());
+
+        try {
+            byte[] json = mapper.writeValueAsBytes(rows);
+            boolean compress = gzipRequests && json.length >= gzipMinBytes;
+            byte[] body = compress ? gzip(json) : json;
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(mlPredictUrl))
+                    .timeout(Duration.ofMillis(readTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .header("Accept-Encoding", "gzip")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+            if (compress) {
+                request.header("Content-Encoding", "gzip");
+            }
+
+            HttpResponse<byte[]> response = hedgeEnabled
+                    ? sendHedged(request.build(), body.length)
+                    : send(request.build(), body.length);
+            uncompressedBytesSent.addAndGet(json.length);
+
+            byte[] raw = response.body() == null ? new byte[0] : response.body();
+            bytesReceived.addAndGet(raw.length);
+            boolean gzipped = response.headers().firstValue("Content-Encoding")
+                    .map(v -> v.equalsIgnoreCase("gzip"))
+                    .orElse(false);
+            byte[] decoded = gzipped ? gunzip(raw) : raw;
+            uncompressedBytesReceived.addAndGet(decoded.length);
+
+            if (response.statusCode() / 100 != 2) {
+                throw new ApiException("ML service returned HTTP " + response.statusCode() + " for " + rows.size() + " rows");
+            }
+            PredictionResponse[] predictions = mapper.readValue(decoded, PredictionResponse[].class);
+            recordLatency(System.currentTimeMillis() - startTime);
+            return predictions;
+
+        } catch (ApiException e) {
+            failures.incrementAndGet();
+            throw e;
+        } catch (HttpTimeoutException e) {
+            failures.incrementAndGet();
+            timeouts.incrementAndGet();
+            throw new ApiException("ML service timed out after " + (System.currentTimeMillis() - startTime) + "ms", e);
+        } catch (InterruptedException e) {
+            failures.incrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new ApiException("Interrupted while calling the ML service", e);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            throw new ApiException("ML service call failed: " + e.getMessage(), e);
+        } finally {
+            long latency = System.currentTimeMillis() - startTime;
+            totalLatencyMs.addAndGet(latency);
+            maxLatencyMs.accumulateAndGet(latency, Math::max);
+            lastLatencyMs.set(latency);
+        }
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request, int bodyBytes) throws IOException, InterruptedException {
+        connectionPermits.acquire();
+        try {
+            bytesSent.addAndGet(bodyBytes);
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } finally {
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * One attempt on its own virtual thread, the caller has already taken its connection permit
+     * The permit goes back when the send returns, so a cancelled attempt keeps it until its exchange has been aborted
+     */
+    private CompletableFuture<HttpResponse<byte[]>> sendAsync(HttpRequest request, int bodyBytes) {
+        CompletableFuture<HttpResponse<byte[]>> attempt = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = httpExecutor.submit(() -> {
+                try {
+                    bytesSent.addAndGet(bodyBytes);
+                    attempt.complete(httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray()));
+                } catch (Throwable e) {
+                    attempt.completeExceptionally(e);
+                } finally {
+                    connectionPermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            connectionPermits.release();
+            throw e;
+        }
+        // Cancelling the attempt interrupts the send, which aborts the exchange before the permit is released
+        attempt.whenComplete((r, e) -> {
+            if (attempt.isCancelled()) task.cancel(true);
+        });
+        return attempt;
+    }
+
+    /**
+     * Send the request and, if it has not answered within the hedge delay, send it again and take the first good answer
+     * The hedge only goes out when there is budget and a free connection, otherwise this just waits on the first attempt
+     */
+    private HttpResponse<byte[]> sendHedged(HttpRequest request, int bodyBytes) throws IOException, InterruptedException {
+        long delayMs = hedgeDelayMs();
+        if (delayMs < 0) {
+            return send(request, bodyBytes);
+        }
+
+        connectionPermits.acquire();
+        CompletableFuture<HttpResponse<byte[]>> primary = sendAsync(request, bodyBytes);
+        try {
+            return primary.get(delayMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException slow) {
+            // Fall through to hedging below
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        if (!hedgeBudgetAvailable() || !connectionPermits.tryAcquire()) {
+            hedgesSkippedForBudget.incrementAndGet();
+            return await(primary);
+        }
+        hedgesFired.incrementAndGet();
+        CompletableFuture<HttpResponse<byte[]>> hedge = sendAsync(request, bodyBytes);
+
+        // First attempt to answer wins, a failure only counts once both have failed
+        CompletableFuture<HttpResponse<byte[]>> winner = new CompletableFuture<>();
+        primary.whenComplete((r, e) -> { if (e == null) winner.complete(r); else if (hedge.isCompletedExceptionally()) winner.completeExceptionally(e); });
+        hedge.whenComplete((r, e) -> { if (e == null) winner.complete(r); else if (primary.isCompletedExceptionally()) winner.completeExceptionally(e); });
+
+        try {
+            HttpResponse<byte[]> response = await(winner);
+            if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() == response) {
+                hedgesWon.incrementAndGet();
+                primary.cancel(true);
+            } else {
+                hedge.cancel(true);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            primary.cancel(true);
+            hedge.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * How long a call may run before it is hedged, -1 when there are not enough samples yet or hedging is off
+     */
+    synchronized long hedgeDelayMs() {
+        // At least one sample, so there is always a percentile to read
+        if (!hedgeEnabled || latencyCount < Math.max(1, hedgeMinSamples)) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencyWindow, latencyCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(Math.min(100, Math.max(0, hedgePercentile)) / 100.0 * sorted.length) - 1;
+        return Math.max(hedgeMinDelayMs, sorted[Math.max(0, rank)]);
+    }
+
+    synchronized void recordLatency(long latencyMs) {
+        latencyWindow[latencyNext] = latencyMs;
+        latencyNext = (latencyNext + 1) % latencyWindow.length;
+        latencyCount = Math.min(latencyCount + 1, latencyWindow.length);
+    }
+
+    private boolean hedgeBudgetAvailable() {
+        return (hedgesFired.get() + 1) * 100.0 <= hedgeBudgetPercent * calls.get();
+    }
+
+    private static HttpResponse<byte[]> await(CompletableFuture<HttpResponse<byte[]>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException io) return io;
+        if (cause instanceof RuntimeException re) throw re;
+        return new IOException(cause);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpExecutor.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        long callCount = calls.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", callCount);
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("rowsSent", rowsSent.get());
+        stats.put("bytesSent", bytesSent.get());
+        stats.put("uncompressedBytesSent", uncompressedBytesSent.get());
+        stats.put("bytesReceived", bytesReceived.get());
+        stats.put("uncompressedBytesReceived", uncompressedBytesReceived.get());
+        stats.put("avgLatencyMs", callCount > 0 ? totalLatencyMs.get() / callCount : 0);
+        stats.put("maxLatencyMs", maxLatencyMs.get());
+        stats.put("lastLatencyMs", lastLatencyMs.get());
+        stats.put("inFlight", Math.max(1, maxConnections) - (connectionPermits == null ? 0 : connectionPermits.availablePermits()));
+        stats.put("maxConnections", maxConnections);
+        stats.put("gzipRequests", gzipRequests);
+        stats.put("hedgeEnabled", hedgeEnabled);
+        stats.put("hedgeDelayMs", hedgeDelayMs());
+        stats.put("hedgesFired", hedgesFired.get());
+        stats.put("hedgesWon", hedgesWon.get());
+        stats.put("hedgesSkippedForBudget", hedgesSkippedForBudget.get());
+        return stats;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
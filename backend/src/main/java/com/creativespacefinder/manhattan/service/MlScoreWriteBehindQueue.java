@@ -0,0 +1,231 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.entity.MLPredictionLog;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepositoryCustom.MlScoreUpdate;
+import com.creativespacefinder.manhattan.repository.MLPredictionLogRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/ScheduledExecutorService.html
+// https://martinfowler.com/eaaCatalog/unitOfWork.html
+// https://docs.spring.io/spring-framework/reference/core/beans/annotation-config/postconstruct-and-predestroy-annotations.html
+
+/**
+ * Write-behind buffer for ML scores so a cache miss does not wait for the database write
+ * Updates are keyed by location_activity_scores id, a newer score for a row that is still waiting replaces the older one
+ * A single flusher thread writes them in JDBC batches, whatever is left gets drained on shutdown
+ * When the buffer is full new rows are dropped and counted, the next cache miss for that key recomputes them anyway
+ * Prediction logs have their own bound, past it they are dropped and counted too
+ */
+@Service
+public class MlScoreWriteBehindQueue {
+
+    @Autowired
+    private LocationActivityScoreRepository locationActivityScoreRepository;
+
+    @Autowired
+    private MLPredictionLogRepository mlPredictionLogRepository;
+
+    // Most distinct rows waiting at once
+    @Value("${ml-write-behind.capacity:20000}")
+    private int capacity = 20000;
+
+    // Most prediction logs waiting at once, one per recommendation run that called the ML model
+    @Value("${ml-write-behind.log-capacity:1000}")
+    private int logCapacity = 1000;
+
+    // Rows per flush, a flush is also kicked off early once this many are waiting
+    @Value("${ml-write-behind.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${ml-write-behind.flush-interval-ms:1000}")
+    private long flushIntervalMs = 1000;
+
+    @Value("${ml-write-behind.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs = 30000;
+
+    private final ConcurrentHashMap<UUID, MlScoreUpdate> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<MLPredictionLog> pendingLogs = new ConcurrentLinkedQueue<>();
+    // Kept alongside the queue, whose size() walks every node
+    private final AtomicInteger pendingLogCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private ScheduledExecutorService flusher;
+
+    // Metrics
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedLogs = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final AtomicLong lastFlushMs = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ml-score-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the scores of one recommendation run plus its prediction log, returns straight away
+     */
+    public void enqueue(List<MlScoreUpdate> updates, MLPredictionLog log) {
+        for (MlScoreUpdate update : updates) {
+            if (pending.size() >= capacity && !pending.containsKey(update.id())) {
+                rejected.incrementAndGet();
+                continue;
+            }
+            if (pending.put(update.id(), update) != null) {
+                coalesced.incrementAndGet();
+            }
+            enqueued.incrementAndGet();
+        }
+        if (log != null) {
+            offerLog(log);
+        }
+        highWaterMark.accumulateAndGet(pending.size(), Math::max);
+
+        if (pending.size() >= batchSize && flusher != null && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, drain() picks everything up
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Write everything that is waiting, only ever called from the flusher thread or on shutdown
+     */
+    int flush() {
+        flushRequested.set(false);
+        long startTime = System.currentTimeMillis();
+        int written = 0;
+
+        while (!pending.isEmpty()) {
+            List<MlScoreUpdate> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            for (UUID id : pending.keySet()) {
+                MlScoreUpdate update = pending.remove(id);
+                if (update != null) {
+                    batch.add(update);
+                }
+                if (batch.size() >= batchSize) break;
+            }
+            if (batch.isEmpty()) break;
+
+            try {
+                locationActivityScoreRepository.updateMlScores(batch);
+                flushedRows.addAndGet(batch.size());
+                flushedBatches.incrementAndGet();
+                written += batch.size();
+            } catch (Exception e) {
+                flushFailures.incrementAndGet();
+                // Put them back unless a newer score arrived in the meantime, then try again next flush
+                for (MlScoreUpdate update : batch) {
+                    pending.putIfAbsent(update.id(), update);
+                }
+                System.err.println("ML score flush failed for " + batch.size() + " rows: " + e.getMessage());
+                break;
+            }
+        }
+
+        List<MLPredictionLog> logs = new ArrayList<>();
+        MLPredictionLog log;
+        while ((log = pendingLogs.poll()) != null) {
+            pendingLogCount.decrementAndGet();
+            logs.add(log);
+        }
+        if (!logs.isEmpty()) {
+            try {
+                mlPredictionLogRepository.saveAll(logs);
+            } catch (Exception e) {
+                flushFailures.incrementAndGet();
+                // Same as the score rows, try again next flush, anything past the log capacity is dropped and counted
+                for (MLPredictionLog failed : logs) {
+                    offerLog(failed);
+                }
+                System.err.println("ML prediction log flush failed for " + logs.size() + " logs: " + e.getMessage());
+            }
+        }
+
+        if (written > 0) {
+            lastFlushMs.set(System.currentTimeMillis() - startTime);
+        }
+        return written;
+    }
+
+    private void offerLog(MLPredictionLog log) {
+        if (pendingLogCount.incrementAndGet() > logCapacity) {
+            pendingLogCount.decrementAndGet();
+            rejectedLogs.incrementAndGet();
+            return;
+        }
+        pendingLogs.add(log);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            System.err.println("ML score flusher error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop the flusher and write whatever is still waiting before the app goes down
+     */
+    @PreDestroy
+    public void drain() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int remaining = pending.size();
+        int written = flush();
+        System.out.println("ML score write-behind drained: " + written + " of " + remaining + " rows written");
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("pendingLogs", pendingLogCount.get());
+        stats.put("capacity", capacity);
+        stats.put("logCapacity", logCapacity);
+        stats.put("highWaterMark", highWaterMark.get());
+        stats.put("enqueued", enqueued.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("rejected", rejected.get());
+        stats.put("rejectedLogs", rejectedLogs.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("flushedBatches", flushedBatches.get());
+        stats.put("flushFailures", flushFailures.get());
+        stats.put("lastFlushMs", lastFlushMs.get());
+        return stats;
+    }
+}
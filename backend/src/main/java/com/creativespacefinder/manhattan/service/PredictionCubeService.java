@@ -0,0 +1,276 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.utils.PredictionCube;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/nio/MappedByteBuffer.html
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/atomic/AtomicReference.html
+
+/**
+ * Keeps ML predictions for every candidate location x forecast hour x activity in a PredictionCube
+ * The model only sees lat/lon, hour, month, day and activity, and candidates are fixed per activity,
+ * so the whole forecast horizon can be scored ahead of time and a request becomes a slice lookup
+ * A rebuild writes a new cube file next to the live one and swaps it in once complete, requests keep reading the old one until then
+ */
+@Service
+public class PredictionCubeService {
+
+    @Autowired
+    private ActivityCandidateIndex activityCandidateIndex;
+
+    @Autowired
+    private MlPredictionClient mlPredictionClient;
+
+    @Autowired
+    private LocalMlScorer localMlScorer;
+
+    // Off unless turned on, recommendations then call the ML model as before
+    @Value("${prediction-cube.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${prediction-cube.file:prediction-cube.bin}")
+    private String file = "prediction-cube.bin";
+
+    // Hours from the build time that get scored, the same 96 hours the weather forecast covers
+    @Value("${prediction-cube.horizon-hours:96}")
+    private int horizonHours = 96;
+
+    // Rows per ML call while building
+    @Value("${prediction-cube.batch-size:100}")
+    private int batchSize = 100;
+
+    // ML calls in flight while building
+    @Value("${prediction-cube.max-concurrent-calls:4}")
+    private int maxConcurrentCalls = 4;
+
+    private final AtomicReference<PredictionCube> current = new AtomicReference<>();
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    // Metrics
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong failedBuilds = new AtomicLong();
+    private final AtomicLong rowsScored = new AtomicLong();
+    private final AtomicLong lastBuildMs = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong outOfHorizon = new AtomicLong();
+    private final AtomicLong notCovered = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Pick up the cube from the last run if it still covers now, otherwise build one in the background
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (!enabled) return;
+        Path path = Path.of(file);
+        if (Files.exists(path)) {
+            try {
+                PredictionCube cube = PredictionCube.open(path);
+                if (cube.hourIndex(LocalDateTime.now()) >= 0) {
+                    current.set(cube);
+                    System.out.println("Prediction cube loaded from " + path + ": " + cube.hours() + " hours from " + cube.baseHour());
+                    return;
+                }
+            } catch (Exception e) {
+                System.err.println("Could not open prediction cube " + path + ": " + e.getMessage());
+            }
+        }
+        Thread.ofVirtual().name("prediction-cube-build").start(this::rebuildQuietly);
+    }
+
+    /**
+     * Scores in the cube for the given pool positions at a request time, as cultural score, crowd score, crowd number per position
+     * Null when the cube is off, not built, the time is outside its horizon or any position was not a candidate when it was built
+     */
+    public float[] lookup(ActivityCandidateIndex.Candidates candidates, int[] pool, LocalDateTime requestDateTime) {
+        PredictionCube cube = current.get();
+        if (!enabled || cube == null) return null;
+
+        int hour = cube.hourIndex(requestDateTime);
+        if (hour < 0) {
+            outOfHorizon.incrementAndGet();
+            return null;
+        }
+        PredictionCube.Block block = cube.block(candidates.getActivityName());
+        if (block == null) {
+            notCovered.incrementAndGet();
+            return null;
+        }
+
+        float[] out = new float[pool.length * PredictionCube.VALUES];
+        for (int i = 0; i < pool.length; i++) {
+            int row = block.rowOf(candidates.scoreId(pool[i]));
+            if (row < 0) {
+                // The candidate index changed since the build, let the ML path handle it until the next rebuild
+                notCovered.incrementAndGet();
+                return null;
+            }
+            out[i * PredictionCube.VALUES] = block.culturalScore(hour, row);
+            out[i * PredictionCube.VALUES + 1] = block.crowdScore(hour, row);
+            out[i * PredictionCube.VALUES + 2] = block.crowdNumber(hour, row);
+        }
+        hits.incrementAndGet();
+        return out;
+    }
+
+    /**
+     * Build, log and carry on serving the previous cube on failure
+     */
+    public void rebuildQuietly() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            System.err.println("Prediction cube build failed, keeping the previous cube: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Score the whole horizon for every activity and swap the new cube in
+     * Only one build runs at a time, a second caller gets the current cube back
+     */
+    public PredictionCube rebuild() throws Exception {
+        if (!building.compareAndSet(false, true)) {
+            System.out.println("Prediction cube build already running");
+            return current.get();
+        }
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            ActivityCandidateIndex.Snapshot snapshot = activityCandidateIndex.snapshot();
+            LocalDateTime baseHour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+
+            // Only positions some request can be handed
+            List<String> activities = new ArrayList<>(snapshot.activityNames());
+            Collections.sort(activities);
+            List<ActivityCandidateIndex.Candidates> candidateSets = new ArrayList<>();
+            List<int[]> positions = new ArrayList<>();
+            List<PredictionCube.Layout> layouts = new ArrayList<>();
+            for (String activity : activities) {
+                ActivityCandidateIndex.Candidates candidates = snapshot.candidatesFor(activity);
+                int[] rows = candidates.servablePositions();
+                UUID[] scoreIds = new UUID[rows.length];
+                for (int i = 0; i < rows.length; i++) scoreIds[i] = candidates.scoreId(rows[i]);
+                candidateSets.add(candidates);
+                positions.add(rows);
+                layouts.add(new PredictionCube.Layout(activity, scoreIds));
+            }
+
+            Path target = Path.of(file).toAbsolutePath();
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            PredictionCube.Writer writer = PredictionCube.create(temp, baseHour, horizonHours, layouts);
+
+            // One task per activity and hour, the semaphore keeps the ML service from seeing the whole build at once
+            Semaphore permits = new Semaphore(Math.max(1, maxConcurrentCalls));
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int a = 0; a < activities.size(); a++) {
+                for (int h = 0; h < horizonHours; h++) {
+                    int activity = a;
+                    int hour = h;
+                    tasks.add(executor.submit(() -> {
+                        scoreSlice(writer, activity, activities.get(activity), candidateSets.get(activity),
+                                positions.get(activity), hour, baseHour.plusHours(hour), permits);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    tasks.forEach(t -> t.cancel(true));
+                    Files.deleteIfExists(temp);
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+
+            PredictionCube cube = writer.finish(target);
+            current.set(cube);
+            builds.incrementAndGet();
+            lastBuildMs.set(System.currentTimeMillis() - startTime);
+            System.out.println("Prediction cube built in " + lastBuildMs.get() + "ms: " + activities.size() + " activities, "
+                    + horizonHours + " hours from " + baseHour + ", " + cube.sizeBytes() / 1024 + " KB");
+            return cube;
+        } catch (Exception e) {
+            failedBuilds.incrementAndGet();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            building.set(false);
+        }
+    }
+
+    private void scoreSlice(PredictionCube.Writer writer, int activity, String activityName, ActivityCandidateIndex.Candidates candidates,
+                            int[] rows, int hour, LocalDateTime dateTime, Semaphore permits) throws InterruptedException {
+        int chunkSize = Math.max(1, batchSize);
+        for (int start = 0; start < rows.length; start += chunkSize) {
+            int end = Math.min(rows.length, start + chunkSize);
+            List<Map<String, Object>> payload = new ArrayList<>(end - start);
+            for (int r = start; r < end; r++) {
+                int idx = rows[r];
+                Map<String, Object> m = new HashMap<>();
+                m.put("latitude", candidates.latitude(idx));
+                m.put("longitude", candidates.longitude(idx));
+                m.put("hour", dateTime.getHour());
+                m.put("month", dateTime.getMonthValue());
+                m.put("day", dateTime.getDayOfMonth());
+                m.put("cultural_activity_prefered", activityName);
+                payload.add(m);
+            }
+
+            PredictionResponse[] predictions;
+            permits.acquire();
+            try {
+                predictions = localMlScorer.isActive() ? localMlScorer.predictBatch(payload) : mlPredictionClient.predictBatch(payload);
+            } finally {
+                permits.release();
+            }
+            if (predictions == null || predictions.length != payload.size()) {
+                throw new IllegalStateException("ML returned " + (predictions == null ? 0 : predictions.length)
+                        + " predictions for " + payload.size() + " cube rows");
+            }
+            for (int i = 0; i < predictions.length; i++) {
+                PredictionResponse p = predictions[i];
+                writer.put(activity, hour, start + i, p.getCreativeActivityScore(), p.getCrowdScore(), p.getEstimatedCrowdNumber());
+            }
+            rowsScored.addAndGet(predictions.length);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        PredictionCube cube = current.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("building", building.get());
+        stats.put("baseHour", cube != null ? cube.baseHour().toString() : null);
+        stats.put("hours", cube != null ? cube.hours() : 0);
+        stats.put("activities", cube != null ? cube.activities().size() : 0);
+        stats.put("sizeBytes", cube != null ? cube.sizeBytes() : 0);
+        stats.put("builds", builds.get());
+        stats.put("failedBuilds", failedBuilds.get());
+        stats.put("lastBuildMs", lastBuildMs.get());
+        stats.put("rowsScored", rowsScored.get());
+        stats.put("hits", hits.get());
+        stats.put("outOfHorizon", outOfHorizon.get());
+        stats.put("notCovered", notCovered.get());
+        return stats;
+    }
+}
@@ -0,0 +1,192 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://github.com/ben-manes/caffeine/wiki/Population#asynchronous-manually
+// https://www.baeldung.com/java-caching-caffeine
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/CompletableFuture.html
+
+/**
+ * Single-flight front for the recommendations cache, replaces @Cacheable on getLocationRecommendations
+ * The first caller for a key runs the pipeline on its own thread and every concurrent caller for the same key
+ * waits on that one future instead of starting its own DB + ML run
+ * Failed computations are dropped from the cache by Caffeine, so the next caller tries again
+ * Keys are RecommendationKeys, so requests within the same hour share one entry
+ * Before running the pipeline the first caller checks this replica's disk tier and then the table shared by all replicas
+ */
+@Service
+public class RecommendationCache {
+
+    public enum Outcome {
+        HIT,      // Served from a finished cache entry
+        DISK,     // Missed in memory, served from RecommendationDiskStore
+        SHARED,   // Missed locally, served from the table all replicas share
+        MISS,     // This caller ran the pipeline
+        JOINED    // Waited on another caller's in-flight computation
+    }
+
+    public record Lookup(RecommendationResponse response, Outcome outcome) {
+        // A joined caller did not trigger any work, so it counts as served from the cache
+        public boolean servedFromCache() {
+            return outcome != Outcome.MISS;
+        }
+    }
+
+    @Autowired
+    private AsyncCache<Object, Object> recommendationsAsyncCache;
+
+    @Autowired
+    private LocationRecommendationService locationRecommendationService;
+
+    // On-disk second tier, only used when cache.recommendations.disk.enabled is on
+    @Autowired
+    private RecommendationDiskStore recommendationDiskStore;
+
+    // Cross-replica tier, only used when cache.recommendations.shared.enabled is on
+    @Autowired
+    private SharedRecommendationStore sharedRecommendationStore;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong deduplicatedCallers = new AtomicLong();
+
+    public Lookup get(RecommendationRequest request) {
+        RecommendationKey key = RecommendationKey.of(request);
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> future = recommendationsAsyncCache.get(key, (k, executor) -> mine);
+
+        if (future == mine) {
+            RecommendationResponse response;
+            try {
+                // Joined callers wait on these reads too, so a stored key never runs the pipeline
+                Lookup stored = fromLowerTiers(key, mine, request);
+                if (stored != null) {
+                    return stored;
+                }
+
+                misses.incrementAndGet();
+                response = locationRecommendationService.getLocationRecommendations(request);
+                mine.complete(response);
+            } catch (RuntimeException | Error e) {
+                // Wakes any joined callers with the same failure, Caffeine then evicts the entry
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            // The caller already has its answer, a tier that cannot take the write only costs a later miss
+            storeInLowerTiers(key, response);
+            return new Lookup(response, Outcome.MISS);
+        }
+
+        Outcome outcome;
+        if (future.isDone()) {
+            outcome = Outcome.HIT;
+            hits.incrementAndGet();
+        } else {
+            outcome = Outcome.JOINED;
+            deduplicatedCallers.incrementAndGet();
+        }
+        return new Lookup(forRequest(await(future), request), outcome);
+    }
+
+    /**
+     * This replica's disk first, then the shared table, null when neither has the key
+     */
+    private Lookup fromLowerTiers(RecommendationKey key, CompletableFuture<Object> mine, RecommendationRequest request) {
+        RecommendationDiskStore.Stored onDisk = recommendationDiskStore.get(key);
+        if (onDisk != null) {
+            diskHits.incrementAndGet();
+            return fill(key, mine, onDisk.response(), onDisk.expiresAtMillis(), request, Outcome.DISK);
+        }
+        SharedRecommendationStore.Stored shared = sharedRecommendationStore.get(key);
+        if (shared != null) {
+            sharedHits.incrementAndGet();
+            return fill(key, mine, shared.response(), shared.expiresAtMillis(), request, Outcome.SHARED);
+        }
+        return null;
+    }
+
+    private void storeInLowerTiers(RecommendationKey key, RecommendationResponse response) {
+        try {
+            recommendationDiskStore.putAsync(key, response);
+        } catch (RuntimeException e) {
+            System.err.println("Could not queue " + key + " for the disk store: " + e.getMessage());
+        }
+        try {
+            sharedRecommendationStore.putAsync(key, response);
+        } catch (RuntimeException e) {
+            System.err.println("Could not queue " + key + " for the shared store: " + e.getMessage());
+        }
+    }
+
+    private Lookup fill(RecommendationKey key, CompletableFuture<Object> mine, RecommendationResponse response,
+                        long expiresAtMillis, RecommendationRequest request, Outcome outcome) {
+        mine.complete(response);
+        // Keep the stored entry's remaining lifetime instead of starting a fresh TTL
+        long remainingMs = Math.max(0, expiresAtMillis - System.currentTimeMillis());
+        recommendationsAsyncCache.synchronous().policy().expireVariably()
+                .ifPresent(expiry -> expiry.setExpiresAfter(key, Duration.ofMillis(remainingMs)));
+        return new Lookup(forRequest(response, request), outcome);
+    }
+
+    /**
+     * Completed entry for the request or null, never starts a computation
+     */
+    public RecommendationResponse getIfPresent(RecommendationRequest request) {
+        CompletableFuture<Object> future = recommendationsAsyncCache.getIfPresent(RecommendationKey.of(request));
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return forRequest((RecommendationResponse) future.join(), request);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("sharedHits", sharedHits.get());
+        stats.put("misses", misses.get());
+        stats.put("deduplicatedCallers", deduplicatedCallers.get());
+        return stats;
+    }
+
+    /**
+     * The entry may have been computed for another minute of the same hour, echo the caller's own time back
+     * The locations are shared, only the wrapper is copied
+     */
+    private static RecommendationResponse forRequest(RecommendationResponse response, RecommendationRequest request) {
+        String requested = request.getDateTime().toString();
+        if (requested.equals(response.getRequestedDateTime())) {
+            return response;
+        }
+        RecommendationResponse copy = new RecommendationResponse(response.getLocations(), response.getActivity(), requested);
+        copy.setDegraded(response.isDegraded());
+        return copy;
+    }
+
+    private static RecommendationResponse await(CompletableFuture<Object> future) {
+        try {
+            return (RecommendationResponse) future.join();
+        } catch (CompletionException e) {
+            // Surface the same exception the computing caller saw
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/nio/channels/FileChannel.html#read(java.nio.ByteBuffer,long)
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/nio/file/Files.html#move(java.nio.file.Path,java.nio.file.Path,java.nio.file.CopyOption...)
+// https://github.com/ben-manes/caffeine/wiki/Policy#expire-variably
+
+/**
+ * Second cache tier under the in-heap recommendations cache, kept in a local append-only file so it survives a restart
+ * Each record is the RecommendationKey, when it expires and the response as JSON. Only the keys and file offsets are held
+ * in memory, a response is read from the file when the in-heap cache misses on its key
+ * Writes go to one background thread, a newer record for a key supersedes the older one and compaction rewrites
+ * the file with only the live records once enough of it is dead
+ * Expiry follows the in-heap cache: the TTL from when the response was computed, but never past the end of its slot
+ */
+@Service
+public class RecommendationDiskStore {
+
+    private static final int MAGIC = 0x52524543;    // "RREC"
+
+    // Off unless turned on, then a restarted instance serves what the previous one computed
+    @Value("${cache.recommendations.disk.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${cache.recommendations.disk.file:recommendations-cache.log}")
+    private String file = "recommendations-cache.log";
+
+    @Value("${cache.recommendations.ttl-hours:24}")
+    private long ttlHours = 24;
+
+    // Compact once dead records are at least this share of the file
+    @Value("${cache.recommendations.disk.compact-garbage-ratio:0.5}")
+    private double compactGarbageRatio = 0.5;
+
+    // Smaller files are never compacted
+    @Value("${cache.recommendations.disk.compact-min-bytes:1048576}")
+    private long compactMinBytes = 1_048_576;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Where a record's JSON sits in the file and when the record stops being served
+     */
+    private record Slot(long offset, int length, long expiresAtMillis) {}
+
+    /**
+     * A response read back from the file and the wall-clock time it expires at
+     */
+    public record Stored(RecommendationResponse response, long expiresAtMillis) {}
+
+    private final Map<RecommendationKey, Slot> index = new ConcurrentHashMap<>();
+    // Reads share the channel, only swapping in a compacted file takes the write lock
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private Path path;
+    private ExecutorService writer;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expiredOnRead = new AtomicLong();
+    private final AtomicLong readFailures = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong lastCompactionMs = new AtomicLong();
+    private final AtomicLong droppedTailBytes = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled && channel != null;
+    }
+
+    /**
+     * Open the file and rebuild the index from the record headers, a torn record at the end is cut off
+     */
+    @PostConstruct
+    public void open() {
+        if (!enabled) return;
+        try {
+            path = Path.of(file).toAbsolutePath();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long validEnd = scan(channel, index, System.currentTimeMillis());
+            if (validEnd < channel.size()) {
+                droppedTailBytes.set(channel.size() - validEnd);
+                channel.truncate(validEnd);
+            }
+            channel.position(channel.size());
+            writer = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("recommendation-disk-writer").daemon(true).factory());
+            System.out.println("Recommendation disk cache opened at " + path + ": " + index.size() + " live entries, "
+                    + channel.size() / 1024 + " KB");
+        } catch (IOException e) {
+            System.err.println("Recommendation disk cache disabled, could not open " + file + ": " + e.getMessage());
+            channel = null;
+        }
+    }
+
+    /**
+     * Read every record header, keep the newest unexpired slot per key and return where the last whole record ends
+     */
+    private static long scan(FileChannel channel, Map<RecommendationKey, Slot> index, long nowMillis) throws IOException {
+        index.clear();
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while (position + 8 <= size) {
+            head.clear();
+            channel.read(head, position);
+            head.flip();
+            if (head.getInt() != MAGIC) break;
+            int recordLength = head.getInt();
+            if (recordLength <= 0 || position + 8 + recordLength > size) break;
+
+            ByteBuffer body = ByteBuffer.allocate(recordLength);
+            while (body.hasRemaining()) {
+                if (channel.read(body, position + 8 + body.position()) < 0) break;
+            }
+            RecommendationKey key;
+            long expiresAt;
+            int jsonLength;
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+                key = new RecommendationKey(in.readUTF(), LocalDateTime.parse(in.readUTF()), in.readUTF());
+                expiresAt = in.readLong();
+                jsonLength = in.readInt();
+            } catch (IOException | RuntimeException e) {
+                // Garbled header, treat it and everything after it as a torn tail
+                break;
+            }
+            long jsonOffset = position + 8 + recordLength - jsonLength;
+
+            if (expiresAt > nowMillis) {
+                index.put(key, new Slot(jsonOffset, jsonLength, expiresAt));
+            } else {
+                index.remove(key);
+            }
+            position += 8 + recordLength;
+        }
+        return position;
+    }
+
+    /**
+     * Response stored for the key, null when there is none or it has expired
+     */
+    public Stored get(RecommendationKey key) {
+        if (!isEnabled()) return null;
+        Slot slot = index.get(key);
+        if (slot == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (slot.expiresAtMillis() <= System.currentTimeMillis()) {
+            expiredOnRead.incrementAndGet();
+            index.remove(key, slot);
+            return null;
+        }
+
+        channelLock.readLock().lock();
+        try {
+            // Compaction may have moved the record since the slot was looked up
+            Slot current = index.get(key);
+            if (current == null) return null;
+            ByteBuffer json = ByteBuffer.allocate(current.length());
+            while (json.hasRemaining()) {
+                if (channel.read(json, current.offset() + json.position()) < 0) throw new IOException("Unexpected end of file");
+            }
+            RecommendationResponse response = mapper.readValue(json.array(), RecommendationResponse.class);
+            hits.incrementAndGet();
+            return new Stored(response, current.expiresAtMillis());
+        } catch (IOException e) {
+            readFailures.incrementAndGet();
+            System.err.println("Recommendation disk cache read failed for " + key + ": " + e.getMessage());
+            return null;
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Append the response in the background, degraded answers are not worth keeping across a restart
+     */
+    public void putAsync(RecommendationKey key, RecommendationResponse response) {
+        if (!isEnabled() || response == null || response.isDegraded()) return;
+        long expiresAt = expiresAtMillis(key, System.currentTimeMillis());
+        if (expiresAt <= System.currentTimeMillis()) return;
+        try {
+            writer.execute(() -> append(key, response, expiresAt));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    // Same rule as CacheConfig.RecommendationExpiry: the TTL, cut short at the end of the slot
+    long expiresAtMillis(RecommendationKey key, long nowMillis) {
+        long slotEnd = key.hour().plusHours(1).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.min(nowMillis + TimeUnit.HOURS.toMillis(ttlHours), slotEnd);
+    }
+
+    private void append(RecommendationKey key, RecommendationResponse response, long expiresAt) {
+        try {
+            byte[] json = mapper.writeValueAsBytes(response);
+            byte[] record = record(key, expiresAt, json);
+            long position = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            index.put(key, new Slot(position + record.length - json.length, json.length, expiresAt));
+            writes.incrementAndGet();
+        } catch (IOException e) {
+            writeFailures.incrementAndGet();
+            System.err.println("Recommendation disk cache write failed for " + key + ": " + e.getMessage());
+        }
+    }
+
+    private static byte[] record(RecommendationKey key, long expiresAt, byte[] json) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(json.length + 128);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeUTF(key.activity());
+        out.writeUTF(key.hour().toString());
+        out.writeUTF(key.zone());
+        out.writeLong(expiresAt);
+        out.writeInt(json.length);
+        out.write(json);
+        out.flush();
+
+        ByteBuffer record = ByteBuffer.allocate(8 + body.size());
+        record.putInt(MAGIC).putInt(body.size()).put(body.toByteArray());
+        return record.array();
+    }
+
+    /**
+     * Check the dead share of the file now and then, the rewrite itself runs on the writer thread between appends
+     */
+    @Scheduled(fixedDelayString = "${cache.recommendations.disk.compact-interval-ms:600000}")
+    public void compactIfNeeded() {
+        if (!isEnabled()) return;
+        try {
+            long size = channel.size();
+            if (size < compactMinBytes) return;
+            long live = liveBytes();
+            if (size - live >= size * compactGarbageRatio) {
+                writer.submit(this::compact);
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            System.err.println("Recommendation disk cache compaction check failed: " + e.getMessage());
+        }
+    }
+
+    private long liveBytes() {
+        long now = System.currentTimeMillis();
+        long live = 0;
+        for (Map.Entry<RecommendationKey, Slot> entry : index.entrySet()) {
+            if (entry.getValue().expiresAtMillis() > now) {
+                // Header fields are small next to the JSON, count them roughly
+                live += entry.getValue().length() + 64;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Copy the live records into a new file, move it over the old one and swap the channel and index
+     * Runs on the writer thread, so no append can land in the old file while it is being copied
+     */
+    void compact() {
+        long startTime = System.currentTimeMillis();
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            Map<RecommendationKey, Slot> compacted = new HashMap<>();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long now = System.currentTimeMillis();
+                long position = 0;
+                for (Map.Entry<RecommendationKey, Slot> entry : index.entrySet()) {
+                    Slot slot = entry.getValue();
+                    if (slot.expiresAtMillis() <= now) continue;
+                    ByteBuffer json = ByteBuffer.allocate(slot.length());
+                    while (json.hasRemaining()) {
+                        if (channel.read(json, slot.offset() + json.position()) < 0) throw new IOException("Unexpected end of file");
+                    }
+                    byte[] record = record(entry.getKey(), slot.expiresAtMillis(), json.array());
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer, position + buffer.position());
+                    }
+                    compacted.put(entry.getKey(), new Slot(position + record.length - slot.length(), slot.length(), slot.expiresAtMillis()));
+                    position += record.length;
+                }
+                out.force(true);
+            }
+
+            long before;
+            channelLock.writeLock().lock();
+            try {
+                before = channel.size();
+                channel.close();
+                try {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                index.clear();
+                index.putAll(compacted);
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+
+            compactions.incrementAndGet();
+            lastCompactionMs.set(System.currentTimeMillis() - startTime);
+            System.out.println("Recommendation disk cache compacted in " + lastCompactionMs.get() + "ms: "
+                    + before / 1024 + " KB -> " + channel.size() / 1024 + " KB, " + compacted.size() + " entries");
+        } catch (IOException e) {
+            System.err.println("Recommendation disk cache compaction failed, keeping the old file: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Overwritten by the next compaction anyway
+            }
+            reopenIfClosed();
+        }
+    }
+
+    // A failed move can leave the channel closed, open whatever file is there now
+    private void reopenIfClosed() {
+        if (channel.isOpen()) return;
+        channelLock.writeLock().lock();
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            scan(channel, index, System.currentTimeMillis());
+        } catch (IOException e) {
+            System.err.println("Recommendation disk cache disabled after a failed compaction: " + e.getMessage());
+            enabled = false;
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop everything, used when an admin clears the recommendations cache
+     */
+    public void clear() {
+        if (!isEnabled()) return;
+        try {
+            writer.submit(() -> {
+                channelLock.writeLock().lock();
+                try {
+                    index.clear();
+                    channel.truncate(0);
+                } catch (IOException e) {
+                    System.err.println("Recommendation disk cache clear failed: " + e.getMessage());
+                } finally {
+                    channelLock.writeLock().unlock();
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Recommendation disk cache clear failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Let queued writes finish so the next start sees them
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) return;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            channel.force(true);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Recommendation disk cache close failed: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("entries", index.size());
+        long fileBytes = 0;
+        try {
+            fileBytes = isEnabled() ? channel.size() : 0;
+        } catch (IOException ignored) {
+            // Reported as 0
+        }
+        stats.put("fileBytes", fileBytes);
+        stats.put("liveBytes", isEnabled() ? liveBytes() : 0);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expiredOnRead", expiredOnRead.get());
+        stats.put("readFailures", readFailures.get());
+        stats.put("writes", writes.get());
+        stats.put("writeFailures", writeFailures.get());
+        stats.put("compactions", compactions.get());
+        stats.put("lastCompactionMs", lastCompactionMs.get());
+        stats.put("droppedTailBytes", droppedTailBytes.get());
+        return stats;
+    }
+}
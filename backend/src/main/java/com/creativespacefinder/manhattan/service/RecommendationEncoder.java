@@ -0,0 +1,191 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// References:
+// https://www.rfc-editor.org/rfc/rfc9110#name-etag
+// https://www.rfc-editor.org/rfc/rfc9110#name-if-none-match
+// https://github.com/ben-manes/caffeine/wiki/Eviction#reference-based
+
+/**
+ * Recommendation responses as ready-to-send JSON bytes, a gzip copy and a strong ETag, encoded once per cache entry
+ * Entries are held against the response's locations list, which every copy RecommendationCache hands out shares,
+ * and only weakly, so the encoded form goes when the cache entry it was made from is evicted or refreshed
+ * Copies that only differ in the echoed request time get their own encoding next to it
+ */
+@Service
+public class RecommendationEncoder {
+
+    // Spring's own mapper so the bytes are what the JSON message converter used to write
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Smaller bodies are sent as they are, gzip would save next to nothing
+    @Value("${cache.recommendations.encoding.gzip-min-bytes:1024}")
+    private int gzipMinBytes = 1024;
+
+    @Value("${cache.recommendations.encoding.max-entries:2000}")
+    private int maxEntries = 2000;
+
+    // Request times echoed back per entry, one per minute of the hour at most
+    private static final int MAX_VARIANTS = 60;
+
+    /**
+     * JSON bytes, the gzip copy (null when the body is too small to bother) and their ETags
+     */
+    public record Encoded(byte[] json, byte[] gzip, String etag, String gzipEtag) {
+
+        /**
+         * True when If-None-Match lists either variant's tag or *, compared weakly as RFC 9110 asks for
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null || ifNoneMatch.isBlank()) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag) || t.equals(gzipEtag)) return true;
+            }
+            return false;
+        }
+    }
+
+    private Cache<List<LocationRecommendationResponse>, Map<String, Encoded>> encodings;
+
+    // Metrics
+    private final AtomicLong encodes = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong gzipBytes = new AtomicLong();
+    private final AtomicLong gzipSourceBytes = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        encodings = Caffeine.newBuilder()
+                .weakKeys()  // Identity on the locations list, gone once no cached response holds it
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    public Encoded encode(RecommendationResponse response) {
+        List<LocationRecommendationResponse> locations = response.getLocations();
+        if (locations == null) {
+            return encodeNow(response);
+        }
+        Map<String, Encoded> variants = encodings.get(locations, l -> new ConcurrentHashMap<>());
+        String variant = response.getActivity() + '\u0000' + response.getRequestedDateTime() + '\u0000' + response.isDegraded();
+        Encoded encoded = variants.get(variant);
+        if (encoded != null) {
+            reused.incrementAndGet();
+            return encoded;
+        }
+        encoded = encodeNow(response);
+        if (variants.size() < MAX_VARIANTS) {
+            variants.putIfAbsent(variant, encoded);
+        }
+        return encoded;
+    }
+
+    public void countNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    private Encoded encodeNow(RecommendationResponse response) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(response);
+            byte[] gzip = json.length >= gzipMinBytes ? gzip(json) : null;
+            String tag = tag(json);
+            encodes.incrementAndGet();
+            jsonBytes.addAndGet(json.length);
+            if (gzip != null) {
+                gzipBytes.addAndGet(gzip.length);
+                gzipSourceBytes.addAndGet(json.length);
+            }
+            return new Encoded(json, gzip, "\"" + tag + "\"", gzip != null ? "\"" + tag + "-gz\"" : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode recommendations for " + response.getActivity(), e);
+        }
+    }
+
+    private static byte[] gzip(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        // Done once per entry and sent many times, so it is worth the best level
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gz.write(json);
+        }
+        return out.toByteArray();
+    }
+
+    static String tag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Whether an Accept-Encoding header takes gzip, a q=0 entry turns it off
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        boolean wildcard = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] fields = part.trim().split(";");
+            String coding = fields[0].trim().toLowerCase(Locale.ROOT);
+            boolean refused = false;
+            for (int i = 1; i < fields.length; i++) {
+                String param = fields[i].trim().replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) return !refused;
+            if (coding.equals("*")) wildcard = !refused;
+        }
+        return wildcard;
+    }
+
+    public Map<String, Object> getStats() {
+        long made = encodes.get();
+        long json = jsonBytes.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", encodings.estimatedSize());
+        stats.put("encodes", made);
+        stats.put("reused", reused.get());
+        stats.put("notModified", notModified.get());
+        stats.put("avgJsonBytes", made > 0 ? json / made : 0);
+        // Gzip size against JSON size, over the bodies that were big enough to compress
+        stats.put("gzipRatio", gzipSourceBytes.get() > 0 ? (double) gzipBytes.get() / gzipSourceBytes.get() : 0.0);
+        return stats;
+    }
+}
@@ -0,0 +1,148 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://github.com/ben-manes/caffeine/wiki/Refresh
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/ThreadPoolExecutor.html
+
+/**
+ * Loader behind the recommendations cache's refresh-after-write
+ * Once an entry is older than cache.recommendations.refresh-after-hours, the next read still gets it straight away
+ * and Caffeine asks this loader to rebuild it in the background, the new value replaces the old one when it lands
+ * A failed, rejected or degraded reload leaves the old value in place until the hard expiry, which caps how stale it can get
+ * Misses never come through here, RecommendationCache computes those on the caller's thread
+ */
+@Service
+public class RecommendationRefresher implements AsyncCacheLoader<Object, Object> {
+
+    @Autowired
+    private LocationRecommendationService locationRecommendationService;
+
+    @Autowired
+    private RecommendationDiskStore recommendationDiskStore;
+
+    @Autowired
+    private SharedRecommendationStore sharedRecommendationStore;
+
+    // Reloads running at once, each one is a full recommendation run
+    @Value("${cache.recommendations.refresh-threads:2}")
+    private int refreshThreads = 2;
+
+    // Reloads waiting for a thread, past this they are rejected and tried again on a later read
+    @Value("${cache.recommendations.refresh-queue:50}")
+    private int refreshQueue = 50;
+
+    private volatile ThreadPoolExecutor executor;
+
+    // Metrics
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+    private final AtomicLong rejectedRefreshes = new AtomicLong();
+    private final AtomicLong totalRefreshMs = new AtomicLong();
+    private final AtomicLong maxRefreshMs = new AtomicLong();
+    private final AtomicLong lastRefreshMs = new AtomicLong();
+
+    @Override
+    public CompletableFuture<Object> asyncLoad(Object key, Executor ignored) {
+        return submit(key);
+    }
+
+    @Override
+    public CompletableFuture<Object> asyncReload(Object key, Object oldValue, Executor ignored) {
+        return submit(key);
+    }
+
+    private CompletableFuture<Object> submit(Object key) {
+        if (!(key instanceof RecommendationKey recommendationKey)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Not a recommendation key: " + key));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> reload(recommendationKey), executor());
+        } catch (RejectedExecutionException e) {
+            // Caffeine keeps the stale value and the next read past the refresh age tries again
+            rejectedRefreshes.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Object reload(RecommendationKey key) {
+        long startTime = System.currentTimeMillis();
+        try {
+            // The key holds everything the result depends on, RecommendationCache echoes each caller's own time back
+            RecommendationRequest request = new RecommendationRequest(key.activity(), key.hour(),
+                    RecommendationKey.ALL_MANHATTAN.equals(key.zone()) ? null : key.zone());
+            RecommendationResponse response = locationRecommendationService.getLocationRecommendations(request);
+            if (response.isDegraded()) {
+                // Historical fallback while the ML service is down or the breaker is open, worse than the entry it would replace
+                throw new IllegalStateException("ML service unavailable, reload came back degraded");
+            }
+            recommendationDiskStore.putAsync(key, response);
+            sharedRecommendationStore.putAsync(key, response);
+
+            long took = System.currentTimeMillis() - startTime;
+            refreshes.incrementAndGet();
+            totalRefreshMs.addAndGet(took);
+            lastRefreshMs.set(took);
+            maxRefreshMs.accumulateAndGet(took, Math::max);
+            System.out.println("Refreshed cached recommendations for " + key + " in " + took + "ms");
+            return response;
+        } catch (RuntimeException e) {
+            failedRefreshes.incrementAndGet();
+            System.err.println("Refresh of cached recommendations for " + key + " failed, keeping the stale entry: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    int threads = Math.max(1, refreshThreads);
+                    current = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                            new LinkedBlockingQueue<>(Math.max(1, refreshQueue)),
+                            Thread.ofPlatform().name("recommendation-refresh-", 0).daemon(true).factory());
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ThreadPoolExecutor current = executor;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        ThreadPoolExecutor current = executor;
+        long done = refreshes.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("refreshes", done);
+        stats.put("failedRefreshes", failedRefreshes.get());
+        stats.put("rejectedRefreshes", rejectedRefreshes.get());
+        stats.put("inFlight", current != null ? current.getActiveCount() : 0);
+        stats.put("queued", current != null ? current.getQueue().size() : 0);
+        stats.put("avgRefreshMs", done > 0 ? totalRefreshMs.get() / done : 0);
+        stats.put("maxRefreshMs", maxRefreshMs.get());
+        stats.put("lastRefreshMs", lastRefreshMs.get());
+        return stats;
+    }
+}
@@ -0,0 +1,147 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://www.rfc-editor.org/rfc/rfc9110#name-conditional-requests
+// https://www.rfc-editor.org/rfc/rfc9111#name-cache-control
+// https://docs.spring.io/spring-framework/reference/web/webmvc/mvc-caching.html#mvc-caching-etag-lastmodified
+
+/**
+ * Versioned snapshot of the reference data every page loads: activities, zones, the forecast and its datetimes
+ * Each resource is kept as ready-to-send JSON with an ETag taken from its bytes and the time it last changed,
+ * so conditional GETs are answered from memory without touching the database or the weather API
+ * A scheduled reload keeps it current, and the version only moves when a resource's bytes actually change
+ */
+@Service
+public class ReferenceDataService {
+
+    @Autowired
+    private LocationRecommendationService locationRecommendationService;
+
+    @Autowired
+    private WeatherForecastService weatherForecastService;
+
+    // Spring's own mapper so the bytes are what the JSON message converter used to write
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // How long browsers and nginx may reuse a response before asking again
+    @Value("${reference-data.max-age-seconds:300}")
+    private long maxAgeSeconds = 300;
+
+    public enum Resource { ACTIVITIES, ZONES, FORECAST, FORECAST_DATETIMES }
+
+    /**
+     * One resource's JSON, its ETag, when it last changed (whole seconds, as HTTP dates carry) and the version it changed in
+     */
+    public record Snapshot(byte[] json, String etag, long lastModifiedMillis, long version) {}
+
+    private final Map<Resource, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    // Metrics
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    /**
+     * Current snapshot of the resource, loaded on the first request
+     * A failing first load goes to the caller the same as it did before there was a snapshot
+     */
+    public Snapshot get(Resource resource) {
+        reads.incrementAndGet();
+        Snapshot current = snapshots.get(resource);
+        if (current != null) {
+            return current;
+        }
+        return snapshots.computeIfAbsent(resource, r -> build(r, null));
+    }
+
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    /**
+     * Reload every resource that has been asked for, a failed reload keeps serving the previous snapshot
+     */
+    @Scheduled(fixedDelayString = "${reference-data.refresh-interval-ms:600000}",
+            initialDelayString = "${reference-data.refresh-interval-ms:600000}")
+    public void refresh() {
+        for (Resource resource : Resource.values()) {
+            Snapshot previous = snapshots.get(resource);
+            if (previous == null) continue;
+            try {
+                snapshots.put(resource, build(resource, previous));
+            } catch (RuntimeException e) {
+                refreshFailures.incrementAndGet();
+                System.err.println("Reference data refresh failed for " + resource + ", keeping version "
+                        + previous.version() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drop every snapshot, the next request for each resource loads it again
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private Snapshot build(Resource resource, Snapshot previous) {
+        loads.incrementAndGet();
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(load(resource));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode reference data " + resource, e);
+        }
+        // From the bytes alone, so every replica hands out the same tag for the same data
+        String etag = "\"" + RecommendationEncoder.tag(json) + "\"";
+        if (previous != null && previous.etag().equals(etag)) {
+            return previous;
+        }
+        changes.incrementAndGet();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        Snapshot snapshot = new Snapshot(json, etag, now, version.incrementAndGet());
+        if (previous != null) {
+            System.out.println("Reference data " + resource + " changed, now version " + snapshot.version());
+        }
+        return snapshot;
+    }
+
+    private Object load(Resource resource) {
+        return switch (resource) {
+            case ACTIVITIES -> locationRecommendationService.getAllActivities();
+            case ZONES -> locationRecommendationService.getAvailableZones();
+            case FORECAST -> weatherForecastService.get96HourForecast();
+            case FORECAST_DATETIMES -> weatherForecastService.getAvailableForecastDateTimes();
+        };
+    }
+
+    public Map<String, Object> getStats() {
+        Map<Resource, Long> versions = new EnumMap<>(Resource.class);
+        snapshots.forEach((resource, snapshot) -> versions.put(resource, snapshot.version()));
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("version", version.get());
+        stats.put("resources", versions);
+        stats.put("reads", reads.get());
+        stats.put("loads", loads.get());
+        stats.put("changes", changes.get());
+        stats.put("refreshFailures", refreshFailures.get());
+        stats.put("maxAgeSeconds", maxAgeSeconds);
+        return stats;
+    }
+}
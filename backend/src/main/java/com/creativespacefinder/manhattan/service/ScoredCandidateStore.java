@@ -0,0 +1,264 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://github.com/ben-manes/caffeine/wiki/Population#manual
+// https://github.com/ben-manes/caffeine/wiki/Eviction
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/ThreadPoolExecutor.html
+
+/**
+ * ML scores per (activity, hour) for every candidate scored so far, kept separately from the finished recommendations
+ * An all-Manhattan computation stores the scores for its whole scored set, and a zone request for the same activity and hour
+ * is then ranked as a filtered view over them with no ML call. A zone request that finds only some of its pool scored
+ * sends just the rest to the ML model and adds them to the stored scores
+ * After an all-Manhattan miss the area pools are scored in the background here, so the request thread only pays for its own pool
+ * Keyed by the hour because the model only takes hour, month and day, so every minute of the same hour gets the same scores
+ */
+@Service
+public class ScoredCandidateStore {
+
+    @Value("${scored-candidates.max-entries:500}")
+    private int maxEntries = 500;
+
+    // Same lifetime as the recommendations built from them
+    @Value("${scored-candidates.ttl-hours:24}")
+    private long ttlHours = 24;
+
+    // After an all-Manhattan miss every area's pool is scored in the background, so zone requests for the same hour need no ML call
+    @Value("${scored-candidates.score-zone-pools:true}")
+    private boolean scoreZonePools = true;
+
+    // Zone-pool scorings waiting for the background thread, past this they are dropped and zone requests score their own rows
+    @Value("${scored-candidates.zone-pool-queue:20}")
+    private int zonePoolQueue = 20;
+
+    private Cache<Key, Scores> cache;
+    private volatile Executor zonePoolExecutor;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong zonePoolRuns = new AtomicLong();
+    private final AtomicLong zonePoolDropped = new AtomicLong();
+
+    private record Key(String activity, LocalDateTime hour) {}
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofHours(ttlHours))
+                .build();
+    }
+
+    public boolean isScoreZonePools() {
+        return scoreZonePools;
+    }
+
+    /**
+     * Scores stored for this activity and hour, null when there are none or they were made against an older candidate index
+     */
+    public Scores get(ActivityCandidateIndex.Candidates candidates, LocalDateTime dateTime) {
+        Key key = new Key(candidates.getActivityName(), dateTime.truncatedTo(ChronoUnit.HOURS));
+        Scores scores = cache.getIfPresent(key);
+        if (scores == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        // Positions only line up with the snapshot the scores were made from
+        if (scores.candidates() != candidates) {
+            stale.incrementAndGet();
+            cache.asMap().remove(key, scores);
+            return null;
+        }
+        hits.incrementAndGet();
+        return scores;
+    }
+
+    public void put(LocalDateTime dateTime, Scores scores) {
+        cache.put(new Key(scores.candidates().getActivityName(), dateTime.truncatedTo(ChronoUnit.HOURS)), scores);
+        stores.incrementAndGet();
+    }
+
+    /**
+     * Add the scores to whatever is stored for the same hour instead of replacing it
+     * For background scoring, which may finish after a zone request has added rows of its own
+     */
+    public void merge(LocalDateTime dateTime, Scores scores) {
+        Key key = new Key(scores.candidates().getActivityName(), dateTime.truncatedTo(ChronoUnit.HOURS));
+        cache.asMap().merge(key, scores, (existing, added) -> existing.candidates() == added.candidates() ? existing.mergedWith(added) : added);
+        stores.incrementAndGet();
+    }
+
+    /**
+     * Run the zone-pool scoring on the background thread, dropped and counted when too many are already waiting
+     */
+    public void scheduleZonePools(Runnable scoring) {
+        try {
+            zonePoolExecutor().execute(() -> {
+                zonePoolRuns.incrementAndGet();
+                try {
+                    scoring.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Background zone-pool scoring failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            zonePoolDropped.incrementAndGet();
+        }
+    }
+
+    private Executor zonePoolExecutor() {
+        Executor current = zonePoolExecutor;
+        if (current == null) {
+            synchronized (this) {
+                current = zonePoolExecutor;
+                if (current == null) {
+                    // One thread, the ML service is shared with user requests
+                    current = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                            new LinkedBlockingQueue<>(Math.max(1, zonePoolQueue)),
+                            Thread.ofPlatform().name("zone-pool-scoring").daemon(true).factory());
+                    zonePoolExecutor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (zonePoolExecutor instanceof ThreadPoolExecutor pool) {
+            pool.shutdownNow();
+        }
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", cache.estimatedSize());
+        stats.put("maxEntries", maxEntries);
+        stats.put("scoreZonePools", scoreZonePools);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("stale", stale.get());
+        stats.put("stores", stores.get());
+        stats.put("zonePoolRuns", zonePoolRuns.get());
+        stats.put("zonePoolDropped", zonePoolDropped.get());
+        stats.put("zonePoolQueued", zonePoolExecutor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0);
+        return stats;
+    }
+
+    /**
+     * ML scores for one activity and hour, by position in one Candidates snapshot
+     * Three floats per position (cultural score, crowd score, crowd number), NaN where the position has not been scored
+     */
+    public static final class Scores {
+        private final ActivityCandidateIndex.Candidates candidates;
+        private final float[] values;
+        private final int scoredCount;
+
+        private Scores(ActivityCandidateIndex.Candidates candidates, float[] values, int scoredCount) {
+            this.candidates = candidates;
+            this.values = values;
+            this.scoredCount = scoredCount;
+        }
+
+        public static Builder builder(ActivityCandidateIndex.Candidates candidates) {
+            float[] values = new float[candidates.size() * 3];
+            Arrays.fill(values, Float.NaN);
+            return new Builder(candidates, values, 0);
+        }
+
+        // Carries over everything scored so far
+        public Builder toBuilder() {
+            return new Builder(candidates, values.clone(), scoredCount);
+        }
+
+        // Positions scored in either, this one's values where both are
+        Scores mergedWith(Scores other) {
+            Builder merged = toBuilder();
+            for (int idx = 0; idx < candidates.size(); idx++) {
+                if (!merged.isScored(idx) && other.isScored(idx)) {
+                    merged.put(idx, other.culturalScore(idx), other.crowdScore(idx), other.crowdNumber(idx));
+                }
+            }
+            return merged.build();
+        }
+
+        public ActivityCandidateIndex.Candidates candidates() { return candidates; }
+        public int scoredCount() { return scoredCount; }
+
+        public boolean isScored(int idx) {
+            return !Float.isNaN(values[idx * 3]);
+        }
+
+        public float culturalScore(int idx) { return values[idx * 3]; }
+        public float crowdScore(int idx) { return values[idx * 3 + 1]; }
+        public float crowdNumber(int idx) { return values[idx * 3 + 2]; }
+
+        /**
+         * Scores for the pool positions in the same three-per-position layout, null if any of them is unscored
+         */
+        public float[] lookup(int[] pool) {
+            float[] out = new float[pool.length * 3];
+            for (int i = 0; i < pool.length; i++) {
+                if (!isScored(pool[i])) return null;
+                System.arraycopy(values, pool[i] * 3, out, i * 3, 3);
+            }
+            return out;
+        }
+
+        public static final class Builder {
+            private final ActivityCandidateIndex.Candidates candidates;
+            private final float[] values;
+            private int scoredCount;
+
+            private Builder(ActivityCandidateIndex.Candidates candidates, float[] values, int scoredCount) {
+                this.candidates = candidates;
+                this.values = values;
+                this.scoredCount = scoredCount;
+            }
+
+            public boolean isScored(int idx) {
+                return !Float.isNaN(values[idx * 3]);
+            }
+
+            public Builder put(int idx, float culturalScore, float crowdScore, float crowdNumber) {
+                if (!isScored(idx)) scoredCount++;
+                // NaN marks unscored, the ML service never sends one back anyway
+                values[idx * 3] = Float.isNaN(culturalScore) ? 0f : culturalScore;
+                values[idx * 3 + 1] = crowdScore;
+                values[idx * 3 + 2] = crowdNumber;
+                return this;
+            }
+
+            public Scores build() {
+                return new Scores(candidates, values.clone(), scoredCount);
+            }
+        }
+    }
+}
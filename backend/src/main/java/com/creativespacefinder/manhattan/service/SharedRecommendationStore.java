@@ -0,0 +1,344 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.creativespacefinder.manhattan.repository.RecommendationCacheRepository;
+import com.creativespacefinder.manhattan.repository.RecommendationCacheRepository.CachedRecommendation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://www.postgresql.org/docs/current/sql-createtable.html#SQL-CREATETABLE-UNLOGGED
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/CompletableFuture.html#get(long,java.util.concurrent.TimeUnit)
+// https://martinfowler.com/eaaCatalog/unitOfWork.html
+
+/**
+ * Recommendations shared by every backend replica through one Postgres table, read when a replica's own tiers miss
+ * Without it each pod behind nginx warms and misses on its own, with it a response computed or warmed on one pod
+ * is served by all of them
+ * Reads from concurrent misses are combined into one IN query for up to read-linger-ms, and a read slower than
+ * read-timeout-ms is given up on so a slow database falls back to computing rather than holding the request
+ * Writes are buffered per key and flushed in JDBC batches by one background thread, a sweep deletes expired rows
+ */
+@Service
+public class SharedRecommendationStore {
+
+    @Autowired
+    private RecommendationCacheRepository recommendationCacheRepository;
+
+    // Off unless turned on, each replica then only has its own cache
+    @Value("${cache.recommendations.shared.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${cache.recommendations.ttl-hours:24}")
+    private long ttlHours = 24;
+
+    // How long the first missing key waits for others to join its query
+    @Value("${cache.recommendations.shared.read-linger-ms:2}")
+    private long readLingerMs = 2;
+
+    @Value("${cache.recommendations.shared.read-batch-size:50}")
+    private int readBatchSize = 50;
+
+    // Past this the caller stops waiting and computes instead
+    @Value("${cache.recommendations.shared.read-timeout-ms:250}")
+    private long readTimeoutMs = 250;
+
+    // Rows per flush, a flush is also kicked off early once this many are waiting
+    @Value("${cache.recommendations.shared.write-batch-size:100}")
+    private int writeBatchSize = 100;
+
+    @Value("${cache.recommendations.shared.write-flush-interval-ms:500}")
+    private long writeFlushIntervalMs = 500;
+
+    // Most distinct keys waiting to be written at once
+    @Value("${cache.recommendations.shared.write-capacity:5000}")
+    private int writeCapacity = 5000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A response read back from the table and the wall-clock time it expires at
+     */
+    public record Stored(RecommendationResponse response, long expiresAtMillis) {}
+
+    private record PendingRead(String cacheKey, CompletableFuture<Stored> result) {}
+
+    private record PendingWrite(RecommendationResponse response, long expiresAtMillis) {}
+
+    private volatile boolean ready;
+    private String database;
+
+    private final Object readLock = new Object();
+    private List<PendingRead> openReads;  // Guarded by readLock
+    private ScheduledExecutorService readLinger;
+    private ExecutorService readDispatcher;
+
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private ScheduledExecutorService writeFlusher;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong readQueries = new AtomicLong();
+    private final AtomicLong keysRead = new AtomicLong();
+    private final AtomicLong readTimeouts = new AtomicLong();
+    private final AtomicLong readFailures = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writeBatches = new AtomicLong();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled && ready;
+    }
+
+    /**
+     * Create the table if needed, a database that cannot be reached leaves the store off rather than failing startup
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        try {
+            database = recommendationCacheRepository.createTableIfMissing();
+        } catch (Exception e) {
+            System.err.println("Shared recommendation cache disabled, could not create its table: " + e.getMessage());
+            return;
+        }
+        readLinger = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("shared-cache-read-linger").daemon(true).factory());
+        readDispatcher = Executors.newVirtualThreadPerTaskExecutor();
+        writeFlusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("shared-cache-flusher").daemon(true).factory());
+        writeFlusher.scheduleWithFixedDelay(this::flushQuietly, writeFlushIntervalMs, writeFlushIntervalMs, TimeUnit.MILLISECONDS);
+        ready = true;
+        System.out.println("Shared recommendation cache ready on " + database
+                + (recommendationCacheRepository.isUnlogged() ? " (unlogged table)" : ""));
+    }
+
+    /**
+     * Response another replica (or this one) stored for the key, null when there is none, it has expired or the read was too slow
+     */
+    public Stored get(RecommendationKey key) {
+        if (!isEnabled()) return null;
+        CompletableFuture<Stored> result = new CompletableFuture<>();
+        List<PendingRead> full = null;
+        synchronized (readLock) {
+            if (openReads == null) {
+                List<PendingRead> batch = new ArrayList<>();
+                openReads = batch;
+                readLinger.schedule(() -> flushReadsOnLinger(batch), Math.max(0, readLingerMs), TimeUnit.MILLISECONDS);
+            }
+            openReads.add(new PendingRead(key.toString(), result));
+            if (openReads.size() >= Math.max(1, readBatchSize)) {
+                full = openReads;
+                openReads = null;
+            }
+        }
+        if (full != null) {
+            dispatchReads(full);
+        }
+
+        try {
+            Stored stored = result.get(readTimeoutMs, TimeUnit.MILLISECONDS);
+            (stored != null ? hits : misses).incrementAndGet();
+            return stored;
+        } catch (TimeoutException e) {
+            readTimeouts.incrementAndGet();
+            return null;
+        } catch (ExecutionException e) {
+            readFailures.incrementAndGet();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void flushReadsOnLinger(List<PendingRead> batch) {
+        synchronized (readLock) {
+            // Already sent because it filled up
+            if (openReads != batch) return;
+            openReads = null;
+        }
+        dispatchReads(batch);
+    }
+
+    private void dispatchReads(List<PendingRead> batch) {
+        readDispatcher.execute(() -> {
+            try {
+                Set<String> keys = new LinkedHashSet<>();
+                for (PendingRead read : batch) keys.add(read.cacheKey());
+                Map<String, CachedRecommendation> rows = recommendationCacheRepository.findLive(keys, System.currentTimeMillis());
+                readQueries.incrementAndGet();
+                keysRead.addAndGet(keys.size());
+
+                // Two callers after the same key get their own copy, each one echoes its own request time later
+                for (PendingRead read : batch) {
+                    CachedRecommendation row = rows.get(read.cacheKey());
+                    read.result().complete(row == null ? null
+                            : new Stored(mapper.readValue(row.responseJson(), RecommendationResponse.class), row.expiresAtMillis()));
+                }
+            } catch (Throwable t) {
+                System.err.println("Shared recommendation cache read failed for " + batch.size() + " keys: " + t.getMessage());
+                for (PendingRead read : batch) read.result().completeExceptionally(t);
+            }
+        });
+    }
+
+    /**
+     * Queue the response for the next flush, returns straight away
+     * Degraded answers are only meant to last a minute, so they stay on the replica that made them
+     */
+    public void putAsync(RecommendationKey key, RecommendationResponse response) {
+        if (!isEnabled() || response == null || response.isDegraded()) return;
+        long now = System.currentTimeMillis();
+        long expiresAt = expiresAtMillis(key, now);
+        if (expiresAt <= now) return;
+
+        String cacheKey = key.toString();
+        if (pendingWrites.size() >= writeCapacity && !pendingWrites.containsKey(cacheKey)) {
+            rejectedWrites.incrementAndGet();
+            return;
+        }
+        if (pendingWrites.put(cacheKey, new PendingWrite(response, expiresAt)) != null) {
+            coalescedWrites.incrementAndGet();
+        }
+        if (pendingWrites.size() >= writeBatchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                writeFlusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, drain() picks everything up
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    // Same rule as the in-heap cache and RecommendationDiskStore: the TTL, cut short at the end of the slot
+    long expiresAtMillis(RecommendationKey key, long nowMillis) {
+        long slotEnd = key.hour().plusHours(1).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.min(nowMillis + TimeUnit.HOURS.toMillis(ttlHours), slotEnd);
+    }
+
+    /**
+     * Write everything that is waiting, only ever called from the flusher thread or on shutdown
+     */
+    int flush() {
+        flushRequested.set(false);
+        int written = 0;
+        while (!pendingWrites.isEmpty()) {
+            Map<String, PendingWrite> batch = new LinkedHashMap<>();
+            for (String cacheKey : pendingWrites.keySet()) {
+                PendingWrite write = pendingWrites.remove(cacheKey);
+                if (write != null) batch.put(cacheKey, write);
+                if (batch.size() >= writeBatchSize) break;
+            }
+            if (batch.isEmpty()) break;
+
+            try {
+                List<CachedRecommendation> rows = new ArrayList<>(batch.size());
+                for (Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                    rows.add(new CachedRecommendation(entry.getKey(),
+                            mapper.writeValueAsString(entry.getValue().response()), entry.getValue().expiresAtMillis()));
+                }
+                recommendationCacheRepository.upsertAll(rows);
+                writes.addAndGet(rows.size());
+                writeBatches.incrementAndGet();
+                written += rows.size();
+            } catch (Exception e) {
+                writeFailures.incrementAndGet();
+                // Put them back unless a newer response arrived in the meantime, then try again next flush
+                batch.forEach(pendingWrites::putIfAbsent);
+                System.err.println("Shared recommendation cache flush failed for " + batch.size() + " keys: " + e.getMessage());
+                break;
+            }
+        }
+        return written;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            System.err.println("Shared recommendation cache flusher error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete expired rows, every replica runs this and they just find less to do
+     */
+    @Scheduled(fixedDelayString = "${cache.recommendations.shared.sweep-interval-ms:300000}")
+    public void sweepExpired() {
+        if (!isEnabled()) return;
+        try {
+            int deleted = recommendationCacheRepository.deleteExpired(System.currentTimeMillis());
+            swept.addAndGet(deleted);
+            if (deleted > 0) {
+                System.out.println("Shared recommendation cache swept " + deleted + " expired rows");
+            }
+        } catch (Exception e) {
+            System.err.println("Shared recommendation cache sweep failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drop everything for every replica, used when an admin clears the recommendations cache
+     */
+    public void clear() {
+        if (!isEnabled()) return;
+        pendingWrites.clear();
+        recommendationCacheRepository.deleteAll();
+    }
+
+    /**
+     * Stop the background threads and write whatever is still waiting
+     */
+    @PreDestroy
+    public void drain() {
+        if (!ready) return;
+        readLinger.shutdownNow();
+        readDispatcher.shutdownNow();
+        writeFlusher.shutdown();
+        try {
+            writeFlusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        ready = false;
+    }
+
+    public Map<String, Object> getStats() {
+        long queries = readQueries.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("database", database);
+        stats.put("unlogged", recommendationCacheRepository != null && recommendationCacheRepository.isUnlogged());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("readQueries", queries);
+        stats.put("avgKeysPerQuery", queries > 0 ? (double) keysRead.get() / queries : 0.0);
+        stats.put("readTimeouts", readTimeouts.get());
+        stats.put("readFailures", readFailures.get());
+        stats.put("pendingWrites", pendingWrites.size());
+        stats.put("writes", writes.get());
+        stats.put("writeBatches", writeBatches.get());
+        stats.put("coalescedWrites", coalescedWrites.get());
+        stats.put("rejectedWrites", rejectedWrites.get());
+        stats.put("writeFailures", writeFailures.get());
+        stats.put("swept", swept.get());
+        return stats;
+    }
+}
@@ -1,5 +1,6 @@
 package com.creativespacefinder.manhattan.service;
 
+import com.creativespacefinder.manhattan.config.CacheConfig;
 import com.creativespacefinder.manhattan.entity.RequestAnalytics;
 import com.creativespacefinder.manhattan.repository.ActivityRepository;
 import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
@@ -9,8 +10,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.beans.factory.annotation.Value;
 
 import javax.sql.DataSource;
 import java.lang.management.ManagementFactory;
@@ -45,12 +44,56 @@ public class SystemHealthService {
 
     @Autowired
     private WeatherForecastService weatherForecastService;
-    
-    // ML Prediction URL
-    @Value("${ml.predict.url}")
-    private String mlPredictUrl;
-    
-    private final RestTemplate restTemplate = new RestTemplate();
+
+    @Autowired
+    private MlScoreWriteBehindQueue mlScoreWriteBehindQueue;
+
+    @Autowired
+    private RecommendationCache recommendationCache;
+
+    // Same pooled client the recommendation path uses, so the probe also exercises its connections
+    @Autowired
+    private MlPredictionClient mlPredictionClient;
+
+    @Autowired
+    private MlCircuitBreaker mlCircuitBreaker;
+
+    @Autowired
+    private LocalMlScorer localMlScorer;
+
+    @Autowired
+    private MlPredictionBatcher mlPredictionBatcher;
+
+    @Autowired
+    private PredictionCubeService predictionCubeService;
+
+    @Autowired
+    private ScoredCandidateStore scoredCandidateStore;
+
+    @Autowired
+    private RecommendationRefresher recommendationRefresher;
+
+    @Autowired
+    private RecommendationDiskStore recommendationDiskStore;
+
+    @Autowired
+    private SharedRecommendationStore sharedRecommendationStore;
+
+    @Autowired
+    private RecommendationEncoder recommendationEncoder;
+
+    @Autowired
+    private ReferenceDataService referenceDataService;
+
+    @Autowired
+    private WarmingPlanner warmingPlanner;
+
+    @Autowired
+    private CacheWarmingEngine cacheWarmingEngine;
+
+    @Autowired
+    private CacheConfig cacheConfig;
+
     private static final long startTime = System.currentTimeMillis();
 
     public Map<String, Object> getComprehensiveHealthStatus() {
@@ -139,6 +182,9 @@ public class SystemHealthService {
             dataStats.put("mlCoveragePercentage", coveragePercentage);
 
             db.put("dataStatistics", dataStats);
+
+            // ML scores waiting to be written, rejected > 0 means the queue was full
+            db.put("mlScoreWriteBehind", mlScoreWriteBehindQueue.getStats());
             db.put("status", "CONNECTED");
 
         } catch (Exception e) {
@@ -170,9 +216,26 @@ public class SystemHealthService {
                 cacheStats.put("evictionCount", stats.evictionCount());
 
                 cache.put("statistics", cacheStats);
+
+                // Callers that waited on an in-flight computation instead of starting their own
+                cache.put("singleFlight", recommendationCache.getStats());
+                // Background reloads of entries past the refresh age, failed ones keep serving the stale entry
+                cache.put("refresh", recommendationRefresher.getStats());
+                // On-disk second tier, what a restarted instance serves before recomputing
+                cache.put("disk", recommendationDiskStore.getStats());
+                // Table shared by all replicas, hits here are misses another pod already paid for
+                cache.put("shared", sharedRecommendationStore.getStats());
+                // Response bytes encoded once per entry, reused counts the hits that skipped Jackson and gzip
+                cache.put("encoded", recommendationEncoder.getStats());
+                // Activities, zones and forecast snapshots behind the conditional GETs, version moves only on change
+                cache.put("referenceData", referenceDataService.getStats());
+                // Last analytics-driven warming plan, coverage is the share of observed demand it warms
+                cache.put("warmingPlan", warmingPlanner.getStats());
+                // Paced warming runs, backoffs are the times pool pressure or a slow ML run halved the rate
+                cache.put("warming", cacheWarmingEngine.getStats());
                 cache.put("status", "ACTIVE");
-                cache.put("maxSize", 1000);
-                cache.put("expirationHours", 24);
+                // Configured TTL, degraded TTL and refresh age, every entry also ends with its hour
+                cache.put("settings", cacheConfig.getSettings());
 
             }
         } catch (Exception e) {
@@ -201,11 +264,7 @@ public class SystemHealthService {
             );
 
             long startTime = System.currentTimeMillis();
-            var response = restTemplate.postForObject(
-                     mlPredictUrl,
-                    testPayload,
-                    Object[].class
-            );
+            var response = mlPredictionClient.predictBatch(testPayload);
             long responseTime = System.currentTimeMillis() - startTime;
 
             ml.put("status", "CONNECTED");
@@ -218,6 +277,19 @@ public class SystemHealthService {
             ml.put("error", e.getMessage());
         }
 
+        // Call counts, latency and bytes on the wire for every ML call, not just this probe
+        ml.put("client", mlPredictionClient.getStats());
+        // OPEN means recommendations are being ranked from historical scores and flagged as degraded
+        ml.put("circuitBreaker", mlCircuitBreaker.getStats());
+        // Callers and rows per combined call, and whether batches went out on the linger timer or full
+        ml.put("microBatch", mlPredictionBatcher.getStats());
+        // hits are requests answered from the cube with no ML call
+        ml.put("predictionCube", predictionCubeService.getStats());
+        // hits are zone requests ranked from scores an earlier all-Manhattan request already paid for
+        ml.put("scoredCandidates", scoredCandidateStore.getStats());
+        // active true means recommendations are scored in the JVM and the ML service is only probed here
+        ml.put("localInference", localMlScorer.getStats());
+
         return ml;
     }
 
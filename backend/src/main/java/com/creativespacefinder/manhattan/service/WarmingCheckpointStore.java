@@ -0,0 +1,123 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.repository.WarmingCheckpointRepository;
+import com.creativespacefinder.manhattan.repository.WarmingCheckpointRepository.CheckpointRow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// References:
+// https://en.wikipedia.org/wiki/Application_checkpointing
+
+/**
+ * Where a cache warming run keeps its counters and the entries it has not finished, so a restarted pod carries on from there
+ * There is one slot: the last run to write it, on whichever replica, is the one that gets resumed
+ * Off, or with a database that cannot be reached, warming still runs and only loses the ability to resume
+ */
+@Service
+public class WarmingCheckpointStore {
+
+    private static final String ID = "daily";
+
+    @Autowired
+    private WarmingCheckpointRepository warmingCheckpointRepository;
+
+    // Spring's own mapper, it knows java.time
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${cache.warming.checkpoint.enabled:true}")
+    private boolean enabled = true;
+
+    private volatile boolean ready;
+
+    /**
+     * Counters so far and the entries still to do, state is the run's state when it was written
+     */
+    public record Checkpoint(String runId, String state, LocalDateTime startedAt, int planned, int warmed,
+                             int alreadyCached, int expired, int failed, List<WarmingPlan.Entry> remaining) {}
+
+    // Metrics
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong saveFailures = new AtomicLong();
+    private volatile long lastSavedAt;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        try {
+            warmingCheckpointRepository.createTableIfMissing();
+            ready = true;
+        } catch (Exception e) {
+            System.err.println("Warming checkpoints disabled, could not create their table: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && ready;
+    }
+
+    public void save(Checkpoint checkpoint) {
+        if (!isEnabled()) return;
+        try {
+            long now = System.currentTimeMillis();
+            warmingCheckpointRepository.save(new CheckpointRow(ID, checkpoint.state(),
+                    objectMapper.writeValueAsString(checkpoint), now));
+            saves.incrementAndGet();
+            lastSavedAt = now;
+        } catch (Exception e) {
+            saveFailures.incrementAndGet();
+            System.err.println("Could not save warming checkpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The last checkpoint written, null when there is none or it cannot be read
+     */
+    public Checkpoint load() {
+        if (!isEnabled()) return null;
+        try {
+            return warmingCheckpointRepository.find(ID)
+                    .map(row -> {
+                        try {
+                            return objectMapper.readValue(row.payload(), Checkpoint.class);
+                        } catch (Exception e) {
+                            System.err.println("Ignoring unreadable warming checkpoint: " + e.getMessage());
+                            return null;
+                        }
+                    })
+                    .orElse(null);
+        } catch (Exception e) {
+            System.err.println("Could not load warming checkpoint: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void clear() {
+        if (!isEnabled()) return;
+        try {
+            warmingCheckpointRepository.delete(ID);
+        } catch (Exception e) {
+            System.err.println("Could not clear warming checkpoint: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("saves", saves.get());
+        stats.put("saveFailures", saveFailures.get());
+        stats.put("lastSavedAt", lastSavedAt > 0 ? Instant.ofEpochMilli(lastSavedAt).toString() : null);
+        return stats;
+    }
+}
@@ -0,0 +1,142 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.entity.Activity;
+import com.creativespacefinder.manhattan.entity.RequestAnalytics;
+import com.creativespacefinder.manhattan.repository.ActivityRepository;
+import com.creativespacefinder.manhattan.repository.RequestAnalyticsRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// References:
+// https://en.wikipedia.org/wiki/Exponential_decay#Half-life
+// https://en.wikipedia.org/wiki/Knapsack_problem#Greedy_approximation_algorithm
+
+/**
+ * Decides which activity x hour slots the daily job warms, from what users actually asked for in request_analytics
+ * Each (activity, hour, day of week) row is weighted by its request count, halved every half-life since it was last asked for,
+ * and every future slot in the forecast horizon takes the weight of its row
+ * Slots are warmed highest score first until the budget runs out, every slot costing one pipeline run
+ * The old afternoon hours keep a small default weight so a new install or a new activity still gets warmed
+ * request_analytics has no zone column, so every slot is planned for all of Manhattan,
+ * whose run then scores every zone's pool in the background while scored-candidates.score-zone-pools is on
+ */
+@Service
+public class WarmingPlanner {
+
+    @Autowired
+    private RequestAnalyticsRepository requestAnalyticsRepository;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    // Slots planned per run, each one is a recommendation pipeline run with its ML call
+    @Value("${cache.warming.plan.budget:300}")
+    private int budget = 300;
+
+    // Days ahead from now, the forecast only reaches 96 hours
+    @Value("${cache.warming.plan.horizon-days:4}")
+    private int horizonDays = 4;
+
+    @Value("${cache.warming.plan.half-life-days:14}")
+    private double halfLifeDays = 14;
+
+    // The hours the job used to warm for every activity, now only the fallback
+    @Value("${cache.warming.plan.default-hours:12,13,14,15,16,17,18}")
+    private int[] defaultHours = {12, 13, 14, 15, 16, 17, 18};
+
+    // Score of a default hour nobody has asked for, below any slot with a request in the last few half-lives
+    @Value("${cache.warming.plan.default-weight:0.5}")
+    private double defaultWeight = 0.5;
+
+    private volatile WarmingPlan lastPlan;
+
+    private record Demand(String activity, int hour, int dayOfWeek) {}
+
+    public WarmingPlan plan() {
+        return plan(LocalDateTime.now());
+    }
+
+    WarmingPlan plan(LocalDateTime now) {
+        // Analytics keep the name as the user sent it, warming uses the activity table's spelling
+        Map<String, String> activities = new LinkedHashMap<>();
+        for (Activity activity : activityRepository.findAll()) {
+            activities.putIfAbsent(activity.getName().trim().toLowerCase(Locale.ROOT), activity.getName());
+        }
+
+        Map<Demand, Double> demand = new HashMap<>();
+        for (RequestAnalytics row : requestAnalyticsRepository.findAll()) {
+            if (row.getActivityName() == null || row.getRequestedHour() == null || row.getRequestedDayOfWeek() == null) continue;
+            String activity = activities.get(row.getActivityName().trim().toLowerCase(Locale.ROOT));
+            if (activity == null) continue;  // Activity no longer offered
+            demand.merge(new Demand(activity, row.getRequestedHour(), row.getRequestedDayOfWeek()), weight(row, now), Double::sum);
+        }
+
+        Set<Integer> fallbackHours = Arrays.stream(defaultHours).boxed().collect(Collectors.toSet());
+        LocalDateTime horizonEnd = now.plusDays(horizonDays);
+        List<WarmingPlan.Entry> candidates = new ArrayList<>();
+        double observedDemand = 0;
+        for (int dayOffset = 0; dayOffset <= horizonDays; dayOffset++) {
+            LocalDate date = now.toLocalDate().plusDays(dayOffset);
+            int dayOfWeek = date.getDayOfWeek().getValue();
+            for (String activity : activities.values()) {
+                for (int hour = 0; hour < 24; hour++) {
+                    LocalDateTime slot = date.atTime(hour, 0);
+                    if (!slot.isAfter(now) || slot.isAfter(horizonEnd)) continue;
+                    double observed = demand.getOrDefault(new Demand(activity, hour, dayOfWeek), 0.0);
+                    double score = observed + (fallbackHours.contains(hour) ? defaultWeight : 0);
+                    if (score <= 0) continue;
+                    observedDemand += observed;
+                    candidates.add(new WarmingPlan.Entry(activity, slot, RecommendationKey.ALL_MANHATTAN, observed, score));
+                }
+            }
+        }
+
+        // Sooner slots first among equal scores, they are the ones users can still ask for today
+        candidates.sort(Comparator.comparingDouble(WarmingPlan.Entry::score).reversed()
+                .thenComparing(WarmingPlan.Entry::dateTime));
+        List<WarmingPlan.Entry> entries = List.copyOf(candidates.subList(0, Math.min(budget, candidates.size())));
+        double covered = entries.stream().mapToDouble(WarmingPlan.Entry::demand).sum();
+
+        WarmingPlan plan = new WarmingPlan(now, budget, candidates.size(), observedDemand,
+                observedDemand > 0 ? covered / observedDemand : 0.0, entries);
+        lastPlan = plan;
+        return plan;
+    }
+
+    private double weight(RequestAnalytics row, LocalDateTime now) {
+        int count = row.getRequestCount() != null ? row.getRequestCount() : 1;
+        if (row.getLastRequested() == null) return count;
+        double ageDays = Math.max(0, Duration.between(row.getLastRequested(), now).toMinutes()) / (24.0 * 60);
+        return count * Math.pow(0.5, ageDays / halfLifeDays);
+    }
+
+    public Map<String, Object> getStats() {
+        WarmingPlan plan = lastPlan;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("budget", budget);
+        stats.put("horizonDays", horizonDays);
+        stats.put("halfLifeDays", halfLifeDays);
+        stats.put("lastPlannedAt", plan != null ? plan.generatedAt().toString() : null);
+        stats.put("lastPlanned", plan != null ? plan.entries().size() : 0);
+        stats.put("lastCandidates", plan != null ? plan.candidates() : 0);
+        stats.put("lastPredictedCoverage", plan != null ? plan.predictedCoverage() : 0.0);
+        return stats;
+    }
+}
@@ -0,0 +1,244 @@
+package com.creativespacefinder.manhattan.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/nio/channels/FileChannel.html#map(java.nio.channels.FileChannel.MapMode,long,long)
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/nio/file/Files.html#move(java.nio.file.Path,java.nio.file.Path,java.nio.file.CopyOption...)
+
+/**
+ * Dense float cube of ML predictions, activity x forecast hour x candidate location x (cultural score, crowd score, crowd number)
+ * Lives in a memory-mapped file so it costs no heap and survives a restart
+ * Each activity's block is laid out hour by hour, so every (activity, hour) slice is one contiguous run of floats
+ * The header keeps each activity's candidate score ids in row order, so rows can be found again after the candidate index is rebuilt
+ *
+ * File layout: magic, version, base hour, hour count, activity count, then per activity its name, row count,
+ * data offset and score ids, then the float data
+ */
+public final class PredictionCube {
+
+    public static final int VALUES = 3;     // Cultural score, crowd score, crowd number
+
+    private static final int MAGIC = 0x50435542;    // "PCUB"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final MappedByteBuffer data;
+    private final LocalDateTime baseHour;
+    private final int hours;
+    private final Map<String, Block> blocks;
+
+    /**
+     * Candidates of one activity in the order their rows are written
+     */
+    public record Layout(String activity, UUID[] scoreIds) {}
+
+    private PredictionCube(Path file, MappedByteBuffer data, LocalDateTime baseHour, int hours, Map<String, Block> blocks) {
+        this.file = file;
+        this.data = data;
+        this.baseHour = baseHour;
+        this.hours = hours;
+        this.blocks = blocks;
+    }
+
+    public Path file() { return file; }
+    public LocalDateTime baseHour() { return baseHour; }
+    public int hours() { return hours; }
+    public long sizeBytes() { return data.capacity(); }
+    public Set<String> activities() { return blocks.keySet(); }
+
+    // Null when the activity is not in the cube
+    public Block block(String activity) {
+        return blocks.get(activity);
+    }
+
+    /**
+     * Hour slot for a request time, -1 when it falls outside the cube's horizon
+     * Minutes are ignored, the model only takes the hour
+     */
+    public int hourIndex(LocalDateTime dateTime) {
+        long index = ChronoUnit.HOURS.between(baseHour, dateTime.truncatedTo(ChronoUnit.HOURS));
+        return index >= 0 && index < hours ? (int) index : -1;
+    }
+
+    /**
+     * One activity's predictions, reads go straight to the mapped file
+     */
+    public final class Block {
+        private final int offset;
+        private final int rows;
+        private final Map<UUID, Integer> rowByScoreId;
+
+        private Block(int offset, UUID[] scoreIds) {
+            this.offset = offset;
+            this.rows = scoreIds.length;
+            Map<UUID, Integer> byId = new HashMap<>(scoreIds.length * 2);
+            for (int i = 0; i < scoreIds.length; i++) {
+                byId.put(scoreIds[i], i);
+            }
+            this.rowByScoreId = byId;
+        }
+
+        public int rowCount() { return rows; }
+
+        // -1 when the location was not a candidate when the cube was built
+        public int rowOf(UUID scoreId) {
+            Integer row = rowByScoreId.get(scoreId);
+            return row == null ? -1 : row;
+        }
+
+        public float culturalScore(int hour, int row) { return value(hour, row, 0); }
+        public float crowdScore(int hour, int row) { return value(hour, row, 1); }
+        public float crowdNumber(int hour, int row) { return value(hour, row, 2); }
+
+        private float value(int hour, int row, int k) {
+            return data.getFloat(offset + ((hour * rows + row) * VALUES + k) * Float.BYTES);
+        }
+    }
+
+    /**
+     * Map an existing cube file read only
+     */
+    public static PredictionCube open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Prediction cube too large to map: " + channel.size() + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a prediction cube file: " + file);
+            }
+            LocalDateTime baseHour = LocalDateTime.ofEpochSecond(buffer.getLong(), 0, ZoneOffset.UTC);
+            int hours = buffer.getInt();
+            int activityCount = buffer.getInt();
+
+            // The cube only exists to hand out blocks, so build it first and fill its block map after
+            Map<String, Block> blocks = new HashMap<>();
+            PredictionCube cube = new PredictionCube(file, buffer, baseHour, hours, Collections.unmodifiableMap(blocks));
+            for (int a = 0; a < activityCount; a++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                int rows = buffer.getInt();
+                long offset = buffer.getLong();
+                UUID[] scoreIds = new UUID[rows];
+                for (int i = 0; i < rows; i++) {
+                    scoreIds[i] = new UUID(buffer.getLong(), buffer.getLong());
+                }
+                long end = offset + (long) hours * rows * VALUES * Float.BYTES;
+                if (end > buffer.capacity()) {
+                    throw new IOException("Prediction cube is truncated: " + file);
+                }
+                blocks.put(new String(name, StandardCharsets.UTF_8), cube.new Block((int) offset, scoreIds));
+            }
+            return cube;
+        }
+    }
+
+    /**
+     * Start a new cube in a temporary file, every value starts at zero
+     */
+    public static Writer create(Path tempFile, LocalDateTime baseHour, int hours, List<Layout> layouts) throws IOException {
+        return new Writer(tempFile, baseHour.truncatedTo(ChronoUnit.HOURS), hours, layouts);
+    }
+
+    /**
+     * Fills a cube through a read-write mapping, put can be called from several threads as long as they write different cells
+     */
+    public static final class Writer {
+        private final Path tempFile;
+        private final int hours;
+        private final int[] rows;
+        private final long[] offsets;
+        private final MappedByteBuffer buffer;
+
+        private Writer(Path tempFile, LocalDateTime baseHour, int hours, List<Layout> layouts) throws IOException {
+            this.tempFile = tempFile;
+            this.hours = hours;
+            this.rows = new int[layouts.size()];
+            this.offsets = new long[layouts.size()];
+
+            // Offsets are fixed width, so the header length is known before they are filled in
+            long dataStart = header(baseHour, hours, layouts, offsets).length;
+            long next = dataStart;
+            for (int a = 0; a < layouts.size(); a++) {
+                rows[a] = layouts.get(a).scoreIds().length;
+                offsets[a] = next;
+                next += (long) hours * rows[a] * VALUES * Float.BYTES;
+            }
+            if (next > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Prediction cube would be " + next + " bytes, more than one mapping can hold");
+            }
+
+            Files.deleteIfExists(tempFile);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, next);
+            }
+            buffer.put(0, header(baseHour, hours, layouts, offsets));
+        }
+
+        public void put(int activity, int hour, int row, float culturalScore, float crowdScore, float crowdNumber) {
+            if (hour < 0 || hour >= hours || row < 0 || row >= rows[activity]) {
+                throw new IndexOutOfBoundsException("No cell for hour " + hour + ", row " + row);
+            }
+            int base = (int) offsets[activity] + ((hour * rows[activity] + row) * VALUES) * Float.BYTES;
+            buffer.putFloat(base, culturalScore);
+            buffer.putFloat(base + Float.BYTES, crowdScore);
+            buffer.putFloat(base + 2 * Float.BYTES, crowdNumber);
+        }
+
+        /**
+         * Flush to disk, move over the target in one step and map the result read only
+         * Readers of the previous file keep their own mapping, so nothing they hold changes under them
+         */
+        public PredictionCube finish(Path target) throws IOException {
+            buffer.force();
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Some filesystems can't rename atomically, a plain replace is still better than no cube
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return open(target);
+        }
+
+        private static byte[] header(LocalDateTime baseHour, int hours, List<Layout> layouts, long[] offsets) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(baseHour.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(hours);
+            out.writeInt(layouts.size());
+            for (int a = 0; a < layouts.size(); a++) {
+                byte[] name = layouts.get(a).activity().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(layouts.get(a).scoreIds().length);
+                out.writeLong(offsets[a]);
+                for (UUID id : layouts.get(a).scoreIds()) {
+                    out.writeLong(id.getMostSignificantBits());
+                    out.writeLong(id.getLeastSignificantBits());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
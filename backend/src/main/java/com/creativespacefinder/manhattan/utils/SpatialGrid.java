@@ -0,0 +1,98 @@
+package com.creativespacefinder.manhattan.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// References:
+// https://www.movable-type.co.uk/scripts/latlong.html (Equirectangular approximation)
+// https://gameprogrammingpatterns.com/spatial-partition.html
+
+/**
+ * Uniform grid of lat/lon points for "is anything already within X metres" checks
+ * Cells are sized to the search radius, so a lookup only ever touches the 3x3 block of cells around the point
+ * Distances use the equirectangular approximation, which matches haversine to well under a centimetre at the 25m / 50m thresholds
+ */
+public class SpatialGrid {
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    // Cells are laid out with the reference latitude's longitude scale, so pad them a little
+    // to stay at least cellSizeMeters wide anywhere else in the indexed area
+    private static final double CELL_PADDING = 1.05;
+
+    private final double cellSizeMeters;
+    private final double cellSpanMeters;
+    private final double metersPerDegreeLat;
+    private final double metersPerDegreeLon;
+    private final Map<Long, List<double[]>> cells = new HashMap<>();
+    private int size;
+
+    /**
+     * @param cellSizeMeters    should be at least the radius used in hasPointWithin
+     * @param referenceLatitude latitude the longitude scale is taken at, the middle of the area being indexed
+     */
+    public SpatialGrid(double cellSizeMeters, double referenceLatitude) {
+        if (cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSizeMeters);
+        }
+        this.cellSizeMeters = cellSizeMeters;
+        this.cellSpanMeters = cellSizeMeters * CELL_PADDING;
+        this.metersPerDegreeLat = Math.toRadians(1) * EARTH_RADIUS;
+        this.metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(referenceLatitude));
+    }
+
+    public void add(double lat, double lon) {
+        cells.computeIfAbsent(cellKey(row(lat), col(lon)), k -> new ArrayList<>(2)).add(new double[]{lat, lon});
+        size++;
+    }
+
+    /**
+     * True if any point already in the grid is strictly closer than radiusMeters
+     */
+    public boolean hasPointWithin(double lat, double lon, double radiusMeters) {
+        if (radiusMeters > cellSizeMeters) {
+            throw new IllegalArgumentException("Radius " + radiusMeters + "m is larger than the cell size " + cellSizeMeters + "m");
+        }
+        long row = row(lat);
+        long col = col(lon);
+        for (long r = row - 1; r <= row + 1; r++) {
+            for (long c = col - 1; c <= col + 1; c++) {
+                List<double[]> points = cells.get(cellKey(r, c));
+                if (points == null) continue;
+                for (double[] p : points) {
+                    if (approximateDistance(lat, lon, p[0], p[1]) < radiusMeters) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Equirectangular distance in metres, a single cosine instead of the haversine's sin/cos/atan2
+     */
+    public static double approximateDistance(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+
+    private long row(double lat) {
+        return (long) Math.floor(lat * metersPerDegreeLat / cellSpanMeters);
+    }
+
+    private long col(double lon) {
+        return (long) Math.floor(lon * metersPerDegreeLon / cellSpanMeters);
+    }
+
+    private static long cellKey(long row, long col) {
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+}
@@ -0,0 +1,67 @@
+package com.creativespacefinder.manhattan.utils;
+
+import java.util.*;
+
+// References:
+// https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/BitSet.html
+// https://en.wikipedia.org/wiki/Dictionary_coder
+
+/**
+ * Dictionary encoding of taxi zone names to small int ordinals, plus a bitset of member ordinals per selectable area
+ * Lets zone filtering be a bit test on an int instead of a string search through a list
+ * Built once from an area -> taxi zone names map and never changed afterwards
+ */
+public class TaxiZoneCatalogue {
+
+    // Ordinal for taxi zones that are not part of any area
+    public static final int UNKNOWN_ZONE = -1;
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> zoneNames = new ArrayList<>();
+    private final Map<String, BitSet> areaMembers = new HashMap<>();
+
+    public TaxiZoneCatalogue(Map<String, List<String>> areas) {
+        // Sort the area keys so ordinals are the same on every start up
+        for (String area : new TreeSet<>(areas.keySet())) {
+            BitSet members = new BitSet();
+            for (String zoneName : areas.get(area)) {
+                members.set(ordinals.computeIfAbsent(zoneName, z -> {
+                    zoneNames.add(z);
+                    return zoneNames.size() - 1;
+                }));
+            }
+            areaMembers.put(area.toLowerCase(), members);
+        }
+    }
+
+    public int ordinalOf(String zoneName) {
+        if (zoneName == null) return UNKNOWN_ZONE;
+        return ordinals.getOrDefault(zoneName, UNKNOWN_ZONE);
+    }
+
+    public String zoneName(int ordinal) {
+        return ordinal >= 0 && ordinal < zoneNames.size() ? zoneNames.get(ordinal) : null;
+    }
+
+    /**
+     * Member zone ordinals of an area (case-insensitive), or null when the area is not defined
+     * Hands out a copy so callers cannot change the catalogue
+     */
+    public BitSet membersOf(String area) {
+        if (area == null) return null;
+        BitSet members = areaMembers.get(area.toLowerCase());
+        return members == null ? null : (BitSet) members.clone();
+    }
+
+    public boolean isMember(BitSet members, int ordinal) {
+        return ordinal >= 0 && members.get(ordinal);
+    }
+
+    public Set<String> areaNames() {
+        return Collections.unmodifiableSet(areaMembers.keySet());
+    }
+
+    public int size() {
+        return zoneNames.size();
+    }
+}
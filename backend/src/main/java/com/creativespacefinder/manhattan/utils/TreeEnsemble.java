@@ -0,0 +1,178 @@
+package com.creativespacefinder.manhattan.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// References:
+// https://xgboost.readthedocs.io/en/stable/tutorials/model.html
+// https://xgboost.readthedocs.io/en/stable/python/python_api.html#xgboost.Booster.get_dump
+
+/**
+ * Gradient boosted regression trees for one or more targets, stored as flat primitive arrays
+ * Every node of every tree lives at one index across splitFeature/threshold/left/right/defaultLeft/value,
+ * so scoring is a walk over int and float arrays with no objects and no allocation
+ * Follows XGBoost's rules: features are compared as float32, x < threshold goes left,
+ * a missing (NaN) feature follows the node's default branch, and a target is base score + the sum of its tree leaves
+ */
+public class TreeEnsemble {
+
+    private final int featureCount;
+    private final int targetCount;
+    private final boolean zerosAreMissing;
+
+    private final float[] baseScores;       // Per target
+    private final int[] targetTreeStart;    // Trees of target t are treeRoots[targetTreeStart[t] .. targetTreeStart[t + 1])
+    private final int[] treeRoots;          // Node index of each tree's root
+
+    private final int[] splitFeature;       // -1 for a leaf
+    private final float[] threshold;
+    private final int[] left;
+    private final int[] right;
+    private final boolean[] defaultLeft;
+    private final float[] value;            // Leaf value, already scaled by the learning rate
+
+    private TreeEnsemble(Builder b) {
+        this.featureCount = b.featureCount;
+        this.zerosAreMissing = b.zerosAreMissing;
+        this.targetCount = b.baseScores.size();
+        this.baseScores = new float[targetCount];
+        this.targetTreeStart = new int[targetCount + 1];
+        for (int t = 0; t < targetCount; t++) {
+            baseScores[t] = b.baseScores.get(t);
+            targetTreeStart[t + 1] = b.targetTreeEnds.get(t);
+        }
+        this.treeRoots = b.treeRoots.stream().mapToInt(Integer::intValue).toArray();
+        int n = b.nodeCount;
+        this.splitFeature = Arrays.copyOf(b.splitFeature, n);
+        this.threshold = Arrays.copyOf(b.threshold, n);
+        this.left = Arrays.copyOf(b.left, n);
+        this.right = Arrays.copyOf(b.right, n);
+        this.defaultLeft = Arrays.copyOf(b.defaultLeft, n);
+        this.value = Arrays.copyOf(b.value, n);
+    }
+
+    public static Builder builder(int featureCount) {
+        return new Builder(featureCount);
+    }
+
+    public int featureCount() { return featureCount; }
+    public int targetCount() { return targetCount; }
+    public int treeCount() { return treeRoots.length; }
+    public int nodeCount() { return splitFeature.length; }
+
+    /**
+     * Score rows of a row-major feature matrix (rows * featureCount) into out (rows * targetCount)
+     * Neither array is copied and nothing is allocated, callers can reuse both between batches
+     */
+    public void predict(float[] features, int rows, float[] out) {
+        if (features.length < rows * featureCount || out.length < rows * targetCount) {
+            throw new IllegalArgumentException("Buffers too small for " + rows + " rows");
+        }
+        for (int r = 0; r < rows; r++) {
+            int rowOffset = r * featureCount;
+            for (int t = 0; t < targetCount; t++) {
+                // Same float accumulation order as XGBoost, base score first then tree by tree
+                float sum = baseScores[t];
+                for (int tree = targetTreeStart[t]; tree < targetTreeStart[t + 1]; tree++) {
+                    sum += value[leafFor(treeRoots[tree], features, rowOffset)];
+                }
+                out[r * targetCount + t] = sum;
+            }
+        }
+    }
+
+    private int leafFor(int node, float[] features, int rowOffset) {
+        while (splitFeature[node] >= 0) {
+            float x = features[rowOffset + splitFeature[node]];
+            if (Float.isNaN(x) || (zerosAreMissing && x == 0f)) {
+                node = defaultLeft[node] ? left[node] : right[node];
+            } else {
+                node = x < threshold[node] ? left[node] : right[node];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Adds targets in order, each one's trees as parallel node arrays with the root at index 0
+     * and every child at a higher index than its parent (export_model.py writes them breadth first)
+     */
+    public static final class Builder {
+        private final int featureCount;
+        private boolean zerosAreMissing;
+        private final List<Float> baseScores = new ArrayList<>();
+        private final List<Integer> targetTreeEnds = new ArrayList<>();
+        private final List<Integer> treeRoots = new ArrayList<>();
+        private int nodeCount;
+        private int[] splitFeature = new int[1024];
+        private float[] threshold = new float[1024];
+        private int[] left = new int[1024];
+        private int[] right = new int[1024];
+        private boolean[] defaultLeft = new boolean[1024];
+        private float[] value = new float[1024];
+
+        private Builder(int featureCount) {
+            this.featureCount = featureCount;
+        }
+
+        // Set when the model was trained on sparse input, XGBoost then treats 0 like a missing value
+        public Builder zerosAreMissing(boolean zerosAreMissing) {
+            this.zerosAreMissing = zerosAreMissing;
+            return this;
+        }
+
+        public Builder startTarget(float baseScore) {
+            baseScores.add(baseScore);
+            targetTreeEnds.add(treeRoots.size());
+            return this;
+        }
+
+        public Builder addTree(int[] splitFeature, float[] threshold, int[] left, int[] right, boolean[] defaultLeft, float[] value) {
+            if (baseScores.isEmpty()) {
+                throw new IllegalStateException("startTarget must be called before addTree");
+            }
+            int n = splitFeature.length;
+            if (threshold.length != n || left.length != n || right.length != n || defaultLeft.length != n || value.length != n) {
+                throw new IllegalArgumentException("Tree arrays have different lengths");
+            }
+            ensureCapacity(nodeCount + n);
+            int offset = nodeCount;
+            for (int i = 0; i < n; i++) {
+                boolean leaf = splitFeature[i] < 0;
+                // Children always come after their parent, which also rules out cycles
+                if (!leaf && (splitFeature[i] >= featureCount || left[i] <= i || left[i] >= n || right[i] <= i || right[i] >= n)) {
+                    throw new IllegalArgumentException("Bad split at node " + i + ": feature " + splitFeature[i]);
+                }
+                this.splitFeature[offset + i] = leaf ? -1 : splitFeature[i];
+                this.threshold[offset + i] = threshold[i];
+                this.left[offset + i] = leaf ? -1 : offset + left[i];
+                this.right[offset + i] = leaf ? -1 : offset + right[i];
+                this.defaultLeft[offset + i] = defaultLeft[i];
+                this.value[offset + i] = value[i];
+            }
+            nodeCount += n;
+            treeRoots.add(offset);
+            targetTreeEnds.set(targetTreeEnds.size() - 1, treeRoots.size());
+            return this;
+        }
+
+        public TreeEnsemble build() {
+            if (baseScores.isEmpty()) {
+                throw new IllegalStateException("Tree ensemble has no targets");
+            }
+            return new TreeEnsemble(this);
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed <= splitFeature.length) return;
+            int capacity = Math.max(needed, splitFeature.length * 2);
+            splitFeature = Arrays.copyOf(splitFeature, capacity);
+            threshold = Arrays.copyOf(threshold, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            defaultLeft = Arrays.copyOf(defaultLeft, capacity);
+            value = Arrays.copyOf(value, capacity);
+        }
+    }
+}
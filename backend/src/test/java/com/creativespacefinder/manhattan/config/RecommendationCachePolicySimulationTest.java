@@ -0,0 +1,124 @@
+package com.creativespacefinder.manhattan.config;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Replays one synthetic week of requests against the old flat policy and the time-aware one
+ * Requests lean towards the next few hours and thin out towards the end of the 96 hour window, like users planning ahead
+ */
+class RecommendationCachePolicySimulationTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 7, 14, 0, 0);
+    private static final int CAPACITY = 300;
+    private static final String[] ACTIVITIES = {"busking", "art sale", "filmmaking", "street photography",
+            "portrait photography", "portrait painting", "landscape painting"};
+    private static final String[] ZONES = {"all", "all", "all", "midtown", "chelsea", "harlem", "east village",
+            "west village", "upper west side", "upper east side", "financial district", "soho hudson square", "central park"};
+
+    /**
+     * Wall clock and Caffeine ticker driven by the same counter
+     */
+    private static final class SimulatedTime extends Clock {
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() {
+            return START.toInstant(ZoneOffset.UTC).plusNanos(nanos.get());
+        }
+    }
+
+    private static List<RecommendationKey> trace(long seed, SimulatedTime time, int steps, int perStep, List<Long> stepNanos) {
+        Random random = new Random(seed);
+        List<RecommendationKey> keys = new ArrayList<>();
+        for (int step = 0; step < steps; step++) {
+            LocalDateTime now = START.plusMinutes(step * 10L);
+            for (int i = 0; i < perStep; i++) {
+                double u = random.nextDouble();
+                int hoursAhead = u < 0.6 ? random.nextInt(12) : u < 0.85 ? 12 + random.nextInt(36) : 48 + random.nextInt(48);
+                keys.add(new RecommendationKey(ACTIVITIES[random.nextInt(ACTIVITIES.length)],
+                        now.plusHours(hoursAhead).truncatedTo(ChronoUnit.HOURS), ZONES[random.nextInt(ZONES.length)]));
+                stepNanos.add(Duration.ofMinutes(step * 10L).toNanos());
+            }
+        }
+        return keys;
+    }
+
+    private static double replay(Supplier<Cache<Object, Object>> factory, SimulatedTime time, List<RecommendationKey> keys, List<Long> stepNanos) {
+        Cache<Object, Object> cache = factory.get();
+        RecommendationResponse value = new RecommendationResponse(List.of(), "busking", "unused");
+        long hits = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            time.nanos.set(stepNanos.get(i));
+            if (cache.getIfPresent(keys.get(i)) != null) {
+                hits++;
+            } else {
+                cache.put(keys.get(i), value);
+            }
+            cache.cleanUp();
+        }
+        return (double) hits / keys.size();
+    }
+
+    @Test
+    void slotExpiry_beatsFlatExpiry_onTheSameSize() {
+        SimulatedTime time = new SimulatedTime();
+        List<Long> stepNanos = new ArrayList<>();
+        // One week in ten minute steps, 20 requests each
+        List<RecommendationKey> keys = trace(2025, time, 7 * 24 * 6, 20, stepNanos);
+
+        double flat = replay(() -> Caffeine.newBuilder()
+                .ticker(time.nanos::get)
+                .executor(Runnable::run)
+                .expireAfterWrite(Duration.ofHours(24))
+                .maximumSize(CAPACITY)
+                .build(), time, keys, stepNanos);
+
+        // Same entry cap, past slots just stop taking room
+        double timeAware = replay(() -> Caffeine.newBuilder()
+                .ticker(time.nanos::get)
+                .executor(Runnable::run)
+                .expireAfter(new CacheConfig.RecommendationExpiry(Duration.ofHours(24), Duration.ofSeconds(60), time))
+                .maximumSize(CAPACITY)
+                .build(), time, keys, stepNanos);
+
+        assertThat(timeAware)
+                .as("Hit rate over %d requests: flat %.3f, slot expiry %.3f", keys.size(), flat, timeAware)
+                .isGreaterThan(flat * 1.4);
+    }
+
+    @Test
+    void entryEndsWithItsSlot_evenWithinTheTtl() {
+        SimulatedTime time = new SimulatedTime();
+        Cache<Object, Object> cache = Caffeine.newBuilder()
+                .ticker(time.nanos::get)
+                .executor(Runnable::run)
+                .expireAfter(new CacheConfig.RecommendationExpiry(Duration.ofHours(24), Duration.ofSeconds(60), time))
+                .build();
+        RecommendationKey slot = new RecommendationKey("busking", START.plusHours(2), "all");
+        RecommendationKey past = new RecommendationKey("busking", START.minusHours(1), "all");
+        cache.put(slot, new RecommendationResponse(List.of(), "busking", "unused"));
+        cache.put(past, new RecommendationResponse(List.of(), "busking", "unused"));
+
+        time.nanos.set(Duration.ofMinutes(179).toNanos());
+        assertThat(cache.getIfPresent(slot)).isNotNull();
+        assertThat(cache.getIfPresent(past)).isNull();
+
+        time.nanos.set(Duration.ofMinutes(180).toNanos());
+        assertThat(cache.getIfPresent(slot)).isNull();
+    }
+}
@@ -0,0 +1,72 @@
+package com.creativespacefinder.manhattan.config;
+
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecommendationExpiryTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private Cache<Object, Object> cache() {
+        return Caffeine.newBuilder()
+                .ticker(nanos::get)
+                .executor(Runnable::run)
+                .expireAfter(new CacheConfig.RecommendationExpiry(Duration.ofHours(24), Duration.ofSeconds(60)))
+                .build();
+    }
+
+    private static RecommendationResponse response(boolean degraded) {
+        RecommendationResponse response = new RecommendationResponse(List.of(), "Busking", "2025-07-17T15:00");
+        response.setDegraded(degraded);
+        return response;
+    }
+
+    @Test
+    void degradedResponse_expiresAfterShortTtl_normalOneStays() {
+        Cache<Object, Object> cache = cache();
+        cache.put("degraded", response(true));
+        cache.put("normal", response(false));
+
+        nanos.addAndGet(Duration.ofSeconds(61).toNanos());
+
+        assertThat(cache.getIfPresent("degraded")).isNull();
+        assertThat(cache.getIfPresent("normal")).isNotNull();
+
+        nanos.addAndGet(Duration.ofHours(24).toNanos());
+        assertThat(cache.getIfPresent("normal")).isNull();
+    }
+
+    @Test
+    void readsDoNotExtendTheTtl() {
+        Cache<Object, Object> cache = cache();
+        cache.put("degraded", response(true));
+
+        nanos.addAndGet(Duration.ofSeconds(50).toNanos());
+        assertThat(cache.getIfPresent("degraded")).isNotNull();
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+
+        assertThat(cache.getIfPresent("degraded")).isNull();
+    }
+
+    @Test
+    void settings_reportTheConfiguredLifetimes() {
+        CacheConfig config = new CacheConfig();
+        ReflectionTestUtils.setField(config, "ttlHours", 6L);
+        ReflectionTestUtils.setField(config, "degradedTtlSeconds", 30L);
+
+        assertThat(config.getSettings())
+                .containsEntry("ttlHours", 6L)
+                .containsEntry("degradedTtlSeconds", 30L)
+                .containsEntry("refreshAfterHours", 12L)
+                .containsEntry("expiresAtSlotEnd", true);
+    }
+}
@@ -1,6 +1,11 @@
 package com.creativespacefinder.manhattan.controller;
 
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.service.CacheWarmingEngine;
 import com.creativespacefinder.manhattan.service.DailyPrecomputationService;
+import com.creativespacefinder.manhattan.service.RecommendationDiskStore;
+import com.creativespacefinder.manhattan.service.SharedRecommendationStore;
+import com.creativespacefinder.manhattan.service.WarmingPlanner;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.servlet.http.HttpSession;
 import org.junit.jupiter.api.*;
@@ -21,6 +26,8 @@ import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
 
@@ -47,6 +54,14 @@ class AdminControllerTest {
     // pretends to be cache manager
     @MockBean CacheManager cacheManager;
 
+    @MockBean RecommendationDiskStore recommendationDiskStore;
+
+    @MockBean SharedRecommendationStore sharedRecommendationStore;
+
+    @MockBean WarmingPlanner warmingPlanner;
+
+    @MockBean CacheWarmingEngine cacheWarmingEngine;
+
     static final String ADMIN_USER = "adminUser";
     static final String ADMIN_PASS = "secretPass";
 
@@ -132,7 +147,7 @@ class AdminControllerTest {
     class WarmTests {
         @BeforeEach
         void clearWarmInvocations() {
-            clearInvocations(dailyPrecomputationService);
+            clearInvocations(dailyPrecomputationService, warmingPlanner, cacheWarmingEngine);
         }
 
         private void stubWarmService() {
@@ -161,6 +176,69 @@ class AdminControllerTest {
             verify(dailyPrecomputationService, times(1)).triggerAsyncDailyPrecomputation();
         }
 
+        private CacheWarmingEngine.Progress progress(CacheWarmingEngine.State state) {
+            return new CacheWarmingEngine.Progress(state, "run-1", LocalDateTime.of(2025, 7, 16, 3, 0), false,
+                    300, 120, 100, 15, 0, 5, 180, 60.0, 180L, 2.0);
+        }
+
+        @Test @DisplayName("POST /warm-cache while a run is going - 409")
+        void warm_whileRunning() throws Exception {
+            when(cacheWarmingEngine.isRunning()).thenReturn(true);
+            MockHttpSession sess = login();
+            mvc.perform(post("/api/admin/warm-cache").session(sess))
+                    .andExpect(status().isConflict())
+                    .andExpect(content().string(containsString("/api/admin/warming-progress")));
+            verify(dailyPrecomputationService, never()).triggerAsyncDailyPrecomputation();
+        }
+
+        @Test @DisplayName("GET /warming-progress with auth - counters and ETA")
+        void progress_withAuth() throws Exception {
+            when(cacheWarmingEngine.getProgress()).thenReturn(progress(CacheWarmingEngine.State.RUNNING));
+            MockHttpSession sess = login();
+            mvc.perform(get("/api/admin/warming-progress").session(sess))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.state").value("RUNNING"))
+                    .andExpect(jsonPath("$.done").value(120))
+                    .andExpect(jsonPath("$.remaining").value(180))
+                    .andExpect(jsonPath("$.etaSeconds").value(180));
+        }
+
+        @Test @DisplayName("GET /warming-progress no auth - 401")
+        void progress_noAuth() throws Exception {
+            MockHttpSession empty = new MockHttpSession();
+            mvc.perform(get("/api/admin/warming-progress").session(empty))
+                    .andExpect(status().isUnauthorized());
+            verify(cacheWarmingEngine, never()).getProgress();
+        }
+
+        @Test @DisplayName("POST /warming/pause while running - 200")
+        void pause_running() throws Exception {
+            when(cacheWarmingEngine.pause()).thenReturn(true);
+            when(cacheWarmingEngine.getProgress()).thenReturn(progress(CacheWarmingEngine.State.PAUSED));
+            MockHttpSession sess = login();
+            mvc.perform(post("/api/admin/warming/pause").session(sess))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.state").value("PAUSED"));
+        }
+
+        @Test @DisplayName("POST /warming/cancel with nothing running - 409")
+        void cancel_idle() throws Exception {
+            when(cacheWarmingEngine.cancel()).thenReturn(false);
+            when(cacheWarmingEngine.getProgress()).thenReturn(progress(CacheWarmingEngine.State.COMPLETED));
+            MockHttpSession sess = login();
+            mvc.perform(post("/api/admin/warming/cancel").session(sess))
+                    .andExpect(status().isConflict())
+                    .andExpect(jsonPath("$.error").value("No warming run to cancel"));
+        }
+
+        @Test @DisplayName("POST /warming/other - 400")
+        void unknownAction() throws Exception {
+            MockHttpSession sess = login();
+            mvc.perform(post("/api/admin/warming/restart").session(sess))
+                    .andExpect(status().isBadRequest());
+            verifyNoInteractions(cacheWarmingEngine);
+        }
+
         @Test @DisplayName("GET /cache-status no auth - 401")
         void status_noAuth() throws Exception {
             stubWarmService();
@@ -170,6 +248,28 @@ class AdminControllerTest {
                     .andExpect(content().string("Authentication required"));
         }
 
+        @Test @DisplayName("GET /warming-plan no auth - 401")
+        void plan_noAuth() throws Exception {
+            MockHttpSession empty = new MockHttpSession();
+            mvc.perform(get("/api/admin/warming-plan").session(empty))
+                    .andExpect(status().isUnauthorized())
+                    .andExpect(jsonPath("$.error").value("Authentication required"));
+            verify(warmingPlanner, never()).plan();
+        }
+
+        @Test @DisplayName("GET /warming-plan with auth - plan as JSON")
+        void plan_withAuth() throws Exception {
+            LocalDateTime slot = LocalDateTime.of(2025, 7, 16, 20, 0);
+            when(warmingPlanner.plan()).thenReturn(new WarmingPlan(slot.minusHours(17), 300, 10, 12.0, 0.75,
+                    List.of(new WarmingPlan.Entry("Busking", slot, "all", 9.0, 9.0))));
+            MockHttpSession sess = login();
+            mvc.perform(get("/api/admin/warming-plan").session(sess))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.predictedCoverage").value(0.75))
+                    .andExpect(jsonPath("$.entries[0].activity").value("Busking"))
+                    .andExpect(jsonPath("$.entries[0].zone").value("all"));
+        }
+
         @Test @DisplayName("GET /cache-status with auth - 200")
         void status_withAuth() throws Exception {
             stubWarmService();
@@ -178,6 +278,15 @@ class AdminControllerTest {
                     .andExpect(status().isOk())
                     .andExpect(content().string(containsString("Daily cache warming runs at 3 AM")));
         }
+
+        @Test @DisplayName("GET /cache-status after a run - progress summary")
+        void status_afterRun() throws Exception {
+            when(cacheWarmingEngine.getProgress()).thenReturn(progress(CacheWarmingEngine.State.RUNNING));
+            MockHttpSession sess = login();
+            mvc.perform(get("/api/admin/cache-status").session(sess))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(containsString("Last run RUNNING: 120 of 300 slots done")));
+        }
     }
 
     @Nested @DisplayName(" Debug & Clear Cache Endpoints")
@@ -263,6 +372,8 @@ class AdminControllerTest {
                     .andExpect(status().isOk())
                     .andExpect(content().string(containsString("Cache cleared successfully")));
             Assertions.assertTrue(nativeCache.asMap().isEmpty());
+            verify(recommendationDiskStore).clear();
+            verify(sharedRecommendationStore).clear();
         }
     }
 
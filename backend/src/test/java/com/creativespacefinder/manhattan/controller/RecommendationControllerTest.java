@@ -5,28 +5,45 @@ import com.creativespacefinder.manhattan.dto.RecommendationResponse;
 import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
 import com.creativespacefinder.manhattan.service.LocationRecommendationService;
 import com.creativespacefinder.manhattan.service.AnalyticsService;
+import com.creativespacefinder.manhattan.service.RecommendationCache;
+import com.creativespacefinder.manhattan.service.RecommendationEncoder;
+import com.creativespacefinder.manhattan.service.ReferenceDataService;
+import com.creativespacefinder.manhattan.service.WeatherForecastService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.mockito.BDDMockito.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @AutoConfigureMockMvc(addFilters = false)
 @WebMvcTest(RecommendationController.class)            // scans the controller and MVC infra
+@Import({RecommendationEncoder.class,                 // real encoder, so the bytes written are checked too
+        ReferenceDataService.class})                   // real snapshot behind activities and zones
 class RecommendationControllerTest {
 
     @Autowired
@@ -41,6 +58,21 @@ class RecommendationControllerTest {
     @MockBean
     private AnalyticsService analyticsService;
 
+    @MockBean
+    private RecommendationCache recommendationCache;
+
+    @MockBean
+    private WeatherForecastService weatherForecastService;
+
+    @Autowired
+    private ReferenceDataService referenceDataService;
+
+    // The context and its snapshot are shared between tests, each one stubs its own data
+    @BeforeEach
+    void clearSnapshot() {
+        referenceDataService.clear();
+    }
+
     private final LocalDateTime NOW = LocalDateTime.of(2025,7,17,15,0);
 
          // valid json request returns 200 and correct body   
@@ -60,8 +92,8 @@ class RecommendationControllerTest {
         );
         var stubResp = new RecommendationResponse(List.of(loc), "Art", NOW.toString());
 
-        given(service.getLocationRecommendations(any(RecommendationRequest.class)))
-                .willReturn(stubResp);
+        given(recommendationCache.get(any(RecommendationRequest.class)))
+                .willReturn(new RecommendationCache.Lookup(stubResp, RecommendationCache.Outcome.MISS));
 
         mvc.perform(post("/api/recommendations")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -70,6 +102,78 @@ class RecommendationControllerTest {
                 .andExpect(jsonPath("$.activity").value("Art"))
                 .andExpect(jsonPath("$.locations[0].zoneName").value("Zone A"))
                 .andExpect(jsonPath("$.totalResults").value(1));
+
+        verify(analyticsService).trackRequest(eq("Art"), eq(NOW), eq(false), anyLong());
+    }
+
+    // A caller that waited on another caller's in-flight computation is tracked as served from cache
+    @Test
+    void postRecommendations_joinedInFlight_tracksAsCacheHit() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Art", NOW, null);
+        var stubResp = new RecommendationResponse(List.of(), "Art", NOW.toString());
+        given(recommendationCache.get(any(RecommendationRequest.class)))
+                .willReturn(new RecommendationCache.Lookup(stubResp, RecommendationCache.Outcome.JOINED));
+
+        mvc.perform(post("/api/recommendations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(req)))
+                .andExpect(status().isOk());
+
+        verify(analyticsService).trackRequest(eq("Art"), eq(NOW), eq(true), anyLong());
+    }
+
+    private RecommendationResponse largeResponse() {
+        // Big enough to pass gzip-min-bytes
+        List<LocationRecommendationResponse> locations = IntStream.range(0, 20)
+                .mapToObj(i -> new LocationRecommendationResponse(UUID.randomUUID(), "Zone " + i,
+                        BigDecimal.valueOf(40.0), BigDecimal.valueOf(-73.0),
+                        BigDecimal.valueOf(5.0), BigDecimal.valueOf(6.0), BigDecimal.valueOf(7.0), 10))
+                .toList();
+        return new RecommendationResponse(locations, "Art", NOW.toString());
+    }
+
+    // Clients that take gzip get the pre-compressed bytes, with the gzip variant's ETag
+    @Test
+    void postRecommendations_acceptsGzip_returnsCompressedBodyAndEtag() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Art", NOW, null);
+        given(recommendationCache.get(any(RecommendationRequest.class)))
+                .willReturn(new RecommendationCache.Lookup(largeResponse(), RecommendationCache.Outcome.HIT));
+
+        var result = mvc.perform(post("/api/recommendations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br")
+                        .content(mapper.writeValueAsString(req)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, org.hamcrest.Matchers.endsWith("-gz\"")))
+                .andReturn();
+
+        byte[] json = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())).readAllBytes();
+        assertThat(mapper.readTree(json).get("totalResults").asInt()).isEqualTo(20);
+    }
+
+    // Sending back the ETag from the last response gets a 304 with no body
+    @Test
+    void postRecommendations_matchingIfNoneMatch_returns304() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Art", NOW, null);
+        given(recommendationCache.get(any(RecommendationRequest.class)))
+                .willReturn(new RecommendationCache.Lookup(largeResponse(), RecommendationCache.Outcome.HIT));
+
+        String etag = mvc.perform(post("/api/recommendations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(req)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(post("/api/recommendations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .content(mapper.writeValueAsString(req)))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
     }
 
   // Missing body should return 400 Bad request
@@ -129,4 +233,24 @@ class RecommendationControllerTest {
                         .content(mapper.writeValueAsString(req)))
                 .andExpect(status().isBadRequest());
     }
+
+    // Zones come back with the snapshot's validators and a matching If-None-Match gets a 304
+    @Test
+    @DisplayName("GET /api/recommendations/zones If-None-Match - 304, served from the snapshot")
+    void zones_matchingEtag_returns304() throws Exception {
+        given(service.getAvailableZones()).willReturn(List.of("Midtown", "Chelsea"));
+
+        String etag = mvc.perform(get("/api/recommendations/zones"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("Midtown"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=300, public"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).startsWith("\"");
+
+        mvc.perform(get("/api/recommendations/zones")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        verify(service, times(1)).getAvailableZones();
+    }
 }
@@ -3,7 +3,10 @@ package com.creativespacefinder.manhattan.controller;
 import com.creativespacefinder.manhattan.dto.ForecastResponse;
 import com.creativespacefinder.manhattan.dto.WeatherData;
 import com.creativespacefinder.manhattan.exception.GlobalExceptionHandler;
+import com.creativespacefinder.manhattan.service.LocationRecommendationService;
+import com.creativespacefinder.manhattan.service.ReferenceDataService;
 import com.creativespacefinder.manhattan.service.WeatherForecastService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +15,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -22,6 +26,8 @@ import java.util.List;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
@@ -29,15 +35,28 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 @AutoConfigureMockMvc(print = MockMvcPrint.SYSTEM_OUT, addFilters = false)
 @WebMvcTest(controllers = WeatherForecastController.class)
-@Import(GlobalExceptionHandler.class)   //using real error handler for json errors
+@Import({GlobalExceptionHandler.class,   //using real error handler for json errors
+        ReferenceDataService.class})     // real snapshot, so ETags and 304s are checked too
 class WeatherForecastControllerTest {
 
     @Autowired
     private MockMvc mvc;
 
+    @Autowired
+    private ReferenceDataService referenceDataService;
+
     @MockBean
     private WeatherForecastService wxSvc;
 
+    @MockBean
+    private LocationRecommendationService locationRecommendationService;
+
+    // The context and its snapshot are shared between tests, each one stubs its own data
+    @BeforeEach
+    void clearSnapshot() {
+        referenceDataService.clear();
+    }
+
     // GET /api/forecast with no query parameters return a 96 hour forecast and http 200 code
 
     @Test
@@ -154,4 +173,24 @@ class WeatherForecastControllerTest {
                         .accept(MediaType.APPLICATION_XML))
                 .andExpect(status().isNotAcceptable());
     }
+
+    // A client sending back the ETag gets a 304 and the weather service is not asked again
+    @Test
+    @DisplayName("GET /api/forecast/available-datetimes If-None-Match - 304, one service call")
+    void getForecastTimes_matchingEtag_returns304() throws Exception {
+        when(wxSvc.getAvailableForecastDateTimes()).thenReturn(List.of(LocalDateTime.of(2025, 7, 20, 9, 0)));
+
+        String etag = mvc.perform(get("/api/forecast/available-datetimes"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=300, public"))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/api/forecast/available-datetimes")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(wxSvc, times(1)).getAvailableForecastDateTimes();
+    }
 }
@@ -0,0 +1,54 @@
+package com.creativespacefinder.manhattan.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecommendationKeyTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 17, 0);
+
+    @Test
+    void testMinutesSecondsAndNanosWithinTheHourShareAKey() {
+        RecommendationKey onTheHour = RecommendationKey.of(new RecommendationRequest("Busking", NOW));
+
+        assertEquals(onTheHour, RecommendationKey.of(new RecommendationRequest("Busking", NOW.plusMinutes(15))));
+        assertEquals(onTheHour, RecommendationKey.of(new RecommendationRequest("Busking", NOW.withSecond(0).withNano(0))));
+        assertEquals(onTheHour, RecommendationKey.of(new RecommendationRequest("Busking", NOW.plusMinutes(59).plusSeconds(59))));
+        assertNotEquals(onTheHour, RecommendationKey.of(new RecommendationRequest("Busking", NOW.plusHours(1))));
+        assertNotEquals(onTheHour, RecommendationKey.of(new RecommendationRequest("Busking", NOW.plusDays(1))));
+    }
+
+    @Test
+    void testActivityCaseIsIgnored() {
+        assertEquals(RecommendationKey.of(new RecommendationRequest("Art Sale", NOW)),
+                RecommendationKey.of(new RecommendationRequest("art sale", NOW)));
+    }
+
+    @Test
+    void testZoneAliases() {
+        RecommendationKey key = RecommendationKey.of(new RecommendationRequest("Busking", NOW, "upper west side"));
+
+        assertEquals(key, RecommendationKey.of(new RecommendationRequest("Busking", NOW, "Upper West Side")));
+        assertEquals(key, RecommendationKey.of(new RecommendationRequest("Busking", NOW, " upper  west side ")));
+        assertEquals(key, RecommendationKey.of(new RecommendationRequest("Busking", NOW, "upper-west_side")));
+        assertNotEquals(key, RecommendationKey.of(new RecommendationRequest("Busking", NOW, "upper east side")));
+    }
+
+    @Test
+    void testBlankZoneIsAllManhattan() {
+        RecommendationKey all = RecommendationKey.of(new RecommendationRequest("Busking", NOW, null));
+
+        assertEquals(RecommendationKey.ALL_MANHATTAN, all.zone());
+        assertEquals(all, RecommendationKey.of(new RecommendationRequest("Busking", NOW, "   ")));
+        assertNull(RecommendationKey.canonicalZone(""));
+    }
+
+    @Test
+    void testToStringKeepsTheOldKeyShape() {
+        assertEquals("busking_2025-07-17T17:00_midtown",
+                RecommendationKey.of(new RecommendationRequest("Busking", NOW.plusMinutes(30), "Midtown")).toString());
+    }
+}
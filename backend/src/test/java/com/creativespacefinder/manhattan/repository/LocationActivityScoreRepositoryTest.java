@@ -154,4 +154,57 @@ class LocationActivityScoreRepositoryTest {
         assertNotNull(s.getLocation().getLocationName());
         assertNotNull(s.getTaxiZone().getZoneName());
     }
+
+    @Test
+    void findCandidateRowsForAllActivities_keepsBestRowPerLocation() {
+        List<Object[]> rows = locationActivityScoreRepository.findCandidateRowsForAllActivities(10);
+
+        assertEquals(2, rows.size(), "one row per activity/location pair");
+        Object[] cycling = rows.get(0);
+        Object[] hiking = rows.get(1);
+
+        assertEquals("Cycling", cycling[1]);
+        assertNull(cycling[7]);
+
+        assertEquals("Hiking", hiking[1]);
+        assertEquals("Bethesda Terrace", hiking[3]);
+        assertEquals("Central Park", hiking[6]);
+        assertEquals(0, new BigDecimal("0.80").compareTo(new BigDecimal(hiking[7].toString())));
+    }
+
+    @Test
+    void findCandidateRowsForAllActivities_respectsPerActivityLimit() {
+        EventLocation boathouse = entityManager.persistAndFlush(new EventLocation(
+                "Loeb Boathouse",
+                BigDecimal.valueOf(40.775),
+                BigDecimal.valueOf(-73.969),
+                centralParkZone)
+        );
+        createAndPersistScore(7, boathouse, hikingActivity, centralParkZone,
+                testDate, testTime, null, null, null, BigDecimal.valueOf(0.95));
+
+        List<Object[]> rows = locationActivityScoreRepository.findCandidateRowsForAllActivities(1);
+
+        List<Object[]> hiking = rows.stream().filter(r -> "Hiking".equals(r[1])).toList();
+        assertEquals(1, hiking.size());
+        assertEquals("Loeb Boathouse", hiking.get(0)[3]);
+    }
+
+    @Test
+    void updateMlScores_writesScoresOntoExistingRows() {
+        LocationActivityScore target = locationActivityScoreRepository.findAll().get(0);
+
+        int updated = locationActivityScoreRepository.updateMlScores(List.of(
+                new LocationActivityScoreRepositoryCustom.MlScoreUpdate(
+                        target.getId(), new BigDecimal("6.50"), new BigDecimal("3.25"), new BigDecimal("7.1"), 42)
+        ));
+        entityManager.clear();
+
+        assertEquals(1, updated);
+        LocationActivityScore reloaded = locationActivityScoreRepository.findById(target.getId()).orElseThrow();
+        assertEquals(0, new BigDecimal("7.1").compareTo(reloaded.getMuseScore()));
+        assertEquals(0, new BigDecimal("3.25").compareTo(reloaded.getCrowdScore()));
+        assertEquals(42, reloaded.getEstimatedCrowdNumber());
+        assertNotNull(reloaded.getMlPredictionDate());
+    }
 }
@@ -0,0 +1,114 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.entity.Activity;
+import com.creativespacefinder.manhattan.repository.ActivityRepository;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ActivityCandidateIndexTest {
+
+    @Mock private LocationActivityScoreRepository lasRepo;
+    @Mock private ActivityRepository activityRepo;
+
+    @InjectMocks
+    private ActivityCandidateIndex index;
+
+    private static Object[] row(String activity, String location, String zone, double historical) {
+        return new Object[]{
+                UUID.randomUUID(), activity, UUID.randomUUID(), location,
+                new BigDecimal("40.7500000"), new BigDecimal("-73.9800000"), zone,
+                BigDecimal.valueOf(historical), null
+        };
+    }
+
+    @Test
+    void refresh_buildsCandidatesPerActivity_withPrimitiveColumns() {
+        when(activityRepo.findAll()).thenReturn(List.of(new Activity("Busking"), new Activity("Filmmaking")));
+        when(lasRepo.findCandidateRowsForAllActivities(anyInt())).thenReturn(List.<Object[]>of(
+                row("Busking", "Bryant Park", "Midtown Center", 9.1),
+                row("Busking", "Marcus Garvey Park", "East Harlem South", 7.4)
+        ));
+
+        ActivityCandidateIndex.Snapshot snapshot = index.refresh();
+
+        assertThat(snapshot.activityNames()).containsExactlyInAnyOrder("Busking", "Filmmaking");
+        ActivityCandidateIndex.Candidates busking = index.candidatesFor("Busking");
+        assertThat(busking.size()).isEqualTo(2);
+        assertThat(busking.locationName(0)).isEqualTo("Bryant Park");
+        assertThat(busking.latitude(0)).isEqualTo(40.75);
+        assertThat(busking.zoneName(1)).isEqualTo("East Harlem South");
+        assertThat(busking.historicalActivityScore(0)).isEqualTo(9.1);
+        assertThat(busking.historicalCrowdScore(0)).isNaN();
+        assertThat(index.candidatesFor("Filmmaking").size()).isZero();
+    }
+
+    @Test
+    void candidatesFor_unknownActivity_throwsActivityNotFound() {
+        when(activityRepo.findAll()).thenReturn(List.of(new Activity("Busking")));
+        when(lasRepo.findCandidateRowsForAllActivities(anyInt())).thenReturn(List.of());
+
+        assertThatThrownBy(() -> index.candidatesFor("Juggling"))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Activity not found: Juggling");
+    }
+
+    @Test
+    void candidatesFor_loadsLazilyOnce_thenRefreshSwapsSnapshot() {
+        when(activityRepo.findAll()).thenReturn(List.of(new Activity("Busking")));
+        when(lasRepo.findCandidateRowsForAllActivities(anyInt()))
+                .thenReturn(List.<Object[]>of(row("Busking", "Bryant Park", "Midtown Center", 9.1)))
+                .thenReturn(List.<Object[]>of(
+                        row("Busking", "Bryant Park", "Midtown Center", 9.1),
+                        row("Busking", "Union Square", "Union Sq", 8.0)));
+
+        ActivityCandidateIndex.Candidates before = index.candidatesFor("Busking");
+        index.candidatesFor("Busking");
+        verify(lasRepo, times(1)).findCandidateRowsForAllActivities(anyInt());
+
+        index.refresh();
+
+        assertThat(before.size()).isEqualTo(1);
+        assertThat(index.candidatesFor("Busking").size()).isEqualTo(2);
+    }
+
+    @Test
+    void pool_zoneRequestsGetTheirOwnPoolFromDeeperRows() {
+        ActivityCandidateIndex.Candidates.Builder builder = ActivityCandidateIndex.Candidates.builder("Busking");
+        for (int i = 0; i < 10; i++) {
+            builder.add(UUID.randomUUID(), UUID.randomUUID(), "Midtown " + i, 40.75, -73.98, "Midtown Center", 9, 0);
+        }
+        for (int i = 0; i < 4; i++) {
+            builder.add(UUID.randomUUID(), UUID.randomUUID(), "Hamilton " + i, 40.82, -73.95, "Hamilton Heights", 5, 0);
+        }
+        builder.add(UUID.randomUUID(), UUID.randomUUID(), "Astoria", 40.77, -73.93, "Astoria", 4, 0);
+        ActivityCandidateIndex.Candidates candidates = builder.build(5);
+
+        // The borough pool is only the top 5, none of them in Hamilton Heights
+        assertThat(candidates.pool(null)).containsExactly(0, 1, 2, 3, 4);
+        assertThat(candidates.pool("  ")).hasSize(5);
+
+        // But the zone still gets every location it has
+        List<String> hamilton = new ArrayList<>();
+        for (int idx : candidates.pool("Hamilton Heights")) {
+            hamilton.add(candidates.locationName(idx));
+        }
+        assertThat(hamilton).containsExactly("Hamilton 0", "Hamilton 1", "Hamilton 2", "Hamilton 3");
+
+        assertThat(candidates.pool("midtown")).hasSize(5);
+        assertThat(candidates.pool("atlantis")).isEmpty();
+    }
+}
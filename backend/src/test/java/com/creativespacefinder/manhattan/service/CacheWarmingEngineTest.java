@@ -0,0 +1,293 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CacheWarmingEngineTest {
+
+    @Mock
+    private RecommendationCache recommendationCache;
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private WarmingCheckpointStore warmingCheckpointStore;
+
+    private CacheWarmingEngine engine;
+
+    private final LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+
+    @BeforeEach
+    void setUp() {
+        engine = new CacheWarmingEngine();
+        ReflectionTestUtils.setField(engine, "recommendationCache", recommendationCache);
+        ReflectionTestUtils.setField(engine, "dataSource", dataSource);
+        ReflectionTestUtils.setField(engine, "warmingCheckpointStore", warmingCheckpointStore);
+        ReflectionTestUtils.setField(engine, "maxRatePerSecond", 1000.0);
+        ReflectionTestUtils.setField(engine, "burst", 1000);
+    }
+
+    private WarmingPlan.Entry entry(String activity, LocalDateTime at) {
+        return new WarmingPlan.Entry(activity, at, "all", 1.0, 1.0);
+    }
+
+    private List<WarmingPlan.Entry> entries(int n) {
+        return IntStream.range(0, n).mapToObj(i -> entry("Activity " + i, hour)).toList();
+    }
+
+    private static RecommendationCache.Lookup computed(boolean degraded) {
+        RecommendationResponse response = new RecommendationResponse(List.of(), "Busking", "");
+        response.setDegraded(degraded);
+        return new RecommendationCache.Lookup(response, RecommendationCache.Outcome.MISS);
+    }
+
+    @Test
+    void cachedAndPassedSlots_costNoPipelineRun() {
+        when(recommendationCache.getIfPresent(argThat(r -> r != null && r.getActivity().equals("Cached"))))
+                .thenReturn(new RecommendationResponse(List.of(), "Cached", ""));
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenReturn(computed(false));
+
+        CacheWarmingEngine.Result result = engine.run(List.of(
+                entry("Cached", hour), entry("Passed", hour.minusHours(3)), entry("Busking", hour)));
+
+        assertThat(result.warmed()).isEqualTo(1);
+        assertThat(result.alreadyCached()).isEqualTo(1);
+        assertThat(result.expired()).isEqualTo(1);
+        verify(recommendationCache, times(1)).get(any(RecommendationRequest.class));
+    }
+
+    @Test
+    void runsOverlap_upToTheConcurrency() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger mostInFlight = new AtomicInteger();
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenAnswer(inv -> {
+            mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(150);
+            inFlight.decrementAndGet();
+            return computed(false);
+        });
+
+        CacheWarmingEngine.Result result = engine.run(entries(9));
+
+        assertThat(result.warmed()).isEqualTo(9);
+        assertThat(mostInFlight.get()).isEqualTo(3);
+        // Three rounds of three, not nine runs one after another
+        assertThat(result.durationMs()).isLessThan(9 * 150);
+    }
+
+    @Test
+    void tokenBucket_limitsTheRate() {
+        ReflectionTestUtils.setField(engine, "maxRatePerSecond", 10.0);
+        ReflectionTestUtils.setField(engine, "burst", 1);
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenReturn(computed(false));
+
+        CacheWarmingEngine.Result result = engine.run(entries(6));
+
+        // One token straight away, five more at 10 per second
+        assertThat(result.warmed()).isEqualTo(6);
+        assertThat(result.durationMs()).isGreaterThanOrEqualTo(450);
+    }
+
+    @Test
+    void noTokenBeforeTheDeadline_stopsTheWorkers_insteadOfRequeueingInALoop() {
+        // One token an hour against a one minute run, only the first entry gets to run
+        ReflectionTestUtils.setField(engine, "maxRatePerSecond", 1.0 / 3600);
+        ReflectionTestUtils.setField(engine, "burst", 1);
+        ReflectionTestUtils.setField(engine, "maxDurationMinutes", 1L);
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenReturn(computed(false));
+
+        CacheWarmingEngine.Result result = engine.run(entries(3));
+
+        assertThat(result.warmed()).isEqualTo(1);
+        assertThat(result.leftOver()).isEqualTo(2);
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.DEADLINE);
+        assertThat(result.durationMs()).isLessThan(5000);
+        // Each worker gives up after one refused token rather than polling the same entries until the deadline
+        verify(recommendationCache, atMost(5)).getIfPresent(any(RecommendationRequest.class));
+    }
+
+    @Test
+    void failuresAndDegradedRuns_halveTheRate() {
+        ReflectionTestUtils.setField(engine, "maxRatePerSecond", 50.0);
+        ReflectionTestUtils.setField(engine, "concurrency", 1);
+        when(recommendationCache.get(any(RecommendationRequest.class)))
+                .thenThrow(new RuntimeException("ML down"))
+                .thenReturn(computed(true));
+
+        CacheWarmingEngine.Result result = engine.run(entries(2));
+
+        assertThat(result.failed()).isEqualTo(1);
+        assertThat(result.backoffs()).isEqualTo(2);
+        assertThat(result.finalRatePerSecond()).isEqualTo(12.5);
+    }
+
+    @Test
+    void pastTheDeadline_nothingStarts_andTheRestIsLeftOver() {
+        ReflectionTestUtils.setField(engine, "maxDurationMinutes", 0L);
+
+        CacheWarmingEngine.Result result = engine.run(entries(4));
+
+        assertThat(result.leftOver()).isEqualTo(4);
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.DEADLINE);
+        assertThat(engine.getStats().get("deadlinesHit")).isEqualTo(1L);
+        verifyNoInteractions(recommendationCache);
+        // Kept for the next trigger to carry on from
+        verify(warmingCheckpointStore, atLeastOnce()).save(argThat(c -> c.state().equals("DEADLINE") && c.remaining().size() == 4));
+        verify(warmingCheckpointStore, never()).clear();
+    }
+
+    @Test
+    void completedRun_clearsItsCheckpoint_andReportsProgress() {
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenReturn(computed(false));
+
+        CacheWarmingEngine.Result result = engine.run(entries(3));
+
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.COMPLETED);
+        verify(warmingCheckpointStore).clear();
+        CacheWarmingEngine.Progress progress = engine.getProgress();
+        assertThat(progress.done()).isEqualTo(3);
+        assertThat(progress.remaining()).isZero();
+        assertThat(progress.planned()).isEqualTo(3);
+        assertThat(engine.isRunning()).isFalse();
+    }
+
+    @Test
+    void slowPeriodicSave_neverLandsAfterTheFinalClear() {
+        ReflectionTestUtils.setField(engine, "checkpointIntervalMs", 1L);
+        List<String> calls = new CopyOnWriteArrayList<>();
+        doAnswer(inv -> {
+            Thread.sleep(20);
+            calls.add("save");
+            return null;
+        }).when(warmingCheckpointStore).save(any());
+        doAnswer(inv -> calls.add("clear")).when(warmingCheckpointStore).clear();
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenAnswer(inv -> {
+            Thread.sleep(15);
+            return computed(false);
+        });
+
+        engine.run(entries(6));
+
+        assertThat(calls).last().isEqualTo("clear");
+    }
+
+    @Test
+    void pause_holdsTheWorkers_untilResumed() throws Exception {
+        ReflectionTestUtils.setField(engine, "concurrency", 1);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenAnswer(inv -> {
+            firstStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return computed(false);
+        });
+
+        CompletableFuture<CacheWarmingEngine.Result> run = CompletableFuture.supplyAsync(() -> engine.run(entries(3)));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(engine.pause()).isTrue();
+        assertThat(engine.pause()).isFalse();
+        release.countDown();
+
+        Thread.sleep(300);
+        // The run in flight finishes, nothing new starts while paused
+        assertThat(engine.getProgress().state()).isEqualTo(CacheWarmingEngine.State.PAUSED);
+        assertThat(engine.getProgress().warmed()).isEqualTo(1);
+        assertThat(engine.getProgress().remaining()).isEqualTo(2);
+        assertThatThrownBy(() -> engine.run(entries(1))).isInstanceOf(IllegalStateException.class);
+
+        assertThat(engine.resume()).isTrue();
+        CacheWarmingEngine.Result result = run.get(5, TimeUnit.SECONDS);
+        assertThat(result.warmed()).isEqualTo(3);
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.COMPLETED);
+    }
+
+    @Test
+    void cancel_stopsTheRun_andDropsTheCheckpoint() throws Exception {
+        ReflectionTestUtils.setField(engine, "concurrency", 1);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenAnswer(inv -> {
+            firstStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return computed(false);
+        });
+
+        CompletableFuture<CacheWarmingEngine.Result> run = CompletableFuture.supplyAsync(() -> engine.run(entries(5)));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(engine.cancel()).isTrue();
+        release.countDown();
+
+        CacheWarmingEngine.Result result = run.get(5, TimeUnit.SECONDS);
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.CANCELLED);
+        assertThat(result.warmed()).isEqualTo(1);
+        assertThat(result.leftOver()).isEqualTo(4);
+        verify(warmingCheckpointStore).clear();
+        assertThat(engine.cancel()).isFalse();
+    }
+
+    @Test
+    void runFromCheckpoint_carriesTheCountersOver() {
+        when(recommendationCache.get(any(RecommendationRequest.class))).thenReturn(computed(false));
+        WarmingCheckpointStore.Checkpoint checkpoint = new WarmingCheckpointStore.Checkpoint(
+                "run-1", "RUNNING", hour.minusHours(2), 10, 6, 1, 0, 1, entries(2));
+
+        CacheWarmingEngine.Result result = engine.runFromCheckpoint(checkpoint);
+
+        assertThat(result.planned()).isEqualTo(10);
+        assertThat(result.warmed()).isEqualTo(8);
+        assertThat(result.state()).isEqualTo(CacheWarmingEngine.State.COMPLETED);
+        CacheWarmingEngine.Progress progress = engine.getProgress();
+        assertThat(progress.runId()).isEqualTo("run-1");
+        assertThat(progress.resumed()).isTrue();
+        assertThat(progress.done()).isEqualTo(10);
+    }
+
+    @Test
+    void busyConnectionPool_countsAsPressure() {
+        HikariDataSource hikari = mock(HikariDataSource.class);
+        HikariPoolMXBean poolBean = mock(HikariPoolMXBean.class);
+        when(hikari.getHikariPoolMXBean()).thenReturn(poolBean);
+        when(hikari.getMaximumPoolSize()).thenReturn(8);
+        ReflectionTestUtils.setField(engine, "dataSource", hikari);
+
+        when(poolBean.getActiveConnections()).thenReturn(3);
+        assertThat(engine.poolUnderPressure()).isFalse();
+
+        when(poolBean.getActiveConnections()).thenReturn(6);
+        assertThat(engine.poolUnderPressure()).isTrue();
+
+        when(poolBean.getActiveConnections()).thenReturn(2);
+        when(poolBean.getThreadsAwaitingConnection()).thenReturn(1);
+        assertThat(engine.poolUnderPressure()).isTrue();
+    }
+}
@@ -0,0 +1,104 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Checks the JVM scorer against predictions made by the Python side for the same rows
+ * By default it uses the small fixture model in src/test/resources/ml, run with
+ * -Dml.parity.dir=<dir with export_model.py output> to check the real exported XGBoost model instead
+ */
+class LocalMlScorerParityTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private LocalMlScorer.Model model;
+    private List<Map<String, Object>> rows;
+    private double[][] expected;
+
+    private InputStream open(String exported, String fixture) throws Exception {
+        String dir = System.getProperty("ml.parity.dir");
+        if (dir != null && !dir.isBlank()) {
+            return Files.newInputStream(Path.of(dir, exported));
+        }
+        return getClass().getResourceAsStream("/ml/" + fixture);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        try (InputStream in = open("xgboost_model_trees.json", "parity_model_trees.json")) {
+            model = LocalMlScorer.load(in);
+        }
+        try (InputStream in = open("xgboost_parity_cases.json", "parity_cases.json")) {
+            JsonNode cases = mapper.readTree(in);
+            rows = mapper.convertValue(cases.get("rows"), new TypeReference<>() {});
+            expected = mapper.convertValue(cases.get("predictions"), double[][].class);
+        }
+    }
+
+    @Test
+    void rawOutputs_matchPipelinePredictions() {
+        int targets = model.ensemble().targetCount();
+        float[] features = new float[rows.size() * model.featureCount()];
+        float[] out = new float[rows.size() * targets];
+        for (int r = 0; r < rows.size(); r++) {
+            LocalMlScorer.encode(model, rows.get(r), features, r * model.featureCount());
+        }
+
+        model.ensemble().predict(features, rows.size(), out);
+
+        for (int r = 0; r < rows.size(); r++) {
+            for (int t = 0; t < targets; t++) {
+                double want = expected[r][t];
+                assertThat((double) out[r * targets + t])
+                        .as("row %d target %d (%s)", r, t, rows.get(r))
+                        .isCloseTo(want, within(1e-4 * Math.max(1.0, Math.abs(want))));
+            }
+        }
+    }
+
+    @Test
+    void predictBatch_appliesSameRoundingAndClampingAsMainPy() {
+        LocalMlScorer scorer = new LocalMlScorer();
+        ReflectionTestUtils.setField(scorer, "inferenceMode", "local");
+        ReflectionTestUtils.setField(scorer, "model", model);
+
+        PredictionResponse[] out = scorer.predictBatch(rows);
+
+        assertThat(scorer.isActive()).isTrue();
+        assertThat(out).hasSize(rows.size());
+        for (int r = 0; r < rows.size(); r++) {
+            // main.py: int(round(pred[0])) floored at 0, scores clamped to [-10, 10]
+            assertThat(out[r].getEstimatedCrowdNumber()).isEqualTo(Math.max(0, (int) Math.rint(expected[r][0])));
+            assertThat((double) out[r].getCrowdScore()).isCloseTo(Math.max(-10, Math.min(10, expected[r][1])), within(1e-3));
+            assertThat((double) out[r].getCreativeActivityScore()).isCloseTo(Math.max(-10, Math.min(10, expected[r][2])), within(1e-3));
+            assertThat(out[r].getMuseScore()).isNull();
+        }
+    }
+
+    @Test
+    void unknownActivity_encodesAsAllZeroActivityColumns() {
+        float[] features = new float[model.featureCount()];
+
+        LocalMlScorer.encode(model, Map.of("latitude", 40.75, "longitude", -73.98, "hour", 15, "month", 7, "day", 18,
+                "cultural_activity_prefered", "Unknown activity"), features, 0);
+
+        for (int c = 0; c < model.categoryCount(); c++) {
+            assertThat(features[c]).isZero();
+        }
+        assertThat(features[model.categoryCount()]).isEqualTo(40.75f);
+        assertThat(features[model.featureCount() - 1]).isEqualTo(18f);
+    }
+}
@@ -0,0 +1,138 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class LocationRecommendationServiceFanoutTest {
+
+    private LocationRecommendationService service;
+    private LocalMlScorer localMlScorer;
+
+    @BeforeEach
+    void init() {
+        service = spy(new LocationRecommendationService());
+        localMlScorer = mock(LocalMlScorer.class);
+        ReflectionTestUtils.setField(service, "localMlScorer", localMlScorer);
+        ReflectionTestUtils.setField(service, "mlChunkSize", 100);
+        ReflectionTestUtils.setField(service, "mlMaxConcurrentChunks", 3);
+    }
+
+    private static List<Map<String, Object>> rows(int n) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("row", i);
+            rows.add(m);
+        }
+        return rows;
+    }
+
+    // Echo each row's index back as the crowd number so ordering can be checked
+    @SuppressWarnings("unchecked")
+    private void stubEcho(int failingChunkStartRow) {
+        doAnswer(inv -> {
+            List<Map<String, Object>> chunk = inv.getArgument(0);
+            int first = (int) chunk.get(0).get("row");
+            if (first == failingChunkStartRow) {
+                throw new RuntimeException("ML replica down");
+            }
+            PredictionResponse[] out = new PredictionResponse[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                out[i] = new PredictionResponse(null, (int) chunk.get(i).get("row"), 5f, 5f);
+            }
+            return out;
+        }).when(service).callMLModelChunk(anyList());
+    }
+
+    @Test
+    void batchIsSplitIntoChunks_andReassembledInOrder() {
+        stubEcho(-1);
+
+        PredictionResponse[] out = service.callMLModelBatch(rows(250));
+
+        verify(service, times(3)).callMLModelChunk(anyList());
+        assertThat(out).hasSize(250);
+        for (int i = 0; i < out.length; i++) {
+            assertThat(out[i].getEstimatedCrowdNumber()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void smallBatch_isOneCall() {
+        stubEcho(-1);
+
+        service.callMLModelBatch(rows(40));
+
+        verify(service, times(1)).callMLModelChunk(anyList());
+    }
+
+    @Test
+    void skipPolicy_leavesNullsForFailedChunkOnly() {
+        stubEcho(100);
+
+        PredictionResponse[] out = service.callMLModelBatch(rows(250));
+
+        assertThat(out[99].getEstimatedCrowdNumber()).isEqualTo(99);
+        assertThat(out[100]).isNull();
+        assertThat(out[199]).isNull();
+        assertThat(out[200].getEstimatedCrowdNumber()).isEqualTo(200);
+    }
+
+    @Test
+    void failPolicy_anyFailedChunkFailsTheBatch() {
+        ReflectionTestUtils.setField(service, "mlPartialFailurePolicy", "fail");
+        stubEcho(200);
+
+        assertThatThrownBy(() -> service.callMLModelBatch(rows(250)))
+                .hasMessage("ML replica down");
+    }
+
+    @Test
+    void skipPolicy_allChunksFailing_stillFails() {
+        doThrow(new RuntimeException("ML service down")).when(service).callMLModelChunk(anyList());
+
+        assertThatThrownBy(() -> service.callMLModelBatch(rows(250)))
+                .hasMessage("ML service down");
+    }
+
+    @Test
+    void chunksRunConcurrently_upToTheLimit() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        doAnswer(inv -> {
+            List<?> chunk = inv.getArgument(0);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            return new PredictionResponse[chunk.size()];
+        }).when(service).callMLModelChunk(anyList());
+
+        service.callMLModelBatch(rows(500));
+
+        assertThat(maxInFlight.get()).isBetween(2, 3);
+    }
+
+    @Test
+    void localInference_scoresWholeBatchInProcess_withoutFanOut() {
+        PredictionResponse[] local = new PredictionResponse[250];
+        when(localMlScorer.isActive()).thenReturn(true);
+        when(localMlScorer.predictBatch(anyList())).thenReturn(local);
+
+        PredictionResponse[] out = service.callMLModelBatch(rows(250));
+
+        assertThat(out).isSameAs(local);
+        verify(service, never()).callMLModelChunk(anyList());
+    }
+}
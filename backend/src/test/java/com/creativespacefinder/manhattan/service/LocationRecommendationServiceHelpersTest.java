@@ -34,7 +34,6 @@ class LocationRecommendationServiceHelpersTest {
   @BeforeEach
   void init() {
     MockitoAnnotations.openMocks(this);
-    ReflectionTestUtils.setField(svc, "mlPredictUrl", "http://dummy");
   }
 
   @Test
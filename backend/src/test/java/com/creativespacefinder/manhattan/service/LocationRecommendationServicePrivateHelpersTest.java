@@ -1,9 +1,6 @@
 package com.creativespacefinder.manhattan.service;
 
 import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
-import com.creativespacefinder.manhattan.entity.EventLocation;
-import com.creativespacefinder.manhattan.entity.LocationActivityScore;
-import com.creativespacefinder.manhattan.entity.TaxiZone;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -34,16 +31,6 @@ class LocationRecommendationServicePrivateHelpersTest {
         );
     }
 
-    private LocationActivityScore makeScore(String zoneName) {
-        var las = new LocationActivityScore();
-        var loc = new EventLocation();
-        var tz = new TaxiZone();
-        tz.setZoneName(zoneName);
-        las.setLocation(loc);
-        las.setTaxiZone(tz);
-        return las;
-    }
-
     @Test
     void assignCrowdLevels_variedScores_assignsQuietModerateBusy() {
         var l1 = makeResponse(0,0,1.0);
@@ -84,36 +71,4 @@ class LocationRecommendationServicePrivateHelpersTest {
         );
         assertThat(out).hasSize(3);
     }
-
-    @Test
-    void filterByZone_selectsOnlyMatching() {
-        var s1 = makeScore("Midtown South");
-        var s2 = makeScore("Central Harlem");
-        var in = new ArrayList<>(List.of(s1,s2));
-
-        @SuppressWarnings("unchecked")
-        var out = (List<LocationActivityScore>) ReflectionTestUtils.invokeMethod(
-                service, "filterByZone", in, "midtown"
-        );
-        assertThat(out).contains(s1).doesNotContain(s2);
-    }
-
-
-    @Test
-    void calculateDistance_sameCoordinates_returnsZero() {
-        double d = ReflectionTestUtils.invokeMethod(
-                service, "calculateDistance", 40.0, -73.0, 40.0, -73.0
-        );
-        assertThat(d).isEqualTo(0.0);
-    }
-
-    @Test
-    void calculateDistance_knownPoints_returnsExpectedApprox() {
-        double d = ReflectionTestUtils.invokeMethod(
-                service, "calculateDistance", 40.0, -73.0, 41.0, -73.0
-        );
-        assertThat(d)
-                .isCloseTo(111_000.0, within(1_000.0));
-    }
 }
-
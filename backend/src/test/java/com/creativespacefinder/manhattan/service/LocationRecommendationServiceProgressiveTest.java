@@ -0,0 +1,140 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Progressive evaluation against full evaluation on the same synthetic pool and the same fake ML model
+ * The fake model's scores are the historical ones plus seeded noise, so the quality delta can be measured
+ */
+@ExtendWith(MockitoExtension.class)
+class LocationRecommendationServiceProgressiveTest {
+
+    @Mock private ActivityCandidateIndex candidateIndex;
+    @Mock private MlScoreWriteBehindQueue writeBehind;
+    @Mock private PredictionCubeService predictionCube;
+    @Mock private ScoredCandidateStore scoredCandidates;
+    @Spy private MlCircuitBreaker circuitBreaker = new MlCircuitBreaker();
+
+    @Spy @InjectMocks
+    private LocationRecommendationService service;
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 15, 0);
+    private static final int POOL = 500;
+
+    private final AtomicInteger rowsSent = new AtomicInteger();
+    private final Map<String, float[]> truth = new HashMap<>();
+
+    @BeforeEach
+    void init() {
+        ReflectionTestUtils.setField(service, "mlProgressiveChunkSize", 50);
+        ReflectionTestUtils.setField(service, "mlProgressiveScoreSlack", 1.0);
+    }
+
+    /**
+     * 500 locations on a 20 x 25 grid about 40m apart, so the 50m distance filter does bite
+     * The fake model returns the historical scores moved by up to noise in either direction
+     */
+    @SuppressWarnings("unchecked")
+    private void setUpPool(long seed, double noise) {
+        Random random = new Random(seed);
+        ActivityCandidateIndex.Candidates.Builder builder = ActivityCandidateIndex.Candidates.builder("Filmmaking");
+        for (int i = 0; i < POOL; i++) {
+            double lat = 40.75 + (i / 25) * 0.00036;
+            double lon = -73.99 + (i % 25) * 0.00047;
+            double historicalCult = 2 + random.nextDouble() * 7;
+            double historicalCrowd = random.nextDouble() * 10;
+            float cult = (float) Math.max(0, Math.min(10, historicalCult + (random.nextDouble() * 2 - 1) * noise));
+            float crowd = (float) Math.max(0, Math.min(10, historicalCrowd + (random.nextDouble() * 2 - 1) * noise));
+            truth.put(lat + "," + lon, new float[]{crowd, cult});
+            builder.add(UUID.randomUUID(), UUID.randomUUID(), "Loc " + i, lat, lon, "Midtown Center", historicalCult, historicalCrowd);
+        }
+        when(candidateIndex.candidatesFor("Filmmaking")).thenReturn(builder.build());
+
+        doAnswer(inv -> {
+            List<Map<String, Object>> rows = inv.getArgument(0);
+            rowsSent.addAndGet(rows.size());
+            return rows.stream().map(r -> {
+                float[] scores = truth.get(r.get("latitude") + "," + r.get("longitude"));
+                return new PredictionResponse(null, 10, scores[0], scores[1]);
+            }).toArray(PredictionResponse[]::new);
+        }).when(service).callMLModelBatch(any());
+    }
+
+    private RecommendationResponse run(boolean progressive) {
+        ReflectionTestUtils.setField(service, "mlProgressiveEnabled", progressive);
+        rowsSent.set(0);
+        return service.getLocationRecommendations(new RecommendationRequest("Filmmaking", NOW, null));
+    }
+
+    private static List<Double> museScores(RecommendationResponse response) {
+        return response.getLocations().stream()
+                .map(LocationRecommendationResponse::getMuseScore)
+                .map(m -> m.doubleValue())
+                .toList();
+    }
+
+    private static double mean(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+    }
+
+    @Test
+    void noiseWithinSlack_sameTopTen_withFarFewerRows() {
+        setUpPool(42, 1.0);
+
+        List<Double> full = museScores(run(false));
+        int fullRows = rowsSent.get();
+        List<Double> progressive = museScores(run(true));
+        int progressiveRows = rowsSent.get();
+
+        // The estimate is a true bound here, so the picks' scores match exactly
+        assertThat(progressive).hasSize(10).isEqualTo(full);
+        assertThat(fullRows).isEqualTo(POOL);
+        assertThat(progressiveRows).isLessThanOrEqualTo(POOL / 2);
+    }
+
+    @Test
+    void noiseBeyondSlack_qualityDeltaStaysSmall() {
+        setUpPool(7, 2.5);
+
+        List<Double> full = museScores(run(false));
+        List<Double> progressive = museScores(run(true));
+        int progressiveRows = rowsSent.get();
+
+        // The bound can now be wrong, so measure how much of the full top 10's average muse score is lost
+        double delta = mean(full) - mean(progressive);
+        String measured = String.format("mean muse %.3f vs %.3f, delta %.3f, rows %d of %d",
+                mean(progressive), mean(full), delta, progressiveRows, POOL);
+        assertThat(progressive).hasSize(10);
+        assertThat(delta).as(measured).isBetween(0.0, 0.3);
+        assertThat(progressiveRows).as(measured).isLessThan(POOL);
+    }
+
+    @Test
+    void progressive_writesBackOnlyTheRowsItScored() {
+        setUpPool(42, 1.0);
+
+        run(true);
+
+        verify(writeBehind).enqueue(argThat(updates -> updates.size() == rowsSent.get()), any());
+        verify(circuitBreaker, times(1)).onSuccess(anyLong());
+    }
+}
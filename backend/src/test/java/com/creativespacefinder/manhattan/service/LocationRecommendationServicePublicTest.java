@@ -4,9 +4,6 @@ import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
 import com.creativespacefinder.manhattan.dto.PredictionResponse;
 import com.creativespacefinder.manhattan.dto.RecommendationRequest;
 import com.creativespacefinder.manhattan.dto.RecommendationResponse;
-import com.creativespacefinder.manhattan.entity.EventLocation;
-import com.creativespacefinder.manhattan.entity.LocationActivityScore;
-import com.creativespacefinder.manhattan.entity.TaxiZone;
 import com.creativespacefinder.manhattan.repository.ActivityRepository;
 import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
 import com.creativespacefinder.manhattan.repository.MLPredictionLogRepository;
@@ -19,11 +16,8 @@ import org.mockito.Mockito;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -41,6 +35,13 @@ class LocationRecommendationServicePublicTest {
     @Mock private ActivityRepository activityRepo;
     @Mock private MLPredictionLogRepository logRepo;
     @Mock private AnalyticsService analyticsService;
+    @Mock private ActivityCandidateIndex candidateIndex;
+    @Mock private MlScoreWriteBehindQueue writeBehind;
+    // Mock returns null, so requests never come from the cube unless a test stubs it
+    @Mock private PredictionCubeService predictionCube;
+    @Mock private ScoredCandidateStore scoredCandidates;
+    // Real breaker, starts closed so ML calls go through
+    @Spy private MlCircuitBreaker circuitBreaker = new MlCircuitBreaker();
 
     private final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 15, 0);
 
@@ -48,23 +49,14 @@ class LocationRecommendationServicePublicTest {
     void setUp() {
     }
 
-    private LocationActivityScore makeScore(UUID id, double lat, double lon, String zoneName) {
-        EventLocation loc = new EventLocation();
-        loc.setId(id);
-        loc.setLocationName(zoneName);
-        loc.setLatitude(BigDecimal.valueOf(lat));
-        loc.setLongitude(BigDecimal.valueOf(lon));
-
-        TaxiZone tz = new TaxiZone();
-        tz.setZoneName(zoneName);
-
-        LocationActivityScore s = new LocationActivityScore();
-        s.setLocation(loc);
-        s.setTaxiZone(tz);
-        return s;
+    private ActivityCandidateIndex.Candidates candidates(double... lats) {
+        ActivityCandidateIndex.Candidates.Builder builder = ActivityCandidateIndex.Candidates.builder("Test");
+        for (double lat : lats) {
+            builder.add(UUID.randomUUID(), UUID.randomUUID(), "Z", lat, -73.0, "Z", Double.NaN, Double.NaN);
+        }
+        return builder.build();
     }
 
-
     private void stubML(int count) {
         PredictionResponse[] prs = new PredictionResponse[count];
         for (int i = 0; i < count; i++) {
@@ -75,8 +67,8 @@ class LocationRecommendationServicePublicTest {
 
     @Test
     void whenActivityNotFound_thenThrowsRuntimeException() {
-        when(activityRepo.findByName("MissingActivity"))
-                .thenReturn(Optional.empty());
+        when(candidateIndex.candidatesFor("MissingActivity"))
+                .thenThrow(new RuntimeException("Activity not found: MissingActivity"));
 
         RecommendationRequest req = new RecommendationRequest("MissingActivity", NOW, null);
 
@@ -89,18 +81,8 @@ class LocationRecommendationServicePublicTest {
 
     @Test
     void whenTwoLocationsTooClose_thenOnlyOneReturned() {
-        UUID id1 = UUID.randomUUID();
-        UUID id2 = UUID.randomUUID();
-
-        when(activityRepo.findByName("Test"))
-                .thenReturn(Optional.of(new com.creativespacefinder.manhattan.entity.Activity()));
-        when(lasRepo.findDistinctLocationIdsByActivityName("Test", 100))
-                .thenReturn(List.of(id1.toString(), id2.toString()));
-
-        var s1 = makeScore(id1, 40.0, -73.0, "Z");
-        var s2 = makeScore(id2, 40.00045, -73.0, "Z");
-        when(lasRepo.findByIdsWithEagerLoading(any()))
-                .thenReturn(new ArrayList<>(List.of(s1, s2))); 
+        when(candidateIndex.candidatesFor("Test"))
+                .thenReturn(candidates(40.0, 40.0003));
 
         stubML(2);
         RecommendationResponse resp = service.getLocationRecommendations(
@@ -112,18 +94,8 @@ class LocationRecommendationServicePublicTest {
 
     @Test
     void whenTwoLocationsAtThreshold_thenBothReturned() {
-        UUID id1 = UUID.randomUUID();
-        UUID id2 = UUID.randomUUID();
-
-        when(activityRepo.findByName("Test"))
-                .thenReturn(Optional.of(new com.creativespacefinder.manhattan.entity.Activity()));
-        when(lasRepo.findDistinctLocationIdsByActivityName("Test", 100))
-                .thenReturn(List.of(id1.toString(), id2.toString()));
-
-        var s1 = makeScore(id1, 40.0, -73.0, "Z");
-        var s2 = makeScore(id2, 40.009, -73.0, "Z");
-        when(lasRepo.findByIdsWithEagerLoading(any()))
-                .thenReturn(new ArrayList<>(List.of(s1, s2))); 
+        when(candidateIndex.candidatesFor("Test"))
+                .thenReturn(candidates(40.0, 40.009));
 
         stubML(2);
         RecommendationResponse resp = service.getLocationRecommendations(
@@ -135,20 +107,8 @@ class LocationRecommendationServicePublicTest {
 
     @Test
     void whenThreeUniformScores_thenCrowdLevelsVary() {
-        UUID id1 = UUID.randomUUID();
-        UUID id2 = UUID.randomUUID();
-        UUID id3 = UUID.randomUUID();
-
-        when(activityRepo.findByName("Test"))
-                .thenReturn(Optional.of(new com.creativespacefinder.manhattan.entity.Activity()));
-        when(lasRepo.findDistinctLocationIdsByActivityName("Test", 100))
-                .thenReturn(List.of(id1.toString(), id2.toString(), id3.toString()));
-
-        var s1 = makeScore(id1, 40.0, -73.0, "Z");
-        var s2 = makeScore(id2, 40.01, -73.0, "Z");
-        var s3 = makeScore(id3, 40.02, -73.0, "Z");
-        when(lasRepo.findByIdsWithEagerLoading(any()))
-                .thenReturn(new ArrayList<>(List.of(s1, s2, s3)));
+        when(candidateIndex.candidatesFor("Test"))
+                .thenReturn(candidates(40.0, 40.01, 40.02));
 
         stubML(3);
         RecommendationResponse resp = service.getLocationRecommendations(
@@ -3,17 +3,16 @@ package com.creativespacefinder.manhattan.service;
 import com.creativespacefinder.manhattan.dto.*;
 import com.creativespacefinder.manhattan.entity.*;
 import com.creativespacefinder.manhattan.repository.*;
-import com.creativespacefinder.manhattan.entity.EventLocation;
-import com.creativespacefinder.manhattan.entity.TaxiZone;
-import com.creativespacefinder.manhattan.entity.LocationActivityScore;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -27,7 +26,13 @@ class LocationRecommendationServiceTest {
     @Mock private ActivityRepository activityRepo;
     @Mock private MLPredictionLogRepository logRepo;
     @Mock private AnalyticsService analyticsService;
-
+    @Mock private ActivityCandidateIndex candidateIndex;
+    @Mock private MlScoreWriteBehindQueue writeBehind;
+    // Mock returns null, so requests never come from the cube unless a test stubs it
+    @Mock private PredictionCubeService predictionCube;
+    @Mock private ScoredCandidateStore scoredCandidates;
+    // Real breaker, starts closed so ML calls go through
+    @Spy private MlCircuitBreaker circuitBreaker = new MlCircuitBreaker();
 
     @Spy @InjectMocks
     private LocationRecommendationService service;
@@ -36,50 +41,35 @@ class LocationRecommendationServiceTest {
 
     @BeforeEach
     void init() {
-        Mockito.reset(lasRepo, activityRepo, logRepo, analyticsService);
+        Mockito.reset(lasRepo, activityRepo, logRepo, analyticsService, candidateIndex, writeBehind);
     }
 
     @Test
     void whenNoLocationIds_thenEmptyResponse_andNoDbOrMlCalls() {
         RecommendationRequest req = new RecommendationRequest("Sculpture", NOW, null);
-        when(activityRepo.findByName("Sculpture"))
-                .thenReturn(Optional.of(new Activity()));
-        when(lasRepo.findDistinctLocationIdsByActivityName("Sculpture", 100))
-                .thenReturn(Collections.emptyList());
+        when(candidateIndex.candidatesFor("Sculpture"))
+                .thenReturn(ActivityCandidateIndex.Candidates.builder("Sculpture").build());
 
         RecommendationResponse resp = service.getLocationRecommendations(req);
 
         assertThat(resp.getTotalResults()).isZero();
-        verify(lasRepo, never()).findByIdsWithEagerLoading(anyList());
+        verifyNoInteractions(lasRepo, activityRepo);
         verify(service, never()).callMLModelBatch(any());
-        verify(logRepo, never()).save(any());
+        verify(writeBehind, never()).enqueue(anyList(), any());
         verify(analyticsService, never())
                 .trackRequest(anyString(), any(LocalDateTime.class), anyBoolean(), anyLong());
     }
 
     @Test
     void happyPath_singleLocation_mapsAndPersists() {
+        UUID scoreId = UUID.randomUUID();
         UUID id = UUID.randomUUID();
-        EventLocation loc = new EventLocation();
-        loc.setId(id);
-        loc.setLocationName("Test Zone");
-        loc.setLatitude(BigDecimal.valueOf(40.0));
-        loc.setLongitude(BigDecimal.valueOf(-73.0));
-
-        TaxiZone tz = new TaxiZone();
-        tz.setZoneName("Test Zone");
-
-        LocationActivityScore las = new LocationActivityScore();
-        las.setLocation(loc);
-        las.setTaxiZone(tz);
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(scoreId, id, "Test Zone", 40.0, -73.0, "Test Zone", 7.5, 0.4)
+                .build();
 
         RecommendationRequest req = new RecommendationRequest("Photography", NOW, null);
-        when(activityRepo.findByName("Photography"))
-                .thenReturn(Optional.of(new Activity()));
-        when(lasRepo.findDistinctLocationIdsByActivityName("Photography", 100))
-                .thenReturn(List.of(id.toString()));
-        when(lasRepo.findByIdsWithEagerLoading(List.of(id)))
-                .thenReturn(List.of(las));
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
 
         PredictionResponse pr = new PredictionResponse(null, 5, 8f, 7f);
         doReturn(new PredictionResponse[]{ pr })
@@ -88,22 +78,178 @@ class LocationRecommendationServiceTest {
         RecommendationResponse resp = service.getLocationRecommendations(req);
 
         assertThat(resp.getTotalResults()).isEqualTo(1);
+        assertThat(resp.isDegraded()).isFalse();
+        verify(circuitBreaker).onSuccess(anyLong());
         LocationRecommendationResponse out = resp.getLocations().get(0);
 
+        // Default weighting: (10 - 8) * 0.6 + 7 * 0.4
         assertThat(out.getMuseScore())
-                .isEqualByComparingTo(BigDecimal.valueOf(10.0));
+                .isEqualByComparingTo(BigDecimal.valueOf(4.0));
+        assertThat(out.getId()).isEqualTo(id);
         assertThat(out.getEstimatedCrowdNumber()).isEqualTo(5);
         assertThat(out.getCrowdScore())
-                .isEqualByComparingTo(BigDecimal.valueOf(10.0));
+                .isEqualByComparingTo(BigDecimal.valueOf(8.0));
+
+        ArgumentCaptor<List<LocationActivityScoreRepository.MlScoreUpdate>> updates = ArgumentCaptor.forClass(List.class);
+        verify(writeBehind).enqueue(updates.capture(), any(MLPredictionLog.class));
+        assertThat(updates.getValue()).singleElement()
+                .satisfies(u -> {
+                    assertThat(u.id()).isEqualTo(scoreId);
+                    assertThat(u.museScore()).isEqualByComparingTo("4.0");
+                    assertThat(u.estimatedCrowdNumber()).isEqualTo(5);
+                });
+        // Nothing touches the database on the request thread
+        verifyNoInteractions(activityRepo, lasRepo, logRepo);
+    }
+
+    @Test
+    void whenBreakerOpen_thenRankedFromHistoricalScores_withoutCallingMl() {
+        UUID better = UUID.randomUUID();
+        UUID worse = UUID.randomUUID();
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), worse, "Worse", 40.0, -73.0, "Z", 3.0, 5.0)
+                .add(UUID.randomUUID(), better, "Better", 40.01, -73.0, "Z", 9.0, 2.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "No history", 40.02, -73.0, "Z", Double.NaN, Double.NaN)
+                .build();
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        doReturn(false).when(circuitBreaker).tryAcquire();
+
+        RecommendationResponse resp = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null));
+
+        assertThat(resp.isDegraded()).isTrue();
+        assertThat(resp.getLocations()).extracting(LocationRecommendationResponse::getId).containsExactly(better, worse);
+        // Default weighting on the historical scores: (10 - 2) * 0.6 + 9 * 0.4
+        assertThat(resp.getLocations().get(0).getMuseScore()).isEqualByComparingTo("8.4");
+        verify(service, never()).callMLModelBatch(any());
+        verify(writeBehind, never()).enqueue(anyList(), any());
+    }
+
+    @Test
+    void whenCubeCoversRequest_thenRankedFromCube_withoutMlOrWriteBack() {
+        UUID id = UUID.randomUUID();
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), id, "Zone", 40.0, -73.0, "Z", 6.0, 4.0)
+                .build();
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        when(predictionCube.lookup(eq(candidates), any(), eq(NOW))).thenReturn(new float[]{7f, 8f, 12f});
+
+        RecommendationResponse resp = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null));
+
+        LocationRecommendationResponse out = resp.getLocations().get(0);
+        // Default weighting: (10 - 8) * 0.6 + 7 * 0.4
+        assertThat(out.getMuseScore()).isEqualByComparingTo("4.0");
+        assertThat(out.getEstimatedCrowdNumber()).isEqualTo(12);
+        assertThat(resp.isDegraded()).isFalse();
+        verify(service, never()).callMLModelBatch(any());
+        verify(circuitBreaker, never()).tryAcquire();
+        verify(writeBehind, never()).enqueue(anyList(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void zoneRequestAfterAllManhattan_isRankedFromStoredScores_withoutMl() {
+        // Borough pool of two outside Midtown, the two Midtown locations only reach the zone pool
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "A", 40.72, -74.00, "SoHo", 9.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "B", 40.73, -74.00, "SoHo", 8.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "C", 40.75, -73.98, "Midtown Center", 7.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "D", 40.76, -73.98, "Midtown Center", 6.0, 4.0)
+                .build(2);
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        ScoredCandidateStore store = new ScoredCandidateStore();
+        store.init();
+        // Background zone-pool scoring runs inline, once the all-Manhattan response has been built
+        ReflectionTestUtils.setField(store, "zonePoolExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(service, "scoredCandidateStore", store);
+
+        List<Integer> rowsPerCall = new ArrayList<>();
+        doAnswer(inv -> {
+            List<Map<String, Object>> rows = inv.getArgument(0);
+            rowsPerCall.add(rows.size());
+            return rows.stream().map(r -> new PredictionResponse(null, 10, 3f, 6f)).toArray(PredictionResponse[]::new);
+        }).when(service).callMLModelBatch(any());
+
+        RecommendationResponse all = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null));
+        RecommendationResponse midtown = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW.plusMinutes(30), "midtown"));
+
+        assertThat(all.getTotalResults()).isEqualTo(2);
+        assertThat(midtown.getLocations()).extracting(LocationRecommendationResponse::getZoneName).containsExactlyInAnyOrder("C", "D");
+        // The request itself sent only the borough pool, the Midtown rows went out in the background and the zone request made no call
+        assertThat(rowsPerCall).containsExactly(2, 2);
+        assertThat(store.getStats()).containsEntry("stores", 2L).containsEntry("zonePoolRuns", 1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void zoneRequestAfterAllManhattan_withZonePoolsOff_scoresOnlyItsMissingRows() {
+        // Borough pool of two outside Midtown, the two Midtown locations only reach the zone pool
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "A", 40.72, -74.00, "SoHo", 9.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "B", 40.73, -74.00, "SoHo", 8.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "C", 40.75, -73.98, "Midtown Center", 7.0, 4.0)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "D", 40.76, -73.98, "Midtown Center", 6.0, 4.0)
+                .build(2);
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        ScoredCandidateStore store = new ScoredCandidateStore();
+        ReflectionTestUtils.setField(store, "scoreZonePools", false);
+        store.init();
+        ReflectionTestUtils.setField(service, "scoredCandidateStore", store);
+
+        List<Integer> rowsPerCall = new ArrayList<>();
+        doAnswer(inv -> {
+            List<Map<String, Object>> rows = inv.getArgument(0);
+            rowsPerCall.add(rows.size());
+            return rows.stream().map(r -> new PredictionResponse(null, 10, 3f, 6f)).toArray(PredictionResponse[]::new);
+        }).when(service).callMLModelBatch(any());
+
+        RecommendationResponse all = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null));
+        RecommendationResponse midtown = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW.plusMinutes(30), "midtown"));
+
+        assertThat(all.getTotalResults()).isEqualTo(2);
+        assertThat(midtown.getLocations()).extracting(LocationRecommendationResponse::getZoneName).containsExactlyInAnyOrder("C", "D");
+        // The all-Manhattan miss sends only its own pool, the zone request only the Midtown rows it lacks
+        assertThat(rowsPerCall).containsExactly(2, 2);
+        assertThat(store.getStats()).containsEntry("stores", 2L).containsEntry("zonePoolRuns", 0L);
+    }
+
+    @Test
+    void whenMlCallFails_thenFailureRecorded_andDegradedResponse() {
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "Zone", 40.0, -73.0, "Z", 6.0, 4.0)
+                .build();
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        doThrow(new RuntimeException("ML service down")).when(service).callMLModelBatch(any());
+
+        RecommendationResponse resp = service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null));
+
+        assertThat(resp.isDegraded()).isTrue();
+        assertThat(resp.getTotalResults()).isEqualTo(1);
+        verify(circuitBreaker).onFailure();
+        verify(writeBehind, never()).enqueue(anyList(), any());
+    }
+
+    @Test
+    void whenMappingFailsAfterTheMlCall_thenErrorPropagates_andBreakerIsNotCharged() {
+        ActivityCandidateIndex.Candidates candidates = ActivityCandidateIndex.Candidates.builder("Photography")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "Zone", 40.0, -73.0, "Z", 6.0, 4.0)
+                .build();
+        when(candidateIndex.candidatesFor("Photography")).thenReturn(candidates);
+        // The ML call succeeds, the missing activity score then fails our own mapping
+        doReturn(new PredictionResponse[]{ new PredictionResponse(null, 5, 8f, null) })
+                .when(service).callMLModelBatch(any());
 
-        verify(lasRepo).saveAll(anyList());
-        verify(logRepo).save(any(MLPredictionLog.class));
+        assertThatThrownBy(() -> service.getLocationRecommendations(new RecommendationRequest("Photography", NOW, null)))
+                .isInstanceOf(NullPointerException.class);
+        verify(circuitBreaker, never()).onFailure();
+        verify(circuitBreaker).release();
+        verify(writeBehind, never()).enqueue(anyList(), any());
     }
 
     @Test
     void whenActivityNotFound_thenThrowAndTrack() {
         RecommendationRequest req = new RecommendationRequest("Unknown", NOW, null);
-        when(activityRepo.findByName("Unknown")).thenReturn(Optional.empty());
+        when(candidateIndex.candidatesFor("Unknown"))
+                .thenThrow(new RuntimeException("Activity not found: Unknown"));
 
         assertThatThrownBy(() -> service.getLocationRecommendations(req))
                 .isInstanceOf(RuntimeException.class)
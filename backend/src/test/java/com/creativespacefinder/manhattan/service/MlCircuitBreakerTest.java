@@ -0,0 +1,109 @@
+package com.creativespacefinder.manhattan.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+class MlCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private MlCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        breaker = new MlCircuitBreaker();
+        breaker.clock = now::get;
+        ReflectionTestUtils.setField(breaker, "failureThreshold", 3);
+        ReflectionTestUtils.setField(breaker, "openDurationMs", 1000L);
+        ReflectionTestUtils.setField(breaker, "slowCallMs", 500L);
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    void opensAfterThresholdFailuresInARow() {
+        fail(2);
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.CLOSED);
+
+        fail(1);
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getStats()).containsEntry("rejectedCalls", 1L).containsEntry("timesOpened", 1L);
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        fail(2);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onSuccess(10);
+        fail(2);
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void slowSuccessCountsAsFailure() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onSuccess(800);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.OPEN);
+        assertThat(breaker.getStats()).containsEntry("slowCalls", 3L);
+    }
+
+    @Test
+    void halfOpen_letsOneProbeThrough_andClosesOnSuccess() {
+        fail(3);
+        now.addAndGet(1000);
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        // Second caller while the probe is still out gets the fallback
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onSuccess(10);
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void halfOpen_failedProbe_reopensForAnotherFullDuration() {
+        fail(3);
+        now.addAndGet(1000);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.OPEN);
+        now.addAndGet(999);
+        assertThat(breaker.tryAcquire()).isFalse();
+        now.addAndGet(1);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getStats()).containsEntry("timesOpened", 2L);
+    }
+
+    @Test
+    void halfOpen_releasedProbe_freesTheSlot_withoutClosing() {
+        fail(3);
+        now.addAndGet(1000);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.release();
+
+        assertThat(breaker.getState()).isEqualTo(MlCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getStats()).containsEntry("failedCalls", 3L);
+    }
+}
@@ -0,0 +1,145 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.exception.ApiException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MlPredictionBatcherTest {
+
+    @Mock private MlPredictionClient client;
+
+    @InjectMocks
+    private MlPredictionBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "lingerMs", 50L);
+        ReflectionTestUtils.setField(batcher, "maxRows", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    // Rows tagged by hour so the echoed prediction shows which row it belongs to
+    private static List<Map<String, Object>> rows(int firstHour, int count) {
+        return IntStream.range(firstHour, firstHour + count)
+                .<Map<String, Object>>mapToObj(h -> Map.of("hour", h))
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void echoHours() {
+        when(client.predictBatch(anyList())).thenAnswer(inv -> {
+            List<Map<String, Object>> body = inv.getArgument(0);
+            return body.stream()
+                    .map(r -> new PredictionResponse(null, (Integer) r.get("hour"), 0f, 0f))
+                    .toArray(PredictionResponse[]::new);
+        });
+    }
+
+    private static List<Integer> hours(PredictionResponse[] out) {
+        List<Integer> hours = new ArrayList<>();
+        for (PredictionResponse p : out) hours.add(p.getEstimatedCrowdNumber());
+        return hours;
+    }
+
+    @Test
+    void concurrentCallers_shareOneRequest_andEachGetsItsOwnRows() {
+        echoHours();
+
+        CompletableFuture<PredictionResponse[]> a = batcher.submit(rows(0, 3));
+        CompletableFuture<PredictionResponse[]> b = batcher.submit(rows(100, 2));
+        CompletableFuture<PredictionResponse[]> c = batcher.submit(rows(200, 4));
+
+        assertThat(hours(a.join())).containsExactly(0, 1, 2);
+        assertThat(hours(b.join())).containsExactly(100, 101);
+        assertThat(hours(c.join())).containsExactly(200, 201, 202, 203);
+        verify(client, times(1)).predictBatch(anyList());
+        assertThat(batcher.getStats())
+                .containsEntry("batchesSent", 1L)
+                .containsEntry("rowsSent", 9L)
+                .containsEntry("flushedOnLinger", 1L)
+                .containsEntry("maxCallersInBatch", 3L)
+                .containsEntry("avgFillPercent", 90.0);
+    }
+
+    @Test
+    void batchIsSentAsSoonAsItReachesMaxRows() {
+        echoHours();
+        ReflectionTestUtils.setField(batcher, "lingerMs", 60_000L);
+
+        CompletableFuture<PredictionResponse[]> a = batcher.submit(rows(0, 6));
+        CompletableFuture<PredictionResponse[]> b = batcher.submit(rows(10, 4));
+
+        // Linger is a minute, so only the size limit can have sent it
+        assertThat(hours(b.join())).containsExactly(10, 11, 12, 13);
+        assertThat(a.join()).hasSize(6);
+        assertThat(batcher.getStats()).containsEntry("flushedOnSize", 1L).containsEntry("flushedOnLinger", 0L);
+    }
+
+    @Test
+    void callerThatDoesNotFit_closesTheOpenBatch_andStartsTheNext() {
+        echoHours();
+
+        CompletableFuture<PredictionResponse[]> a = batcher.submit(rows(0, 7));
+        CompletableFuture<PredictionResponse[]> b = batcher.submit(rows(50, 5));
+
+        assertThat(hours(a.join())).containsExactly(0, 1, 2, 3, 4, 5, 6);
+        assertThat(hours(b.join())).containsExactly(50, 51, 52, 53, 54);
+        verify(client, times(2)).predictBatch(anyList());
+    }
+
+    @Test
+    void submissionOfMaxRowsOrMore_isSentAloneWithoutWaiting() {
+        echoHours();
+        ReflectionTestUtils.setField(batcher, "lingerMs", 60_000L);
+
+        assertThat(batcher.submit(rows(0, 12)).join()).hasSize(12);
+        assertThat(batcher.getStats()).containsEntry("sentAlone", 1L);
+    }
+
+    @Test
+    void failedRequest_failsEveryCallerInTheBatch() {
+        when(client.predictBatch(anyList())).thenThrow(new ApiException("ML service down"));
+
+        CompletableFuture<PredictionResponse[]> a = batcher.submit(rows(0, 2));
+        CompletableFuture<PredictionResponse[]> b = batcher.submit(rows(10, 2));
+
+        assertThatThrownBy(a::join).isInstanceOf(CompletionException.class).hasCauseInstanceOf(ApiException.class);
+        assertThatThrownBy(b::join).hasCauseInstanceOf(ApiException.class);
+        assertThatThrownBy(() -> batcher.predict(rows(20, 1))).isInstanceOf(ApiException.class);
+        assertThat(batcher.getStats()).containsEntry("failedBatches", 2L);
+    }
+
+    @Test
+    void disabled_callsTheClientDirectly() {
+        ReflectionTestUtils.setField(batcher, "enabled", false);
+        PredictionResponse[] expected = {new PredictionResponse(null, 1, 0f, 0f)};
+        when(client.predictBatch(anyList())).thenReturn(expected);
+
+        assertThat(batcher.predict(rows(0, 1))).isSameAs(expected);
+        assertThat(batcher.getStats()).containsEntry("batchesSent", 0L);
+    }
+}
@@ -0,0 +1,266 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.exception.ApiException;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.assertj.core.api.Assertions.*;
+
+class MlPredictionClientTest {
+
+    private static final String PREDICTIONS = "[{\"muse_score\":null,\"estimated_crowd_number\":12,\"crowd_score\":3.5,\"creative_activity_score\":7.25}]";
+
+    private WireMockServer wireMockServer;
+    private MlPredictionClient client;
+
+    @BeforeEach
+    void setUp() {
+        wireMockServer = new WireMockServer(options().dynamicPort());
+        wireMockServer.start();
+
+        client = new MlPredictionClient();
+        ReflectionTestUtils.setField(client, "mlPredictUrl", "http://localhost:" + wireMockServer.port() + "/predict_batch");
+        ReflectionTestUtils.setField(client, "readTimeoutMs", 2000L);
+        client.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+        wireMockServer.stop();
+    }
+
+    private static List<Map<String, Object>> rows(int n) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rows.add(Map.of("latitude", 40.75 + i * 0.001, "longitude", -73.98, "hour", 15,
+                    "month", 7, "day", 18, "cultural_activity_prefered", "Portrait photography"));
+        }
+        return rows;
+    }
+
+    private static byte[] gzip(String s) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void predictBatch_smallBody_sentPlainAndParsed() {
+        wireMockServer.stubFor(post("/predict_batch")
+                .willReturn(okJson(PREDICTIONS)));
+
+        PredictionResponse[] out = client.predictBatch(rows(1));
+
+        assertThat(out).hasSize(1);
+        assertThat(out[0].getEstimatedCrowdNumber()).isEqualTo(12);
+        assertThat(out[0].getCreativeActivityScore()).isEqualTo(7.25f);
+        wireMockServer.verify(postRequestedFor(urlEqualTo("/predict_batch"))
+                .withHeader("Content-Type", equalTo("application/json"))
+                .withHeader("Accept-Encoding", containing("gzip"))
+                .withoutHeader("Content-Encoding"));
+    }
+
+    @Test
+    void predictBatch_largeBody_isGzipped_andGzipResponseDecoded() throws Exception {
+        wireMockServer.stubFor(post("/predict_batch")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withBody(gzip(PREDICTIONS))));
+
+        PredictionResponse[] out = client.predictBatch(rows(50));
+
+        assertThat(out).hasSize(1);
+        assertThat(out[0].getCrowdScore()).isEqualTo(3.5f);
+        wireMockServer.verify(postRequestedFor(urlEqualTo("/predict_batch"))
+                .withHeader("Content-Encoding", equalTo("gzip")));
+
+        Map<String, Object> stats = client.getStats();
+        assertThat((Long) stats.get("bytesSent")).isLessThan((Long) stats.get("uncompressedBytesSent"));
+        assertThat((Long) stats.get("uncompressedBytesReceived")).isEqualTo((long) PREDICTIONS.length());
+        assertThat(stats.get("rowsSent")).isEqualTo(50L);
+    }
+
+    @Test
+    void predictBatch_gzipRequestsOff_sendsPlainJson() {
+        ReflectionTestUtils.setField(client, "gzipRequests", false);
+        wireMockServer.stubFor(post("/predict_batch").willReturn(okJson(PREDICTIONS)));
+
+        client.predictBatch(rows(50));
+
+        wireMockServer.verify(postRequestedFor(urlEqualTo("/predict_batch"))
+                .withoutHeader("Content-Encoding")
+                .withRequestBody(containing("cultural_activity_prefered")));
+    }
+
+    @Test
+    void predictBatch_serverError_throwsApiException_andCountsFailure() {
+        wireMockServer.stubFor(post("/predict_batch").willReturn(serverError()));
+
+        assertThatThrownBy(() -> client.predictBatch(rows(1)))
+                .isInstanceOf(ApiException.class)
+                .hasMessageContaining("HTTP 500");
+        assertThat(client.getStats().get("failures")).isEqualTo(1L);
+    }
+
+    @Test
+    void predictBatch_slowServer_timesOut() {
+        ReflectionTestUtils.setField(client, "readTimeoutMs", 200L);
+        wireMockServer.stubFor(post("/predict_batch")
+                .willReturn(okJson(PREDICTIONS).withFixedDelay(1500)));
+
+        assertThatThrownBy(() -> client.predictBatch(rows(1)))
+                .isInstanceOf(ApiException.class)
+                .hasMessageContaining("timed out");
+        assertThat(client.getStats().get("timeouts")).isEqualTo(1L);
+    }
+
+    @Test
+    void predictBatch_sequentialCalls_releaseTheirConnections() {
+        wireMockServer.stubFor(post("/predict_batch").willReturn(okJson(PREDICTIONS)));
+
+        for (int i = 0; i < 5; i++) {
+            client.predictBatch(rows(1));
+        }
+
+        Map<String, Object> stats = client.getStats();
+        assertThat(stats.get("calls")).isEqualTo(5L);
+        assertThat(stats.get("failures")).isEqualTo(0L);
+        assertThat(stats.get("inFlight")).isEqualTo(0);
+    }
+
+    private void enableHedging(double budgetPercent) {
+        ReflectionTestUtils.setField(client, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(client, "hedgeMinSamples", 0);
+        ReflectionTestUtils.setField(client, "hedgeMinDelayMs", 100L);
+        ReflectionTestUtils.setField(client, "hedgeBudgetPercent", budgetPercent);
+    }
+
+    // One fast call already seen, so attempts are hedged after the 100ms floor
+    private void enableHedgingAtFloor(double budgetPercent) {
+        enableHedging(budgetPercent);
+        client.recordLatency(50);
+    }
+
+    // First request to arrive is slow, any request after it is fast, like one ML pod stalling
+    private void stubSlowThenFast(int slowMs) {
+        wireMockServer.stubFor(post("/predict_batch").inScenario("slow pod")
+                .whenScenarioStateIs(STARTED)
+                .willSetStateTo("hedged")
+                .willReturn(okJson(PREDICTIONS).withFixedDelay(slowMs)));
+        wireMockServer.stubFor(post("/predict_batch").inScenario("slow pod")
+                .whenScenarioStateIs("hedged")
+                .willReturn(okJson(PREDICTIONS)));
+    }
+
+    @Test
+    void hedging_slowFirstAttempt_hedgeWins() {
+        enableHedgingAtFloor(100);
+        stubSlowThenFast(1500);
+
+        long start = System.currentTimeMillis();
+        PredictionResponse[] out = client.predictBatch(rows(1));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(out).hasSize(1);
+        assertThat(elapsed).isLessThan(1200);
+        wireMockServer.verify(2, postRequestedFor(urlEqualTo("/predict_batch")));
+        assertThat(client.getStats()).containsEntry("hedgesFired", 1L).containsEntry("hedgesWon", 1L);
+    }
+
+    @Test
+    void hedging_fastFirstAttempt_noHedge() {
+        enableHedgingAtFloor(100);
+        wireMockServer.stubFor(post("/predict_batch").willReturn(okJson(PREDICTIONS)));
+
+        client.predictBatch(rows(1));
+
+        wireMockServer.verify(1, postRequestedFor(urlEqualTo("/predict_batch")));
+        assertThat(client.getStats()).containsEntry("hedgesFired", 0L);
+    }
+
+    @Test
+    void hedging_noBudget_waitsForFirstAttempt() {
+        enableHedgingAtFloor(0);
+        stubSlowThenFast(400);
+
+        PredictionResponse[] out = client.predictBatch(rows(1));
+
+        assertThat(out).hasSize(1);
+        wireMockServer.verify(1, postRequestedFor(urlEqualTo("/predict_batch")));
+        assertThat(client.getStats()).containsEntry("hedgesFired", 0L).containsEntry("hedgesSkippedForBudget", 1L);
+    }
+
+    @Test
+    void hedging_offByDefault() {
+        stubSlowThenFast(400);
+
+        client.predictBatch(rows(1));
+
+        wireMockServer.verify(1, postRequestedFor(urlEqualTo("/predict_batch")));
+        assertThat(client.getStats()).containsEntry("hedgeDelayMs", -1L);
+    }
+
+    @Test
+    void hedgeDelay_isRecentLatencyPercentile_withFloor() {
+        enableHedging(100);
+        ReflectionTestUtils.setField(client, "hedgeMinSamples", 10);
+        for (long ms = 1; ms <= 9; ms++) {
+            client.recordLatency(ms * 100);
+        }
+        // Not enough samples yet
+        assertThat(client.hedgeDelayMs()).isEqualTo(-1L);
+
+        client.recordLatency(1000);
+        // p95 of 100..1000
+        assertThat(client.hedgeDelayMs()).isEqualTo(1000L);
+
+        ReflectionTestUtils.setField(client, "hedgePercentile", 50.0);
+        assertThat(client.hedgeDelayMs()).isEqualTo(500L);
+
+        ReflectionTestUtils.setField(client, "hedgeMinDelayMs", 800L);
+        assertThat(client.hedgeDelayMs()).isEqualTo(800L);
+    }
+
+    @Test
+    void hedging_losingAttempt_givesItsConnectionBack_onceAborted() throws InterruptedException {
+        enableHedgingAtFloor(100);
+        stubSlowThenFast(1500);
+
+        client.predictBatch(rows(1));
+
+        // The cancelled slow attempt holds its permit until its send has returned, then releases it
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!client.getStats().get("inFlight").equals(0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(client.getStats().get("inFlight")).isEqualTo(0);
+    }
+
+    @Test
+    void hedging_attemptThatCannotStart_releasesItsPermit() {
+        enableHedgingAtFloor(100);
+        client.shutdown();
+
+        assertThatThrownBy(() -> client.predictBatch(rows(1))).isInstanceOf(ApiException.class);
+        assertThat(client.getStats().get("inFlight")).isEqualTo(0);
+    }
+}
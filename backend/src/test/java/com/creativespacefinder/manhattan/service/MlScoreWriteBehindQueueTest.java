@@ -0,0 +1,135 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.entity.MLPredictionLog;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepository;
+import com.creativespacefinder.manhattan.repository.LocationActivityScoreRepositoryCustom.MlScoreUpdate;
+import com.creativespacefinder.manhattan.repository.MLPredictionLogRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MlScoreWriteBehindQueueTest {
+
+    @Mock private LocationActivityScoreRepository lasRepo;
+    @Mock private MLPredictionLogRepository logRepo;
+
+    // The flusher thread is never started here, flush() is driven by the test
+    @InjectMocks
+    private MlScoreWriteBehindQueue queue;
+
+    private static MlScoreUpdate update(UUID id, String muse) {
+        return new MlScoreUpdate(id, BigDecimal.ONE, BigDecimal.ONE, new BigDecimal(muse), 3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void enqueue_coalescesSameRow_keepingNewestScore() {
+        UUID id = UUID.randomUUID();
+        queue.enqueue(List.of(update(id, "4.0")), null);
+        queue.enqueue(List.of(update(id, "6.5"), update(UUID.randomUUID(), "2.0")), new MLPredictionLog());
+
+        assertThat(queue.getPendingCount()).isEqualTo(2);
+        assertThat(queue.getStats()).containsEntry("coalesced", 1L).containsEntry("enqueued", 3L);
+
+        queue.flush();
+
+        ArgumentCaptor<List<MlScoreUpdate>> written = ArgumentCaptor.forClass(List.class);
+        verify(lasRepo).updateMlScores(written.capture());
+        assertThat(written.getValue()).hasSize(2)
+                .filteredOn(u -> u.id().equals(id))
+                .singleElement()
+                .satisfies(u -> assertThat(u.museScore()).isEqualByComparingTo("6.5"));
+        verify(logRepo).saveAll(anyList());
+        assertThat(queue.getPendingCount()).isZero();
+    }
+
+    @Test
+    void enqueue_whenFull_rejectsNewRowsButStillCoalesces() {
+        ReflectionTestUtils.setField(queue, "capacity", 2);
+        UUID first = UUID.randomUUID();
+        queue.enqueue(List.of(update(first, "1.0"), update(UUID.randomUUID(), "1.0"), update(UUID.randomUUID(), "1.0")), null);
+        queue.enqueue(List.of(update(first, "9.0")), null);
+
+        assertThat(queue.getPendingCount()).isEqualTo(2);
+        assertThat(queue.getStats()).containsEntry("rejected", 1L).containsEntry("coalesced", 1L);
+    }
+
+    @Test
+    void flush_inBatches() {
+        ReflectionTestUtils.setField(queue, "batchSize", 2);
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(List.of(update(UUID.randomUUID(), "5.0")), null);
+        }
+
+        assertThat(queue.flush()).isEqualTo(5);
+        verify(lasRepo, times(3)).updateMlScores(anyList());
+        assertThat(queue.getStats()).containsEntry("flushedBatches", 3L).containsEntry("flushedRows", 5L);
+    }
+
+    @Test
+    void flush_failure_keepsRowsForNextFlush() {
+        queue.enqueue(List.of(update(UUID.randomUUID(), "5.0")), null);
+        when(lasRepo.updateMlScores(anyList()))
+                .thenThrow(new RuntimeException("connection refused"))
+                .thenReturn(1);
+
+        assertThat(queue.flush()).isZero();
+        assertThat(queue.getPendingCount()).isEqualTo(1);
+        assertThat(queue.getStats()).containsEntry("flushFailures", 1L);
+
+        assertThat(queue.flush()).isEqualTo(1);
+        assertThat(queue.getPendingCount()).isZero();
+    }
+
+    @Test
+    void enqueue_whenLogsAreFull_dropsAndCountsTheLog() {
+        ReflectionTestUtils.setField(queue, "logCapacity", 1);
+        queue.enqueue(List.of(), new MLPredictionLog());
+        queue.enqueue(List.of(), new MLPredictionLog());
+
+        assertThat(queue.getStats()).containsEntry("pendingLogs", 1).containsEntry("rejectedLogs", 1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void logFlush_failure_keepsLogsForNextFlush() {
+        queue.enqueue(List.of(), new MLPredictionLog());
+        queue.enqueue(List.of(), new MLPredictionLog());
+        when(logRepo.saveAll(anyList()))
+                .thenThrow(new RuntimeException("connection refused"))
+                .thenReturn(List.of());
+
+        queue.flush();
+        assertThat(queue.getStats()).containsEntry("pendingLogs", 2).containsEntry("flushFailures", 1L);
+
+        queue.flush();
+        ArgumentCaptor<List<MLPredictionLog>> saved = ArgumentCaptor.forClass(List.class);
+        verify(logRepo, times(2)).saveAll(saved.capture());
+        assertThat(saved.getAllValues().get(1)).hasSize(2);
+        assertThat(queue.getStats()).containsEntry("pendingLogs", 0);
+    }
+
+    @Test
+    void drain_writesEverythingOnShutdown() {
+        queue.start();
+        queue.enqueue(List.of(update(UUID.randomUUID(), "5.0"), update(UUID.randomUUID(), "5.0")), new MLPredictionLog());
+
+        queue.drain();
+
+        assertThat(queue.getPendingCount()).isZero();
+        assertThat(queue.getStats()).containsEntry("flushedRows", 2L).containsEntry("pendingLogs", 0);
+    }
+}
@@ -0,0 +1,137 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.PredictionResponse;
+import com.creativespacefinder.manhattan.exception.ApiException;
+import com.creativespacefinder.manhattan.utils.PredictionCube;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PredictionCubeServiceTest {
+
+    @Mock private ActivityCandidateIndex candidateIndex;
+    @Mock private MlPredictionClient client;
+    @Mock private LocalMlScorer localMlScorer;
+
+    @InjectMocks
+    private PredictionCubeService service;
+
+    @TempDir
+    Path dir;
+
+    private ActivityCandidateIndex.Candidates film;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "file", dir.resolve("cube.bin").toString());
+        ReflectionTestUtils.setField(service, "horizonHours", 6);
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+
+        film = ActivityCandidateIndex.Candidates.builder("Filmmaking")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "A", 40.70, -74.0, "SoHo", 5, 5)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "B", 40.71, -74.0, "SoHo", 5, 5)
+                .add(UUID.randomUUID(), UUID.randomUUID(), "C", 40.72, -74.0, "Midtown Center", 5, 5)
+                .build();
+        ActivityCandidateIndex.Snapshot snapshot = new ActivityCandidateIndex.Snapshot(Map.of("Filmmaking", film), LocalDateTime.now());
+        when(candidateIndex.snapshot()).thenReturn(snapshot);
+    }
+
+    // Cultural score is the row's hour, crowd score its latitude offset, crowd number its month
+    @SuppressWarnings("unchecked")
+    private void stubMl() {
+        when(client.predictBatch(anyList())).thenAnswer(inv -> {
+            List<Map<String, Object>> rows = inv.getArgument(0);
+            return rows.stream().map(r -> new PredictionResponse(null, (Integer) r.get("month"),
+                    (float) Math.round(((Double) r.get("latitude") - 40.70) * 100), ((Integer) r.get("hour")).floatValue()))
+                    .toArray(PredictionResponse[]::new);
+        });
+    }
+
+    @Test
+    void rebuild_scoresEveryCandidateAndHour_andLookupServesTheSlice() throws Exception {
+        stubMl();
+
+        PredictionCube cube = service.rebuild();
+
+        // 3 candidates x 6 hours in chunks of 2
+        verify(client, times(12)).predictBatch(anyList());
+        assertThat(cube.hours()).isEqualTo(6);
+        LocalDateTime inTwoHours = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(2).plusMinutes(30);
+        float[] scores = service.lookup(film, new int[]{2, 0}, inTwoHours);
+
+        assertThat(scores).containsExactly(
+                inTwoHours.getHour(), 2f, inTwoHours.getMonthValue(),
+                inTwoHours.getHour(), 0f, inTwoHours.getMonthValue());
+        assertThat(service.getStats()).containsEntry("hits", 1L).containsEntry("rowsScored", 18L);
+    }
+
+    @Test
+    void lookup_outsideHorizonOrUnknownCandidate_returnsNull() throws Exception {
+        stubMl();
+        service.rebuild();
+
+        ActivityCandidateIndex.Candidates rebuilt = ActivityCandidateIndex.Candidates.builder("Filmmaking")
+                .add(UUID.randomUUID(), UUID.randomUUID(), "New", 40.73, -74.0, "SoHo", 5, 5)
+                .build();
+
+        assertThat(service.lookup(film, new int[]{0}, LocalDateTime.now().plusHours(7))).isNull();
+        assertThat(service.lookup(rebuilt, new int[]{0}, LocalDateTime.now())).isNull();
+        assertThat(service.getStats()).containsEntry("outOfHorizon", 1L).containsEntry("notCovered", 1L);
+    }
+
+    @Test
+    void failedBuild_keepsServingThePreviousCube() throws Exception {
+        stubMl();
+        PredictionCube first = service.rebuild();
+        reset(client);
+        when(client.predictBatch(anyList())).thenThrow(new ApiException("ML service down"));
+
+        assertThatThrownBy(() -> service.rebuild()).isInstanceOf(ApiException.class);
+
+        assertThat(service.lookup(film, new int[]{1}, LocalDateTime.now())).isNotNull();
+        assertThat(Files.exists(dir.resolve("cube.bin.tmp"))).isFalse();
+        assertThat(PredictionCube.open(first.file()).hours()).isEqualTo(6);
+        assertThat(service.getStats()).containsEntry("failedBuilds", 1L);
+    }
+
+    @Test
+    void localInference_isUsedForTheBuildWhenActive() throws Exception {
+        when(localMlScorer.isActive()).thenReturn(true);
+        when(localMlScorer.predictBatch(anyList())).thenAnswer(inv -> {
+            List<?> rows = inv.getArgument(0);
+            PredictionResponse[] out = new PredictionResponse[rows.size()];
+            Arrays.fill(out, new PredictionResponse(null, 1, 1f, 1f));
+            return out;
+        });
+
+        service.rebuild();
+
+        verify(client, never()).predictBatch(anyList());
+    }
+
+    @Test
+    void disabled_neverServes() throws Exception {
+        stubMl();
+        service.rebuild();
+        ReflectionTestUtils.setField(service, "enabled", false);
+
+        assertThat(service.lookup(film, new int[]{0}, LocalDateTime.now())).isNull();
+    }
+}
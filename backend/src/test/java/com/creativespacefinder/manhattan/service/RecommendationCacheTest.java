@@ -0,0 +1,207 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RecommendationCacheTest {
+
+    @Mock private LocationRecommendationService recommendationService;
+    @Mock private RecommendationDiskStore diskStore;
+    @Mock private SharedRecommendationStore sharedStore;
+
+    private RecommendationCache cache;
+    private final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 15, 0);
+
+    @BeforeEach
+    void setUp() {
+        AsyncCache<Object, Object> asyncCache = Caffeine.newBuilder().maximumSize(100).recordStats().buildAsync();
+        cache = new RecommendationCache();
+        ReflectionTestUtils.setField(cache, "recommendationsAsyncCache", asyncCache);
+        ReflectionTestUtils.setField(cache, "locationRecommendationService", recommendationService);
+        ReflectionTestUtils.setField(cache, "recommendationDiskStore", diskStore);
+        ReflectionTestUtils.setField(cache, "sharedRecommendationStore", sharedStore);
+    }
+
+    @Test
+    void get_storedOnDisk_isServedWithoutPipeline_thenHitsInMemory() {
+        RecommendationRequest request = new RecommendationRequest("Busking", NOW.plusMinutes(10), null);
+        RecommendationResponse stored = new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        when(diskStore.get(RecommendationKey.of(request)))
+                .thenReturn(new RecommendationDiskStore.Stored(stored, System.currentTimeMillis() + 60_000));
+
+        RecommendationCache.Lookup first = cache.get(request);
+        RecommendationCache.Lookup second = cache.get(request);
+
+        assertThat(first.outcome()).isEqualTo(RecommendationCache.Outcome.DISK);
+        assertThat(first.servedFromCache()).isTrue();
+        assertThat(first.response().getRequestedDateTime()).isEqualTo("2025-07-17T15:10");
+        assertThat(second.outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        verify(diskStore, times(1)).get(any());
+        verifyNoInteractions(recommendationService, sharedStore);
+    }
+
+    @Test
+    void get_notOnDisk_butInSharedTable_isServedWithoutPipeline() {
+        RecommendationRequest request = new RecommendationRequest("Busking", NOW, "chelsea");
+        RecommendationResponse warmedElsewhere = new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        when(sharedStore.get(RecommendationKey.of(request)))
+                .thenReturn(new SharedRecommendationStore.Stored(warmedElsewhere, System.currentTimeMillis() + 60_000));
+
+        RecommendationCache.Lookup lookup = cache.get(request);
+
+        assertThat(lookup.outcome()).isEqualTo(RecommendationCache.Outcome.SHARED);
+        assertThat(lookup.response().getActivity()).isEqualTo("Busking");
+        verify(diskStore).get(RecommendationKey.of(request));
+        verifyNoInteractions(recommendationService);
+    }
+
+    @Test
+    void get_miss_writesComputedResponseToDiskAndSharedTable() {
+        RecommendationRequest request = new RecommendationRequest("Busking", NOW, "midtown");
+        RecommendationResponse computed = new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        when(recommendationService.getLocationRecommendations(request)).thenReturn(computed);
+
+        cache.get(request);
+
+        verify(diskStore).putAsync(RecommendationKey.of(request), computed);
+        verify(sharedStore).putAsync(RecommendationKey.of(request), computed);
+    }
+
+    @Test
+    void get_sameHourDifferentSpelling_isHit_andEchoesCallersTime() {
+        RecommendationRequest first = new RecommendationRequest("Busking", NOW, "midtown");
+        RecommendationResponse computed = new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        computed.setDegraded(true);
+        when(recommendationService.getLocationRecommendations(first)).thenReturn(computed);
+        cache.get(first);
+
+        RecommendationCache.Lookup later = cache.get(new RecommendationRequest("busking", NOW.plusMinutes(15), " Midtown "));
+
+        assertThat(later.outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        assertThat(later.response().getRequestedDateTime()).isEqualTo("2025-07-17T15:15");
+        assertThat(later.response().getLocations()).isSameAs(computed.getLocations());
+        assertThat(later.response().isDegraded()).isTrue();
+        verify(recommendationService, times(1)).getLocationRecommendations(any());
+    }
+
+    @Test
+    void get_nextHour_isMiss() {
+        when(recommendationService.getLocationRecommendations(any()))
+                .thenReturn(new RecommendationResponse(List.of(), "Busking", NOW.toString()));
+
+        cache.get(new RecommendationRequest("Busking", NOW.plusMinutes(59), null));
+
+        assertThat(cache.get(new RecommendationRequest("Busking", NOW.plusHours(1), null)).outcome())
+                .isEqualTo(RecommendationCache.Outcome.MISS);
+    }
+
+    @Test
+    void get_secondCall_isHit() {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        when(recommendationService.getLocationRecommendations(req))
+                .thenReturn(new RecommendationResponse(List.of(), "Busking", NOW.toString()));
+
+        assertThat(cache.get(req).outcome()).isEqualTo(RecommendationCache.Outcome.MISS);
+        assertThat(cache.get(req).outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        verify(recommendationService, times(1)).getLocationRecommendations(any());
+    }
+
+    @Test
+    void get_concurrentMisses_shareOneComputation() throws Exception {
+        int callers = 25;
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(recommendationService.getLocationRecommendations(any())).thenAnswer(inv -> {
+            computing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<RecommendationCache.Lookup>> results = new ArrayList<>();
+            results.add(pool.submit(() -> cache.get(req)));
+            assertThat(computing.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 1; i < callers; i++) {
+                results.add(pool.submit(() -> cache.get(req)));
+            }
+            // Let the other callers reach the in-flight future before it completes
+            while (((Number) cache.getStats().get("deduplicatedCallers")).longValue() < callers - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            RecommendationResponse first = results.get(0).get(5, TimeUnit.SECONDS).response();
+            for (Future<RecommendationCache.Lookup> f : results) {
+                assertThat(f.get(5, TimeUnit.SECONDS).response()).isSameAs(first);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        verify(recommendationService, times(1)).getLocationRecommendations(any());
+        assertThat(cache.getStats())
+                .containsEntry("misses", 1L)
+                .containsEntry("deduplicatedCallers", (long) callers - 1);
+    }
+
+    @Test
+    void get_failure_isNotCached_andRethrownUnchanged() {
+        RecommendationRequest req = new RecommendationRequest("Juggling", NOW, null);
+        when(recommendationService.getLocationRecommendations(req))
+                .thenThrow(new RuntimeException("Activity not found: Juggling"))
+                .thenReturn(new RecommendationResponse(List.of(), "Juggling", NOW.toString()));
+
+        assertThatThrownBy(() -> cache.get(req)).hasMessage("Activity not found: Juggling");
+        assertThat(cache.getIfPresent(req)).isNull();
+        assertThat(cache.get(req).outcome()).isEqualTo(RecommendationCache.Outcome.MISS);
+    }
+
+    @Test
+    void get_lowerTierReadFailure_failsTheKey_insteadOfLeavingItStuck() {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        when(diskStore.get(RecommendationKey.of(req)))
+                .thenThrow(new IllegalStateException("disk store unreadable"))
+                .thenReturn(null);
+        when(recommendationService.getLocationRecommendations(req))
+                .thenReturn(new RecommendationResponse(List.of(), "Busking", NOW.toString()));
+
+        assertThatThrownBy(() -> cache.get(req)).hasMessage("disk store unreadable");
+        // The in-flight entry was failed and evicted, so the next caller computes instead of waiting on it forever
+        assertThat(cache.get(req).outcome()).isEqualTo(RecommendationCache.Outcome.MISS);
+    }
+
+    @Test
+    void get_lowerTierWriteFailure_stillReturnsTheComputedResponse() {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        RecommendationResponse computed = new RecommendationResponse(List.of(), "Busking", NOW.toString());
+        when(recommendationService.getLocationRecommendations(req)).thenReturn(computed);
+        doThrow(new IllegalStateException("disk full")).when(diskStore).putAsync(any(), any());
+
+        RecommendationCache.Lookup lookup = cache.get(req);
+
+        assertThat(lookup.response()).isSameAs(computed);
+        assertThat(cache.get(req).outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        verify(sharedStore).putAsync(RecommendationKey.of(req), computed);
+    }
+}
@@ -0,0 +1,156 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecommendationDiskStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<RecommendationDiskStore> opened = new ArrayList<>();
+
+    // Next hour's slot, so nothing written here runs into the end of its slot while the test runs
+    private final LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(RecommendationDiskStore::close);
+    }
+
+    private RecommendationDiskStore open() {
+        RecommendationDiskStore store = new RecommendationDiskStore();
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "file", dir.resolve("recommendations-cache.log").toString());
+        store.open();
+        opened.add(store);
+        return store;
+    }
+
+    // Writes go through the single writer thread, closing waits for them
+    private RecommendationDiskStore reopen(RecommendationDiskStore store) {
+        store.close();
+        opened.remove(store);
+        return open();
+    }
+
+    private static RecommendationResponse response(String zone) {
+        LocationRecommendationResponse location = new LocationRecommendationResponse(UUID.randomUUID(), zone,
+                new BigDecimal("40.7580"), new BigDecimal("-73.9855"),
+                new BigDecimal("8.5"), new BigDecimal("7.0"), new BigDecimal("3.2"), 120, "Moderate");
+        return new RecommendationResponse(List.of(location), "Busking", "2025-07-17T15:00");
+    }
+
+    private RecommendationKey key(String zone) {
+        return new RecommendationKey("busking", hour, zone);
+    }
+
+    @Test
+    void storedResponse_survivesReopen() {
+        RecommendationDiskStore store = open();
+        store.putAsync(key("midtown"), response("Midtown"));
+
+        RecommendationDiskStore.Stored stored = reopen(store).get(key("midtown"));
+
+        assertThat(stored).isNotNull();
+        assertThat(stored.response().getLocations()).singleElement()
+                .satisfies(l -> assertThat(l.getZoneName()).isEqualTo("Midtown"));
+        assertThat(stored.expiresAtMillis()).isGreaterThan(System.currentTimeMillis());
+    }
+
+    @Test
+    void pastSlots_andDegradedResponses_areNotStored() {
+        RecommendationDiskStore store = open();
+        store.putAsync(new RecommendationKey("busking", hour.minusHours(3), "all"), response("Midtown"));
+        RecommendationResponse degraded = response("Chelsea");
+        degraded.setDegraded(true);
+        store.putAsync(key("chelsea"), degraded);
+
+        RecommendationDiskStore reopened = reopen(store);
+
+        assertThat(reopened.get(new RecommendationKey("busking", hour.minusHours(3), "all"))).isNull();
+        assertThat(reopened.get(key("chelsea"))).isNull();
+        assertThat(reopened.getStats().get("entries")).isEqualTo(0);
+    }
+
+    @Test
+    void expiresAt_isCappedAtEndOfSlot() {
+        RecommendationDiskStore store = new RecommendationDiskStore();
+        long now = System.currentTimeMillis();
+
+        long expiresAt = store.expiresAtMillis(new RecommendationKey("busking", hour.minusHours(1), "all"), now);
+
+        assertThat(expiresAt).isLessThanOrEqualTo(now + TimeUnit.HOURS.toMillis(1));
+        assertThat(expiresAt).isGreaterThan(now);
+    }
+
+    @Test
+    void tornTail_isCutOff_andEarlierRecordsKept() throws IOException {
+        RecommendationDiskStore store = open();
+        store.putAsync(key("midtown"), response("Midtown"));
+        store.putAsync(key("chelsea"), response("Chelsea"));
+        store.close();
+        opened.remove(store);
+
+        // A crash halfway through the last append
+        Path file = dir.resolve("recommendations-cache.log");
+        long size = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size - 20);
+        }
+
+        RecommendationDiskStore reopened = open();
+
+        assertThat(reopened.get(key("midtown"))).isNotNull();
+        assertThat(reopened.get(key("chelsea"))).isNull();
+        assertThat((long) reopened.getStats().get("droppedTailBytes")).isPositive();
+        assertThat(Files.size(file)).isLessThan(size - 20);
+    }
+
+    @Test
+    void compact_keepsNewestRecordPerKey_andShrinksFile() {
+        RecommendationDiskStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.putAsync(key("midtown"), response("Midtown " + i));
+        }
+        store.putAsync(key("chelsea"), response("Chelsea"));
+        store = reopen(store);
+        long before = (long) store.getStats().get("fileBytes");
+
+        store.compact();
+
+        assertThat((long) store.getStats().get("fileBytes")).isLessThan(before / 5);
+        assertThat(store.get(key("midtown")).response().getLocations().get(0).getZoneName()).isEqualTo("Midtown 19");
+        assertThat(reopen(store).get(key("chelsea"))).isNotNull();
+    }
+
+    @Test
+    void clear_dropsEverything() {
+        RecommendationDiskStore store = open();
+        store.putAsync(key("midtown"), response("Midtown"));
+
+        store.clear();
+
+        assertThat(store.get(key("midtown"))).isNull();
+        assertThat(reopen(store).getStats().get("entries")).isEqualTo(0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.LocationRecommendationResponse;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecommendationEncoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private RecommendationEncoder encoder;
+
+    @BeforeEach
+    void setUp() {
+        encoder = new RecommendationEncoder();
+        ReflectionTestUtils.setField(encoder, "objectMapper", mapper);
+        encoder.init();
+    }
+
+    private static RecommendationResponse response(int locations, String requestedDateTime) {
+        List<LocationRecommendationResponse> list = IntStream.range(0, locations)
+                .mapToObj(i -> new LocationRecommendationResponse(UUID.randomUUID(), "Zone " + i,
+                        new BigDecimal("40.7580"), new BigDecimal("-73.9855"),
+                        new BigDecimal("8.5"), new BigDecimal("7.0"), new BigDecimal("3.2"), 120, "Moderate"))
+                .toList();
+        return new RecommendationResponse(list, "Busking", requestedDateTime);
+    }
+
+    // What RecommendationCache.forRequest hands a caller asking for another minute of the same hour
+    private static RecommendationResponse copyAt(RecommendationResponse response, String requestedDateTime) {
+        return new RecommendationResponse(response.getLocations(), response.getActivity(), requestedDateTime);
+    }
+
+    @Test
+    void sameEntry_isEncodedOnce_andCopiesForOtherMinutesOnceEach() {
+        RecommendationResponse cached = response(10, "2025-07-17T15:00");
+
+        RecommendationEncoder.Encoded first = encoder.encode(cached);
+        RecommendationEncoder.Encoded again = encoder.encode(cached);
+        RecommendationEncoder.Encoded otherMinute = encoder.encode(copyAt(cached, "2025-07-17T15:30"));
+        RecommendationEncoder.Encoded otherMinuteAgain = encoder.encode(copyAt(cached, "2025-07-17T15:30"));
+
+        assertThat(again).isSameAs(first);
+        assertThat(otherMinuteAgain).isSameAs(otherMinute);
+        assertThat(otherMinute.etag()).isNotEqualTo(first.etag());
+        assertThat(encoder.getStats().get("encodes")).isEqualTo(2L);
+        assertThat(encoder.getStats().get("reused")).isEqualTo(2L);
+    }
+
+    @Test
+    void encodedBytes_matchJackson_andGzipRoundTrips() throws IOException {
+        RecommendationResponse cached = response(20, "2025-07-17T15:00");
+
+        RecommendationEncoder.Encoded encoded = encoder.encode(cached);
+
+        assertThat(encoded.json()).isEqualTo(mapper.writeValueAsBytes(cached));
+        assertThat(encoded.gzip()).isNotNull();
+        assertThat(encoded.gzip().length).isLessThan(encoded.json().length);
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(encoded.gzip())).readAllBytes()).isEqualTo(encoded.json());
+        assertThat(encoded.etag()).startsWith("\"").endsWith("\"");
+        assertThat(encoded.gzipEtag()).isNotEqualTo(encoded.etag()).endsWith("-gz\"");
+    }
+
+    @Test
+    void smallBodies_areNotGzipped() {
+        RecommendationEncoder.Encoded encoded = encoder.encode(response(0, "2025-07-17T15:00"));
+
+        assertThat(encoded.gzip()).isNull();
+        assertThat(encoded.gzipEtag()).isNull();
+    }
+
+    @Test
+    void ifNoneMatch_matchesEitherVariant_weakOrStrong() {
+        RecommendationEncoder.Encoded encoded = encoder.encode(response(20, "2025-07-17T15:00"));
+
+        assertThat(encoded.matches(encoded.etag())).isTrue();
+        assertThat(encoded.matches("\"other\", W/" + encoded.gzipEtag())).isTrue();
+        assertThat(encoded.matches("*")).isTrue();
+        assertThat(encoded.matches("\"other\"")).isFalse();
+        assertThat(encoded.matches(null)).isFalse();
+    }
+
+    @Test
+    void acceptsGzip_readsAcceptEncoding() {
+        assertThat(RecommendationEncoder.acceptsGzip("gzip, deflate, br")).isTrue();
+        assertThat(RecommendationEncoder.acceptsGzip("br;q=1.0, GZIP;q=0.5")).isTrue();
+        assertThat(RecommendationEncoder.acceptsGzip("*")).isTrue();
+        assertThat(RecommendationEncoder.acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(RecommendationEncoder.acceptsGzip("identity")).isFalse();
+        assertThat(RecommendationEncoder.acceptsGzip(null)).isFalse();
+    }
+}
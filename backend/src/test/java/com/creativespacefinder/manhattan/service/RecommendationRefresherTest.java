@@ -0,0 +1,170 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationRequest;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RecommendationRefresherTest {
+
+    @Mock private LocationRecommendationService recommendationService;
+
+    @InjectMocks
+    private RecommendationRefresher refresher;
+
+    private final AtomicLong nanos = new AtomicLong();
+    private RecommendationCache cache;
+    private final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 15, 20);
+
+    @BeforeEach
+    void setUp() {
+        // Same refresh and expiry shape as CacheConfig, on a clock the test moves by hand
+        AsyncCache<Object, Object> asyncCache = Caffeine.newBuilder()
+                .ticker(nanos::get)
+                .expireAfterWrite(Duration.ofHours(24))
+                .refreshAfterWrite(Duration.ofHours(12))
+                .recordStats()
+                .buildAsync(refresher);
+        // Both disabled, so only the in-heap tier is exercised
+        RecommendationDiskStore diskStore = new RecommendationDiskStore();
+        SharedRecommendationStore sharedStore = new SharedRecommendationStore();
+        ReflectionTestUtils.setField(refresher, "recommendationDiskStore", diskStore);
+        ReflectionTestUtils.setField(refresher, "sharedRecommendationStore", sharedStore);
+        cache = new RecommendationCache();
+        ReflectionTestUtils.setField(cache, "recommendationsAsyncCache", asyncCache);
+        ReflectionTestUtils.setField(cache, "locationRecommendationService", recommendationService);
+        ReflectionTestUtils.setField(cache, "recommendationDiskStore", diskStore);
+        ReflectionTestUtils.setField(cache, "sharedRecommendationStore", sharedStore);
+    }
+
+    @AfterEach
+    void tearDown() {
+        refresher.shutdown();
+    }
+
+    private static RecommendationResponse response(String label) {
+        return new RecommendationResponse(List.of(), label, "unused");
+    }
+
+    private void advanceHours(long hours) {
+        nanos.addAndGet(TimeUnit.HOURS.toNanos(hours));
+    }
+
+    private void awaitRefreshes(long refreshes, long failed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if ((Long) refresher.getStats().get("refreshes") >= refreshes
+                    && (Long) refresher.getStats().get("failedRefreshes") >= failed
+                    && (Integer) refresher.getStats().get("inFlight") == 0) {
+                Thread.sleep(20);
+                return;
+            }
+            Thread.sleep(5);
+        }
+        fail("Refresh did not finish: " + refresher.getStats());
+    }
+
+    @Test
+    void entryPastRefreshAge_isServedStale_andReloadedInTheBackground() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, "Midtown");
+        when(recommendationService.getLocationRecommendations(any())).thenReturn(response("first"), response("second"));
+        cache.get(req);
+
+        advanceHours(13);
+        RecommendationCache.Lookup stale = cache.get(req);
+        awaitRefreshes(1, 0);
+
+        assertThat(stale.outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        assertThat(stale.response().getActivity()).isEqualTo("first");
+        assertThat(cache.get(req).response().getActivity()).isEqualTo("second");
+
+        // The reload is rebuilt from the key: hour granularity, canonical zone
+        ArgumentCaptor<RecommendationRequest> reloaded = ArgumentCaptor.forClass(RecommendationRequest.class);
+        verify(recommendationService, times(2)).getLocationRecommendations(reloaded.capture());
+        assertThat(reloaded.getAllValues().get(1).getDateTime()).isEqualTo(NOW.withMinute(0));
+        assertThat(reloaded.getAllValues().get(1).getSelectedZone()).isEqualTo("midtown");
+        assertThat(refresher.getStats()).containsKeys("avgRefreshMs", "maxRefreshMs", "lastRefreshMs");
+    }
+
+    @Test
+    void failedReload_keepsServingTheStaleEntry() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        when(recommendationService.getLocationRecommendations(any()))
+                .thenReturn(response("first"))
+                .thenThrow(new RuntimeException("ML service down"));
+        cache.get(req);
+
+        advanceHours(13);
+        cache.get(req);
+        awaitRefreshes(0, 1);
+
+        RecommendationCache.Lookup after = cache.get(req);
+        assertThat(after.outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        assertThat(after.response().getActivity()).isEqualTo("first");
+    }
+
+    @Test
+    void degradedReload_whileTheBreakerIsOpen_keepsServingTheStaleEntry() throws Exception {
+        RecommendationDiskStore diskStore = mock(RecommendationDiskStore.class);
+        SharedRecommendationStore sharedStore = mock(SharedRecommendationStore.class);
+        ReflectionTestUtils.setField(refresher, "recommendationDiskStore", diskStore);
+        ReflectionTestUtils.setField(refresher, "sharedRecommendationStore", sharedStore);
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        // An open breaker does not throw, it ranks from historical scores and marks the answer degraded
+        RecommendationResponse historical = response("historical");
+        historical.setDegraded(true);
+        when(recommendationService.getLocationRecommendations(any())).thenReturn(response("first"), historical);
+        cache.get(req);
+
+        advanceHours(13);
+        cache.get(req);
+        awaitRefreshes(0, 1);
+
+        // Checked before the next read, which finds the entry still past its refresh age and starts another reload
+        assertThat(refresher.getStats()).containsEntry("refreshes", 0L).containsEntry("failedRefreshes", 1L);
+        verify(diskStore, never()).putAsync(any(), any());
+        verify(sharedStore, never()).putAsync(any(), any());
+        RecommendationCache.Lookup after = cache.get(req);
+        assertThat(after.outcome()).isEqualTo(RecommendationCache.Outcome.HIT);
+        assertThat(after.response().getActivity()).isEqualTo("first");
+    }
+
+    @Test
+    void staleEntryIsNotServedPastTheHardExpiry() throws Exception {
+        RecommendationRequest req = new RecommendationRequest("Busking", NOW, null);
+        when(recommendationService.getLocationRecommendations(any()))
+                .thenReturn(response("first"))
+                .thenThrow(new RuntimeException("ML service down"))
+                .thenReturn(response("fresh"));
+        cache.get(req);
+        advanceHours(13);
+        cache.get(req);
+        awaitRefreshes(0, 1);
+
+        advanceHours(12);
+        RecommendationCache.Lookup expired = cache.get(req);
+
+        assertThat(expired.outcome()).isEqualTo(RecommendationCache.Outcome.MISS);
+        assertThat(expired.response().getActivity()).isEqualTo("fresh");
+    }
+}
@@ -0,0 +1,98 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.service.ReferenceDataService.Resource;
+import com.creativespacefinder.manhattan.service.ReferenceDataService.Snapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReferenceDataServiceTest {
+
+    @Mock
+    private LocationRecommendationService locationRecommendationService;
+
+    @Mock
+    private WeatherForecastService weatherForecastService;
+
+    private ReferenceDataService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ReferenceDataService();
+        ReflectionTestUtils.setField(service, "locationRecommendationService", locationRecommendationService);
+        ReflectionTestUtils.setField(service, "weatherForecastService", weatherForecastService);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+    }
+
+    @Test
+    void repeatedReads_loadOnce() {
+        when(locationRecommendationService.getAvailableZones()).thenReturn(List.of("Midtown"));
+
+        Snapshot first = service.get(Resource.ZONES);
+        Snapshot second = service.get(Resource.ZONES);
+
+        assertThat(second).isSameAs(first);
+        assertThat(new String(first.json(), StandardCharsets.UTF_8)).isEqualTo("[\"Midtown\"]");
+        assertThat(first.lastModifiedMillis() % 1000).isZero();
+        verify(locationRecommendationService, times(1)).getAvailableZones();
+    }
+
+    @Test
+    void refresh_keepsVersionAndTag_whenNothingChanged() {
+        when(locationRecommendationService.getAvailableZones()).thenReturn(List.of("Midtown"));
+        Snapshot before = service.get(Resource.ZONES);
+
+        service.refresh();
+
+        assertThat(service.get(Resource.ZONES)).isSameAs(before);
+        assertThat(service.getStats().get("version")).isEqualTo(1L);
+    }
+
+    @Test
+    void refresh_bumpsVersionAndTag_whenDataChanged() {
+        when(locationRecommendationService.getAvailableZones())
+                .thenReturn(List.of("Midtown"))
+                .thenReturn(List.of("Midtown", "Chelsea"));
+        Snapshot before = service.get(Resource.ZONES);
+
+        service.refresh();
+
+        Snapshot after = service.get(Resource.ZONES);
+        assertThat(after.version()).isGreaterThan(before.version());
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+    }
+
+    @Test
+    void failedRefresh_keepsServingPreviousSnapshot() {
+        when(weatherForecastService.getAvailableForecastDateTimes())
+                .thenReturn(List.of())
+                .thenThrow(new RuntimeException("weather API down"));
+        Snapshot before = service.get(Resource.FORECAST_DATETIMES);
+
+        service.refresh();
+
+        assertThat(service.get(Resource.FORECAST_DATETIMES)).isSameAs(before);
+        assertThat(service.getStats().get("refreshFailures")).isEqualTo(1L);
+    }
+
+    @Test
+    void failedFirstLoad_reachesTheCaller_andIsRetried() {
+        when(weatherForecastService.getAvailableForecastDateTimes())
+                .thenThrow(new RuntimeException("boom"))
+                .thenReturn(List.of());
+
+        assertThatThrownBy(() -> service.get(Resource.FORECAST_DATETIMES)).hasMessage("boom");
+        assertThat(service.get(Resource.FORECAST_DATETIMES).json()).isEqualTo("[]".getBytes(StandardCharsets.UTF_8));
+    }
+}
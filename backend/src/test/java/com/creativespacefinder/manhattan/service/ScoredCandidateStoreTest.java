@@ -0,0 +1,115 @@
+package com.creativespacefinder.manhattan.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ScoredCandidateStoreTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 7, 17, 15, 0);
+
+    private ScoredCandidateStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new ScoredCandidateStore();
+        store.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    private static ActivityCandidateIndex.Candidates candidates(int count) {
+        ActivityCandidateIndex.Candidates.Builder builder = ActivityCandidateIndex.Candidates.builder("Busking");
+        for (int i = 0; i < count; i++) {
+            builder.add(UUID.randomUUID(), UUID.randomUUID(), "Loc " + i, 40.75, -73.99, "Midtown Center", 5.0, 5.0);
+        }
+        return builder.build();
+    }
+
+    @Test
+    void lookup_returnsScoresInPoolOrder_andNullWhileAnyIsUnscored() {
+        ActivityCandidateIndex.Candidates candidates = candidates(3);
+        ScoredCandidateStore.Scores scores = ScoredCandidateStore.Scores.builder(candidates)
+                .put(0, 1f, 2f, 3f)
+                .put(2, 7f, 8f, 9f)
+                .build();
+
+        assertThat(scores.scoredCount()).isEqualTo(2);
+        assertThat(scores.lookup(new int[]{2, 0})).containsExactly(7f, 8f, 9f, 1f, 2f, 3f);
+        assertThat(scores.lookup(new int[]{0, 1})).isNull();
+    }
+
+    @Test
+    void toBuilder_keepsEarlierScores_andLeavesTheOriginalUntouched() {
+        ScoredCandidateStore.Scores first = ScoredCandidateStore.Scores.builder(candidates(2)).put(0, 1f, 2f, 3f).build();
+
+        ScoredCandidateStore.Scores second = first.toBuilder().put(1, 4f, 5f, 6f).build();
+
+        assertThat(second.lookup(new int[]{0, 1})).containsExactly(1f, 2f, 3f, 4f, 5f, 6f);
+        assertThat(first.isScored(1)).isFalse();
+    }
+
+    @Test
+    void entriesAreSharedAcrossTheSameHour() {
+        ActivityCandidateIndex.Candidates candidates = candidates(1);
+        store.put(NOW.plusMinutes(10), ScoredCandidateStore.Scores.builder(candidates).put(0, 1f, 2f, 3f).build());
+
+        assertThat(store.get(candidates, NOW.plusMinutes(45))).isNotNull();
+        assertThat(store.get(candidates, NOW.plusHours(1))).isNull();
+        assertThat(store.getStats()).containsEntry("hits", 1L).containsEntry("misses", 1L);
+    }
+
+    @Test
+    void scoresFromAnOlderCandidateSnapshot_areDropped() {
+        store.put(NOW, ScoredCandidateStore.Scores.builder(candidates(1)).put(0, 1f, 2f, 3f).build());
+
+        // Same activity, but a refreshed index hands out a new snapshot whose positions may differ
+        assertThat(store.get(candidates(1), NOW)).isNull();
+        assertThat(store.getStats()).containsEntry("stale", 1L).containsEntry("entries", 0L);
+    }
+
+    @Test
+    void merge_keepsRowsAlreadyStored_forTheSameSnapshot() {
+        ActivityCandidateIndex.Candidates candidates = candidates(3);
+        store.put(NOW, ScoredCandidateStore.Scores.builder(candidates).put(0, 1f, 2f, 3f).put(1, 4f, 5f, 6f).build());
+
+        // A background scoring that started before row 1 was stored only brings row 2
+        store.merge(NOW, ScoredCandidateStore.Scores.builder(candidates).put(2, 7f, 8f, 9f).build());
+
+        assertThat(store.get(candidates, NOW).lookup(new int[]{0, 1, 2})).containsExactly(1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f, 9f);
+    }
+
+    @Test
+    void zonePoolScorings_pastTheQueue_areDropped() throws Exception {
+        ReflectionTestUtils.setField(store, "zonePoolQueue", 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        store.scheduleZonePools(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+        store.scheduleZonePools(() -> {});
+        store.scheduleZonePools(() -> {});
+
+        assertThat(store.getStats()).containsEntry("zonePoolQueued", 1).containsEntry("zonePoolDropped", 1L);
+        release.countDown();
+    }
+}
@@ -0,0 +1,168 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.RecommendationKey;
+import com.creativespacefinder.manhattan.dto.RecommendationResponse;
+import com.creativespacefinder.manhattan.repository.RecommendationCacheRepository;
+import com.creativespacefinder.manhattan.repository.RecommendationCacheRepository.CachedRecommendation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Two stores over one in-memory H2 database stand in for two replicas sharing Postgres
+ */
+class SharedRecommendationStoreTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private RecommendationCacheRepository repository;
+    private final List<SharedRecommendationStore> replicas = new ArrayList<>();
+
+    // Next hour's slot, so nothing written here runs into the end of its slot while the test runs
+    private final LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:shared-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        repository = repository();
+    }
+
+    @AfterEach
+    void tearDown() {
+        replicas.forEach(SharedRecommendationStore::drain);
+    }
+
+    private RecommendationCacheRepository repository() {
+        RecommendationCacheRepository repo = new RecommendationCacheRepository();
+        ReflectionTestUtils.setField(repo, "jdbcTemplate", jdbcTemplate);
+        return repo;
+    }
+
+    private SharedRecommendationStore replica(long readLingerMs) {
+        SharedRecommendationStore store = new SharedRecommendationStore();
+        ReflectionTestUtils.setField(store, "recommendationCacheRepository", repository());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "readLingerMs", readLingerMs);
+        ReflectionTestUtils.setField(store, "readTimeoutMs", 5_000L);
+        // Flushed by hand in the tests
+        ReflectionTestUtils.setField(store, "writeFlushIntervalMs", 60_000L);
+        store.start();
+        replicas.add(store);
+        return store;
+    }
+
+    private RecommendationKey key(String zone) {
+        return new RecommendationKey("busking", hour, zone);
+    }
+
+    private static RecommendationResponse response(String activity) {
+        return new RecommendationResponse(List.of(), activity, "2025-07-17T15:00");
+    }
+
+    @Test
+    void writeOnOneReplica_isReadOnAnother() {
+        SharedRecommendationStore warmer = replica(0);
+        SharedRecommendationStore other = replica(0);
+
+        warmer.putAsync(key("all"), response("Busking"));
+        assertThat(other.get(key("all"))).isNull();
+        warmer.flush();
+
+        SharedRecommendationStore.Stored stored = other.get(key("all"));
+        assertThat(stored).isNotNull();
+        assertThat(stored.response().getActivity()).isEqualTo("Busking");
+        assertThat(stored.expiresAtMillis()).isGreaterThan(System.currentTimeMillis());
+        assertThat(other.getStats().get("hits")).isEqualTo(1L);
+    }
+
+    @Test
+    void repeatedWritesForOneKey_areCoalesced_andDegradedSkipped() {
+        SharedRecommendationStore store = replica(0);
+        store.putAsync(key("midtown"), response("First"));
+        store.putAsync(key("midtown"), response("Second"));
+        RecommendationResponse degraded = response("Degraded");
+        degraded.setDegraded(true);
+        store.putAsync(key("chelsea"), degraded);
+
+        assertThat(store.flush()).isEqualTo(1);
+        assertThat(store.get(key("midtown")).response().getActivity()).isEqualTo("Second");
+        assertThat(store.get(key("chelsea"))).isNull();
+        assertThat(store.getStats().get("coalescedWrites")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrentMisses_shareOneQuery() throws Exception {
+        SharedRecommendationStore seeder = replica(0);
+        for (int i = 0; i < 4; i++) seeder.putAsync(key("zone " + i), response("Busking " + i));
+        seeder.flush();
+
+        SharedRecommendationStore store = replica(200);
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<SharedRecommendationStore.Stored>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                RecommendationKey k = key("zone " + i);
+                results.add(callers.submit(() -> store.get(k)));
+            }
+            for (int i = 0; i < 6; i++) {
+                SharedRecommendationStore.Stored stored = results.get(i).get();
+                if (i < 4) {
+                    assertThat(stored.response().getActivity()).isEqualTo("Busking " + i);
+                } else {
+                    assertThat(stored).isNull();
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(store.getStats().get("readQueries")).isEqualTo(1L);
+        assertThat(store.getStats().get("hits")).isEqualTo(4L);
+        assertThat(store.getStats().get("misses")).isEqualTo(2L);
+    }
+
+    @Test
+    void expiredRows_areNotServed_andSwept() {
+        SharedRecommendationStore store = replica(0);
+        long now = System.currentTimeMillis();
+        repository.upsertAll(List.of(
+                new CachedRecommendation(key("old").toString(), "{\"activity\":\"Old\"}", now - 1_000),
+                new CachedRecommendation(key("live").toString(), "{\"activity\":\"Live\"}", now + 60_000)));
+
+        assertThat(store.get(key("old"))).isNull();
+        store.sweepExpired();
+
+        assertThat(store.getStats().get("swept")).isEqualTo(1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recommendation_cache", Integer.class)).isEqualTo(1);
+        assertThat(store.get(key("live")).response().getActivity()).isEqualTo("Live");
+    }
+
+    @Test
+    void disabled_neverTouchesTheDatabase() {
+        SharedRecommendationStore store = new SharedRecommendationStore();
+        ReflectionTestUtils.setField(store, "recommendationCacheRepository", repository());
+        store.start();
+
+        store.putAsync(key("all"), response("Busking"));
+
+        assertThat(store.get(key("all"))).isNull();
+        assertThat(store.getStats().get("enabled")).isEqualTo(false);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'RECOMMENDATION_CACHE'", Integer.class)).isZero();
+    }
+}
@@ -0,0 +1,96 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.repository.WarmingCheckpointRepository;
+import com.creativespacefinder.manhattan.repository.WarmingCheckpointRepository.CheckpointRow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Two stores over one in-memory H2 database stand in for the pod that stopped and the one that replaces it
+ */
+class WarmingCheckpointStoreTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private final LocalDateTime started = LocalDateTime.of(2025, 7, 16, 3, 0);
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:checkpoint-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    private WarmingCheckpointStore store() {
+        WarmingCheckpointRepository repository = new WarmingCheckpointRepository();
+        ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+        WarmingCheckpointStore store = new WarmingCheckpointStore();
+        ReflectionTestUtils.setField(store, "warmingCheckpointRepository", repository);
+        ReflectionTestUtils.setField(store, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        store.start();
+        return store;
+    }
+
+    private WarmingCheckpointStore.Checkpoint checkpoint(String state, int warmed, List<WarmingPlan.Entry> remaining) {
+        return new WarmingCheckpointStore.Checkpoint("run-1", state, started, 10, warmed, 1, 0, 1, remaining);
+    }
+
+    @Test
+    void checkpoint_isReadBack_byTheNextPod() {
+        List<WarmingPlan.Entry> remaining = List.of(
+                new WarmingPlan.Entry("Busking", started.withHour(20), "all", 4.0, 4.0),
+                new WarmingPlan.Entry("Portrait photography", started.withHour(13), "all", 0.0, 0.5));
+        store().save(checkpoint("RUNNING", 6, remaining));
+
+        WarmingCheckpointStore.Checkpoint loaded = store().load();
+
+        assertThat(loaded).isEqualTo(checkpoint("RUNNING", 6, remaining));
+    }
+
+    @Test
+    void laterSaves_replaceTheCheckpoint_andClearRemovesIt() {
+        WarmingCheckpointStore store = store();
+        store.save(checkpoint("RUNNING", 2, List.of()));
+        store.save(checkpoint("PAUSED", 5, List.of()));
+
+        assertThat(store.load().state()).isEqualTo("PAUSED");
+        assertThat(store.load().warmed()).isEqualTo(5);
+        assertThat(store.getStats().get("saves")).isEqualTo(2L);
+
+        store.clear();
+        assertThat(store.load()).isNull();
+    }
+
+    @Test
+    void unreadableCheckpoint_isIgnored() {
+        WarmingCheckpointStore store = store();
+        WarmingCheckpointRepository repository = (WarmingCheckpointRepository) ReflectionTestUtils.getField(store, "warmingCheckpointRepository");
+        repository.save(new CheckpointRow("daily", "RUNNING", "{not json", System.currentTimeMillis()));
+
+        assertThat(store.load()).isNull();
+    }
+
+    @Test
+    void disabled_savesNothing() {
+        WarmingCheckpointStore store = new WarmingCheckpointStore();
+        ReflectionTestUtils.setField(store, "enabled", false);
+        store.start();
+
+        store.save(checkpoint("RUNNING", 1, List.of()));
+
+        assertThat(store.isEnabled()).isFalse();
+        assertThat(store.load()).isNull();
+        assertThat(store.getStats().get("saves")).isEqualTo(0L);
+    }
+}
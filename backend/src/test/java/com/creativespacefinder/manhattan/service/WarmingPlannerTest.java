@@ -0,0 +1,118 @@
+package com.creativespacefinder.manhattan.service;
+
+import com.creativespacefinder.manhattan.dto.WarmingPlan;
+import com.creativespacefinder.manhattan.entity.Activity;
+import com.creativespacefinder.manhattan.entity.RequestAnalytics;
+import com.creativespacefinder.manhattan.repository.ActivityRepository;
+import com.creativespacefinder.manhattan.repository.RequestAnalyticsRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WarmingPlannerTest {
+
+    @Mock
+    private RequestAnalyticsRepository requestAnalyticsRepository;
+
+    @Mock
+    private ActivityRepository activityRepository;
+
+    private WarmingPlanner planner;
+
+    // A Wednesday at 3 AM, when the daily job runs
+    private final LocalDateTime now = LocalDateTime.of(2025, 7, 16, 3, 0);
+
+    @BeforeEach
+    void setUp() {
+        planner = new WarmingPlanner();
+        ReflectionTestUtils.setField(planner, "requestAnalyticsRepository", requestAnalyticsRepository);
+        ReflectionTestUtils.setField(planner, "activityRepository", activityRepository);
+        when(activityRepository.findAll()).thenReturn(List.of(new Activity("Busking"), new Activity("Portrait photography")));
+    }
+
+    private static RequestAnalytics row(String activity, int hour, int dayOfWeek, int count, LocalDateTime lastRequested) {
+        RequestAnalytics row = new RequestAnalytics(activity, hour, dayOfWeek, false, 100L, null);
+        row.setRequestCount(count);
+        row.setLastRequested(lastRequested);
+        return row;
+    }
+
+    @Test
+    void observedSlots_comeFirst_inTheActivityTablesSpelling() {
+        // Wednesday 20:00 and Thursday 09:00 busking, asked for as the user typed it
+        when(requestAnalyticsRepository.findAll()).thenReturn(List.of(
+                row("busking", 20, 3, 12, now.minusHours(5)),
+                row("BUSKING", 9, 4, 4, now.minusHours(5))));
+
+        WarmingPlan plan = planner.plan(now);
+
+        assertThat(plan.entries().get(0).activity()).isEqualTo("Busking");
+        assertThat(plan.entries().get(0).dateTime()).isEqualTo(now.withHour(20));
+        assertThat(plan.entries().get(1).dateTime()).isEqualTo(now.plusDays(1).withHour(9));
+        assertThat(plan.entries().get(2).demand()).isZero();
+        assertThat(plan.predictedCoverage()).isEqualTo(1.0);
+    }
+
+    @Test
+    void olderDemand_isDecayed_belowRecentDemand() {
+        when(requestAnalyticsRepository.findAll()).thenReturn(List.of(
+                row("Busking", 10, 4, 10, now.minusDays(28)),
+                row("Portrait photography", 10, 4, 10, now.minusHours(1))));
+
+        WarmingPlan plan = planner.plan(now);
+
+        assertThat(plan.entries().get(0).activity()).isEqualTo("Portrait photography");
+        // Two half-lives
+        assertThat(plan.entries().get(1).demand()).isCloseTo(2.5, within(0.01));
+    }
+
+    @Test
+    void budget_cutsThePlan_andCoverageCountsWhatIsLeftOut() {
+        ReflectionTestUtils.setField(planner, "budget", 1);
+        when(requestAnalyticsRepository.findAll()).thenReturn(List.of(
+                row("Busking", 20, 3, 3, now),
+                row("Busking", 21, 3, 1, now)));
+
+        WarmingPlan plan = planner.plan(now);
+
+        assertThat(plan.entries()).hasSize(1);
+        assertThat(plan.predictedCoverage()).isCloseTo(0.75, within(0.001));
+        assertThat(planner.getStats().get("lastPlanned")).isEqualTo(1);
+    }
+
+    @Test
+    void noAnalytics_fallsBackToDefaultAfternoonHours_inTheHorizon() {
+        when(requestAnalyticsRepository.findAll()).thenReturn(List.of());
+
+        WarmingPlan plan = planner.plan(now);
+
+        // 2 activities x 7 hours x 4 days, tomorrow's onwards up to 96 hours out
+        assertThat(plan.entries()).hasSize(56);
+        assertThat(plan.entries()).allSatisfy(e -> {
+            assertThat(e.dateTime().getHour()).isBetween(12, 18);
+            assertThat(e.dateTime()).isAfter(now).isBeforeOrEqualTo(now.plusDays(4));
+            assertThat(e.toRequest().getSelectedZone()).isNull();
+        });
+        assertThat(plan.predictedCoverage()).isZero();
+    }
+
+    @Test
+    void analyticsForRemovedActivities_areIgnored() {
+        when(requestAnalyticsRepository.findAll()).thenReturn(List.of(row("Juggling", 20, 3, 50, now)));
+
+        WarmingPlan plan = planner.plan(now);
+
+        assertThat(plan.observedDemand()).isZero();
+        assertThat(plan.entries()).noneMatch(e -> e.activity().equals("Juggling"));
+    }
+}
@@ -0,0 +1,115 @@
+package com.creativespacefinder.manhattan.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PredictionCubeTest {
+
+    @TempDir
+    Path dir;
+
+    private final LocalDateTime base = LocalDateTime.of(2025, 7, 17, 15, 0);
+    private final UUID[] filmIds = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+    private final UUID[] buskingIds = {UUID.randomUUID()};
+
+    private PredictionCube.Writer writer(int hours) throws IOException {
+        return PredictionCube.create(dir.resolve("cube.tmp"), base.plusMinutes(20), hours, List.of(
+                new PredictionCube.Layout("Filmmaking", filmIds),
+                new PredictionCube.Layout("Busking", buskingIds)));
+    }
+
+    @Test
+    void valuesWritten_areReadBackFromTheMappedFile() throws IOException {
+        PredictionCube.Writer writer = writer(4);
+        for (int h = 0; h < 4; h++) {
+            for (int r = 0; r < 3; r++) {
+                writer.put(0, h, r, h + r / 10f, -h, h * 100 + r);
+            }
+        }
+        writer.put(1, 3, 0, 9.5f, 1.5f, 42);
+
+        PredictionCube cube = writer.finish(dir.resolve("cube.bin"));
+
+        assertThat(Files.exists(dir.resolve("cube.tmp"))).isFalse();
+        assertThat(cube.baseHour()).isEqualTo(base);
+        assertThat(cube.hours()).isEqualTo(4);
+        PredictionCube.Block film = cube.block("Filmmaking");
+        assertThat(film.rowCount()).isEqualTo(3);
+        assertThat(film.culturalScore(2, 1)).isEqualTo(2.1f);
+        assertThat(film.crowdScore(2, 1)).isEqualTo(-2f);
+        assertThat(film.crowdNumber(3, 2)).isEqualTo(302f);
+        PredictionCube.Block busking = cube.block("Busking");
+        assertThat(busking.culturalScore(3, 0)).isEqualTo(9.5f);
+        assertThat(busking.crowdNumber(3, 0)).isEqualTo(42f);
+        // Cells never written stay zero
+        assertThat(busking.culturalScore(0, 0)).isZero();
+    }
+
+    @Test
+    void reopenedCube_findsRowsByScoreId() throws IOException {
+        writer(2).finish(dir.resolve("cube.bin"));
+
+        PredictionCube cube = PredictionCube.open(dir.resolve("cube.bin"));
+
+        assertThat(cube.activities()).containsExactlyInAnyOrder("Filmmaking", "Busking");
+        assertThat(cube.block("Filmmaking").rowOf(filmIds[2])).isEqualTo(2);
+        assertThat(cube.block("Filmmaking").rowOf(buskingIds[0])).isEqualTo(-1);
+        assertThat(cube.block("Sculpture")).isNull();
+    }
+
+    @Test
+    void hourIndex_coversHorizonOnly_andIgnoresMinutes() throws IOException {
+        PredictionCube cube = writer(4).finish(dir.resolve("cube.bin"));
+
+        assertThat(cube.hourIndex(base)).isZero();
+        assertThat(cube.hourIndex(base.plusHours(3).plusMinutes(59))).isEqualTo(3);
+        assertThat(cube.hourIndex(base.plusHours(4))).isEqualTo(-1);
+        assertThat(cube.hourIndex(base.minusMinutes(1))).isEqualTo(-1);
+    }
+
+    @Test
+    void finish_replacesThePreviousFile() throws IOException {
+        PredictionCube.Writer first = writer(1);
+        first.put(0, 0, 0, 1f, 1f, 1f);
+        PredictionCube old = first.finish(dir.resolve("cube.bin"));
+
+        PredictionCube.Writer second = writer(1);
+        second.put(0, 0, 0, 2f, 2f, 2f);
+        PredictionCube fresh = second.finish(dir.resolve("cube.bin"));
+
+        assertThat(fresh.block("Filmmaking").culturalScore(0, 0)).isEqualTo(2f);
+        // The old mapping still reads what it was built with
+        assertThat(old.block("Filmmaking").culturalScore(0, 0)).isEqualTo(1f);
+    }
+
+    @Test
+    void truncatedOrForeignFile_isRejected() throws IOException {
+        writer(4).finish(dir.resolve("cube.bin"));
+        try (FileChannel channel = FileChannel.open(dir.resolve("cube.bin"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 8);
+        }
+        Files.writeString(dir.resolve("other.bin"), "not a cube at all");
+
+        assertThatThrownBy(() -> PredictionCube.open(dir.resolve("cube.bin"))).hasMessageContaining("truncated");
+        assertThatThrownBy(() -> PredictionCube.open(dir.resolve("other.bin"))).hasMessageContaining("Not a prediction cube");
+    }
+
+    @Test
+    void put_outsideTheCube_throws() throws IOException {
+        PredictionCube.Writer writer = writer(2);
+
+        assertThatThrownBy(() -> writer.put(0, 2, 0, 0f, 0f, 0f)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> writer.put(1, 0, 1, 0f, 0f, 0f)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
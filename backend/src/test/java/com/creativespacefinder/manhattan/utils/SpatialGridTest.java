@@ -0,0 +1,80 @@
+package com.creativespacefinder.manhattan.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class SpatialGridTest {
+
+    // Haversine, same formula the recommendation service used before the grid
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371000 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    @Test
+    void approximateDistance_matchesHaversineAtManhattanScale() {
+        double d = SpatialGrid.approximateDistance(40.7580, -73.9855, 40.7585, -73.9850);
+        assertThat(d).isCloseTo(haversine(40.7580, -73.9855, 40.7585, -73.9850), within(0.01));
+    }
+
+    @Test
+    void approximateDistance_sameCoordinates_isZero() {
+        assertThat(SpatialGrid.approximateDistance(40.0, -73.0, 40.0, -73.0)).isEqualTo(0.0);
+    }
+
+    @Test
+    void approximateDistance_oneDegreeOfLatitude_isAbout111Km() {
+        double d = SpatialGrid.approximateDistance(40.0, -73.0, 41.0, -73.0);
+        assertThat(d).isCloseTo(111_000.0, within(1_000.0));
+        assertThat(d).isCloseTo(haversine(40.0, -73.0, 41.0, -73.0), within(1.0));
+    }
+
+    @Test
+    void hasPointWithin_findsNeighbourAcrossCellBoundary() {
+        SpatialGrid grid = new SpatialGrid(50, 40.78);
+        grid.add(40.7800, -73.9700);
+
+        assertThat(grid.hasPointWithin(40.7803, -73.9700, 50)).isTrue();   // ~33m north
+        assertThat(grid.hasPointWithin(40.7800, -73.9695, 50)).isTrue();   // ~42m east, next cell over
+        assertThat(grid.hasPointWithin(40.7800, -73.9694, 50)).isFalse();  // ~51m east
+        assertThat(grid.hasPointWithin(40.7800, -73.9690, 50)).isFalse();  // ~84m east
+    }
+
+    @Test
+    void hasPointWithin_agreesWithBruteForceHaversine() {
+        Random random = new Random(47360);
+        SpatialGrid grid = new SpatialGrid(25, 40.78);
+        double[][] points = new double[400][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[]{40.70 + random.nextDouble() * 0.01, -74.00 + random.nextDouble() * 0.01};
+            grid.add(points[i][0], points[i][1]);
+        }
+
+        for (int q = 0; q < 500; q++) {
+            double lat = 40.70 + random.nextDouble() * 0.01;
+            double lon = -74.00 + random.nextDouble() * 0.01;
+            boolean expected = false;
+            for (double[] p : points) {
+                // Skip pairs sitting right on the threshold where the two formulas may round differently
+                double d = haversine(lat, lon, p[0], p[1]);
+                if (Math.abs(d - 25) < 0.01) continue;
+                if (d < 25) { expected = true; break; }
+            }
+            assertThat(grid.hasPointWithin(lat, lon, 25)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void hasPointWithin_rejectsRadiusLargerThanCell() {
+        SpatialGrid grid = new SpatialGrid(25, 40.78);
+        assertThatThrownBy(() -> grid.hasPointWithin(40.78, -73.97, 50))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,52 @@
+package com.creativespacefinder.manhattan.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TaxiZoneCatalogueTest {
+
+    private final TaxiZoneCatalogue catalogue = new TaxiZoneCatalogue(Map.of(
+            "midtown", List.of("Midtown South", "Midtown Center", "Midtown North"),
+            "harlem", List.of("Central Harlem", "Morningside Heights"),
+            "central park", List.of("Central Park")
+    ));
+
+    @Test
+    void ordinalOf_roundTripsEveryZoneName() {
+        assertThat(catalogue.size()).isEqualTo(6);
+        for (String zone : List.of("Midtown South", "Central Harlem", "Central Park")) {
+            int ordinal = catalogue.ordinalOf(zone);
+            assertThat(ordinal).isNotNegative();
+            assertThat(catalogue.zoneName(ordinal)).isEqualTo(zone);
+        }
+    }
+
+    @Test
+    void ordinalOf_unknownZone_isUnknown() {
+        assertThat(catalogue.ordinalOf("Astoria")).isEqualTo(TaxiZoneCatalogue.UNKNOWN_ZONE);
+        assertThat(catalogue.ordinalOf(null)).isEqualTo(TaxiZoneCatalogue.UNKNOWN_ZONE);
+        assertThat(catalogue.zoneName(TaxiZoneCatalogue.UNKNOWN_ZONE)).isNull();
+    }
+
+    @Test
+    void membersOf_isCaseInsensitive_andOnlyHoldsItsZones() {
+        BitSet midtown = catalogue.membersOf("MidTown");
+
+        assertThat(midtown.cardinality()).isEqualTo(3);
+        assertThat(catalogue.isMember(midtown, catalogue.ordinalOf("Midtown Center"))).isTrue();
+        assertThat(catalogue.isMember(midtown, catalogue.ordinalOf("Central Park"))).isFalse();
+        assertThat(catalogue.isMember(midtown, TaxiZoneCatalogue.UNKNOWN_ZONE)).isFalse();
+        assertThat(catalogue.membersOf("brooklyn")).isNull();
+    }
+
+    @Test
+    void membersOf_returnsCopy() {
+        catalogue.membersOf("harlem").clear();
+        assertThat(catalogue.membersOf("harlem").cardinality()).isEqualTo(2);
+    }
+}
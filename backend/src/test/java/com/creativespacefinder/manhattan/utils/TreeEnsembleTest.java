@@ -0,0 +1,90 @@
+package com.creativespacefinder.manhattan.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TreeEnsembleTest {
+
+    // Root splits feature 0 at 10, missing goes right, left child is a leaf, right child splits feature 1 at 0.5
+    private static TreeEnsemble.Builder twoLevelTree(TreeEnsemble.Builder builder) {
+        return builder.addTree(
+                new int[]{0, -1, 1, -1, -1},
+                new float[]{10f, 0f, 0.5f, 0f, 0f},
+                new int[]{1, -1, 3, -1, -1},
+                new int[]{2, -1, 4, -1, -1},
+                new boolean[]{false, true, true, true, true},
+                new float[]{0f, 1f, 0f, 2f, 3f});
+    }
+
+    private static float[] predict(TreeEnsemble ensemble, float... row) {
+        float[] out = new float[ensemble.targetCount()];
+        ensemble.predict(row, 1, out);
+        return out;
+    }
+
+    @Test
+    void split_isStrictlyLessThan_andBaseScoreAdded() {
+        TreeEnsemble ensemble = twoLevelTree(TreeEnsemble.builder(2).startTarget(0.5f)).build();
+
+        assertThat(predict(ensemble, 9.99f, 0f)).containsExactly(1.5f);
+        // Equal to the threshold goes right
+        assertThat(predict(ensemble, 10f, 0f)).containsExactly(2.5f);
+        assertThat(predict(ensemble, 10f, 0.5f)).containsExactly(3.5f);
+    }
+
+    @Test
+    void missingFeature_followsDefaultBranch() {
+        TreeEnsemble ensemble = twoLevelTree(TreeEnsemble.builder(2).startTarget(0f)).build();
+
+        // Root default is right, then feature 1 missing defaults left
+        assertThat(predict(ensemble, Float.NaN, Float.NaN)).containsExactly(2f);
+    }
+
+    @Test
+    void zerosAreMissing_treatsZeroLikeNaN() {
+        TreeEnsemble dense = twoLevelTree(TreeEnsemble.builder(2).startTarget(0f)).build();
+        TreeEnsemble sparse = twoLevelTree(TreeEnsemble.builder(2).zerosAreMissing(true).startTarget(0f)).build();
+
+        assertThat(predict(dense, 0f, 1f)).containsExactly(1f);
+        assertThat(predict(sparse, 0f, 1f)).containsExactly(3f);
+    }
+
+    @Test
+    void multipleTargets_eachSumOnlyTheirOwnTrees() {
+        TreeEnsemble.Builder builder = TreeEnsemble.builder(2).startTarget(1f);
+        twoLevelTree(builder);
+        twoLevelTree(builder);
+        builder.startTarget(100f);
+        twoLevelTree(builder);
+        TreeEnsemble ensemble = builder.build();
+
+        assertThat(ensemble.treeCount()).isEqualTo(3);
+        assertThat(predict(ensemble, 5f, 0f)).containsExactly(3f, 101f);
+    }
+
+    @Test
+    void batch_scoresEveryRowIntoItsSlot() {
+        TreeEnsemble ensemble = twoLevelTree(TreeEnsemble.builder(2).startTarget(0f)).build();
+        float[] features = {1f, 0f, 20f, 0f, 20f, 1f};
+        float[] out = new float[3];
+
+        ensemble.predict(features, 3, out);
+
+        assertThat(out).containsExactly(1f, 2f, 3f);
+    }
+
+    @Test
+    void builder_rejectsChildBeforeParent() {
+        TreeEnsemble.Builder builder = TreeEnsemble.builder(1).startTarget(0f);
+
+        assertThatThrownBy(() -> builder.addTree(
+                new int[]{0, 0},
+                new float[]{1f, 1f},
+                new int[]{1, 0},
+                new int[]{1, 1},
+                new boolean[]{true, true},
+                new float[]{0f, 0f}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,137 @@
+# References:
+# https://xgboost.readthedocs.io/en/stable/python/python_api.html#xgboost.Booster.get_dump
+# https://xgboost.readthedocs.io/en/stable/tutorials/saving_model.html
+# https://scikit-learn.org/stable/modules/generated/sklearn.compose.ColumnTransformer.html
+
+# Export xgboost_model.pkl as a flat tree dump the Spring Boot backend can score in the JVM (LocalMlScorer.java)
+# Also writes a parity file: fixed feature rows with what this pipeline predicts for them,
+# the backend parity test checks its own scores against it
+#
+# Usage: python export_model.py [model.pkl] [output dir]
+
+import json
+import os
+import sys
+
+import joblib
+import numpy as np
+import pandas as pd
+import scipy.sparse
+
+FORMAT = "tree-ensemble-v1"
+MODEL_VERSION = "3.0"
+
+CATEGORICAL = "Cultural_activity_prefered"
+NUMERIC = ["Latitude", "Longitude", "Hour", "Month", "Day"]
+TARGETS = ["Total crowd", "Taxi zone crowd score", "Activity Score"]
+
+
+def flatten_tree(tree):
+    """Turn one get_dump(json) tree into parallel arrays with dense node indexes, root at 0"""
+    split_feature, threshold, left, right, default_left, value = [], [], [], [], [], []
+    index = {}
+    order = [tree]
+
+    # Breadth first so every node gets its index before its children are written
+    i = 0
+    while i < len(order):
+        node = order[i]
+        index[node["nodeid"]] = i
+        for child in node.get("children", []):
+            order.append(child)
+        i += 1
+
+    for node in order:
+        if "leaf" in node:
+            split_feature.append(-1)
+            threshold.append(0.0)
+            left.append(-1)
+            right.append(-1)
+            default_left.append(True)
+            value.append(float(node["leaf"]))
+        else:
+            split_feature.append(int(node["split"].lstrip("f")))
+            threshold.append(float(node["split_condition"]))
+            left.append(index[node["yes"]])
+            right.append(index[node["no"]])
+            default_left.append(node["missing"] == node["yes"])
+            value.append(0.0)
+
+    return {
+        "split_feature": split_feature,
+        "threshold": threshold,
+        "left": left,
+        "right": right,
+        "default_left": default_left,
+        "value": value,
+    }
+
+
+def base_score(booster):
+    config = json.loads(booster.save_config())
+    return float(config["learner"]["learner_model_param"]["base_score"])
+
+
+def export(model_path, out_dir):
+    pipeline = joblib.load(model_path)
+    preprocessor = pipeline.named_steps["preprocessor"]
+    regressor = pipeline.named_steps["regressor"]
+
+    categories = [str(c) for c in preprocessor.named_transformers_["cat"].categories_[0]]
+    feature_count = len(categories) + len(NUMERIC)
+
+    # Sparse input to XGBoost treats unstored zeros as missing, the JVM scorer needs to know which one it was trained on
+    sample = pd.DataFrame([{
+        "Latitude": 40.7589, "Longitude": -73.9851, "Hour": 15, "Month": 7, "Day": 18, CATEGORICAL: categories[0]
+    }])
+    zeros_are_missing = scipy.sparse.issparse(preprocessor.transform(sample))
+
+    targets = []
+    for name, estimator in zip(TARGETS, regressor.estimators_):
+        booster = estimator.get_booster()
+        if booster.num_features() != feature_count:
+            raise ValueError(f"{name}: booster has {booster.num_features()} features, expected {feature_count}")
+        trees = [flatten_tree(json.loads(t)) for t in booster.get_dump(dump_format="json")]
+        targets.append({"name": name, "base_score": base_score(booster), "trees": trees})
+
+    model = {
+        "format": FORMAT,
+        "model_version": MODEL_VERSION,
+        "categorical_feature": CATEGORICAL,
+        "categories": categories,
+        "numeric_features": NUMERIC,
+        "zeros_are_missing": zeros_are_missing,
+        "targets": targets,
+    }
+
+    os.makedirs(out_dir, exist_ok=True)
+    model_file = os.path.join(out_dir, "xgboost_model_trees.json")
+    with open(model_file, "w") as f:
+        json.dump(model, f)
+
+    # Fixed grid across the borough, every activity and a spread of hours/dates, plus one unknown activity
+    rows = []
+    for activity in categories + ["Unknown activity"]:
+        for lat, lon in [(40.7061, -74.0087), (40.7308, -73.9973), (40.7589, -73.9851), (40.7812, -73.9665), (40.8116, -73.9465)]:
+            for hour, month, day in [(9, 3, 4), (15, 7, 18), (21, 12, 31)]:
+                rows.append({"latitude": lat, "longitude": lon, "hour": hour, "month": month, "day": day,
+                             "cultural_activity_prefered": activity})
+
+    df = pd.DataFrame(rows)[["latitude", "longitude", "hour", "month", "day", "cultural_activity_prefered"]]
+    df.columns = NUMERIC + [CATEGORICAL]
+    preds = np.asarray(pipeline.predict(df), dtype=np.float64)
+
+    parity = {"model_version": MODEL_VERSION, "rows": rows, "predictions": preds.tolist()}
+    parity_file = os.path.join(out_dir, "xgboost_parity_cases.json")
+    with open(parity_file, "w") as f:
+        json.dump(parity, f)
+
+    total_trees = sum(len(t["trees"]) for t in targets)
+    print(f"Exported {total_trees} trees for {len(targets)} targets to {model_file}")
+    print(f"Wrote {len(rows)} parity rows to {parity_file}")
+
+
+if __name__ == "__main__":
+    model_path = sys.argv[1] if len(sys.argv) > 1 else "xgboost_model.pkl"
+    out_dir = sys.argv[2] if len(sys.argv) > 2 else "."
+    export(model_path, out_dir)
@@ -8,12 +8,14 @@
 from fastapi import FastAPI, HTTPException, Request
 from fastapi.responses import JSONResponse
 from fastapi.middleware.cors import CORSMiddleware
+from fastapi.middleware.gzip import GZipMiddleware
 from pydantic import BaseModel, field_validator
 import joblib
 import pandas as pd
 from typing import List
 import numpy as np
 import logging
+import gzip
 from datetime import datetime
 
 # Version is important for ML model output tracking (we had 4 models!!)
@@ -163,6 +165,61 @@ async def validate_content_type(request: Request, call_next):
     response = await call_next(request)
     return response
 
+# The backend gzips big /predict_batch bodies (ml.predict.gzip-requests), so inflate them before anything reads the body
+# Plain ASGI rather than @app.middleware so the decoded body is what every later middleware and the endpoint see
+class GzipRequestMiddleware:
+    def __init__(self, app):
+        self.app = app
+
+    async def __call__(self, scope, receive, send):
+        if scope["type"] != "http":
+            await self.app(scope, receive, send)
+            return
+
+        headers = [(k, v) for k, v in scope["headers"]]
+        encoding = next((v for k, v in headers if k == b"content-encoding"), b"")
+        if encoding.strip().lower() != b"gzip":
+            await self.app(scope, receive, send)
+            return
+
+        body = b""
+        more_body = True
+        while more_body:
+            message = await receive()
+            body += message.get("body", b"")
+            more_body = message.get("more_body", False)
+
+        try:
+            body = gzip.decompress(body)
+        except (OSError, EOFError) as e:
+            logger.error(f"Bad gzip request body: {e}")
+            response = JSONResponse(
+                status_code=400,
+                content={"error": "Bad Request", "detail": "Request body is not valid gzip"}
+            )
+            await response(scope, receive, send)
+            return
+
+        # Drop the encoding and fix the length so the body looks like it arrived uncompressed
+        headers = [(k, v) for k, v in headers if k not in (b"content-encoding", b"content-length")]
+        headers.append((b"content-length", str(len(body)).encode()))
+        scope = dict(scope, headers=headers)
+
+        replayed = False
+        async def replay():
+            nonlocal replayed
+            if not replayed:
+                replayed = True
+                return {"type": "http.request", "body": body, "more_body": False}
+            return await receive()
+
+        await self.app(scope, replay, send)
+
+# Middleware added last runs first, so this wraps validate_content_type above
+app.add_middleware(GzipRequestMiddleware)
+# Gzip responses for clients that send Accept-Encoding: gzip, a 500 row batch answer is tens of KB of JSON
+app.add_middleware(GZipMiddleware, minimum_size=1000)
+
 # Custom handler for error
 @app.exception_handler(ValueError)
 async def value_error_handler(request: Request, exc: ValueError):